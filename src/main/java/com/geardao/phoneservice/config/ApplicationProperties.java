@@ -1,7 +1,11 @@
 package com.geardao.phoneservice.config;
 
+import com.hazelcast.config.InMemoryFormat;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Properties specific to Phoneservice.
  * <p>
@@ -11,4 +15,1208 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
 
+    private final Bulk bulk = new Bulk();
+
+    private final SearchIndexer searchIndexer = new SearchIndexer();
+
+    private final SearchReindex searchReindex = new SearchReindex();
+
+    private final Search search = new Search();
+
+    private final Count count = new Count();
+
+    private final MultiGet multiGet = new MultiGet();
+
+    private final Export export = new Export();
+
+    private final BulkImport bulkImport = new BulkImport();
+
+    private final NearCache nearCache = new NearCache();
+
+    private final CacheTiers cacheTiers = new CacheTiers();
+
+    private final WarmUp warmUp = new WarmUp();
+
+    private final NegativeCache negativeCache = new NegativeCache();
+
+    private final QueryCache queryCache = new QueryCache();
+
+    private final Coalescing coalescing = new Coalescing();
+
+    private final WriteBehind writeBehind = new WriteBehind();
+
+    private final CatalogIndex catalogIndex = new CatalogIndex();
+
+    private final Facets facets = new Facets();
+
+    private final BrandStats brandStats = new BrandStats();
+
+    private final Suggestions suggestions = new Suggestions();
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public SearchIndexer getSearchIndexer() {
+        return searchIndexer;
+    }
+
+    public SearchReindex getSearchReindex() {
+        return searchReindex;
+    }
+
+    public Search getSearch() {
+        return search;
+    }
+
+    public Count getCount() {
+        return count;
+    }
+
+    public MultiGet getMultiGet() {
+        return multiGet;
+    }
+
+    public Export getExport() {
+        return export;
+    }
+
+    public BulkImport getBulkImport() {
+        return bulkImport;
+    }
+
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    public CacheTiers getCacheTiers() {
+        return cacheTiers;
+    }
+
+    public WarmUp getWarmUp() {
+        return warmUp;
+    }
+
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public CatalogIndex getCatalogIndex() {
+        return catalogIndex;
+    }
+
+    public Facets getFacets() {
+        return facets;
+    }
+
+    public BrandStats getBrandStats() {
+        return brandStats;
+    }
+
+    public Suggestions getSuggestions() {
+        return suggestions;
+    }
+
+    public static class Bulk {
+
+        /**
+         * Number of phones written per transaction by the bulk endpoint.
+         */
+        private int chunkSize = 500;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class SearchIndexer {
+
+        /**
+         * Whether the outbox is polled on a schedule; when disabled, it is only drained on demand.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Delay between two polls of the outbox, in milliseconds.
+         */
+        private long pollDelay = 1000;
+
+        /**
+         * Number of outbox entries sent in one Elasticsearch bulk request.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Number of failed attempts after which an outbox entry is left aside.
+         */
+        private int maxAttempts = 10;
+
+        /**
+         * Pause after the first failed bulk request, doubled after each consecutive failure, in milliseconds.
+         */
+        private long initialBackoff = 1000;
+
+        /**
+         * Longest pause between two failed bulk requests, in milliseconds.
+         */
+        private long maxBackoff = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getPollDelay() {
+            return pollDelay;
+        }
+
+        public void setPollDelay(long pollDelay) {
+            this.pollDelay = pollDelay;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public void setInitialBackoff(long initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public long getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(long maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    public static class SearchReindex {
+
+        /**
+         * Number of id ranges read and loaded in parallel.
+         */
+        private int parallelism = 4;
+
+        /**
+         * Number of phones sent in one Elasticsearch bulk request.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * JDBC fetch size of the cursors reading the phone table.
+         */
+        private int fetchSize = 1000;
+
+        /**
+         * Number of replicas of the new index, once loaded.
+         */
+        private int replicas = 1;
+
+        /**
+         * Refresh interval of the new index, once loaded.
+         */
+        private String refreshInterval = "1s";
+
+        /**
+         * Whether the indices previously behind the alias are kept, instead of being deleted.
+         */
+        private boolean keepOldIndices = false;
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+
+        public void setReplicas(int replicas) {
+            this.replicas = replicas;
+        }
+
+        public String getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public void setRefreshInterval(String refreshInterval) {
+            this.refreshInterval = refreshInterval;
+        }
+
+        public boolean isKeepOldIndices() {
+            return keepOldIndices;
+        }
+
+        public void setKeepOldIndices(boolean keepOldIndices) {
+            this.keepOldIndices = keepOldIndices;
+        }
+    }
+
+    public static class Search {
+
+        /**
+         * How long a scroll of /api/_search/phones/_scroll is kept between two batches, in milliseconds.
+         */
+        private long scrollKeepAlive = 60000;
+
+        /**
+         * Whether search queries are Lucene query strings, as before the query language of PhoneSearchQuery;
+         * they let users send wildcard, regular expression and boolean queries which are expensive to run.
+         */
+        private boolean queryString = false;
+
+        public long getScrollKeepAlive() {
+            return scrollKeepAlive;
+        }
+
+        public void setScrollKeepAlive(long scrollKeepAlive) {
+            this.scrollKeepAlive = scrollKeepAlive;
+        }
+
+        public boolean isQueryString() {
+            return queryString;
+        }
+
+        public void setQueryString(boolean queryString) {
+            this.queryString = queryString;
+        }
+    }
+
+    public static class Count {
+
+        /**
+         * How long an exact count of phones is cached, in seconds; writes to phones invalidate it sooner.
+         */
+        private int cacheTimeToLive = 300;
+
+        /**
+         * Maximum number of exact counts cached by each node.
+         */
+        private int cacheMaxSize = 10000;
+
+        /**
+         * Number of phones after which an estimated count stops counting, and tells a lower bound.
+         */
+        private int estimateThreshold = 10000;
+
+        public int getCacheTimeToLive() {
+            return cacheTimeToLive;
+        }
+
+        public void setCacheTimeToLive(int cacheTimeToLive) {
+            this.cacheTimeToLive = cacheTimeToLive;
+        }
+
+        public int getCacheMaxSize() {
+            return cacheMaxSize;
+        }
+
+        public void setCacheMaxSize(int cacheMaxSize) {
+            this.cacheMaxSize = cacheMaxSize;
+        }
+
+        public int getEstimateThreshold() {
+            return estimateThreshold;
+        }
+
+        public void setEstimateThreshold(int estimateThreshold) {
+            this.estimateThreshold = estimateThreshold;
+        }
+    }
+
+    public static class MultiGet {
+
+        /**
+         * Maximum number of ids requested at once from /api/phones/_mget.
+         */
+        private int maxIds = 10000;
+
+        public int getMaxIds() {
+            return maxIds;
+        }
+
+        public void setMaxIds(int maxIds) {
+            this.maxIds = maxIds;
+        }
+    }
+
+    public static class Export {
+
+        /**
+         * JDBC fetch size of the cursor reading the phones exported by /api/phones/_export.
+         */
+        private int fetchSize = 1000;
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+    }
+
+    public static class BulkImport {
+
+        /**
+         * Number of phones written per transaction, and indexed per Elasticsearch bulk request, by an import.
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * Number of chunks buffered between two stages of an import, before the earlier stage waits.
+         */
+        private int queueCapacity = 4;
+
+        /**
+         * Maximum number of rejected rows reported by the status of an import; the further ones are only counted.
+         */
+        private int maxRejectedRows = 1000;
+
+        /**
+         * Maximum number of characters of a CSV record or an NDJSON line.
+         */
+        private int maxRowLength = 65536;
+
+        /**
+         * Maximum number of imports running at once in each node.
+         */
+        private int maxConcurrentJobs = 2;
+
+        /**
+         * How long the status of an import is kept, in seconds.
+         */
+        private int jobTimeToLive = 86400;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getMaxRejectedRows() {
+            return maxRejectedRows;
+        }
+
+        public void setMaxRejectedRows(int maxRejectedRows) {
+            this.maxRejectedRows = maxRejectedRows;
+        }
+
+        public int getMaxRowLength() {
+            return maxRowLength;
+        }
+
+        public void setMaxRowLength(int maxRowLength) {
+            this.maxRowLength = maxRowLength;
+        }
+
+        public int getMaxConcurrentJobs() {
+            return maxConcurrentJobs;
+        }
+
+        public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+            this.maxConcurrentJobs = maxConcurrentJobs;
+        }
+
+        public int getJobTimeToLive() {
+            return jobTimeToLive;
+        }
+
+        public void setJobTimeToLive(int jobTimeToLive) {
+            this.jobTimeToLive = jobTimeToLive;
+        }
+    }
+
+    public static class NearCache {
+
+        /**
+         * Whether each node keeps a near cache of the second-level cache regions of the domain entities.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of entries of each near cache; the least frequently used entries are evicted first.
+         */
+        private int maxSize = 10000;
+
+        /**
+         * How long an entry is kept in a near cache, in seconds; 0 keeps it until it is invalidated or evicted.
+         */
+        private int timeToLiveSeconds = 3600;
+
+        /**
+         * How long an entry which is not read is kept in a near cache, in seconds; 0 keeps it regardless.
+         */
+        private int maxIdleSeconds = 0;
+
+        /**
+         * Format of the near cache entries: OBJECT saves deserializing them on each hit, BINARY saves memory.
+         */
+        private InMemoryFormat inMemoryFormat = InMemoryFormat.OBJECT;
+
+        /**
+         * Whether the near caches are filled from the cluster when the application has started.
+         */
+        private boolean preload = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getTimeToLiveSeconds() {
+            return timeToLiveSeconds;
+        }
+
+        public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+            this.timeToLiveSeconds = timeToLiveSeconds;
+        }
+
+        public int getMaxIdleSeconds() {
+            return maxIdleSeconds;
+        }
+
+        public void setMaxIdleSeconds(int maxIdleSeconds) {
+            this.maxIdleSeconds = maxIdleSeconds;
+        }
+
+        public InMemoryFormat getInMemoryFormat() {
+            return inMemoryFormat;
+        }
+
+        public void setInMemoryFormat(InMemoryFormat inMemoryFormat) {
+            this.inMemoryFormat = inMemoryFormat;
+        }
+
+        public boolean isPreload() {
+            return preload;
+        }
+
+        public void setPreload(boolean preload) {
+            this.preload = preload;
+        }
+    }
+
+    public static class CacheTiers {
+
+        /**
+         * Policy of the caches which have none of their own.
+         */
+        private final TierPolicy defaults = new TierPolicy();
+
+        /**
+         * Policies of the caches, by cache name.
+         */
+        private final Map<String, TierPolicy> caches = new HashMap<>();
+
+        public TierPolicy getDefaults() {
+            return defaults;
+        }
+
+        public Map<String, TierPolicy> getCaches() {
+            return caches;
+        }
+
+        /**
+         * @param cacheName the name of a cache
+         * @return the policy of the cache, or the default policy
+         */
+        public TierPolicy getPolicy(String cacheName) {
+            return caches.getOrDefault(cacheName, defaults);
+        }
+    }
+
+    public static class TierPolicy {
+
+        public enum Tiers {
+            LOCAL, REMOTE, LOCAL_AND_REMOTE
+        }
+
+        /**
+         * Tiers of the cache: a local cache in each node, a Hazelcast map shared by the cluster, or both.
+         */
+        private Tiers tiers = Tiers.LOCAL_AND_REMOTE;
+
+        /**
+         * Maximum number of entries of the local cache of each node; the least recently used entries are evicted first.
+         */
+        private int localMaxSize = 1000;
+
+        /**
+         * How long an entry is kept in the local cache, in seconds; 0 keeps it until it is invalidated or evicted.
+         */
+        private int localTimeToLiveSeconds = 60;
+
+        public Tiers getTiers() {
+            return tiers;
+        }
+
+        public void setTiers(Tiers tiers) {
+            this.tiers = tiers;
+        }
+
+        public boolean isLocal() {
+            return tiers != Tiers.REMOTE;
+        }
+
+        public boolean isRemote() {
+            return tiers != Tiers.LOCAL;
+        }
+
+        public int getLocalMaxSize() {
+            return localMaxSize;
+        }
+
+        public void setLocalMaxSize(int localMaxSize) {
+            this.localMaxSize = localMaxSize;
+        }
+
+        public int getLocalTimeToLiveSeconds() {
+            return localTimeToLiveSeconds;
+        }
+
+        public void setLocalTimeToLiveSeconds(int localTimeToLiveSeconds) {
+            this.localTimeToLiveSeconds = localTimeToLiveSeconds;
+        }
+    }
+
+    public static class WarmUp {
+
+        /**
+         * Whether the hottest phones are loaded in the caches before the instance is UP in Eureka.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Time after which the instance is UP in Eureka even if the warm-up has not finished, in seconds.
+         */
+        private int timeoutSeconds = 120;
+
+        /**
+         * Maximum number of phones loaded in the caches.
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * JPQL query of the ids of the phones to load after the most accessed ones, in order of preference,
+         * or empty to only load the most accessed ones.
+         */
+        private String query = "";
+
+        /**
+         * Number of JDBC connections opened before the instance is UP.
+         */
+        private int jdbcConnections = 4;
+
+        /**
+         * Number of distinct phones whose accesses are counted, by each node and in the cluster.
+         */
+        private int trackedIds = 10000;
+
+        /**
+         * How long the access count of a phone is kept after its last access, in seconds.
+         */
+        private int accessTimeToLive = 86400;
+
+        /**
+         * Delay between two merges of the accesses counted by a node into the cluster, in milliseconds.
+         */
+        private long accessFlushDelay = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTimeoutSeconds() {
+            return timeoutSeconds;
+        }
+
+        public void setTimeoutSeconds(int timeoutSeconds) {
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public void setQuery(String query) {
+            this.query = query;
+        }
+
+        public int getJdbcConnections() {
+            return jdbcConnections;
+        }
+
+        public void setJdbcConnections(int jdbcConnections) {
+            this.jdbcConnections = jdbcConnections;
+        }
+
+        public int getTrackedIds() {
+            return trackedIds;
+        }
+
+        public void setTrackedIds(int trackedIds) {
+            this.trackedIds = trackedIds;
+        }
+
+        public int getAccessTimeToLive() {
+            return accessTimeToLive;
+        }
+
+        public void setAccessTimeToLive(int accessTimeToLive) {
+            this.accessTimeToLive = accessTimeToLive;
+        }
+
+        public long getAccessFlushDelay() {
+            return accessFlushDelay;
+        }
+
+        public void setAccessFlushDelay(long accessFlushDelay) {
+            this.accessFlushDelay = accessFlushDelay;
+        }
+    }
+
+    public static class NegativeCache {
+
+        /**
+         * Whether the ids of the phones which were not found are cached, to answer them without the database.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long an id is known to be missing, in seconds.
+         */
+        private int timeToLive = 30;
+
+        /**
+         * Maximum number of missing ids cached by each node.
+         */
+        private int maxSize = 100000;
+
+        /**
+         * Whether each node keeps a Bloom filter of the ids of the phones, which tells most missing ids at once.
+         */
+        private boolean bloomFilter = false;
+
+        /**
+         * Number of bits of the Bloom filter: 10 bits per phone give about 1% of false positives.
+         */
+        private long bloomBits = 16777216;
+
+        /**
+         * Number of bits of the Bloom filter set by each id.
+         */
+        private int bloomHashes = 7;
+
+        /**
+         * Delay between two rebuilds of the Bloom filter from the database, which drops the deleted phones,
+         * in milliseconds.
+         */
+        private long bloomRebuildDelay = 3600000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public boolean isBloomFilter() {
+            return bloomFilter;
+        }
+
+        public void setBloomFilter(boolean bloomFilter) {
+            this.bloomFilter = bloomFilter;
+        }
+
+        public long getBloomBits() {
+            return bloomBits;
+        }
+
+        public void setBloomBits(long bloomBits) {
+            this.bloomBits = bloomBits;
+        }
+
+        public int getBloomHashes() {
+            return bloomHashes;
+        }
+
+        public void setBloomHashes(int bloomHashes) {
+            this.bloomHashes = bloomHashes;
+        }
+
+        public long getBloomRebuildDelay() {
+            return bloomRebuildDelay;
+        }
+
+        public void setBloomRebuildDelay(long bloomRebuildDelay) {
+            this.bloomRebuildDelay = bloomRebuildDelay;
+        }
+    }
+
+    public static class QueryCache {
+
+        /**
+         * Whether the ids and count of the pages of phones matching criteria are cached.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long a page of results is cached, in seconds; writes to phones invalidate it sooner.
+         */
+        private int timeToLive = 300;
+
+        /**
+         * Maximum number of pages of results cached by each node.
+         */
+        private int maxSize = 10000;
+
+        /**
+         * Size above which pages of results are not cached.
+         */
+        private int maxPageSize = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxPageSize() {
+            return maxPageSize;
+        }
+
+        public void setMaxPageSize(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+        }
+    }
+
+    public static class Coalescing {
+
+        /**
+         * Whether identical concurrent reads of phones on a node share one read of the database.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Whether identical reads which miss the shared caches are also serialized across the cluster,
+         * so that only one node reads the database and the others find the entry it cached.
+         */
+        private boolean cluster = false;
+
+        /**
+         * How long a read waits for an identical read in progress, in milliseconds, before reading on its own.
+         */
+        private long timeout = 5000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isCluster() {
+            return cluster;
+        }
+
+        public void setCluster(boolean cluster) {
+            this.cluster = cluster;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class WriteBehind {
+
+        /**
+         * Whether updates of phones are written to a Hazelcast map, and stored in the database later.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Delay after which an update is stored in the database, in seconds.
+         */
+        private int writeDelay = 5;
+
+        /**
+         * Maximum number of updates stored in the database at once.
+         */
+        private int writeBatchSize = 500;
+
+        /**
+         * How long a phone which is neither read nor updated stays in the map, in seconds.
+         */
+        private int maxIdle = 3600;
+
+        /**
+         * Maximum number of phones in the map, per node.
+         */
+        private int maxSize = 100000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getWriteDelay() {
+            return writeDelay;
+        }
+
+        public void setWriteDelay(int writeDelay) {
+            this.writeDelay = writeDelay;
+        }
+
+        public int getWriteBatchSize() {
+            return writeBatchSize;
+        }
+
+        public void setWriteBatchSize(int writeBatchSize) {
+            this.writeBatchSize = writeBatchSize;
+        }
+
+        public int getMaxIdle() {
+            return maxIdle;
+        }
+
+        public void setMaxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class CatalogIndex {
+
+        /**
+         * Whether each node keeps the phones in memory, column by column, to serve the queries by criteria.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Delay between the checks of the in-memory phones against the database, in milliseconds.
+         */
+        private long checkDelay = 300000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getCheckDelay() {
+            return checkDelay;
+        }
+
+        public void setCheckDelay(long checkDelay) {
+            this.checkDelay = checkDelay;
+        }
+    }
+
+    public static class Facets {
+
+        /**
+         * Width of the buckets of the price histogram, when the request does not give one.
+         */
+        private long priceInterval = 100;
+
+        /**
+         * Maximum number of buckets of the price histogram, from the minimum to the maximum price of the phones:
+         * requests with a smaller interval are rejected.
+         */
+        private int maxBuckets = 1000;
+
+        /**
+         * Number of brands counted, when the request does not give one.
+         */
+        private int brands = 20;
+
+        /**
+         * Maximum number of brands a request can ask for.
+         */
+        private int maxBrands = 100;
+
+        /**
+         * How long facets are cached, in seconds; any write to phones makes them stale before.
+         */
+        private int timeToLive = 300;
+
+        /**
+         * Maximum number of cached facets, per node.
+         */
+        private int maxSize = 10000;
+
+        public long getPriceInterval() {
+            return priceInterval;
+        }
+
+        public void setPriceInterval(long priceInterval) {
+            this.priceInterval = priceInterval;
+        }
+
+        public int getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        public int getBrands() {
+            return brands;
+        }
+
+        public void setBrands(int brands) {
+            this.brands = brands;
+        }
+
+        public int getMaxBrands() {
+            return maxBrands;
+        }
+
+        public void setMaxBrands(int maxBrands) {
+            this.maxBrands = maxBrands;
+        }
+
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class BrandStats {
+
+        /**
+         * Delay between the checks of the brand statistics against the phones, in milliseconds.
+         */
+        private long checkDelay = 3600000;
+
+        public long getCheckDelay() {
+            return checkDelay;
+        }
+
+        public void setCheckDelay(long checkDelay) {
+            this.checkDelay = checkDelay;
+        }
+    }
+
+    public static class Suggestions {
+
+        /**
+         * Whether each node keeps the names and brands of the phones in memory, to complete the prefixes typed.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Number of completions returned, when the request does not give one.
+         */
+        private int limit = 10;
+
+        /**
+         * Maximum number of completions a request can ask for.
+         */
+        private int maxLimit = 50;
+
+        /**
+         * Delay between the checks of the in-memory names and brands against the database, in milliseconds.
+         */
+        private long checkDelay = 300000;
+
+        /**
+         * File in which the names and brands are saved, to load them faster at startup; none if empty.
+         */
+        private String snapshotFile = "";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void setLimit(int limit) {
+            this.limit = limit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public long getCheckDelay() {
+            return checkDelay;
+        }
+
+        public void setCheckDelay(long checkDelay) {
+            this.checkDelay = checkDelay;
+        }
+
+        public String getSnapshotFile() {
+            return snapshotFile;
+        }
+
+        public void setSnapshotFile(String snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+    }
 }
@@ -1,5 +1,15 @@
 package com.geardao.phoneservice.config;
 
+import com.geardao.phoneservice.config.cache.DomainSerializers;
+import com.geardao.phoneservice.config.cache.TieredCacheManager;
+import com.geardao.phoneservice.service.PhoneAccessFrequencies;
+import com.geardao.phoneservice.service.PhoneExistence;
+import com.geardao.phoneservice.service.PhoneFacetService;
+import com.geardao.phoneservice.service.PhoneQueryService;
+import com.geardao.phoneservice.service.PhoneWriteBehind;
+
+import com.codahale.metrics.MetricRegistry;
+
 import io.github.jhipster.config.JHipsterConstants;
 import io.github.jhipster.config.JHipsterProperties;
 
@@ -58,14 +68,17 @@ public class CacheConfiguration {
     }
 
     @Bean
-    public CacheManager cacheManager(HazelcastInstance hazelcastInstance) {
+    public CacheManager cacheManager(HazelcastInstance hazelcastInstance, ApplicationProperties applicationProperties,
+                                     MetricRegistry metricRegistry) {
         log.debug("Starting HazelcastCacheManager");
-        CacheManager cacheManager = new com.hazelcast.spring.cache.HazelcastCacheManager(hazelcastInstance);
+        CacheManager remoteCacheManager = new com.hazelcast.spring.cache.HazelcastCacheManager(hazelcastInstance);
+        // Each cache keeps the entries read by this node in front of its Hazelcast map, see application.cache-tiers
+        CacheManager cacheManager = new TieredCacheManager(remoteCacheManager, hazelcastInstance, applicationProperties, metricRegistry);
         return cacheManager;
     }
 
     @Bean
-    public HazelcastInstance hazelcastInstance(JHipsterProperties jHipsterProperties) {
+    public HazelcastInstance hazelcastInstance(JHipsterProperties jHipsterProperties, ApplicationProperties applicationProperties) {
         log.debug("Configuring Hazelcast");
         HazelcastInstance hazelCastInstance = Hazelcast.getHazelcastInstanceByName("phoneservice");
         if (hazelCastInstance != null) {
@@ -108,7 +121,14 @@ public class CacheConfiguration {
 
         // Full reference is available at: http://docs.hazelcast.org/docs/management-center/3.9/manual/html/Deploying_and_Starting.html
         config.setManagementCenterConfig(initializeDefaultManagementCenterConfig(jHipsterProperties));
-        config.getMapConfigs().put("com.geardao.phoneservice.domain.*", initializeDomainMapConfig(jHipsterProperties));
+        config.getMapConfigs().put("com.geardao.phoneservice.domain.*", initializeDomainMapConfig(jHipsterProperties, applicationProperties));
+        config.getMapConfigs().put(PhoneQueryService.COUNTS_MAP_NAME, initializeCountsMapConfig(applicationProperties));
+        config.getMapConfigs().put(PhoneAccessFrequencies.FREQUENCIES_MAP_NAME, initializeAccessFrequenciesMapConfig(applicationProperties));
+        config.getMapConfigs().put(PhoneExistence.MISSING_MAP_NAME, initializeMissingIdsMapConfig(applicationProperties));
+        config.getMapConfigs().put(PhoneQueryService.RESULTS_MAP_NAME, initializeQueryResultsMapConfig(applicationProperties));
+        config.getMapConfigs().put(PhoneWriteBehind.MAP_NAME, initializeWriteBehindMapConfig(applicationProperties));
+        config.getMapConfigs().put(PhoneFacetService.FACETS_MAP_NAME, initializeFacetsMapConfig(applicationProperties));
+        DomainSerializers.register(config.getSerializationConfig());
         return Hazelcast.newHazelcastInstance(config);
     }
 
@@ -150,9 +170,92 @@ public class CacheConfiguration {
         return mapConfig;
     }
 
-    private MapConfig initializeDomainMapConfig(JHipsterProperties jHipsterProperties) {
+    private MapConfig initializeDomainMapConfig(JHipsterProperties jHipsterProperties, ApplicationProperties applicationProperties) {
         MapConfig mapConfig = new MapConfig();
         mapConfig.setTimeToLiveSeconds(jHipsterProperties.getCache().getHazelcast().getTimeToLiveSeconds());
+        if (applicationProperties.getNearCache().isEnabled()) {
+            mapConfig.setNearCacheConfig(initializeDomainNearCacheConfig(applicationProperties.getNearCache()));
+        }
+        return mapConfig;
+    }
+
+    /*
+        The second-level cache entries of an entity are spread over the partitions of the cluster, so most
+        hits would be a network hop to the member owning the entry: the near cache keeps a copy of the entries
+        read by this member. Updates and evictions of an entry invalidate its copies on every member.
+        The pre-loader of Hazelcast only works on clients, see DomainNearCaches for the preload of members.
+     */
+    private NearCacheConfig initializeDomainNearCacheConfig(ApplicationProperties.NearCache nearCache) {
+        NearCacheConfig nearCacheConfig = new NearCacheConfig();
+        nearCacheConfig.setInvalidateOnChange(true);
+        nearCacheConfig.setInMemoryFormat(nearCache.getInMemoryFormat());
+        nearCacheConfig.setTimeToLiveSeconds(nearCache.getTimeToLiveSeconds());
+        nearCacheConfig.setMaxIdleSeconds(nearCache.getMaxIdleSeconds());
+        nearCacheConfig.setEvictionConfig(new EvictionConfig(nearCache.getMaxSize(),
+            EvictionConfig.MaxSizePolicy.ENTRY_COUNT, EvictionPolicy.LFU));
+        return nearCacheConfig;
+    }
+
+    private MapConfig initializeCountsMapConfig(ApplicationProperties applicationProperties) {
+        MapConfig mapConfig = new MapConfig();
+        mapConfig.setBackupCount(0);
+        mapConfig.setTimeToLiveSeconds(applicationProperties.getCount().getCacheTimeToLive());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(applicationProperties.getCount().getCacheMaxSize(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        return mapConfig;
+    }
+
+    private MapConfig initializeAccessFrequenciesMapConfig(ApplicationProperties applicationProperties) {
+        MapConfig mapConfig = new MapConfig();
+        // Each merge of the counts of a phone resets its time to live
+        mapConfig.setTimeToLiveSeconds(applicationProperties.getWarmUp().getAccessTimeToLive());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LFU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(applicationProperties.getWarmUp().getTrackedIds(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        return mapConfig;
+    }
+
+    private MapConfig initializeMissingIdsMapConfig(ApplicationProperties applicationProperties) {
+        MapConfig mapConfig = new MapConfig();
+        mapConfig.setBackupCount(0);
+        mapConfig.setTimeToLiveSeconds(applicationProperties.getNegativeCache().getTimeToLive());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(applicationProperties.getNegativeCache().getMaxSize(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        return mapConfig;
+    }
+
+    private MapConfig initializeQueryResultsMapConfig(ApplicationProperties applicationProperties) {
+        MapConfig mapConfig = new MapConfig();
+        mapConfig.setBackupCount(0);
+        mapConfig.setTimeToLiveSeconds(applicationProperties.getQueryCache().getTimeToLive());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(applicationProperties.getQueryCache().getMaxSize(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        return mapConfig;
+    }
+
+    private MapConfig initializeWriteBehindMapConfig(ApplicationProperties applicationProperties) {
+        ApplicationProperties.WriteBehind writeBehind = applicationProperties.getWriteBehind();
+        MapConfig mapConfig = new MapConfig();
+        // The pending updates are backed up with the phones
+        mapConfig.setBackupCount(1);
+        mapConfig.setMaxIdleSeconds(writeBehind.getMaxIdle());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(writeBehind.getMaxSize(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
+        MapStoreConfig mapStoreConfig = new MapStoreConfig();
+        mapStoreConfig.setEnabled(true);
+        mapStoreConfig.setImplementation(new PhoneWriteBehind.Store());
+        mapStoreConfig.setWriteDelaySeconds(writeBehind.getWriteDelay());
+        mapStoreConfig.setWriteBatchSize(writeBehind.getWriteBatchSize());
+        mapStoreConfig.setWriteCoalescing(true);
+        mapConfig.setMapStoreConfig(mapStoreConfig);
+        return mapConfig;
+    }
+
+    private MapConfig initializeFacetsMapConfig(ApplicationProperties applicationProperties) {
+        MapConfig mapConfig = new MapConfig();
+        mapConfig.setBackupCount(0);
+        mapConfig.setTimeToLiveSeconds(applicationProperties.getFacets().getTimeToLive());
+        mapConfig.setEvictionPolicy(EvictionPolicy.LRU);
+        mapConfig.setMaxSizeConfig(new MaxSizeConfig(applicationProperties.getFacets().getMaxSize(), MaxSizeConfig.MaxSizePolicy.PER_NODE));
         return mapConfig;
     }
 }
@@ -0,0 +1,31 @@
+package com.geardao.phoneservice.config;
+
+import com.geardao.phoneservice.service.CacheWarmUp;
+import com.netflix.appinfo.InstanceInfo;
+import org.springframework.boot.actuate.health.HealthAggregator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.netflix.eureka.EurekaHealthCheckHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Eureka status of the instance.
+ * <p>
+ * When the Eureka health check is enabled, the status of the instance is its health, which would make it
+ * UP before the caches are warm: this handler replaces the one of Spring Cloud, and keeps the instance
+ * STARTING until the warm-up has finished, see {@link CacheWarmUp}.
+ */
+@Configuration
+@ConditionalOnProperty("eureka.client.healthcheck.enabled")
+public class DiscoveryConfiguration {
+
+    @Bean
+    public EurekaHealthCheckHandler eurekaHealthCheckHandler(HealthAggregator healthAggregator, CacheWarmUp cacheWarmUp) {
+        return new EurekaHealthCheckHandler(healthAggregator) {
+            @Override
+            public InstanceInfo.InstanceStatus getStatus(InstanceInfo.InstanceStatus currentStatus) {
+                return cacheWarmUp.isWarm() ? super.getStatus(currentStatus) : InstanceInfo.InstanceStatus.STARTING;
+            }
+        };
+    }
+}
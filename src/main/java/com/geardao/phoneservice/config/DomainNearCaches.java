@@ -0,0 +1,150 @@
+package com.geardao.phoneservice.config;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Partition;
+import com.hazelcast.monitor.NearCacheStats;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Metrics and preload of the near caches of the second-level cache regions, see {@link CacheConfiguration}.
+ * <p>
+ * The statistics of each near cache are local to this member, and are registered under
+ * hazelcast.near-cache.[region].
+ */
+@Component
+public class DomainNearCaches {
+
+    private static final String METRIC_PREFIX = "hazelcast.near-cache";
+
+    private static final int PRELOAD_BATCH_SIZE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(DomainNearCaches.class);
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final MetricRegistry metricRegistry;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.NearCache properties;
+
+    public DomainNearCaches(HazelcastInstance hazelcastInstance, EntityManagerFactory entityManagerFactory,
+                            MetricRegistry metricRegistry, @Qualifier("taskExecutor") Executor taskExecutor,
+                            ApplicationProperties applicationProperties) {
+        this.hazelcastInstance = hazelcastInstance;
+        this.entityManagerFactory = entityManagerFactory;
+        this.metricRegistry = metricRegistry;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getNearCache();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        getRegionNames().forEach(this::registerMetrics);
+    }
+
+    void registerMetrics(String regionName) {
+        IMap<Object, Object> map = hazelcastInstance.getMap(regionName);
+        String prefix = MetricRegistry.name(METRIC_PREFIX, regionName);
+        metricRegistry.register(prefix + ".hits", (Gauge<Long>) () -> stats(map).getHits());
+        metricRegistry.register(prefix + ".misses", (Gauge<Long>) () -> stats(map).getMisses());
+        metricRegistry.register(prefix + ".hit-ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                NearCacheStats stats = stats(map);
+                return Ratio.of(stats.getHits(), stats.getHits() + stats.getMisses());
+            }
+        });
+        metricRegistry.register(prefix + ".entries", (Gauge<Long>) () -> stats(map).getOwnedEntryCount());
+        metricRegistry.register(prefix + ".memory", (Gauge<Long>) () -> stats(map).getOwnedEntryMemoryCost());
+        metricRegistry.register(prefix + ".evictions", (Gauge<Long>) () -> stats(map).getEvictions());
+        metricRegistry.register(prefix + ".expirations", (Gauge<Long>) () -> stats(map).getExpirations());
+    }
+
+    /**
+     * Fill the near caches from the cluster, in the background, once the application has started.
+     * <p>
+     * The entries owned by this member are skipped, as they are read locally anyway.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!properties.isEnabled() || !properties.isPreload()) {
+            return;
+        }
+        Set<String> regionNames = getRegionNames();
+        if (!regionNames.isEmpty()) {
+            taskExecutor.execute(() -> regionNames.forEach(this::preload));
+        }
+    }
+
+    void preload(String regionName) {
+        try {
+            IMap<Object, Object> map = hazelcastInstance.getMap(regionName);
+            Set<Object> batch = new HashSet<>();
+            int loaded = 0;
+            for (Object key : map.keySet()) {
+                if (loaded + batch.size() >= properties.getMaxSize()) {
+                    break;
+                }
+                Partition partition = hazelcastInstance.getPartitionService().getPartition(key);
+                if (partition.getOwner() != null && partition.getOwner().localMember()) {
+                    continue;
+                }
+                batch.add(key);
+                if (batch.size() == PRELOAD_BATCH_SIZE) {
+                    loaded += map.getAll(batch).size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                loaded += map.getAll(batch).size();
+            }
+            log.info("Preloaded {} entries in the near cache of {}", loaded, regionName);
+        } catch (RuntimeException e) {
+            log.warn("Could not preload the near cache of {}: {}", regionName, e.getMessage());
+        }
+    }
+
+    private NearCacheStats stats(IMap<Object, Object> map) {
+        return map.getLocalMapStats().getNearCacheStats();
+    }
+
+    /**
+     * @return the names of the second-level cache regions which have a near cache
+     */
+    private Set<String> getRegionNames() {
+        Set<String> regionNames = new TreeSet<>();
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        for (EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+            if (!persister.hasCache()) {
+                continue;
+            }
+            String regionName = persister.getCacheAccessStrategy().getRegion().getName();
+            if (hazelcastInstance.getConfig().findMapConfig(regionName).getNearCacheConfig() != null) {
+                regionNames.add(regionName);
+            }
+        }
+        return regionNames;
+    }
+}
@@ -0,0 +1,168 @@
+package com.geardao.phoneservice.config;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.hazelcast.core.DistributedObject;
+import com.hazelcast.core.DistributedObjectEvent;
+import com.hazelcast.core.DistributedObjectListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.monitor.LocalMapStats;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of the Hibernate statistics and of the Hazelcast maps, registered in the MetricRegistry of
+ * {@link MetricsConfiguration}, so that they are published under /management/metrics and JMX.
+ * <p>
+ * The Hibernate statistics are registered under hibernate, if hibernate.generate_statistics is set: globally,
+ * by second-level cache region under hibernate.cache.[region], and by entity under hibernate.entities.[entity].
+ * Their counters are atomic, and are only read when the metrics are.
+ * <p>
+ * The statistics of the entries owned by this member of each map are registered under hazelcast.map.[name],
+ * as the maps are created; the near caches are under hazelcast.near-cache, see {@link DomainNearCaches}.
+ * As computing them reads all the partitions of the map, they are computed at most once per
+ * {@link #MAP_STATS_TIMEOUT_SECONDS} for all the gauges of a map.
+ */
+@Component
+public class PersistenceMetrics {
+
+    private static final String HIBERNATE_PREFIX = "hibernate";
+
+    private static final String MAP_PREFIX = "hazelcast.map";
+
+    private static final int MAP_STATS_TIMEOUT_SECONDS = 5;
+
+    private final Logger log = LoggerFactory.getLogger(PersistenceMetrics.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final MetricRegistry metricRegistry;
+
+    public PersistenceMetrics(EntityManagerFactory entityManagerFactory, HazelcastInstance hazelcastInstance,
+                              MetricRegistry metricRegistry) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.hazelcastInstance = hazelcastInstance;
+        this.metricRegistry = metricRegistry;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        if (statistics.isStatisticsEnabled()) {
+            registerHibernateMetrics(statistics);
+        } else {
+            log.info("Hibernate statistics are disabled, set hibernate.generate_statistics to publish them");
+        }
+        hazelcastInstance.addDistributedObjectListener(new DistributedObjectListener() {
+            @Override
+            public void distributedObjectCreated(DistributedObjectEvent event) {
+                registerMapMetrics(event.getDistributedObject());
+            }
+
+            @Override
+            public void distributedObjectDestroyed(DistributedObjectEvent event) {
+                metricRegistry.removeMatching((name, metric) -> name.startsWith(MetricRegistry.name(MAP_PREFIX, (String) event.getObjectName()) + "."));
+            }
+        });
+        hazelcastInstance.getDistributedObjects().forEach(this::registerMapMetrics);
+    }
+
+    private void registerHibernateMetrics(Statistics statistics) {
+        register(HIBERNATE_PREFIX, "sessions.opened", statistics::getSessionOpenCount);
+        register(HIBERNATE_PREFIX, "transactions", statistics::getTransactionCount);
+        register(HIBERNATE_PREFIX, "statements.prepared", statistics::getPrepareStatementCount);
+        register(HIBERNATE_PREFIX, "flushes", statistics::getFlushCount);
+        register(HIBERNATE_PREFIX, "optimistic-failures", statistics::getOptimisticFailureCount);
+        register(HIBERNATE_PREFIX, "queries.executions", statistics::getQueryExecutionCount);
+        register(HIBERNATE_PREFIX, "queries.max-time", statistics::getQueryExecutionMaxTime);
+        metricRegistry.register(MetricRegistry.name(HIBERNATE_PREFIX, "queries.slowest"),
+            (Gauge<String>) statistics::getQueryExecutionMaxTimeQueryString);
+        register(HIBERNATE_PREFIX, "entities.loads", statistics::getEntityLoadCount);
+        register(HIBERNATE_PREFIX, "entities.fetches", statistics::getEntityFetchCount);
+        register(HIBERNATE_PREFIX, "entities.inserts", statistics::getEntityInsertCount);
+        register(HIBERNATE_PREFIX, "entities.updates", statistics::getEntityUpdateCount);
+        register(HIBERNATE_PREFIX, "entities.deletes", statistics::getEntityDeleteCount);
+        register(HIBERNATE_PREFIX, "cache.hits", statistics::getSecondLevelCacheHitCount);
+        register(HIBERNATE_PREFIX, "cache.misses", statistics::getSecondLevelCacheMissCount);
+        register(HIBERNATE_PREFIX, "cache.puts", statistics::getSecondLevelCachePutCount);
+
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            String prefix = MetricRegistry.name(HIBERNATE_PREFIX, "cache", regionName);
+            SecondLevelCacheStatistics region = statistics.getSecondLevelCacheStatistics(regionName);
+            register(prefix, "hits", region::getHitCount);
+            register(prefix, "misses", region::getMissCount);
+            register(prefix, "puts", region::getPutCount);
+            metricRegistry.register(MetricRegistry.name(prefix, "hit-ratio"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(region.getHitCount(), region.getHitCount() + region.getMissCount());
+                }
+            });
+        }
+        for (String entityName : statistics.getEntityNames()) {
+            String prefix = MetricRegistry.name(HIBERNATE_PREFIX, "entities", entityName);
+            EntityStatistics entity = statistics.getEntityStatistics(entityName);
+            register(prefix, "loads", entity::getLoadCount);
+            register(prefix, "fetches", entity::getFetchCount);
+            register(prefix, "inserts", entity::getInsertCount);
+            register(prefix, "updates", entity::getUpdateCount);
+            register(prefix, "deletes", entity::getDeleteCount);
+            register(prefix, "optimistic-failures", entity::getOptimisticFailureCount);
+        }
+    }
+
+    private void registerMapMetrics(DistributedObject distributedObject) {
+        if (!(distributedObject instanceof IMap)) {
+            return;
+        }
+        IMap<?, ?> map = (IMap<?, ?>) distributedObject;
+        String prefix = MetricRegistry.name(MAP_PREFIX, map.getName());
+        if (metricRegistry.getNames().contains(prefix + ".owned-entries")) {
+            return;
+        }
+        CachedGauge<LocalMapStats> stats = new CachedGauge<LocalMapStats>(MAP_STATS_TIMEOUT_SECONDS, TimeUnit.SECONDS) {
+            @Override
+            protected LocalMapStats loadValue() {
+                return map.getLocalMapStats();
+            }
+        };
+        registerMapStat(prefix, "owned-entries", stats, LocalMapStats::getOwnedEntryCount);
+        registerMapStat(prefix, "owned-memory", stats, LocalMapStats::getOwnedEntryMemoryCost);
+        registerMapStat(prefix, "backup-entries", stats, LocalMapStats::getBackupEntryCount);
+        registerMapStat(prefix, "backup-memory", stats, LocalMapStats::getBackupEntryMemoryCost);
+        registerMapStat(prefix, "hits", stats, LocalMapStats::getHits);
+        registerMapStat(prefix, "gets", stats, LocalMapStats::getGetOperationCount);
+        registerMapStat(prefix, "puts", stats, LocalMapStats::getPutOperationCount);
+        registerMapStat(prefix, "removes", stats, LocalMapStats::getRemoveOperationCount);
+        registerMapStat(prefix, "max-get-latency", stats, LocalMapStats::getMaxGetLatency);
+        registerMapStat(prefix, "max-put-latency", stats, LocalMapStats::getMaxPutLatency);
+    }
+
+    private void register(String prefix, String name, Gauge<Long> gauge) {
+        metricRegistry.register(MetricRegistry.name(prefix, name), gauge);
+    }
+
+    private void registerMapStat(String prefix, String name, CachedGauge<LocalMapStats> stats, ToLongFunction<LocalMapStats> stat) {
+        try {
+            register(prefix, name, () -> stat.applyAsLong(stats.getValue()));
+        } catch (IllegalArgumentException e) {
+            // Registered meanwhile, by the listener and by the initial registration
+            log.debug("The metric {}.{} is already registered", prefix, name);
+        }
+    }
+}
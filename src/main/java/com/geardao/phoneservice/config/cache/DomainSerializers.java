@@ -0,0 +1,263 @@
+package com.geardao.phoneservice.config.cache;
+
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.PhoneQueryService;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Hazelcast serializers of the phones and of the cached query results, which are otherwise written with Java
+ * serialization, along with their class descriptors.
+ * <p>
+ * The write-behind map holds {@link PhoneDTO}s and the query results map holds
+ * {@link PhoneQueryService.CachedResult}s. The keys of these maps, like those of the other maps and of the
+ * Spring caches, are ids and strings such as {@link com.geardao.phoneservice.service.dto.PhoneCriteria#toCacheKey()},
+ * which Hazelcast already writes natively. No map holds {@link Phone}s: the second-level cache stores the
+ * entries of Hibernate, so its serializer only applies to phones put in a map by hand.
+ * <p>
+ * Each record starts with a format version, so that fields can be added while members running the former
+ * format are still in the cluster. Integers are written as variable-length zigzag integers, and prices as
+ * their scale and unscaled value, which fits in a long for any realistic price.
+ */
+public final class DomainSerializers {
+
+    private static final int PHONE_TYPE_ID = 1001;
+
+    private static final int PHONE_DTO_TYPE_ID = 1002;
+
+    private static final int CACHED_RESULT_TYPE_ID = 1003;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final byte NULL = 0;
+
+    private static final byte COMPACT = 1;
+
+    private static final byte BIG = 2;
+
+    private DomainSerializers() {
+    }
+
+    /**
+     * Register the serializers in a Hazelcast configuration.
+     *
+     * @param serializationConfig the serialization configuration of a Hazelcast instance
+     */
+    public static void register(SerializationConfig serializationConfig) {
+        serializationConfig.addSerializerConfig(new SerializerConfig()
+            .setTypeClass(Phone.class)
+            .setImplementation(new PhoneSerializer()));
+        serializationConfig.addSerializerConfig(new SerializerConfig()
+            .setTypeClass(PhoneDTO.class)
+            .setImplementation(new PhoneDTOSerializer()));
+        serializationConfig.addSerializerConfig(new SerializerConfig()
+            .setTypeClass(PhoneQueryService.CachedResult.class)
+            .setImplementation(new CachedResultSerializer()));
+    }
+
+    static class PhoneSerializer implements StreamSerializer<Phone> {
+
+        @Override
+        public int getTypeId() {
+            return PHONE_TYPE_ID;
+        }
+
+        @Override
+        public void write(ObjectDataOutput out, Phone phone) throws IOException {
+            out.writeByte(FORMAT_VERSION);
+            writeLong(out, phone.getId());
+            out.writeUTF(phone.getName());
+            out.writeUTF(phone.getBrand());
+            writeBigDecimal(out, phone.getPrice());
+            writeLong(out, phone.getVersion());
+        }
+
+        @Override
+        public Phone read(ObjectDataInput in) throws IOException {
+            readFormatVersion(in);
+            Phone phone = new Phone();
+            phone.setId(readLong(in));
+            phone.setName(in.readUTF());
+            phone.setBrand(in.readUTF());
+            phone.setPrice(readBigDecimal(in));
+            phone.setVersion(readLong(in));
+            return phone;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    static class PhoneDTOSerializer implements StreamSerializer<PhoneDTO> {
+
+        @Override
+        public int getTypeId() {
+            return PHONE_DTO_TYPE_ID;
+        }
+
+        @Override
+        public void write(ObjectDataOutput out, PhoneDTO phone) throws IOException {
+            out.writeByte(FORMAT_VERSION);
+            writeLong(out, phone.getId());
+            out.writeUTF(phone.getName());
+            out.writeUTF(phone.getBrand());
+            writeBigDecimal(out, phone.getPrice());
+            writeLong(out, phone.getVersion());
+        }
+
+        @Override
+        public PhoneDTO read(ObjectDataInput in) throws IOException {
+            readFormatVersion(in);
+            return new PhoneDTO(readLong(in), in.readUTF(), in.readUTF(), readBigDecimal(in), readLong(in));
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    /**
+     * Writes the ids of a result as the differences between consecutive ids, which are small whatever the sort.
+     */
+    static class CachedResultSerializer implements StreamSerializer<PhoneQueryService.CachedResult> {
+
+        @Override
+        public int getTypeId() {
+            return CACHED_RESULT_TYPE_ID;
+        }
+
+        @Override
+        public void write(ObjectDataOutput out, PhoneQueryService.CachedResult result) throws IOException {
+            out.writeByte(FORMAT_VERSION);
+            writeVarLong(out, zigzag(result.getVersion()));
+            writeVarLong(out, zigzag(result.getCount()));
+            writeVarLong(out, zigzag(result.getCreated()));
+            long[] ids = result.getIds();
+            writeVarLong(out, ids.length);
+            long previous = 0;
+            for (long id : ids) {
+                writeVarLong(out, zigzag(id - previous));
+                previous = id;
+            }
+        }
+
+        @Override
+        public PhoneQueryService.CachedResult read(ObjectDataInput in) throws IOException {
+            readFormatVersion(in);
+            long version = unzigzag(readVarLong(in));
+            long count = unzigzag(readVarLong(in));
+            long created = unzigzag(readVarLong(in));
+            long length = readVarLong(in);
+            if (length > Integer.MAX_VALUE) {
+                throw new InvalidObjectException("Invalid number of ids " + length);
+            }
+            long[] ids = new long[(int) length];
+            long previous = 0;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = previous + unzigzag(readVarLong(in));
+                previous = ids[i];
+            }
+            return new PhoneQueryService.CachedResult(version, ids, count, created);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private static void readFormatVersion(ObjectDataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unknown format version " + version);
+        }
+    }
+
+    /**
+     * Write a nullable long: whether it is null, then the value as a variable-length zigzag integer.
+     */
+    private static void writeLong(ObjectDataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeVarLong(out, zigzag(value));
+        }
+    }
+
+    private static Long readLong(ObjectDataInput in) throws IOException {
+        return in.readBoolean() ? unzigzag(readVarLong(in)) : null;
+    }
+
+    /**
+     * Write a nullable BigDecimal: a tag, then the scale and the unscaled value, compactly if they fit in
+     * a byte and in a long, or in full otherwise.
+     */
+    private static void writeBigDecimal(ObjectDataOutput out, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        BigInteger unscaledValue = value.unscaledValue();
+        if (unscaledValue.bitLength() < Long.SIZE && value.scale() == (byte) value.scale()) {
+            out.writeByte(COMPACT);
+            out.writeByte(value.scale());
+            writeVarLong(out, zigzag(unscaledValue.longValue()));
+        } else {
+            out.writeByte(BIG);
+            out.writeInt(value.scale());
+            out.writeByteArray(unscaledValue.toByteArray());
+        }
+    }
+
+    private static BigDecimal readBigDecimal(ObjectDataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case COMPACT:
+                int scale = in.readByte();
+                return BigDecimal.valueOf(unzigzag(readVarLong(in)), scale);
+            case BIG:
+                int bigScale = in.readInt();
+                return new BigDecimal(new BigInteger(in.readByteArray()), bigScale);
+            default:
+                throw new InvalidObjectException("Unknown BigDecimal encoding " + tag);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ObjectDataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ObjectDataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed variable-length integer");
+    }
+}
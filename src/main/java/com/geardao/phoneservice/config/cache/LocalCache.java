@@ -0,0 +1,113 @@
+package com.geardao.phoneservice.config.cache;
+
+import org.springframework.cache.Cache.ValueWrapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The entries of a cache kept by one node: the least recently used entries are evicted beyond the maximum
+ * size, and entries expire after their time to live.
+ * <p>
+ * Each invalidation increments a generation, so that a value read from the remote tier is not stored
+ * if it was invalidated meanwhile, see {@link #putIfGeneration(Object, ValueWrapper, long)}.
+ */
+class LocalCache {
+
+    private final int maxSize;
+
+    private final long timeToLiveNanos;
+
+    private final Runnable evictionListener;
+
+    private final LinkedHashMap<Object, Entry> entries;
+
+    private long generation;
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param timeToLiveSeconds how long an entry is kept, in seconds, or 0 to keep it until it is evicted
+     * @param evictionListener called when an entry is evicted, because of the size or of the time to live
+     */
+    LocalCache(int maxSize, int timeToLiveSeconds, Runnable evictionListener) {
+        this.maxSize = Math.max(1, maxSize);
+        this.timeToLiveNanos = timeToLiveSeconds * 1_000_000_000L;
+        this.evictionListener = evictionListener;
+        this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (size() > LocalCache.this.maxSize) {
+                    evictionListener.run();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized ValueWrapper get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (timeToLiveNanos > 0 && System.nanoTime() - entry.createdNanos > timeToLiveNanos) {
+            entries.remove(key);
+            evictionListener.run();
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(Object key, ValueWrapper value) {
+        entries.put(key, new Entry(value));
+    }
+
+    synchronized ValueWrapper putIfAbsent(Object key, ValueWrapper value) {
+        ValueWrapper existing = get(key);
+        if (existing == null) {
+            put(key, value);
+        }
+        return existing;
+    }
+
+    /**
+     * @return the current generation, to be given to {@link #putIfGeneration(Object, ValueWrapper, long)}
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Store an entry, unless the cache has been invalidated since the given generation.
+     */
+    synchronized void putIfGeneration(Object key, ValueWrapper value, long generation) {
+        if (this.generation == generation) {
+            put(key, value);
+        }
+    }
+
+    synchronized void evict(Object key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+
+        private final ValueWrapper value;
+
+        private final long createdNanos = System.nanoTime();
+
+        Entry(ValueWrapper value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.geardao.phoneservice.config.cache;
+
+import com.codahale.metrics.Meter;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+
+/**
+ * A cache with a local tier, kept by each node, in front of a remote tier, shared by the cluster.
+ * <p>
+ * Reads look up the local tier first, then the remote tier, and keep what they find in the local tier.
+ * Writes go to both tiers, then are published to the other nodes, which drop the entry from their local
+ * tier: until they receive the invalidation, or the entry expires, they may still return the former value.
+ * Either tier may be missing.
+ * <p>
+ * The local tier holds the cached objects themselves, which callers must not modify.
+ */
+class TieredCache implements Cache {
+
+    private final String name;
+
+    private final LocalCache local;
+
+    private final Cache remote;
+
+    private final BiConsumer<String, Object> invalidationPublisher;
+
+    private final TierMeters localMeters;
+
+    private final TierMeters remoteMeters;
+
+    /**
+     * @param name the name of the cache
+     * @param local the local tier, or null
+     * @param remote the remote tier, or null
+     * @param invalidationPublisher tells the other nodes that a key, or all the keys if null, have changed
+     * @param localMeters the meters of the local tier
+     * @param remoteMeters the meters of the remote tier
+     */
+    TieredCache(String name, LocalCache local, Cache remote, BiConsumer<String, Object> invalidationPublisher,
+                TierMeters localMeters, TierMeters remoteMeters) {
+        this.name = name;
+        this.local = local;
+        this.remote = remote;
+        this.invalidationPublisher = invalidationPublisher;
+        this.localMeters = localMeters;
+        this.remoteMeters = remoteMeters;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote != null ? remote.getNativeCache() : local;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        if (local != null) {
+            ValueWrapper value = local.get(key);
+            if (value != null) {
+                localMeters.hits.mark();
+                return value;
+            }
+            localMeters.misses.mark();
+        }
+        if (remote == null) {
+            return null;
+        }
+        long generation = local != null ? local.getGeneration() : 0;
+        ValueWrapper value = remote.get(key);
+        if (value == null) {
+            remoteMeters.misses.mark();
+            return null;
+        }
+        remoteMeters.hits.mark();
+        if (local != null) {
+            local.putIfGeneration(key, value, generation);
+        }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper value = get(key);
+        if (value == null) {
+            return null;
+        }
+        if (type != null && value.get() != null && !type.isInstance(value.get())) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value.get());
+        }
+        return (T) value.get();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached = get(key);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+        long generation = local != null ? local.getGeneration() : 0;
+        T value;
+        if (remote != null) {
+            value = remote.get(key, valueLoader);
+        } else {
+            try {
+                value = valueLoader.call();
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        }
+        if (local != null) {
+            local.putIfGeneration(key, new SimpleValueWrapper(value), generation);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (remote != null) {
+            remote.put(key, value);
+        }
+        if (local != null) {
+            local.evict(key);
+            local.put(key, new SimpleValueWrapper(value));
+        }
+        invalidationPublisher.accept(name, key);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing;
+        if (remote != null) {
+            existing = remote.putIfAbsent(key, value);
+            if (local != null) {
+                local.evict(key);
+            }
+        } else {
+            existing = local.putIfAbsent(key, new SimpleValueWrapper(value));
+        }
+        if (existing == null) {
+            invalidationPublisher.accept(name, key);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        if (remote != null) {
+            remote.evict(key);
+        }
+        evictLocal(key);
+        invalidationPublisher.accept(name, key);
+    }
+
+    @Override
+    public void clear() {
+        if (remote != null) {
+            remote.clear();
+        }
+        clearLocal();
+        invalidationPublisher.accept(name, null);
+    }
+
+    /**
+     * Drop an entry from the local tier only, when another node has changed it.
+     */
+    void evictLocal(Object key) {
+        if (local != null) {
+            local.evict(key);
+        }
+    }
+
+    /**
+     * Drop all the entries from the local tier only, when another node has cleared the cache.
+     */
+    void clearLocal() {
+        if (local != null) {
+            local.clear();
+        }
+    }
+
+    /**
+     * The meters of a tier of a cache.
+     */
+    static class TierMeters {
+
+        private final Meter hits;
+
+        private final Meter misses;
+
+        TierMeters(Meter hits, Meter misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.geardao.phoneservice.config.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CacheManager whose caches have a local tier in each node in front of a remote tier, which is a cache of
+ * another CacheManager, usually Hazelcast maps. The tiers of each cache are set by its
+ * {@link ApplicationProperties.TierPolicy}.
+ * <p>
+ * Changes are published on a Hazelcast topic, so that the other nodes drop the changed entries from their
+ * local tier. The hits and misses of each tier, and the evictions and size of the local tier, are registered
+ * under cache.[name].local and cache.[name].remote.
+ */
+public class TieredCacheManager implements CacheManager {
+
+    /**
+     * Name of the Hazelcast topic of the invalidations of the local tiers.
+     */
+    public static final String INVALIDATION_TOPIC = "cacheInvalidations";
+
+    private static final String METRIC_PREFIX = "cache";
+
+    private final Logger log = LoggerFactory.getLogger(TieredCacheManager.class);
+
+    private final CacheManager remoteCacheManager;
+
+    private final ApplicationProperties.CacheTiers properties;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ITopic<Invalidation> invalidations;
+
+    private final ConcurrentMap<String, TieredCache> caches = new ConcurrentHashMap<>();
+
+    public TieredCacheManager(CacheManager remoteCacheManager, HazelcastInstance hazelcastInstance,
+                              ApplicationProperties applicationProperties, MetricRegistry metricRegistry) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.properties = applicationProperties.getCacheTiers();
+        this.metricRegistry = metricRegistry;
+        this.invalidations = hazelcastInstance.getTopic(INVALIDATION_TOPIC);
+        this.invalidations.addMessageListener(this::onInvalidation);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    private TieredCache createCache(String name) {
+        ApplicationProperties.TierPolicy policy = properties.getPolicy(name);
+        log.debug("Creating the cache {} with the tiers {}", name, policy.getTiers());
+        String prefix = MetricRegistry.name(METRIC_PREFIX, name);
+        LocalCache local = null;
+        if (policy.isLocal()) {
+            local = new LocalCache(policy.getLocalMaxSize(), policy.getLocalTimeToLiveSeconds(),
+                metricRegistry.meter(prefix + ".local.evictions")::mark);
+            LocalCache localCache = local;
+            metricRegistry.remove(prefix + ".local.size");
+            metricRegistry.register(prefix + ".local.size", (Gauge<Integer>) localCache::size);
+        }
+        Cache remote = policy.isRemote() ? remoteCacheManager.getCache(name) : null;
+        return new TieredCache(name, local, remote, this::publishInvalidation,
+            new TieredCache.TierMeters(metricRegistry.meter(prefix + ".local.hits"), metricRegistry.meter(prefix + ".local.misses")),
+            new TieredCache.TierMeters(metricRegistry.meter(prefix + ".remote.hits"), metricRegistry.meter(prefix + ".remote.misses")));
+    }
+
+    private void publishInvalidation(String name, Object key) {
+        try {
+            invalidations.publish(new Invalidation(name, key));
+        } catch (RuntimeException e) {
+            // The entry still expires from the local tiers after their time to live
+            log.warn("Could not publish the invalidation of {} in the cache {}: {}", key, name, e.getMessage());
+        }
+    }
+
+    private void onInvalidation(Message<Invalidation> message) {
+        if (message.getPublishingMember() != null && message.getPublishingMember().localMember()) {
+            return;
+        }
+        Invalidation invalidation = message.getMessageObject();
+        TieredCache cache = caches.get(invalidation.cacheName);
+        if (cache == null) {
+            return;
+        }
+        if (invalidation.key == null) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(invalidation.key);
+        }
+    }
+
+    /**
+     * A change of a key of a cache, or of all its keys if the key is null.
+     */
+    private static class Invalidation implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String cacheName;
+
+        private final Object key;
+
+        Invalidation(String cacheName, Object key) {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+    }
+}
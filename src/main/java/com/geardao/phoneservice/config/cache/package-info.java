@@ -0,0 +1,4 @@
+/**
+ * Two-tier caches of the Spring CacheManager.
+ */
+package com.geardao.phoneservice.config.cache;
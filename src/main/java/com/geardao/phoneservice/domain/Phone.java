@@ -6,6 +6,11 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 import javax.persistence.*;
 
 import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldIndex;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.Objects;
@@ -27,14 +32,23 @@ public class Phone implements Serializable {
     private Long id;
 
     @Column(name = "name")
+    @MultiField(mainField = @Field(type = FieldType.String),
+        otherFields = @InnerField(suffix = "raw", type = FieldType.String, index = FieldIndex.not_analyzed))
     private String name;
 
     @Column(name = "brand")
+    @MultiField(mainField = @Field(type = FieldType.String),
+        otherFields = @InnerField(suffix = "raw", type = FieldType.String, index = FieldIndex.not_analyzed))
     private String brand;
 
     @Column(name = "price", precision=10, scale=2)
+    @Field(type = FieldType.Double)
     private BigDecimal price;
 
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public Long getId() {
         return id;
@@ -82,6 +96,14 @@ public class Phone implements Serializable {
     public void setPrice(BigDecimal price) {
         this.price = price;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
     // jhipster-needle-entity-add-getters-setters - JHipster will add getters and setters here, do not remove
 
     @Override
@@ -111,6 +133,7 @@ public class Phone implements Serializable {
             ", name='" + getName() + "'" +
             ", brand='" + getBrand() + "'" +
             ", price=" + getPrice() +
+            ", version=" + getVersion() +
             "}";
     }
 }
@@ -0,0 +1,137 @@
+package com.geardao.phoneservice.domain;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * The count and prices of the Phones of a brand.
+ * <p>
+ * It is updated in the same transaction as the Phones themselves, by
+ * {@link com.geardao.phoneservice.service.PhoneBrandStatistics}.
+ */
+@Entity
+@Table(name = "phone_brand_stats")
+public class PhoneBrandStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "brand")
+    private String brand;
+
+    @NotNull
+    @Column(name = "phone_count", nullable = false)
+    private Long phoneCount;
+
+    @NotNull
+    @Column(name = "priced_count", nullable = false)
+    private Long pricedCount;
+
+    @NotNull
+    @Column(name = "price_sum", precision=20, scale=2, nullable = false)
+    private BigDecimal priceSum;
+
+    @Column(name = "min_price", precision=10, scale=2)
+    private BigDecimal minPrice;
+
+    @Column(name = "max_price", precision=10, scale=2)
+    private BigDecimal maxPrice;
+
+    public PhoneBrandStats() {
+        // Empty constructor needed for Hibernate.
+    }
+
+    public PhoneBrandStats(String brand, Long phoneCount, Long pricedCount, BigDecimal priceSum, BigDecimal minPrice,
+                           BigDecimal maxPrice) {
+        this.brand = brand;
+        this.phoneCount = phoneCount;
+        this.pricedCount = pricedCount;
+        // The sum of no prices is null
+        this.priceSum = priceSum == null ? BigDecimal.ZERO : priceSum;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public void setBrand(String brand) {
+        this.brand = brand;
+    }
+
+    public Long getPhoneCount() {
+        return phoneCount;
+    }
+
+    public void setPhoneCount(Long phoneCount) {
+        this.phoneCount = phoneCount;
+    }
+
+    public Long getPricedCount() {
+        return pricedCount;
+    }
+
+    public void setPricedCount(Long pricedCount) {
+        this.pricedCount = pricedCount;
+    }
+
+    public BigDecimal getPriceSum() {
+        return priceSum;
+    }
+
+    public void setPriceSum(BigDecimal priceSum) {
+        this.priceSum = priceSum;
+    }
+
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(BigDecimal minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(BigDecimal maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PhoneBrandStats phoneBrandStats = (PhoneBrandStats) o;
+        if (phoneBrandStats.getBrand() == null || getBrand() == null) {
+            return false;
+        }
+        return Objects.equals(getBrand(), phoneBrandStats.getBrand());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getBrand());
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneBrandStats{" +
+            "brand='" + getBrand() + "'" +
+            ", phoneCount=" + getPhoneCount() +
+            ", pricedCount=" + getPricedCount() +
+            ", priceSum=" + getPriceSum() +
+            ", minPrice=" + getMinPrice() +
+            ", maxPrice=" + getMaxPrice() +
+            "}";
+    }
+}
@@ -0,0 +1,107 @@
+package com.geardao.phoneservice.domain;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A pending change of a Phone, which still has to be applied to the Elasticsearch index.
+ * <p>
+ * It is written in the same transaction as the Phone itself, and removed once
+ * {@link com.geardao.phoneservice.service.PhoneSearchIndexer} has indexed the Phone.
+ */
+@Entity
+@Table(name = "phone_search_outbox")
+public class PhoneSearchOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator")
+    private Long id;
+
+    @NotNull
+    @Column(name = "phone_id", nullable = false)
+    private Long phoneId;
+
+    @NotNull
+    @Column(name = "created_date", nullable = false)
+    private Instant createdDate = Instant.now();
+
+    @NotNull
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    public PhoneSearchOutbox() {
+        // Empty constructor needed for Hibernate.
+    }
+
+    public PhoneSearchOutbox(Long phoneId) {
+        this.phoneId = phoneId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getPhoneId() {
+        return phoneId;
+    }
+
+    public void setPhoneId(Long phoneId) {
+        this.phoneId = phoneId;
+    }
+
+    public Instant getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Instant createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PhoneSearchOutbox phoneSearchOutbox = (PhoneSearchOutbox) o;
+        if (phoneSearchOutbox.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), phoneSearchOutbox.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneSearchOutbox{" +
+            "id=" + getId() +
+            ", phoneId=" + getPhoneId() +
+            ", createdDate=" + getCreatedDate() +
+            ", attempts=" + getAttempts() +
+            "}";
+    }
+}
@@ -0,0 +1,30 @@
+package com.geardao.phoneservice.repository;
+
+import com.geardao.phoneservice.domain.PhoneBrandStats;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+
+/**
+ * Spring Data JPA repository for the PhoneBrandStats entity.
+ */
+@Repository
+public interface PhoneBrandStatsRepository extends JpaRepository<PhoneBrandStats, String> {
+
+    List<PhoneBrandStats> findAllByOrderByBrandAsc();
+
+    /**
+     * Compute the statistics of all the brands from the phones, as unmanaged entities.
+     */
+    @Query("select new com.geardao.phoneservice.domain.PhoneBrandStats(phone.brand, count(phone.id), count(phone.price), "
+        + "sum(phone.price), min(phone.price), max(phone.price)) from Phone phone where phone.brand is not null group by phone.brand")
+    List<PhoneBrandStats> computeAll();
+
+    @Modifying
+    @Query("insert into PhoneBrandStats (brand, phoneCount, pricedCount, priceSum, minPrice, maxPrice) "
+        + "select phone.brand, count(phone.id), count(phone.price), coalesce(sum(phone.price), 0), min(phone.price), max(phone.price) "
+        + "from Phone phone where phone.brand is not null group by phone.brand")
+    int insertComputed();
+}
@@ -11,6 +11,11 @@ import org.springframework.data.jpa.repository.*;
  */
 @SuppressWarnings("unused")
 @Repository
-public interface PhoneRepository extends JpaRepository<Phone, Long>, JpaSpecificationExecutor<Phone> {
+public interface PhoneRepository extends JpaRepository<Phone, Long>, JpaSpecificationExecutor<Phone>, PhoneRepositoryCustom {
 
+    @Query("select min(phone.id) from Phone phone")
+    Long findMinId();
+
+    @Query("select max(phone.id) from Phone phone")
+    Long findMaxId();
 }
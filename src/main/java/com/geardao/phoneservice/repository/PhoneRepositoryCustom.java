@@ -0,0 +1,134 @@
+package com.geardao.phoneservice.repository;
+
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Custom JPA queries for the Phone entity, which Spring Data cannot derive.
+ */
+public interface PhoneRepositoryCustom {
+
+    /**
+     * Maximum number of ids of an IN list, as Oracle rejects lists of more than 1000 expressions.
+     */
+    int MAX_IN_LIST_SIZE = 1000;
+
+    /**
+     * Split ids into chunks which fit in an IN list.
+     *
+     * @param ids the ids
+     * @param <T> the type of the ids
+     * @return the chunks of at most {@link #MAX_IN_LIST_SIZE} ids, in the iteration order of the ids
+     */
+    static <T> List<List<T>> inListChunks(Collection<T> ids) {
+        List<T> idList = ids instanceof List ? (List<T>) ids : new ArrayList<>(ids);
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i += MAX_IN_LIST_SIZE) {
+            chunks.add(idList.subList(i, Math.min(i + MAX_IN_LIST_SIZE, idList.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Find the first phones matching a specification, without counting all the matching phones.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param sort the order of the phones
+     * @param limit the maximum number of phones to return
+     * @return the first phones, in order
+     */
+    List<Phone> findFirst(Specification<Phone> specification, Sort sort, int limit);
+
+    /**
+     * Find a page of the phones matching a specification, without counting all the matching phones.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param pageable the page
+     * @return the phones of the page, telling whether there is a next page
+     */
+    Slice<Phone> findSlice(Specification<Phone> specification, Pageable pageable);
+
+    /**
+     * Find the phones matching a specification, selecting their columns directly into DTOs:
+     * no entity is loaded in the persistence context.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param sort the order of the phones, may be null
+     * @return the phones
+     */
+    List<PhoneDTO> findAllProjected(Specification<Phone> specification, Sort sort);
+
+    /**
+     * Find the first phones matching a specification, selecting their columns directly into DTOs.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param sort the order of the phones
+     * @param limit the maximum number of phones to return
+     * @return the first phones, in order
+     */
+    List<PhoneDTO> findFirstProjected(Specification<Phone> specification, Sort sort, int limit);
+
+    /**
+     * Find a page of the phones matching a specification, selecting their columns directly into DTOs.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param pageable the page
+     * @return the phones of the page, telling whether there is a next page
+     */
+    Slice<PhoneDTO> findSliceProjected(Specification<Phone> specification, Pageable pageable);
+
+    /**
+     * Read the phones matching a specification one at a time, selecting their columns directly into DTOs,
+     * through a forward-only cursor: memory use does not depend on the number of phones.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param sort the order of the phones, may be null
+     * @param fetchSize the number of rows fetched from the database at once
+     * @param consumer the consumer of each phone
+     * @return the number of phones read
+     */
+    long scrollProjected(Specification<Phone> specification, Sort sort, int fetchSize, Consumer<PhoneDTO> consumer);
+
+    /**
+     * Count the phones matching a specification, up to a limit, which bounds the cost of the count.
+     *
+     * @param specification the specification the phones should match, may be null
+     * @param limit the number of phones after which counting stops
+     * @return the number of matching phones, or limit if there are at least limit matching phones
+     */
+    long countUpTo(Specification<Phone> specification, int limit);
+
+    /**
+     * Estimate the number of phones from the statistics of the database, without reading the phones.
+     *
+     * @return the estimated number of phones, or null if the database has no statistics
+     */
+    Long estimateCount();
+
+    /**
+     * Find phones by id, reading the second-level cache in bulk: the cached phones are read with a single
+     * request to the cache, and only the others are read from the database.
+     *
+     * @param ids the ids of the phones
+     * @return the phones found, by id; the phones read from the cache are not attached to the persistence context
+     */
+    Map<Long, Phone> findAllCached(Collection<Long> ids);
+
+    /**
+     * Tell whether a phone is in the second-level cache, without reading it.
+     *
+     * @param id the id of the phone
+     * @return true if the phone is cached
+     */
+    boolean isCached(Long id);
+}
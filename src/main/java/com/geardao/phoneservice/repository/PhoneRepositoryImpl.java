@@ -0,0 +1,247 @@
+package com.geardao.phoneservice.repository;
+
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.domain.Phone_;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.hazelcast.hibernate.distributed.IMapRegionCache;
+import com.hazelcast.hibernate.region.HazelcastRegion;
+import com.hazelcast.hibernate.serialization.Expirable;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.spi.StatisticsImplementor;
+import org.hibernate.type.TypeHelper;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.toOrders;
+
+/**
+ * Implementation of {@link PhoneRepositoryCustom}, using the JPA criteria API.
+ */
+public class PhoneRepositoryImpl implements PhoneRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile String databaseProductName;
+
+    @Override
+    public List<Phone> findFirst(Specification<Phone> specification, Sort sort, int limit) {
+        return query(specification, sort).setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public Slice<Phone> findSlice(Specification<Phone> specification, Pageable pageable) {
+        return slice(query(specification, pageable.getSort()), pageable);
+    }
+
+    @Override
+    public List<PhoneDTO> findAllProjected(Specification<Phone> specification, Sort sort) {
+        return projectedQuery(specification, sort).getResultList();
+    }
+
+    @Override
+    public List<PhoneDTO> findFirstProjected(Specification<Phone> specification, Sort sort, int limit) {
+        return projectedQuery(specification, sort).setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public Slice<PhoneDTO> findSliceProjected(Specification<Phone> specification, Pageable pageable) {
+        return slice(projectedQuery(specification, pageable.getSort()), pageable);
+    }
+
+    @Override
+    public long scrollProjected(Specification<Phone> specification, Sort sort, int fetchSize, Consumer<PhoneDTO> consumer) {
+        ScrollableResults results = projectedQuery(specification, sort)
+            .unwrap(org.hibernate.query.Query.class)
+            .setFetchSize(fetchSize)
+            .setReadOnly(true)
+            .scroll(ScrollMode.FORWARD_ONLY);
+        long count = 0;
+        try {
+            while (results.next()) {
+                consumer.accept((PhoneDTO) results.get(0));
+                count++;
+            }
+        } finally {
+            results.close();
+        }
+        return count;
+    }
+
+    private <T> Slice<T> slice(TypedQuery<T> query, Pageable pageable) {
+        // One more phone than the page size tells whether there is a next page
+        List<T> rows = query
+            .setFirstResult(pageable.getOffset())
+            .setMaxResults(pageable.getPageSize() + 1)
+            .getResultList();
+        boolean hasNext = rows.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? new ArrayList<>(rows.subList(0, pageable.getPageSize())) : rows, pageable, hasNext);
+    }
+
+    @Override
+    public long countUpTo(Specification<Phone> specification, int limit) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<Phone> root = query.from(Phone.class);
+        Predicate predicate = specification == null ? null : specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        // Only the limit-th matching phone is read, if any: the database stops there, and sends a single id
+        query.select(root.get(Phone_.id));
+        if (!entityManager.createQuery(query).setFirstResult(limit - 1).setMaxResults(1).getResultList().isEmpty()) {
+            return limit;
+        }
+        // Fewer phones match than the limit
+        query.select(builder.count(root));
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    @Override
+    public Long estimateCount() {
+        String sql;
+        String productName = getDatabaseProductName();
+        if ("Oracle".equals(productName)) {
+            sql = "select num_rows from user_tables where table_name = 'PHONE'";
+        } else if ("H2".equals(productName)) {
+            sql = "select row_count_estimate from information_schema.tables where table_name = 'PHONE'";
+        } else {
+            return null;
+        }
+        List<?> result = entityManager.createNativeQuery(sql).getResultList();
+        return result.isEmpty() || result.get(0) == null ? null : ((Number) result.get(0)).longValue();
+    }
+
+    @Override
+    public Map<Long, Phone> findAllCached(Collection<Long> ids) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getMetamodel().entityPersister(Phone.class);
+        Map<Long, Phone> phones = new HashMap<>();
+        Set<Long> misses = new LinkedHashSet<>();
+        for (Long id : ids) {
+            // The phones of the persistence context may have been changed by the current transaction
+            Object phone = session.getPersistenceContext().getEntity(session.generateEntityKey(id, persister));
+            if (phone != null) {
+                phones.put(id, (Phone) phone);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty() && persister.hasCache() && session.getCacheMode().isGetEnabled()) {
+            readFromCache(session, persister, misses, phones);
+            misses.removeAll(phones.keySet());
+        }
+        for (List<Long> chunk : PhoneRepositoryCustom.inListChunks(misses)) {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Phone> query = builder.createQuery(Phone.class);
+            Root<Phone> root = query.from(Phone.class);
+            query.select(root).where(root.get(Phone_.id).in(chunk));
+            // The phones read from the database are put in the cache as they are loaded
+            entityManager.createQuery(query).getResultList().forEach(phone -> phones.put(phone.getId(), phone));
+        }
+        return phones;
+    }
+
+    @Override
+    public boolean isCached(Long id) {
+        return entityManager.getEntityManagerFactory().getCache().contains(Phone.class, id);
+    }
+
+    private void readFromCache(SessionImplementor session, EntityPersister persister, Collection<Long> ids, Map<Long, Phone> phones) {
+        EntityRegionAccessStrategy cacheAccess = persister.getCacheAccessStrategy();
+        EntityRegion region = cacheAccess.getRegion();
+        Map<Object, Long> idsByKey = new HashMap<>();
+        for (Long id : ids) {
+            idsByKey.put(cacheAccess.generateCacheKey(id, persister, session.getFactory(), session.getTenantIdentifier()), id);
+        }
+        Map<Object, Object> entries = new HashMap<>();
+        if (region instanceof HazelcastRegion && ((HazelcastRegion) region).getCache() instanceof IMapRegionCache) {
+            // One request to the cluster, instead of one per phone
+            Map<Object, Expirable> values = ((HazelcastRegion) region).getInstance()
+                .<Object, Expirable>getMap(region.getName()).getAll(idsByKey.keySet());
+            values.forEach((key, value) -> entries.put(key, value.getValue(session.getTimestamp())));
+        } else {
+            for (Object key : idsByKey.keySet()) {
+                entries.put(key, cacheAccess.get(session, key, session.getTimestamp()));
+            }
+        }
+        StatisticsImplementor statistics = session.getFactory().getStatistics().isStatisticsEnabled()
+            ? session.getFactory().getStatistics() : null;
+        idsByKey.forEach((key, id) -> {
+            Object entry = entries.get(key);
+            if (entry instanceof CacheEntry && !((CacheEntry) entry).isReferenceEntry()) {
+                phones.put(id, assemble(session, persister, id, (CacheEntry) entry));
+                if (statistics != null) {
+                    statistics.secondLevelCacheHit(region.getName());
+                }
+            } else if (statistics != null) {
+                statistics.secondLevelCacheMiss(region.getName());
+            }
+        });
+    }
+
+    private Phone assemble(SessionImplementor session, EntityPersister persister, Long id, CacheEntry entry) {
+        Phone phone = (Phone) persister.instantiate(id, session);
+        Object[] values = TypeHelper.assemble(entry.getDisassembledState(), persister.getPropertyTypes(), session, phone);
+        persister.setPropertyValues(phone, values);
+        return phone;
+    }
+
+    private String getDatabaseProductName() {
+        if (databaseProductName == null) {
+            databaseProductName = entityManager.unwrap(Session.class)
+                .doReturningWork(connection -> connection.getMetaData().getDatabaseProductName());
+        }
+        return databaseProductName;
+    }
+
+    private TypedQuery<Phone> query(Specification<Phone> specification, Sort sort) {
+        return query(Phone.class, (root, builder) -> root, specification, sort);
+    }
+
+    private TypedQuery<PhoneDTO> projectedQuery(Specification<Phone> specification, Sort sort) {
+        return query(PhoneDTO.class, (root, builder) -> builder.construct(PhoneDTO.class,
+            root.get(Phone_.id), root.get(Phone_.name), root.get(Phone_.brand), root.get(Phone_.price), root.get(Phone_.version)),
+            specification, sort);
+    }
+
+    private <T> TypedQuery<T> query(Class<T> resultClass, BiFunction<Root<Phone>, CriteriaBuilder, Selection<? extends T>> selection,
+                                    Specification<Phone> specification, Sort sort) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = builder.createQuery(resultClass);
+        Root<Phone> root = query.from(Phone.class);
+        if (specification != null) {
+            Predicate predicate = specification.toPredicate(root, query, builder);
+            if (predicate != null) {
+                query.where(predicate);
+            }
+        }
+        query.select(selection.apply(root, builder));
+        if (sort != null) {
+            query.orderBy(toOrders(sort, root, builder));
+        }
+        return entityManager.createQuery(query);
+    }
+}
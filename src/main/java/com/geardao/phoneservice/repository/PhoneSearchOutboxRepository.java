@@ -0,0 +1,34 @@
+package com.geardao.phoneservice.repository;
+
+import com.geardao.phoneservice.domain.PhoneSearchOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Spring Data JPA repository for the PhoneSearchOutbox entity.
+ */
+@Repository
+public interface PhoneSearchOutboxRepository extends JpaRepository<PhoneSearchOutbox, Long> {
+
+    List<PhoneSearchOutbox> findByAttemptsLessThanOrderByIdAsc(Integer maxAttempts, Pageable pageable);
+
+    long countByAttemptsLessThan(Integer maxAttempts);
+
+    @Query("select min(outbox.createdDate) from PhoneSearchOutbox outbox where outbox.attempts < :maxAttempts")
+    Instant findOldestCreatedDate(@Param("maxAttempts") Integer maxAttempts);
+
+    @Modifying
+    @Query("update PhoneSearchOutbox outbox set outbox.attempts = outbox.attempts + 1 where outbox.id in :ids")
+    int incrementAttempts(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from PhoneSearchOutbox outbox where outbox.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+}
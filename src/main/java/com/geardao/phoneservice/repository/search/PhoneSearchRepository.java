@@ -6,5 +6,5 @@ import org.springframework.data.elasticsearch.repository.ElasticsearchRepository
 /**
  * Spring Data Elasticsearch repository for the Phone entity.
  */
-public interface PhoneSearchRepository extends ElasticsearchRepository<Phone, Long> {
+public interface PhoneSearchRepository extends ElasticsearchRepository<Phone, Long>, PhoneSearchRepositoryCustom {
 }
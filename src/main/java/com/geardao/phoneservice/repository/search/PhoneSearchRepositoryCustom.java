@@ -0,0 +1,62 @@
+package com.geardao.phoneservice.repository.search;
+
+import com.geardao.phoneservice.domain.Phone;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Custom Elasticsearch operations for the Phone entity, which Spring Data cannot derive.
+ */
+public interface PhoneSearchRepositoryCustom {
+
+    /**
+     * Index and delete phones with a single bulk request, through the index name of the Phone document.
+     *
+     * @param phones the phones to index
+     * @param deletedIds the ids of the phones to remove from the index
+     * @return the ids whose operation failed
+     */
+    Set<Long> bulk(Collection<Phone> phones, Collection<Long> deletedIds);
+
+    /**
+     * Index and delete phones with a single bulk request, in the given index.
+     *
+     * @param indexName the name of the index, or of the alias, to write to
+     * @param phones the phones to index
+     * @param deletedIds the ids of the phones to remove from the index
+     * @return the ids whose operation failed
+     */
+    Set<Long> bulk(String indexName, Collection<Phone> phones, Collection<Long> deletedIds);
+
+    /**
+     * Load phones into an index being built, with a single bulk request and without refreshing it.
+     * A phone which is already in the index is left untouched, as it was written by a more recent change.
+     *
+     * @param indexName the name of the index to load
+     * @param phones the phones to index
+     * @return the ids whose operation failed
+     */
+    Set<Long> bulkLoad(String indexName, Collection<Phone> phones);
+
+    /**
+     * Start a scroll over all the phones matching a query, in index order.
+     *
+     * @param query the query
+     * @param size the number of phones per batch
+     * @param keepAlive how long the scroll is kept between two batches, in milliseconds
+     * @return the first batch
+     */
+    ScrollPage<Phone> startScroll(QueryBuilder query, int size, long keepAlive);
+
+    /**
+     * Read the next batch of a scroll.
+     *
+     * @param scrollId the id of the scroll
+     * @param keepAlive how long the scroll is kept until the next batch, in milliseconds
+     * @return the next batch
+     * @throws IllegalArgumentException if the scroll has expired, or if its id is not valid
+     */
+    ScrollPage<Phone> continueScroll(String scrollId, long keepAlive);
+}
@@ -0,0 +1,140 @@
+package com.geardao.phoneservice.repository.search;
+
+import com.geardao.phoneservice.domain.Phone;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Implementation of {@link PhoneSearchRepositoryCustom}, using the native Elasticsearch client.
+ */
+public class PhoneSearchRepositoryImpl implements PhoneSearchRepositoryCustom {
+
+    private final Logger log = LoggerFactory.getLogger(PhoneSearchRepositoryImpl.class);
+
+    private final ElasticsearchTemplate elasticsearchTemplate;
+
+    private final EntityMapper entityMapper;
+
+    public PhoneSearchRepositoryImpl(ElasticsearchTemplate elasticsearchTemplate, EntityMapper entityMapper) {
+        this.elasticsearchTemplate = elasticsearchTemplate;
+        this.entityMapper = entityMapper;
+    }
+
+    @Override
+    public Set<Long> bulk(Collection<Phone> phones, Collection<Long> deletedIds) {
+        return bulk(elasticsearchTemplate.getPersistentEntityFor(Phone.class).getIndexName(), phones, deletedIds);
+    }
+
+    @Override
+    public Set<Long> bulk(String indexName, Collection<Phone> phones, Collection<Long> deletedIds) {
+        return execute(indexName, phones, deletedIds, false);
+    }
+
+    @Override
+    public Set<Long> bulkLoad(String indexName, Collection<Phone> phones) {
+        return execute(indexName, phones, Collections.emptyList(), true);
+    }
+
+    private Set<Long> execute(String indexName, Collection<Phone> phones, Collection<Long> deletedIds, boolean load) {
+        Set<Long> failedIds = new HashSet<>();
+        if (phones.isEmpty() && deletedIds.isEmpty()) {
+            return failedIds;
+        }
+        String type = elasticsearchTemplate.getPersistentEntityFor(Phone.class).getIndexType();
+        Client client = elasticsearchTemplate.getClient();
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (Phone phone : phones) {
+            bulkRequest.add(client.prepareIndex(indexName, type, phone.getId().toString())
+                .setCreate(load)
+                .setSource(toJson(phone)));
+        }
+        for (Long id : deletedIds) {
+            bulkRequest.add(client.prepareDelete(indexName, type, id.toString()));
+        }
+        BulkResponse response = bulkRequest.setRefresh(!load).get();
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed() && !(load && item.getFailure().getStatus() == RestStatus.CONFLICT)) {
+                    log.warn("Could not {} Phone {} in Elasticsearch index {}: {}",
+                        item.getOpType(), item.getId(), indexName, item.getFailureMessage());
+                    failedIds.add(Long.valueOf(item.getId()));
+                }
+            }
+        }
+        return failedIds;
+    }
+
+    @Override
+    public ScrollPage<Phone> startScroll(QueryBuilder query, int size, long keepAlive) {
+        String type = elasticsearchTemplate.getPersistentEntityFor(Phone.class).getIndexType();
+        SearchResponse response = elasticsearchTemplate.getClient()
+            .prepareSearch(elasticsearchTemplate.getPersistentEntityFor(Phone.class).getIndexName())
+            .setTypes(type)
+            .setQuery(query)
+            .addSort(SortBuilders.fieldSort("_doc"))
+            .setSize(size)
+            .setScroll(TimeValue.timeValueMillis(keepAlive))
+            .get();
+        return toScrollPage(response, response.getHits().getHits().length < size);
+    }
+
+    @Override
+    public ScrollPage<Phone> continueScroll(String scrollId, long keepAlive) {
+        SearchResponse response;
+        try {
+            response = elasticsearchTemplate.getClient().prepareSearchScroll(scrollId)
+                .setScroll(TimeValue.timeValueMillis(keepAlive))
+                .get();
+        } catch (SearchPhaseExecutionException e) {
+            throw new IllegalArgumentException("The scroll has expired", e);
+        }
+        return toScrollPage(response, response.getHits().getHits().length == 0);
+    }
+
+    private ScrollPage<Phone> toScrollPage(SearchResponse response, boolean exhausted) {
+        List<Phone> phones = new ArrayList<>(response.getHits().getHits().length);
+        for (SearchHit hit : response.getHits().getHits()) {
+            try {
+                phones.add(entityMapper.mapToObject(hit.getSourceAsString(), Phone.class));
+            } catch (IOException e) {
+                throw new ElasticsearchException("Could not deserialize Phone " + hit.getId(), e);
+            }
+        }
+        if (exhausted) {
+            // Free the search contexts now rather than when the scroll expires
+            elasticsearchTemplate.getClient().prepareClearScroll().addScrollId(response.getScrollId()).get();
+            return new ScrollPage<>(phones, null);
+        }
+        return new ScrollPage<>(phones, response.getScrollId());
+    }
+
+    private String toJson(Phone phone) {
+        try {
+            return entityMapper.mapToString(phone);
+        } catch (IOException e) {
+            throw new ElasticsearchException("Could not serialize Phone " + phone.getId(), e);
+        }
+    }
+}
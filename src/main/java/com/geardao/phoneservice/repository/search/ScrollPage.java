@@ -0,0 +1,34 @@
+package com.geardao.phoneservice.repository.search;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A batch of the hits of an Elasticsearch scroll, with the id of the scroll to read the next batch.
+ */
+public class ScrollPage<T> {
+
+    private final List<T> content;
+
+    private final String scrollId;
+
+    public ScrollPage(List<T> content, String scrollId) {
+        this.content = content;
+        this.scrollId = scrollId;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the id of the scroll, or null if all the hits have been read
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    public <R> ScrollPage<R> map(Function<List<T>, List<R>> mapper) {
+        return new ScrollPage<>(mapper.apply(content), scrollId);
+    }
+}
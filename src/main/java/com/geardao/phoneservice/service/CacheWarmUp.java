@@ -0,0 +1,223 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.PhoneRepositoryCustom;
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+
+/**
+ * Warm-up of a starting node: once the application has started, the hottest phones are loaded in the
+ * second-level cache and its near cache, and the JDBC connections and the Elasticsearch client are opened,
+ * before the instance is UP in Eureka.
+ * <p>
+ * The hottest phones are the most accessed ones of the cluster, see {@link PhoneAccessFrequencies}, followed
+ * by the phones of the configured query. The instance is registered as STARTING, see the
+ * eureka.instance.initial-status property, and is UP once the warm-up has finished, failed or timed out.
+ * The duration of the warm-up and the number of phones loaded are registered under cache.warm-up.
+ */
+@Service
+public class CacheWarmUp {
+
+    private static final String METRIC_PREFIX = "cache.warm-up";
+
+    private final Logger log = LoggerFactory.getLogger(CacheWarmUp.class);
+
+    private final PhoneAccessFrequencies phoneAccessFrequencies;
+
+    private final PhoneRepository phoneRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final DataSource dataSource;
+
+    private final ElasticsearchTemplate elasticsearchTemplate;
+
+    private final ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+
+    private final MetricRegistry metricRegistry;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.WarmUp properties;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final AtomicLong entries = new AtomicLong();
+
+    private volatile long durationMillis;
+
+    private volatile boolean timedOut;
+
+    private volatile boolean warm;
+
+    public CacheWarmUp(PhoneAccessFrequencies phoneAccessFrequencies, PhoneRepository phoneRepository,
+                       PlatformTransactionManager transactionManager, DataSource dataSource,
+                       ElasticsearchTemplate elasticsearchTemplate, ObjectProvider<ApplicationInfoManager> applicationInfoManager,
+                       MetricRegistry metricRegistry, @Qualifier("taskExecutor") Executor taskExecutor,
+                       ApplicationProperties applicationProperties) {
+        this.phoneAccessFrequencies = phoneAccessFrequencies;
+        this.phoneRepository = phoneRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.dataSource = dataSource;
+        this.elasticsearchTemplate = elasticsearchTemplate;
+        this.applicationInfoManager = applicationInfoManager;
+        this.metricRegistry = metricRegistry;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getWarmUp();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        metricRegistry.register(METRIC_PREFIX + ".warm", (Gauge<Boolean>) () -> warm);
+        metricRegistry.register(METRIC_PREFIX + ".duration", (Gauge<Long>) () -> durationMillis);
+        metricRegistry.register(METRIC_PREFIX + ".entries", (Gauge<Long>) entries::get);
+        metricRegistry.register(METRIC_PREFIX + ".timed-out", (Gauge<Boolean>) () -> timedOut);
+    }
+
+    /**
+     * Warm up the caches in the background once the application has started, or mark the instance UP
+     * at once if the warm-up is disabled.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            markWarm();
+            return;
+        }
+        taskExecutor.execute(this::warmUp);
+    }
+
+    /**
+     * Warm up the caches, for at most the configured timeout, then mark the instance UP.
+     */
+    public void warmUp() {
+        long start = System.nanoTime();
+        entries.set(0);
+        timedOut = false;
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "phoneservice-warm-up"));
+        try {
+            executor.submit(this::load).get(properties.getTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            timedOut = true;
+            log.warn("The warm-up timed out after {} seconds, with {} phones loaded", properties.getTimeoutSeconds(), entries.get());
+        } catch (ExecutionException e) {
+            log.warn("The warm-up failed, with {} phones loaded: {}", entries.get(), e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stops the loading between two chunks if it timed out
+            executor.shutdownNow();
+            durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            markWarm();
+        }
+        log.info("Warmed up the caches with {} phones in {} ms", entries.get(), durationMillis);
+    }
+
+    /**
+     * @return whether the warm-up has finished, so that the instance may be UP
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    private void load() {
+        openConnections();
+        openSearchClient();
+        for (List<Long> chunk : PhoneRepositoryCustom.inListChunks(findHottestIds())) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            // Reads the cached phones from the cluster, which fills the near cache, and puts the others in the cache
+            entries.addAndGet(transactionTemplate.execute(status -> phoneRepository.findAllCached(chunk).size()));
+        }
+    }
+
+    /**
+     * Open the JDBC connections at once, so that the pool does not open them under the first requests.
+     */
+    private void openConnections() {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < properties.getJdbcConnections(); i++) {
+                connections.add(dataSource.getConnection());
+            }
+        } catch (SQLException e) {
+            log.warn("Could only open {} JDBC connections: {}", connections.size(), e.getMessage());
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.debug("Could not close a JDBC connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void openSearchClient() {
+        try {
+            elasticsearchTemplate.count(new NativeSearchQueryBuilder().withQuery(matchAllQuery()).build(), Phone.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not query the phone index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the ids of the phones to load: the most accessed ones, then the ones of the configured query
+     */
+    private List<Long> findHottestIds() {
+        Set<Long> ids = new LinkedHashSet<>(phoneAccessFrequencies.findHottest(properties.getMaxEntries()));
+        if (ids.size() < properties.getMaxEntries() && StringUtils.hasText(properties.getQuery())) {
+            try {
+                List<Long> queried = transactionTemplate.execute(status -> entityManager
+                    .createQuery(properties.getQuery(), Long.class)
+                    .setMaxResults(properties.getMaxEntries())
+                    .getResultList());
+                for (Iterator<Long> i = queried.iterator(); ids.size() < properties.getMaxEntries() && i.hasNext(); ) {
+                    ids.add(i.next());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not query the phones to warm up: {}", e.getMessage());
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private void markWarm() {
+        warm = true;
+        ApplicationInfoManager manager = applicationInfoManager.getIfAvailable();
+        if (manager != null && manager.getInfo().getStatus() == InstanceInfo.InstanceStatus.STARTING) {
+            manager.setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+        }
+    }
+}
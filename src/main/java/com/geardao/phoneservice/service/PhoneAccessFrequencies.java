@@ -0,0 +1,118 @@
+package com.geardao.phoneservice.service;
+
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.service.util.AccessFrequencySketch;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.AbstractEntryProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Access frequencies of the phones, which tell the hottest phones to load in the caches of a starting node,
+ * see {@link CacheWarmUp}, and rank the completions of {@link PhoneSuggestionIndex}.
+ * <p>
+ * Each node counts the accesses to the most accessed phones in a sketch, and regularly merges its counts
+ * into a Hazelcast map, so that they survive the restart of the node. A phone is dropped from the map
+ * when it has not been accessed for the access time to live, or when the map is full and it is among
+ * the least frequently accessed.
+ */
+@Service
+public class PhoneAccessFrequencies {
+
+    /**
+     * Name of the Hazelcast map of the access counts, by phone id.
+     */
+    public static final String FREQUENCIES_MAP_NAME = "phoneAccessFrequencies";
+
+    private final Logger log = LoggerFactory.getLogger(PhoneAccessFrequencies.class);
+
+    private final IMap<Long, Long> frequencies;
+
+    private final AccessFrequencySketch sketch;
+
+    public PhoneAccessFrequencies(HazelcastInstance hazelcastInstance, ApplicationProperties applicationProperties) {
+        this.frequencies = hazelcastInstance.getMap(FREQUENCIES_MAP_NAME);
+        this.sketch = new AccessFrequencySketch(applicationProperties.getWarmUp().getTrackedIds());
+    }
+
+    /**
+     * Count an access to a phone.
+     *
+     * @param id the id of the phone
+     */
+    public void record(Long id) {
+        if (id != null) {
+            sketch.record(id);
+        }
+    }
+
+    /**
+     * Merge the accesses counted by this node into the cluster.
+     */
+    @Scheduled(fixedDelayString = "${application.warm-up.access-flush-delay:10000}")
+    @PreDestroy
+    public void flush() {
+        Map<Long, Long> counts = sketch.drain();
+        if (counts.isEmpty()) {
+            return;
+        }
+        // One request per distinct count, rather than one per phone
+        Map<Long, Set<Long>> idsByCount = new HashMap<>();
+        counts.forEach((id, count) -> idsByCount.computeIfAbsent(count, c -> new HashSet<>()).add(id));
+        try {
+            idsByCount.forEach((count, ids) -> frequencies.executeOnKeys(ids, new Increment(count)));
+        } catch (RuntimeException e) {
+            log.warn("Could not merge the access counts of {} phones: {}", counts.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Get the most accessed phones of the cluster.
+     *
+     * @param limit the maximum number of ids
+     * @return the ids of the phones, most accessed first
+     */
+    public List<Long> findHottest(int limit) {
+        return frequencies.entrySet().stream()
+            .sorted(Map.Entry.<Long, Long>comparingByValue().reversed())
+            .limit(limit)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the access counts of the cluster.
+     *
+     * @return the number of accesses of each phone which has some, by phone id
+     */
+    public Map<Long, Long> findCounts() {
+        return new HashMap<>(frequencies);
+    }
+
+    /**
+     * Add a number of accesses to the count of a phone, in the member owning it.
+     */
+    private static class Increment extends AbstractEntryProcessor<Long, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long delta;
+
+        Increment(long delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        public Object process(Map.Entry<Long, Long> entry) {
+            entry.setValue(entry.getValue() == null ? delta : entry.getValue() + delta);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.domain.PhoneBrandStats;
+import com.geardao.phoneservice.repository.PhoneBrandStatsRepository;
+import com.geardao.phoneservice.service.dto.PhoneBrandStatsDTO;
+import org.hibernate.JDBCException;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Service maintaining the statistics of the phones of each brand in the phone_brand_stats table, so that they
+ * are read without aggregating all the phones.
+ * <p>
+ * The writers of phones collect the {@link Changes} of the brands they write, and apply them in the same
+ * transaction: counts and sums are incremented in place, and the minimum and maximum prices of a brand are
+ * only computed from its phones when a phone at one of its bounds is removed. The rows are updated in brand
+ * order, so that concurrent writers lock them in the same order. The row of a brand is inserted with its first
+ * phones, and incremented instead if a concurrent writer has inserted it first. Phones without a brand are not counted.
+ * <p>
+ * Every application.brand-stats.check-delay milliseconds, the statistics are checked against the ones computed
+ * from the phones, and rebuilt if they still differ a moment later. The rebuilds and drifts, and the number
+ * of brands, are published under phone.brand-stats.
+ */
+@Service
+public class PhoneBrandStatistics {
+
+    private static final String METRIC_PREFIX = "phone.brand-stats";
+
+    /**
+     * How long a drift is given to resolve itself, as the statistics and the phones are not read atomically.
+     */
+    private static final long RECHECK_DELAY_MS = 1000;
+
+    private static final String INSERT_SQL = "insert into phone_brand_stats "
+        + "(brand, phone_count, priced_count, price_sum, min_price, max_price) values (?, ?, ?, ?, ?, ?)";
+
+    private final Logger log = LoggerFactory.getLogger(PhoneBrandStatistics.class);
+
+    private final PhoneBrandStatsRepository phoneBrandStatsRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    private final MetricRegistry metricRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Timer rebuilds;
+
+    private Meter drifts;
+
+    public PhoneBrandStatistics(PhoneBrandStatsRepository phoneBrandStatsRepository, PlatformTransactionManager transactionManager,
+                                MetricRegistry metricRegistry) {
+        this.phoneBrandStatsRepository = phoneBrandStatsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.metricRegistry = metricRegistry;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        rebuilds = metricRegistry.timer(METRIC_PREFIX + ".rebuilds");
+        drifts = metricRegistry.meter(METRIC_PREFIX + ".drifts");
+        metricRegistry.register(METRIC_PREFIX + ".brands", new CachedGauge<Long>(1, TimeUnit.MINUTES) {
+            @Override
+            protected Long loadValue() {
+                return phoneBrandStatsRepository.count();
+            }
+        });
+    }
+
+    /**
+     * Return the statistics of all the brands.
+     *
+     * @return the statistics of each brand, in brand order
+     */
+    public List<PhoneBrandStatsDTO> findAll() {
+        return phoneBrandStatsRepository.findAllByOrderByBrandAsc().stream().map(this::toDto).collect(Collectors.toList());
+    }
+
+    private PhoneBrandStatsDTO toDto(PhoneBrandStats stats) {
+        PhoneBrandStatsDTO dto = new PhoneBrandStatsDTO();
+        dto.setBrand(stats.getBrand());
+        dto.setCount(stats.getPhoneCount());
+        dto.setPricedCount(stats.getPricedCount());
+        dto.setMinPrice(stats.getMinPrice());
+        dto.setMaxPrice(stats.getMaxPrice());
+        if (stats.getPricedCount() > 0) {
+            dto.setAvgPrice(stats.getPriceSum().divide(BigDecimal.valueOf(stats.getPricedCount()), 2, RoundingMode.HALF_UP));
+        }
+        return dto;
+    }
+
+    /**
+     * Apply changes of phones to the statistics, in the current transaction, which has written the phones
+     * through the persistence context.
+     *
+     * @param changes the changes of the phones written by the transaction
+     */
+    public void apply(Changes changes) {
+        apply(changes, entityManager.unwrap(SharedSessionContractImplementor.class));
+    }
+
+    /**
+     * Apply changes of phones to the statistics, in the transaction of a stateless session, which has written the phones.
+     *
+     * @param changes the changes of the phones written by the session
+     * @param session the session which has written the phones
+     */
+    public void apply(Changes changes, StatelessSession session) {
+        apply(changes, (SharedSessionContractImplementor) session);
+    }
+
+    private void apply(Changes changes, SharedSessionContractImplementor session) {
+        Function<String, Query> queries = session::createQuery;
+        for (Map.Entry<String, BrandChanges> entry : changes.brands.entrySet()) {
+            String brand = entry.getKey();
+            BrandChanges brandChanges = entry.getValue();
+            if (brandChanges.isEmpty()) {
+                continue;
+            }
+            int updated = increment(queries, brand, brandChanges);
+            if (updated == 0) {
+                if (brandChanges.count <= 0) {
+                    // The phones of the brand were written without their statistics, which the next check rebuilds
+                    log.debug("No statistics of the Phones of brand {} to update", brand);
+                    continue;
+                }
+                if (insert(session, brand, brandChanges)) {
+                    continue;
+                }
+                // Inserted by a concurrent writer of the first phones of the brand, which has committed since
+                updated = increment(queries, brand, brandChanges);
+                if (updated == 0) {
+                    throw new IllegalStateException("Could not insert or update the statistics of the Phones of brand " + brand);
+                }
+            }
+            if (brandChanges.getMinAdded() != null) {
+                queries.apply("update PhoneBrandStats stats set stats.minPrice = :price "
+                    + "where stats.brand = :brand and (stats.minPrice is null or stats.minPrice > :price)")
+                    .setParameter("price", brandChanges.getMinAdded())
+                    .setParameter("brand", brand)
+                    .executeUpdate();
+                queries.apply("update PhoneBrandStats stats set stats.maxPrice = :price "
+                    + "where stats.brand = :brand and (stats.maxPrice is null or stats.maxPrice < :price)")
+                    .setParameter("price", brandChanges.getMaxAdded())
+                    .setParameter("brand", brand)
+                    .executeUpdate();
+            }
+            if (brandChanges.getMinRemoved() != null) {
+                updateBounds(queries, brand, brandChanges);
+            }
+            if (brandChanges.count < 0) {
+                queries.apply("delete from PhoneBrandStats stats where stats.brand = :brand and stats.phoneCount <= 0")
+                    .setParameter("brand", brand)
+                    .executeUpdate();
+            }
+        }
+    }
+
+    private int increment(Function<String, Query> queries, String brand, BrandChanges brandChanges) {
+        return queries.apply("update PhoneBrandStats stats set stats.phoneCount = stats.phoneCount + :count, "
+            + "stats.pricedCount = stats.pricedCount + :pricedCount, stats.priceSum = stats.priceSum + :priceSum "
+            + "where stats.brand = :brand")
+            .setParameter("count", brandChanges.count)
+            .setParameter("pricedCount", brandChanges.getPricedCount())
+            .setParameter("priceSum", brandChanges.getPriceSum())
+            .setParameter("brand", brand)
+            .executeUpdate();
+    }
+
+    /**
+     * Insert the statistics of the first phones of a brand.
+     * <p>
+     * The insert goes through the connection, so that a duplicate key only fails this statement, where it
+     * would mark the transaction for rollback through the session: the insert of a concurrent transaction
+     * makes it wait until that transaction completes, then fail if it has committed.
+     *
+     * @return false if the statistics of the brand have been inserted by a concurrent transaction
+     */
+    private boolean insert(SharedSessionContractImplementor session, String brand, BrandChanges brandChanges) {
+        try (PreparedStatement statement = session.connection().prepareStatement(INSERT_SQL)) {
+            statement.setString(1, brand);
+            statement.setLong(2, brandChanges.count);
+            statement.setLong(3, brandChanges.getPricedCount());
+            statement.setBigDecimal(4, brandChanges.getPriceSum());
+            setPrice(statement, 5, brandChanges.getMinAdded());
+            setPrice(statement, 6, brandChanges.getMaxAdded());
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            JDBCException converted = session.getJdbcServices().getSqlExceptionHelper()
+                .convert(e, "Could not insert the statistics of the Phones of brand " + brand, INSERT_SQL);
+            if (converted instanceof ConstraintViolationException) {
+                log.debug("The statistics of the Phones of brand {} were inserted concurrently", brand);
+                return false;
+            }
+            throw converted;
+        }
+    }
+
+    private static void setPrice(PreparedStatement statement, int index, BigDecimal price) throws SQLException {
+        if (price == null) {
+            statement.setNull(index, Types.DECIMAL);
+        } else {
+            statement.setBigDecimal(index, price);
+        }
+    }
+
+    /**
+     * Compute the minimum and maximum prices of a brand from its phones, if a removed price was one of them.
+     */
+    private void updateBounds(Function<String, Query> queries, String brand, BrandChanges brandChanges) {
+        // The row is locked by the update of the counts, so that its bounds cannot change meanwhile
+        Object[] bounds = (Object[]) queries.apply("select stats.minPrice, stats.maxPrice from PhoneBrandStats stats "
+            + "where stats.brand = :brand")
+            .setParameter("brand", brand)
+            .getSingleResult();
+        BigDecimal minPrice = (BigDecimal) bounds[0];
+        BigDecimal maxPrice = (BigDecimal) bounds[1];
+        if (minPrice != null && brandChanges.getMinRemoved().compareTo(minPrice) > 0
+            && brandChanges.getMaxRemoved().compareTo(maxPrice) < 0) {
+            return;
+        }
+        Object[] computed = (Object[]) queries.apply("select min(phone.price), max(phone.price) from Phone phone "
+            + "where phone.brand = :brand")
+            .setParameter("brand", brand)
+            .getSingleResult();
+        queries.apply("update PhoneBrandStats stats set stats.minPrice = :minPrice, stats.maxPrice = :maxPrice "
+            + "where stats.brand = :brand")
+            .setParameter("minPrice", computed[0])
+            .setParameter("maxPrice", computed[1])
+            .setParameter("brand", brand)
+            .executeUpdate();
+    }
+
+    /**
+     * Check the statistics against the ones computed from the phones, and rebuild them if they differ.
+     * This also runs at startup.
+     */
+    @Scheduled(fixedDelayString = "${application.brand-stats.check-delay:3600000}")
+    public void check() {
+        try {
+            if (isConsistent()) {
+                return;
+            }
+            Thread.sleep(RECHECK_DELAY_MS);
+            if (isConsistent()) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Could not check the brand statistics against the phones: {}", e.toString());
+            return;
+        }
+        drifts.mark();
+        log.warn("The brand statistics differ from the phones, rebuilding them");
+        rebuild();
+    }
+
+    /**
+     * Compute the statistics of all the brands from the phones, in one transaction: the writers of phones
+     * wait for it to update the statistics of their brands.
+     */
+    public void rebuild() {
+        try (Timer.Context ignored = rebuilds.time()) {
+            int brands = transactionTemplate.execute(status -> {
+                phoneBrandStatsRepository.deleteAllInBatch();
+                return phoneBrandStatsRepository.insertComputed();
+            });
+            log.info("Rebuilt the statistics of {} brands", brands);
+        }
+    }
+
+    private boolean isConsistent() {
+        return readOnlyTransactionTemplate.execute(status -> {
+            Map<String, PhoneBrandStats> stored = new HashMap<>();
+            phoneBrandStatsRepository.findAll().forEach(stats -> stored.put(stats.getBrand(), stats));
+            List<PhoneBrandStats> computed = phoneBrandStatsRepository.computeAll();
+            return computed.size() == stored.size()
+                && computed.stream().allMatch(stats -> isEqual(stats, stored.get(stats.getBrand())));
+        });
+    }
+
+    private static boolean isEqual(PhoneBrandStats computed, PhoneBrandStats stored) {
+        return stored != null
+            && computed.getPhoneCount().equals(stored.getPhoneCount())
+            && computed.getPricedCount().equals(stored.getPricedCount())
+            && computed.getPriceSum().compareTo(stored.getPriceSum()) == 0
+            && isEqual(computed.getMinPrice(), stored.getMinPrice())
+            && isEqual(computed.getMaxPrice(), stored.getMaxPrice());
+    }
+
+    private static boolean isEqual(BigDecimal a, BigDecimal b) {
+        return a == null ? b == null : b != null && a.compareTo(b) == 0;
+    }
+
+    /**
+     * The changes of the phones of a transaction, by brand: the removal of the previous state of each written
+     * phone, and the addition of its new state. An update which keeps the brand and price of a phone cancels out.
+     */
+    public static class Changes {
+
+        private final Map<String, BrandChanges> brands = new TreeMap<>();
+
+        /**
+         * Record a phone which is now in the catalog.
+         *
+         * @param brand the brand of the phone
+         * @param price the price of the phone
+         * @return these changes
+         */
+        public Changes added(String brand, BigDecimal price) {
+            if (brand != null) {
+                brands.computeIfAbsent(brand, b -> new BrandChanges()).add(price, 1);
+            }
+            return this;
+        }
+
+        /**
+         * Record a phone which is no longer in the catalog, or was before it was updated.
+         *
+         * @param brand the previous brand of the phone
+         * @param price the previous price of the phone
+         * @return these changes
+         */
+        public Changes removed(String brand, BigDecimal price) {
+            if (brand != null) {
+                brands.computeIfAbsent(brand, b -> new BrandChanges()).add(price, -1);
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return brands.values().stream().allMatch(BrandChanges::isEmpty);
+        }
+    }
+
+    private static class BrandChanges {
+
+        private long count;
+
+        private long nullPrices;
+
+        /**
+         * Net number of added phones of each price, negative for removed phones: a TreeMap compares the prices
+         * whatever their scale.
+         */
+        private final TreeMap<BigDecimal, Long> prices = new TreeMap<>();
+
+        void add(BigDecimal price, long phones) {
+            count += phones;
+            if (price == null) {
+                nullPrices += phones;
+            } else {
+                prices.merge(price, phones, (a, b) -> a + b == 0 ? null : a + b);
+            }
+        }
+
+        boolean isEmpty() {
+            return count == 0 && nullPrices == 0 && prices.isEmpty();
+        }
+
+        long getPricedCount() {
+            return prices.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        BigDecimal getPriceSum() {
+            return prices.entrySet().stream()
+                .map(price -> price.getKey().multiply(BigDecimal.valueOf(price.getValue())))
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        }
+
+        BigDecimal getMinAdded() {
+            return prices.entrySet().stream().filter(price -> price.getValue() > 0).map(Map.Entry::getKey).findFirst().orElse(null);
+        }
+
+        BigDecimal getMaxAdded() {
+            return prices.descendingMap().entrySet().stream().filter(price -> price.getValue() > 0).map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+        }
+
+        BigDecimal getMinRemoved() {
+            return prices.entrySet().stream().filter(price -> price.getValue() < 0).map(Map.Entry::getKey).findFirst().orElse(null);
+        }
+
+        BigDecimal getMaxRemoved() {
+            return prices.descendingMap().entrySet().stream().filter(price -> price.getValue() < 0).map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.dto.PhoneCriteria;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.util.PhoneColumnStore;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the phone catalog, enabled by application.catalog-index.enabled: each node keeps all the
+ * phones in a {@link PhoneColumnStore}, which serves the queries by criteria without the database.
+ * <p>
+ * The store is loaded from the database when the index is enabled, and kept current by the writes: the phones
+ * written by a transaction are applied to the store of its node once it commits, and sent to the other nodes
+ * on the {@link #TOPIC_NAME} topic; the writes which bypass the persistence context are given by their writers,
+ * see {@link #written(Collection)}. Every application.catalog-index.check-delay milliseconds, the count, sum of
+ * ids and sum of versions of the store are checked against the database, and the store is rebuilt if they
+ * still differ a moment later, for example after a lost message. The written phones are also applied to the
+ * completions of {@link PhoneSuggestionIndex}, so they are collected whenever either is enabled.
+ * <p>
+ * Queries which the store cannot answer as the database does, and the queries of transactions which have
+ * written phones, are left to the database. The queries, fallbacks, rebuilds and drifts, and the size of the
+ * store, are published under phone.catalog-index.
+ */
+@Service
+public class PhoneCatalogIndex implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    /**
+     * Name of the Hazelcast topic on which the nodes send each other the phones they have written.
+     */
+    public static final String TOPIC_NAME = "phoneCatalogChanges";
+
+    private static final String METRIC_PREFIX = "phone.catalog-index";
+
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * How long a drift is given to resolve itself, as the writes of other nodes may still be on their way.
+     */
+    private static final long RECHECK_DELAY_MS = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(PhoneCatalogIndex.class);
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final ITopic<Changes> topic;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final PhoneSuggestionIndex phoneSuggestionIndex;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.CatalogIndex properties;
+
+    /**
+     * Phones written by each session, applied once its transaction commits.
+     */
+    private final ConcurrentMap<SharedSessionContractImplementor, Changes> sessionChanges = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the store and the changes received while it is rebuilt.
+     */
+    private final Object changesLock = new Object();
+
+    private volatile PhoneColumnStore store;
+
+    /**
+     * Changes received while the store is rebuilt, applied again to the rebuilt store.
+     */
+    private List<Changes> rebuildChanges;
+
+    private String topicRegistration;
+
+    private Timer queries;
+
+    private Meter fallbacks;
+
+    private Timer rebuilds;
+
+    private Meter drifts;
+
+    public PhoneCatalogIndex(HazelcastInstance hazelcastInstance, EntityManagerFactory entityManagerFactory,
+                             PhoneCatalogVersion phoneCatalogVersion, PhoneSuggestionIndex phoneSuggestionIndex,
+                             MetricRegistry metricRegistry, ApplicationProperties applicationProperties) {
+        this.hazelcastInstance = hazelcastInstance;
+        this.topic = hazelcastInstance.getTopic(TOPIC_NAME);
+        this.entityManagerFactory = entityManagerFactory;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.phoneSuggestionIndex = phoneSuggestionIndex;
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getCatalogIndex();
+    }
+
+    @PostConstruct
+    public void init() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class)
+            .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+        topicRegistration = topic.addMessageListener(this::received);
+        queries = metricRegistry.timer(METRIC_PREFIX + ".queries");
+        fallbacks = metricRegistry.meter(METRIC_PREFIX + ".fallbacks");
+        rebuilds = metricRegistry.timer(METRIC_PREFIX + ".rebuilds");
+        drifts = metricRegistry.meter(METRIC_PREFIX + ".drifts");
+        metricRegistry.register(METRIC_PREFIX + ".rows", (Gauge<Integer>) () -> {
+            PhoneColumnStore current = store;
+            return current == null ? 0 : current.size();
+        });
+        metricRegistry.register(METRIC_PREFIX + ".memory", (Gauge<Long>) () -> {
+            PhoneColumnStore current = store;
+            return current == null ? 0 : current.getMemoryUsage();
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // Hazelcast may be shut down first, see CacheConfiguration
+        if (hazelcastInstance.getLifecycleService().isRunning()) {
+            topic.removeMessageListener(topicRegistration);
+        }
+    }
+
+    /**
+     * Find the phones matching criteria in memory.
+     *
+     * @param criteria the filters, or null
+     * @param sort the orders, or null
+     * @param offset the number of matching phones to skip
+     * @param limit the maximum number of phones to return
+     * @return the phones with the count of all the matching phones, or null if the database must be queried
+     */
+    public PhoneColumnStore.Result find(PhoneCriteria criteria, Sort sort, long offset, int limit) {
+        PhoneColumnStore current = usableStore(criteria, sort);
+        if (current == null) {
+            return null;
+        }
+        try (Timer.Context ignored = queries.time()) {
+            return current.find(criteria, sort, offset, limit);
+        }
+    }
+
+    /**
+     * Count the phones matching criteria in memory.
+     *
+     * @param criteria the filters, or null
+     * @return the count, or null if the database must be queried
+     */
+    public Long count(PhoneCriteria criteria) {
+        PhoneColumnStore current = usableStore(criteria, null);
+        if (current == null) {
+            return null;
+        }
+        try (Timer.Context ignored = queries.time()) {
+            return current.count(criteria);
+        }
+    }
+
+    private PhoneColumnStore usableStore(PhoneCriteria criteria, Sort sort) {
+        PhoneColumnStore current = store;
+        if (!properties.isEnabled() || current == null) {
+            return null;
+        }
+        // Other transactions cannot see the phones this one has written
+        if (phoneCatalogVersion.isChangedInTransaction() || !PhoneColumnStore.supports(criteria, sort)) {
+            fallbacks.mark();
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Record phones written without the persistence context, once their transaction has committed.
+     *
+     * @param phones the phones, with their new versions
+     */
+    public void written(Collection<Phone> phones) {
+        if (!isMaintained() || phones.isEmpty()) {
+            return;
+        }
+        Changes changes = new Changes();
+        phones.forEach(changes::written);
+        publish(changes);
+    }
+
+    /**
+     * Check the store against the database, and rebuild it if they differ, or load it if there is none yet.
+     * This also runs at startup, so that a node loads its store.
+     */
+    @Scheduled(fixedDelayString = "${application.catalog-index.check-delay:300000}")
+    public void check() {
+        if (!properties.isEnabled()) {
+            // The store is dropped, as it would be outdated when the index is enabled again
+            store = null;
+            return;
+        }
+        if (store == null) {
+            rebuild();
+            return;
+        }
+        try {
+            if (isConsistent()) {
+                return;
+            }
+            Thread.sleep(RECHECK_DELAY_MS);
+            if (isConsistent()) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Could not check the in-memory phones against the database: {}", e.toString());
+            return;
+        }
+        drifts.mark();
+        log.warn("The in-memory phones differ from the database, rebuilding them");
+        rebuild();
+    }
+
+    /**
+     * Load the store from the database, unless it is being loaded already. The writes which complete meanwhile
+     * are applied again to the loaded store, as the database scan may not have seen them.
+     */
+    public void rebuild() {
+        synchronized (changesLock) {
+            if (rebuildChanges != null) {
+                log.debug("The in-memory phones are already being rebuilt");
+                return;
+            }
+            rebuildChanges = new ArrayList<>();
+        }
+        try (Timer.Context ignored = rebuilds.time()) {
+            PhoneColumnStore current = store;
+            PhoneColumnStore rebuilt = load(current == null ? FETCH_SIZE : current.size());
+            synchronized (changesLock) {
+                rebuildChanges.forEach(changes -> changes.applyTo(rebuilt));
+                store = rebuilt;
+            }
+            log.info("Loaded {} phones in memory, using about {} KB", rebuilt.size(), rebuilt.getMemoryUsage() / 1024);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the phones in memory: {}", e.toString());
+        } finally {
+            synchronized (changesLock) {
+                rebuildChanges = null;
+            }
+        }
+    }
+
+    private PhoneColumnStore load(int capacity) {
+        PhoneColumnStore loaded = new PhoneColumnStore(capacity);
+        try (StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession()) {
+            ScrollableResults results = session
+                .createQuery("select phone.id, phone.name, phone.brand, phone.price, phone.version from Phone phone")
+                .setFetchSize(FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    loaded.put(results.getLong(0), results.getString(1), results.getString(2),
+                        results.getBigDecimal(3), results.getLong(4));
+                }
+            } finally {
+                results.close();
+            }
+        }
+        return loaded;
+    }
+
+    private boolean isConsistent() {
+        PhoneColumnStore.Checksum expected;
+        try (StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession()) {
+            Object[] row = (Object[]) session.createQuery("select count(phone.id), coalesce(sum(phone.id), 0), "
+                + "coalesce(sum(phone.version), 0) from Phone phone").uniqueResult();
+            expected = new PhoneColumnStore.Checksum(((Number) row[0]).longValue(), ((Number) row[1]).longValue(),
+                ((Number) row[2]).longValue());
+        }
+        PhoneColumnStore current = store;
+        return current == null || expected.equals(current.getChecksum());
+    }
+
+    private boolean isMaintained() {
+        return properties.isEnabled() || store != null || phoneSuggestionIndex.isEnabled();
+    }
+
+    private void publish(Changes changes) {
+        // Applied at once to the store of this node, so that the next queries of the writer see the changes
+        apply(changes);
+        try {
+            topic.publish(changes);
+        } catch (RuntimeException e) {
+            log.warn("Could not send {} written phones to the other nodes: {}", changes.size(), e.toString());
+        }
+    }
+
+    private void received(Message<Changes> message) {
+        if (!message.getPublishingMember().localMember()) {
+            apply(message.getMessageObject());
+        }
+    }
+
+    private void apply(Changes changes) {
+        synchronized (changesLock) {
+            PhoneColumnStore current = store;
+            if (current != null) {
+                changes.applyTo(current);
+            }
+            if (rebuildChanges != null) {
+                rebuildChanges.add(changes);
+            }
+        }
+        changes.applyTo(phoneSuggestionIndex);
+    }
+
+    private Changes changesOf(EventSource session) {
+        return sessionChanges.computeIfAbsent(session, s -> {
+            // Registered once per session and transaction, for all the phones it writes
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, completedSession) -> {
+                Changes changes = sessionChanges.remove(completedSession);
+                if (success && changes != null) {
+                    publish(changes);
+                }
+            });
+            return new Changes();
+        });
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Phone && isMaintained()) {
+            changesOf(event.getSession()).written((Phone) event.getEntity(), version(event.getPersister(), event.getState()));
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Phone && isMaintained()) {
+            changesOf(event.getSession()).written((Phone) event.getEntity(), version(event.getPersister(), event.getState()));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Phone && isMaintained()) {
+            changesOf(event.getSession()).deleted((Long) event.getId());
+        }
+    }
+
+    private static Long version(EntityPersister persister, Object[] state) {
+        // The state has the version written, which the entity may not have yet
+        return (Long) state[persister.getVersionProperty()];
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    /**
+     * Phones written and deleted by a transaction, in order.
+     */
+    static class Changes implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<PhoneDTO> writtenPhones = new ArrayList<>();
+
+        private final List<Long> deletedIds = new ArrayList<>();
+
+        void written(Phone phone) {
+            written(phone, phone.getVersion());
+        }
+
+        synchronized void written(Phone phone, Long version) {
+            writtenPhones.add(new PhoneDTO(phone.getId(), phone.getName(), phone.getBrand(), phone.getPrice(), version));
+        }
+
+        synchronized void deleted(Long id) {
+            deletedIds.add(id);
+        }
+
+        synchronized int size() {
+            return writtenPhones.size() + deletedIds.size();
+        }
+
+        synchronized void applyTo(PhoneColumnStore store) {
+            // Deletions are final, so they may be applied after the writes of the same transaction
+            for (PhoneDTO phone : writtenPhones) {
+                store.put(phone.getId(), phone.getName(), phone.getBrand(), phone.getPrice(), phone.getVersion());
+            }
+            deletedIds.forEach(store::remove);
+        }
+
+        synchronized void applyTo(PhoneSuggestionIndex suggestionIndex) {
+            suggestionIndex.apply(writtenPhones, deletedIds);
+        }
+    }
+}
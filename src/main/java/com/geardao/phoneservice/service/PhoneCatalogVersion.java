@@ -0,0 +1,113 @@
+package com.geardao.phoneservice.service;
+
+import com.geardao.phoneservice.domain.Phone;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Cluster-wide version of the phone catalog, incremented whenever phones are written.
+ * <p>
+ * Results computed from the whole catalog, like counts, are cached under the current version, so that
+ * a write makes them unreachable at once on every node. The version is incremented by Hibernate event
+ * listeners, so that every write through the persistence context is seen, once its transaction completes:
+ * until then, {@link #isChangedInTransaction()} tells that the transaction sees phones others do not.
+ */
+@Service
+public class PhoneCatalogVersion implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+    private static final String NAME = "phoneCatalogVersion";
+
+    private final IAtomicLong version;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public PhoneCatalogVersion(HazelcastInstance hazelcastInstance, EntityManagerFactory entityManagerFactory) {
+        this.version = hazelcastInstance.getAtomicLong(NAME);
+        this.entityManagerFactory = entityManagerFactory;
+        // The version is also published in ETags: starting a new cluster from the clock, rather than from 0,
+        // keeps it from going back to values which clients may still hold
+        this.version.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    @PostConstruct
+    public void registerListeners() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class)
+            .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    /**
+     * @return the current version of the catalog
+     */
+    public long get() {
+        return version.get();
+    }
+
+    /**
+     * @return true if the current transaction has written phones, which other transactions cannot see yet
+     */
+    public boolean isChangedInTransaction() {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+
+    /**
+     * Record a write of phones: the version is incremented when the current transaction completes,
+     * or at once outside of a transaction.
+     */
+    public void changed() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            version.incrementAndGet();
+            return;
+        }
+        if (isChangedInTransaction()) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                // Also on rollback, as results may have been computed from the rolled back phones
+                TransactionSynchronizationManager.unbindResourceIfPossible(PhoneCatalogVersion.this);
+                version.incrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Phone) {
+            changed();
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Phone) {
+            changed();
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Phone) {
+            changed();
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+}
@@ -0,0 +1,445 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.util.IdBloomFilter;
+import com.hazelcast.core.*;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongConsumer;
+
+/**
+ * Knowledge of the ids of phones which do not exist, so that lookups of missing phones are answered
+ * without reading the database.
+ * <p>
+ * The ids which were not found are cached in a Hazelcast map for a short time. Optionally, each node also
+ * keeps a Bloom filter of the ids of all the phones, which tells most missing ids without any request:
+ * it is rebuilt from the database by one node on a schedule, to drop the deleted phones, and sent to all
+ * the nodes.
+ * <p>
+ * A new phone is never hidden by the node which inserted it: before the transaction inserting it commits,
+ * its id is added to the Bloom filter of this node, and marked as present in the map, which keeps a concurrent
+ * lookup which did not find it from caching it as missing. The id is then sent to the Bloom filters of the other
+ * nodes, still before the commit: the transaction fails if any node does not add it in time, rather than let that
+ * node hide the phone until its filter is rebuilt. A deleted phone is cached as missing once its transaction commits.
+ * The ids added while a Bloom filter is rebuilt are added again to the rebuilt filter, as the database
+ * scan may not have seen them.
+ * <p>
+ * Transactions which have written phones do not use this knowledge, as they see phones others do not.
+ */
+@Service
+public class PhoneExistence implements PostInsertEventListener, PostDeleteEventListener {
+
+    /**
+     * Name of the Hazelcast map of the phone ids which are known to be missing, or to exist if false.
+     */
+    public static final String MISSING_MAP_NAME = "phoneMissingIds";
+
+    private static final String EXECUTOR_NAME = "phoneExistence";
+
+    private static final String GENERATION_NAME = "phoneIdFilterGeneration";
+
+    private static final String REBUILD_LOCK_NAME = "phoneIdFilterRebuild";
+
+    private static final String USER_CONTEXT_KEY = PhoneExistence.class.getName();
+
+    private static final String METRIC_PREFIX = "phone.existence";
+
+    private static final int BROADCAST_TIMEOUT_SECONDS = 10;
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(PhoneExistence.class);
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final IMap<Long, Boolean> missingIds;
+
+    private final IAtomicLong generation;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.NegativeCache properties;
+
+    /**
+     * Ids inserted in the current flush of each session, added to the Bloom filters before the transaction commits.
+     */
+    private final ConcurrentMap<SharedSessionContractImplementor, Set<Long>> insertedIds = new ConcurrentHashMap<>();
+
+    /**
+     * Ids added to the Bloom filter of this node, with the generation of the filter when they were added.
+     */
+    private final ConcurrentMap<Long, Long> recentlyAddedIds = new ConcurrentHashMap<>();
+
+    private volatile IdBloomFilter filter;
+
+    private Meter negativeHits;
+
+    private Meter filterRejections;
+
+    public PhoneExistence(HazelcastInstance hazelcastInstance, EntityManagerFactory entityManagerFactory,
+                          PhoneCatalogVersion phoneCatalogVersion, MetricRegistry metricRegistry,
+                          ApplicationProperties applicationProperties) {
+        this.hazelcastInstance = hazelcastInstance;
+        this.missingIds = hazelcastInstance.getMap(MISSING_MAP_NAME);
+        this.generation = hazelcastInstance.getAtomicLong(GENERATION_NAME);
+        this.entityManagerFactory = entityManagerFactory;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getNegativeCache();
+    }
+
+    @PostConstruct
+    public void init() {
+        // Found by the tasks sent to this member, see AddIds and InstallFilter
+        hazelcastInstance.getUserContext().put(USER_CONTEXT_KEY, this);
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImpl.class)
+            .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+        negativeHits = metricRegistry.meter(METRIC_PREFIX + ".negative-cache.hits");
+        filterRejections = metricRegistry.meter(METRIC_PREFIX + ".bloom-filter.rejections");
+        metricRegistry.register(METRIC_PREFIX + ".bloom-filter.fill-ratio", new CachedGauge<Double>(1, TimeUnit.MINUTES) {
+            @Override
+            protected Double loadValue() {
+                IdBloomFilter current = filter;
+                return current == null ? 0 : current.getFillRatio();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // Hazelcast may be shut down first, see CacheConfiguration
+        if (hazelcastInstance.getLifecycleService().isRunning()) {
+            hazelcastInstance.getUserContext().remove(USER_CONTEXT_KEY, this);
+        }
+    }
+
+    /**
+     * @param id the id of a phone
+     * @return true if the phone is known not to exist, false if it may exist
+     */
+    public boolean isKnownMissing(Long id) {
+        if (id == null || !isUsable()) {
+            return false;
+        }
+        IdBloomFilter current = filter;
+        if (current != null && !current.mightContain(id)) {
+            filterRejections.mark();
+            return true;
+        }
+        if (Boolean.TRUE.equals(missingIds.get(id))) {
+            negativeHits.mark();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param ids the ids of phones
+     * @return the ids of the phones known not to exist
+     */
+    public Set<Long> findKnownMissing(Collection<Long> ids) {
+        Set<Long> missing = new HashSet<>();
+        if (!isUsable()) {
+            return missing;
+        }
+        IdBloomFilter current = filter;
+        Set<Long> maybeExisting = new HashSet<>();
+        for (Long id : ids) {
+            if (current != null && !current.mightContain(id)) {
+                missing.add(id);
+            } else {
+                maybeExisting.add(id);
+            }
+        }
+        filterRejections.mark(missing.size());
+        if (!maybeExisting.isEmpty()) {
+            missingIds.getAll(maybeExisting).forEach((id, isMissing) -> {
+                if (isMissing) {
+                    missing.add(id);
+                    negativeHits.mark();
+                }
+            });
+        }
+        return missing;
+    }
+
+    /**
+     * Record that phones were not found, unless they have been inserted meanwhile.
+     *
+     * @param ids the ids of the phones
+     */
+    public void notFound(Collection<Long> ids) {
+        if (!isUsable()) {
+            return;
+        }
+        for (Long id : ids) {
+            missingIds.putIfAbsent(id, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Record that phones were inserted: this must be called before their transaction commits, which fails
+     * if they cannot be recorded in every node.
+     * <p>
+     * The ids are added to the Bloom filter of this node in the calling thread, then sent to the other nodes.
+     *
+     * @param ids the ids of the phones
+     * @throws IllegalStateException if a node does not add the ids to its Bloom filter in time
+     */
+    public void inserted(Collection<Long> ids) {
+        if (!properties.isEnabled() || ids.isEmpty()) {
+            return;
+        }
+        Map<Long, Boolean> present = new HashMap<>();
+        ids.forEach(id -> present.put(id, Boolean.FALSE));
+        missingIds.putAll(present);
+        if (!properties.isBloomFilter()) {
+            return;
+        }
+        List<Long> addedIds = new ArrayList<>(ids);
+        long idsGeneration = generation.get();
+        addToFilter(addedIds, idsGeneration);
+        Set<Member> otherMembers = new HashSet<>(hazelcastInstance.getCluster().getMembers());
+        otherMembers.remove(hazelcastInstance.getCluster().getLocalMember());
+        if (otherMembers.isEmpty()) {
+            return;
+        }
+        Map<Member, Future<Object>> additions = hazelcastInstance.getExecutorService(EXECUTOR_NAME)
+            .submitToMembers(new AddIds(addedIds, idsGeneration), otherMembers);
+        List<Member> failedMembers = new ArrayList<>();
+        additions.forEach((member, addition) -> {
+            try {
+                addition.get(BROADCAST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedMembers.add(member);
+            } catch (ExecutionException | TimeoutException e) {
+                failedMembers.add(member);
+            }
+        });
+        if (!failedMembers.isEmpty()) {
+            // Their filters would hide the phones until the next rebuild, as one started now may scan before the commit
+            throw new IllegalStateException("Could not add " + ids.size() + " phone ids to the Bloom filters of " + failedMembers);
+        }
+    }
+
+    /**
+     * Rebuild the Bloom filters of all the nodes from the database, unless another node is rebuilding them.
+     * This also runs at startup, so that a new node gets a filter.
+     */
+    @Scheduled(fixedDelayString = "${application.negative-cache.bloom-rebuild-delay:3600000}")
+    public void rebuildFilter() {
+        if (!properties.isEnabled() || !properties.isBloomFilter()) {
+            return;
+        }
+        Lock lock = hazelcastInstance.getLock(REBUILD_LOCK_NAME);
+        if (!lock.tryLock()) {
+            log.debug("The Bloom filter of the phone ids is already being rebuilt");
+            return;
+        }
+        try {
+            // The ids added from now on are kept by the nodes, and added again to the rebuilt filter
+            long filterGeneration = generation.incrementAndGet();
+            IdBloomFilter rebuilt = new IdBloomFilter(properties.getBloomBits(), properties.getBloomHashes());
+            long count = scanIds(rebuilt::add);
+            Map<Member, Future<Object>> installations = hazelcastInstance.getExecutorService(EXECUTOR_NAME)
+                .submitToAllMembers(new InstallFilter(rebuilt.toSnapshot(), filterGeneration));
+            for (Map.Entry<Member, Future<Object>> installation : installations.entrySet()) {
+                try {
+                    installation.getValue().get(BROADCAST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    log.warn("Could not install the Bloom filter of the phone ids in {}: {}", installation.getKey(), e.toString());
+                }
+            }
+            log.info("Rebuilt the Bloom filter of {} phone ids, {}% filled", count, Math.round(rebuilt.getFillRatio() * 100));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Could not rebuild the Bloom filter of the phone ids: {}", e.toString());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long scanIds(LongConsumer consumer) {
+        try (StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession()) {
+            ScrollableResults results = session.createQuery("select phone.id from Phone phone")
+                .setFetchSize(FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            long count = 0;
+            try {
+                while (results.next()) {
+                    consumer.accept(results.getLong(0));
+                    count++;
+                }
+            } finally {
+                results.close();
+            }
+            return count;
+        }
+    }
+
+    private boolean isUsable() {
+        return properties.isEnabled() && !phoneCatalogVersion.isChangedInTransaction();
+    }
+
+    private void addToFilter(List<Long> ids, long idsGeneration) {
+        for (Long id : ids) {
+            // Recorded first, so that a filter installed meanwhile gets the id too, see installFilter
+            recentlyAddedIds.put(id, idsGeneration);
+            IdBloomFilter current = filter;
+            if (current != null) {
+                current.add(id);
+            }
+        }
+    }
+
+    private void installFilter(IdBloomFilter.Snapshot snapshot, long filterGeneration) {
+        IdBloomFilter installed = IdBloomFilter.fromSnapshot(snapshot);
+        // The ids of the previous generation may have been committed after the database scan started
+        recentlyAddedIds.values().removeIf(idGeneration -> idGeneration < filterGeneration - 1);
+        recentlyAddedIds.keySet().forEach(installed::add);
+        filter = installed;
+        recentlyAddedIds.keySet().forEach(installed::add);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (!(event.getEntity() instanceof Phone) || !properties.isEnabled()) {
+            return;
+        }
+        EventSource session = event.getSession();
+        insertedIds.computeIfAbsent(session, s -> {
+            // Registered once per session and transaction, for all the phones it inserts
+            session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) completingSession -> {
+                Set<Long> ids = insertedIds.remove(completingSession);
+                if (ids != null) {
+                    inserted(ids);
+                }
+            });
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, completedSession) ->
+                insertedIds.remove(completedSession));
+            return ConcurrentHashMap.newKeySet();
+        }).add((Long) event.getId());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (!(event.getEntity() instanceof Phone) || !properties.isEnabled()) {
+            return;
+        }
+        Long id = (Long) event.getId();
+        event.getSession().getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, session) -> {
+            if (success) {
+                missingIds.set(id, Boolean.TRUE);
+            }
+        });
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private static PhoneExistence getInstance(HazelcastInstance hazelcastInstance) {
+        return (PhoneExistence) hazelcastInstance.getUserContext().get(USER_CONTEXT_KEY);
+    }
+
+    /**
+     * Adds ids to the Bloom filter of the member it runs on.
+     */
+    private static class AddIds implements Callable<Object>, HazelcastInstanceAware, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Long> ids;
+
+        private final long generation;
+
+        private transient HazelcastInstance hazelcastInstance;
+
+        AddIds(List<Long> ids, long generation) {
+            this.ids = ids;
+            this.generation = generation;
+        }
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+            this.hazelcastInstance = hazelcastInstance;
+        }
+
+        @Override
+        public Object call() {
+            PhoneExistence phoneExistence = getInstance(hazelcastInstance);
+            if (phoneExistence != null) {
+                phoneExistence.addToFilter(ids, generation);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the Bloom filter of the member it runs on.
+     */
+    private static class InstallFilter implements Callable<Object>, HazelcastInstanceAware, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IdBloomFilter.Snapshot snapshot;
+
+        private final long generation;
+
+        private transient HazelcastInstance hazelcastInstance;
+
+        InstallFilter(IdBloomFilter.Snapshot snapshot, long generation) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+        }
+
+        @Override
+        public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+            this.hazelcastInstance = hazelcastInstance;
+        }
+
+        @Override
+        public Object call() {
+            PhoneExistence phoneExistence = getInstance(hazelcastInstance);
+            if (phoneExistence != null) {
+                phoneExistence.installFilter(snapshot, generation);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.dto.PhoneCriteria;
+import com.geardao.phoneservice.service.dto.PhoneFacetsDTO;
+import com.geardao.phoneservice.service.util.PhoneSearchQuery;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import io.github.jhipster.service.filter.RangeFilter;
+import io.github.jhipster.service.filter.StringFilter;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.filter;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.histogram;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.stats;
+import static org.elasticsearch.search.aggregations.AggregationBuilders.terms;
+
+/**
+ * Service computing the facets of the phones matching a search query and criteria: the count of phones per
+ * brand, the price histogram and the price statistics. The histogram is computed by a second Elasticsearch request,
+ * once the price statistics tell how many buckets the interval gives, which application.facets.max-buckets bounds.
+ * <p>
+ * The criteria are translated to filters with the semantics of {@link PhoneQueryService}: the equality filters of
+ * names and brands apply to their not analyzed "raw" sub-fields. Their "contains" filters are rejected, as they would
+ * scan every term of these sub-fields: the words of names and brands are searched by prefix in the query instead.
+ * <p>
+ * Facets are cached by normalized query, under the current {@link PhoneCatalogVersion} and version of the search
+ * index: writes to phones make them stale, and so does the indexing of these writes, which lags behind them.
+ * The hits and misses are published under phone.facets.
+ */
+@Service
+public class PhoneFacetService {
+
+    /**
+     * Name of the Hazelcast map caching the facets, by versions and normalized query.
+     */
+    public static final String FACETS_MAP_NAME = "phoneFacets";
+
+    private static final String METRIC_PREFIX = "phone.facets";
+
+    private final Logger log = LoggerFactory.getLogger(PhoneFacetService.class);
+
+    private final ElasticsearchTemplate elasticsearchTemplate;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final PhoneSearchIndexer phoneSearchIndexer;
+
+    private final IMap<String, PhoneFacetsDTO> facets;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.Facets properties;
+
+    private final ApplicationProperties.Search searchProperties;
+
+    private Meter hits;
+
+    private Meter misses;
+
+    private Timer searchTimer;
+
+    public PhoneFacetService(ElasticsearchTemplate elasticsearchTemplate, PhoneCatalogVersion phoneCatalogVersion,
+                             PhoneSearchIndexer phoneSearchIndexer, HazelcastInstance hazelcastInstance,
+                             MetricRegistry metricRegistry, ApplicationProperties applicationProperties) {
+        this.elasticsearchTemplate = elasticsearchTemplate;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.phoneSearchIndexer = phoneSearchIndexer;
+        this.facets = hazelcastInstance.getMap(FACETS_MAP_NAME);
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getFacets();
+        this.searchProperties = applicationProperties.getSearch();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        hits = metricRegistry.meter(METRIC_PREFIX + ".hits");
+        misses = metricRegistry.meter(METRIC_PREFIX + ".misses");
+        searchTimer = metricRegistry.timer(METRIC_PREFIX + ".search");
+    }
+
+    /**
+     * Add the "raw" sub-fields of names and brands to the mapping of an index created before them, once the
+     * application has started, so that the phones indexed from now on can be aggregated and filtered on them.
+     * The phones indexed before are only found once the index is rebuilt, see {@link PhoneSearchReindexer}.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void updateMapping() {
+        try {
+            if (!elasticsearchTemplate.indexExists(Phone.class)) {
+                elasticsearchTemplate.createIndex(Phone.class);
+            }
+            elasticsearchTemplate.putMapping(Phone.class);
+        } catch (RuntimeException e) {
+            log.warn("Could not update the mapping of the Phone index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Return the facets of the phones matching a search query and criteria.
+     *
+     * @param criteria the criteria the phones should match, or null
+     * @param query the query of the phone search, or null to match all the phones
+     * @param priceInterval the width of the buckets of the price histogram, or null for application.facets.price-interval
+     * @param brands the number of brands to count, or null for application.facets.brands
+     * @return the facets of the matching phones
+     * @throws IllegalArgumentException if the interval is not positive, or gives more than application.facets.max-buckets
+     * buckets for the prices of the matching phones, or the number of brands is not between 1 and
+     * application.facets.max-brands, or the query is not valid, or the criteria filter names or brands by
+     * "contains"
+     */
+    public PhoneFacetsDTO getFacets(PhoneCriteria criteria, String query, Long priceInterval, Integer brands) {
+        long interval = priceInterval == null ? properties.getPriceInterval() : priceInterval;
+        int size = brands == null ? properties.getBrands() : brands;
+        if (interval < 1) {
+            throw new IllegalArgumentException("the price interval must be positive");
+        }
+        if (size < 1 || size > properties.getMaxBrands()) {
+            throw new IllegalArgumentException("the number of brands must be between 1 and " + properties.getMaxBrands());
+        }
+        String normalizedQuery;
+        QueryBuilder searchQuery;
+        if (searchProperties.isQueryString()) {
+            normalizedQuery = query == null ? "" : query.trim().replaceAll("\\s+", " ");
+            searchQuery = normalizedQuery.isEmpty() ? matchAllQuery() : queryStringQuery(normalizedQuery);
+        } else {
+            PhoneSearchQuery parsedQuery = PhoneSearchQuery.parse(query);
+            normalizedQuery = parsedQuery.toString();
+            searchQuery = parsedQuery.toQueryBuilder();
+        }
+        // Read before searching, so that facets are never cached under more recent versions than their phones
+        String key = phoneCatalogVersion.get() + ":" + phoneSearchIndexer.getVersion() + ":"
+            + (criteria == null ? new PhoneCriteria() : criteria).toCacheKey()
+            + "query" + normalizedQuery.length() + ":" + normalizedQuery
+            + "interval" + interval + "brands" + size;
+        PhoneFacetsDTO cached = facets.get(key);
+        if (cached != null) {
+            hits.mark();
+            return cached;
+        }
+        misses.mark();
+        PhoneFacetsDTO result = search(criteria, searchQuery, interval, size);
+        facets.set(key, result);
+        return result;
+    }
+
+    private PhoneFacetsDTO search(PhoneCriteria criteria, QueryBuilder query, long interval, int brands) {
+        BoolQueryBuilder searchQuery = boolQuery().must(query);
+        if (criteria != null) {
+            addFilters(searchQuery, "id", criteria.getId(), id -> id);
+            addFilters(searchQuery, "name", criteria.getName());
+            addFilters(searchQuery, "brand", criteria.getBrand());
+            addFilters(searchQuery, "price", criteria.getPrice(), BigDecimal::doubleValue);
+        }
+        SearchResponse response = search(searchQuery, terms("brands").field("brand.raw").size(brands),
+            stats("price_stats").field("price"));
+
+        PhoneFacetsDTO result = new PhoneFacetsDTO();
+        result.setTotal(response.getHits().getTotalHits());
+        Terms brandTerms = response.getAggregations().get("brands");
+        result.setBrands(brandTerms.getBuckets().stream()
+            .map(bucket -> new PhoneFacetsDTO.BrandCount(bucket.getKeyAsString(), bucket.getDocCount()))
+            .collect(Collectors.toList()));
+        result.setOtherBrands(brandTerms.getSumOfOtherDocCounts());
+        result.setPriceInterval(interval);
+        Stats priceStats = response.getAggregations().get("price_stats");
+        PhoneFacetsDTO.PriceStats stats = new PhoneFacetsDTO.PriceStats();
+        stats.setCount(priceStats.getCount());
+        result.setPriceStats(stats);
+        if (priceStats.getCount() == 0) {
+            result.setPrices(Collections.emptyList());
+            return result;
+        }
+        stats.setMin(BigDecimal.valueOf(priceStats.getMin()));
+        stats.setMax(BigDecimal.valueOf(priceStats.getMax()));
+        stats.setAvg(BigDecimal.valueOf(priceStats.getAvg()));
+        stats.setSum(BigDecimal.valueOf(priceStats.getSum()));
+
+        // The histogram has a bucket for every interval between the minimum and maximum prices, even empty
+        long min = (long) Math.floor(priceStats.getMin());
+        long max = (long) Math.floor(priceStats.getMax());
+        long buckets = Math.floorDiv(max, interval) - Math.floorDiv(min, interval) + 1;
+        if (buckets > properties.getMaxBuckets()) {
+            long minInterval = (max - min) / Math.max(properties.getMaxBuckets() - 1, 1) + 1;
+            throw new IllegalArgumentException("the price interval must be at least " + minInterval
+                + " for the prices of these phones");
+        }
+        // Bounded by the prices of the statistics, whatever the phones indexed since
+        Filter priced = search(searchQuery, filter("priced")
+            .filter(rangeQuery("price").gte(priceStats.getMin()).lte(priceStats.getMax()))
+            .subAggregation(histogram("prices").field("price").interval(interval).minDocCount(0)))
+            .getAggregations().get("priced");
+        Histogram prices = priced.getAggregations().get("prices");
+        result.setPrices(prices.getBuckets().stream()
+            .map(bucket -> new PhoneFacetsDTO.PriceBucket(BigDecimal.valueOf(((Number) bucket.getKey()).longValue()), bucket.getDocCount()))
+            .collect(Collectors.toList()));
+        return result;
+    }
+
+    private SearchResponse search(QueryBuilder query, AbstractAggregationBuilder... aggregations) {
+        ElasticsearchPersistentEntity<?> persistentEntity = elasticsearchTemplate.getPersistentEntityFor(Phone.class);
+        SearchRequestBuilder request = elasticsearchTemplate.getClient()
+            .prepareSearch(persistentEntity.getIndexName())
+            .setTypes(persistentEntity.getIndexType())
+            .setQuery(query)
+            .setSize(0);
+        for (AbstractAggregationBuilder aggregation : aggregations) {
+            request.addAggregation(aggregation);
+        }
+        try (Timer.Context ignored = searchTimer.time()) {
+            return request.get();
+        }
+    }
+
+    private static void addFilters(BoolQueryBuilder searchQuery, String field, StringFilter filter) {
+        if (filter == null) {
+            return;
+        }
+        String rawField = field + ".raw";
+        if (filter.getEquals() != null) {
+            searchQuery.filter(termQuery(rawField, filter.getEquals()));
+        } else if (filter.getIn() != null) {
+            searchQuery.filter(termsQuery(rawField, filter.getIn()));
+        } else if (filter.getContains() != null) {
+            throw new IllegalArgumentException("the " + field + ".contains filter is not supported, search "
+                + field + ":prefix* in the query instead");
+        } else if (filter.getSpecified() != null) {
+            addSpecifiedFilter(searchQuery, field, filter.getSpecified());
+        }
+    }
+
+    private static <T extends Comparable<? super T>> void addFilters(BoolQueryBuilder searchQuery, String field,
+                                                                     RangeFilter<T> filter, Function<T, Object> value) {
+        if (filter == null) {
+            return;
+        }
+        if (filter.getEquals() != null) {
+            searchQuery.filter(termQuery(field, value.apply(filter.getEquals())));
+            return;
+        }
+        if (filter.getIn() != null) {
+            List<Object> values = filter.getIn().stream().map(value).collect(Collectors.toList());
+            searchQuery.filter(termsQuery(field, values));
+            return;
+        }
+        if (filter.getSpecified() != null) {
+            addSpecifiedFilter(searchQuery, field, filter.getSpecified());
+        }
+        if (hasBounds(filter)) {
+            RangeQueryBuilder range = rangeQuery(field);
+            if (filter.getGreaterThan() != null) {
+                range.gt(value.apply(filter.getGreaterThan()));
+            }
+            if (filter.getGreaterOrEqualThan() != null) {
+                range.gte(value.apply(filter.getGreaterOrEqualThan()));
+            }
+            if (filter.getLessThan() != null) {
+                range.lt(value.apply(filter.getLessThan()));
+            }
+            if (filter.getLessOrEqualThan() != null) {
+                range.lte(value.apply(filter.getLessOrEqualThan()));
+            }
+            searchQuery.filter(range);
+        }
+    }
+
+    private static boolean hasBounds(RangeFilter<?> filter) {
+        return filter.getGreaterThan() != null || filter.getGreaterOrEqualThan() != null
+            || filter.getLessThan() != null || filter.getLessOrEqualThan() != null;
+    }
+
+    private static void addSpecifiedFilter(BoolQueryBuilder searchQuery, String field, Boolean specified) {
+        QueryBuilder exists = existsQuery(field);
+        searchQuery.filter(specified ? exists : boolQuery().mustNot(exists));
+    }
+}
@@ -0,0 +1,661 @@
+package com.geardao.phoneservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.domain.PhoneSearchOutbox;
+import com.geardao.phoneservice.repository.PhoneRepositoryCustom;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.ImportJobDTO;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.mapper.PhoneMapper;
+import com.geardao.phoneservice.service.util.PhoneCsvReader;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Service importing phone catalogs, given as CSV or as NDJSON, in the background.
+ * <p>
+ * The upload is spooled to a temporary file, so that the request completes at once, then an import runs
+ * three stages, connected by bounded queues so that a slow stage holds back the earlier ones instead of
+ * buffering the catalog in memory:
+ * <ol>
+ * <li>the parser streams the rows of the file, validates them, and groups them in chunks;</li>
+ * <li>the writer inserts or updates each chunk, with its search outbox entries and the statistics of its brands,
+ * in one transaction of a stateless session; a failed chunk is replayed one row at a time to find the rows at fault;</li>
+ * <li>the indexer sends each written chunk to Elasticsearch in one bulk request, then removes the outbox
+ * entries of the indexed phones: the others are left to {@link PhoneSearchIndexer}.</li>
+ * </ol>
+ * The status of each import is kept in a cluster-wide map, so that it can be followed from any node.
+ */
+@Service
+public class PhoneImporter {
+
+    /**
+     * Name of the cluster-wide map holding the status of the imports.
+     */
+    public static final String JOBS_MAP_NAME = "phoneImportJobs";
+
+    private static final List<Row> END_OF_ROWS = Collections.emptyList();
+
+    private static final WrittenChunk END_OF_WRITES = new WrittenChunk();
+
+    private final Logger log = LoggerFactory.getLogger(PhoneImporter.class);
+
+    private final SessionFactory sessionFactory;
+
+    private final PhoneMapper phoneMapper;
+
+    private final Validator validator;
+
+    private final ObjectMapper objectMapper;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final PhoneExistence phoneExistence;
+
+    private final PhoneWriteBehind phoneWriteBehind;
+
+    private final PhoneCatalogIndex phoneCatalogIndex;
+
+    private final PhoneBrandStatistics phoneBrandStatistics;
+
+    private final PhoneSearchIndexer phoneSearchIndexer;
+
+    private final PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final IMap<String, ImportJobDTO> jobs;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.BulkImport properties;
+
+    private final Semaphore jobSlots;
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    public PhoneImporter(EntityManagerFactory entityManagerFactory, PhoneMapper phoneMapper, Validator validator,
+                         ObjectMapper objectMapper, PhoneCatalogVersion phoneCatalogVersion, PhoneExistence phoneExistence,
+                         PhoneWriteBehind phoneWriteBehind, PhoneCatalogIndex phoneCatalogIndex,
+                         PhoneBrandStatistics phoneBrandStatistics, PhoneSearchIndexer phoneSearchIndexer,
+                         PhoneSearchOutboxRepository phoneSearchOutboxRepository, PlatformTransactionManager transactionManager,
+                         HazelcastInstance hazelcastInstance, @Qualifier("taskExecutor") Executor taskExecutor,
+                         ApplicationProperties applicationProperties) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.phoneMapper = phoneMapper;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.phoneExistence = phoneExistence;
+        this.phoneWriteBehind = phoneWriteBehind;
+        this.phoneCatalogIndex = phoneCatalogIndex;
+        this.phoneBrandStatistics = phoneBrandStatistics;
+        this.phoneSearchIndexer = phoneSearchIndexer;
+        this.phoneSearchOutboxRepository = phoneSearchOutboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jobs = hazelcastInstance.getMap(JOBS_MAP_NAME);
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getBulkImport();
+        this.jobSlots = new Semaphore(Math.max(1, properties.getMaxConcurrentJobs()));
+    }
+
+    /**
+     * Start an import in the background.
+     * <p>
+     * The input is read before returning, and is expected in UTF-8.
+     *
+     * @param input the catalog to import
+     * @param format the format of the catalog
+     * @return the status of the import, or empty if too many imports are already running on this node
+     * @throws IOException if the input cannot be spooled to a temporary file
+     */
+    public Optional<ImportJobDTO> start(InputStream input, ImportJobDTO.Format format) throws IOException {
+        if (!jobSlots.tryAcquire()) {
+            return Optional.empty();
+        }
+        Path file = null;
+        try {
+            file = Files.createTempFile("phone-import-", "." + format.name().toLowerCase(Locale.ROOT));
+            Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+            Job job = new Job(UUID.randomUUID().toString(), format);
+            publish(job);
+            Path spooledFile = file;
+            taskExecutor.execute(() -> run(job, spooledFile));
+            return Optional.of(job.toStatus());
+        } catch (IOException | RuntimeException e) {
+            jobSlots.release();
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param id the id of the import
+     * @return the progress of the import, or its outcome, or null if there is no such import
+     */
+    public ImportJobDTO getStatus(String id) {
+        return jobs.get(id);
+    }
+
+    private void run(Job job, Path file) {
+        log.info("Importing Phones from {} as {}, in import {}", file, job.format, job.id);
+        BlockingQueue<List<Row>> rows = new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity()));
+        BlockingQueue<WrittenChunk> writtenChunks = new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity()));
+        ExecutorService stages = Executors.newFixedThreadPool(2,
+            runnable -> new Thread(runnable, "phoneservice-import-" + threadNumber.incrementAndGet()));
+        try {
+            Future<?> writer = stages.submit(() -> runStage(job, () -> write(job, rows, writtenChunks)));
+            Future<?> indexer = stages.submit(() -> runStage(job, () -> index(job, writtenChunks)));
+            runStage(job, () -> parse(job, file, rows));
+            writer.get();
+            indexer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.abort("Interrupted");
+        } catch (ExecutionException e) {
+            job.abort(e.getMessage());
+        } finally {
+            stages.shutdownNow();
+            job.finish();
+            publish(job);
+            jobSlots.release();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete {}: {}", file, e.getMessage());
+            }
+        }
+        log.info("Imported Phones in import {}: {}", job.id, job.toStatus());
+    }
+
+    private void runStage(Job job, Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.abort("Interrupted");
+        } catch (Exception e) {
+            log.error("Import {} failed", job.id, e);
+            job.abort(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    private void parse(Job job, Path file, BlockingQueue<List<Row>> rows) throws IOException, InterruptedException {
+        int chunkSize = Math.max(1, properties.getChunkSize());
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RowReader rowReader = job.format == ImportJobDTO.Format.CSV ? csvRowReader(reader) : ndjsonRowReader(reader);
+            int index = 0;
+            for (Row row = rowReader.next(index); row != null; row = rowReader.next(++index)) {
+                job.read.incrementAndGet();
+                String error = row.error != null ? row.error : validate(row.phone);
+                if (error != null) {
+                    job.reject(BulkItemResultDTO.failed(row.index, row.phone == null ? null : row.phone.getId(), error));
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == chunkSize) {
+                    if (!offer(job, rows, chunk)) {
+                        return;
+                    }
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+        }
+        if (!chunk.isEmpty() && !offer(job, rows, chunk)) {
+            return;
+        }
+        offer(job, rows, END_OF_ROWS);
+    }
+
+    private RowReader csvRowReader(Reader reader) throws IOException {
+        PhoneCsvReader csvReader = new PhoneCsvReader(reader, properties.getMaxRowLength());
+        csvReader.readHeader();
+        return index -> {
+            List<String> record;
+            try {
+                record = csvReader.readRecord();
+            } catch (IllegalArgumentException e) {
+                // The end of the record is unknown, so the rest of the file cannot be read
+                throw new IllegalArgumentException("Row " + index + ": " + e.getMessage());
+            }
+            if (record == null) {
+                return null;
+            }
+            try {
+                return new Row(index, csvReader.toPhone(record), null);
+            } catch (IllegalArgumentException e) {
+                return new Row(index, null, e.getMessage());
+            }
+        };
+    }
+
+    private RowReader ndjsonRowReader(Reader reader) {
+        int maxRowLength = properties.getMaxRowLength();
+        StringBuilder line = new StringBuilder();
+        return index -> {
+            int length;
+            do {
+                length = readLine(reader, line, maxRowLength);
+            } while (length == 0);
+            if (length < 0) {
+                return null;
+            }
+            if (length > maxRowLength) {
+                return new Row(index, null, "Row longer than " + maxRowLength + " characters");
+            }
+            try {
+                PhoneDTO phone = objectMapper.readValue(line.toString(), PhoneDTO.class);
+                return new Row(index, phone, phone == null ? "Invalid phone" : null);
+            } catch (JsonProcessingException e) {
+                return new Row(index, null, "Invalid JSON: " + e.getOriginalMessage());
+            }
+        };
+    }
+
+    /**
+     * Read a line, keeping at most maxLength characters of it.
+     *
+     * @return the length of the line, without its trailing whitespace, or -1 at the end of the input
+     */
+    private int readLine(Reader reader, StringBuilder line, int maxLength) throws IOException {
+        line.setLength(0);
+        int c = reader.read();
+        if (c == -1) {
+            return -1;
+        }
+        int length = 0;
+        int trimmedLength = 0;
+        for (; c != -1 && c != '\n'; c = reader.read()) {
+            length++;
+            if (!Character.isWhitespace(c)) {
+                trimmedLength = length;
+            }
+            if (length <= maxLength) {
+                line.append((char) c);
+            }
+        }
+        if (trimmedLength <= maxLength) {
+            line.setLength(trimmedLength);
+        }
+        return trimmedLength;
+    }
+
+    private String validate(PhoneDTO phoneDTO) {
+        Set<ConstraintViolation<PhoneDTO>> violations = validator.validate(phoneDTO);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+            .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+            .sorted()
+            .collect(Collectors.joining(", "));
+    }
+
+    private void write(Job job, BlockingQueue<List<Row>> rows, BlockingQueue<WrittenChunk> writtenChunks) throws InterruptedException {
+        List<Row> chunk;
+        while ((chunk = take(job, rows)) != null) {
+            if (chunk == END_OF_ROWS) {
+                offer(job, writtenChunks, END_OF_WRITES);
+                return;
+            }
+            WrittenChunk written = phoneWriteBehind.isEnabled() ? writeChunkBehind(chunk) : writeChunk(chunk);
+            job.created.addAndGet(written.created);
+            job.updated.addAndGet(written.updatedIds.size());
+            written.rejectedRows.forEach(job::reject);
+            if (!written.phones.isEmpty()) {
+                // The stateless session bypasses the event listeners and the second-level cache
+                phoneCatalogVersion.changed();
+                written.updatedIds.forEach(id -> sessionFactory.getCache().evictEntity(Phone.class, id));
+                phoneCatalogIndex.written(written.phones);
+                if (!offer(job, writtenChunks, written)) {
+                    return;
+                }
+            }
+            publish(job);
+        }
+    }
+
+    /**
+     * Write a chunk in write-behind mode: the phones it updates are locked in the map of the write-behind while
+     * the chunk is written, and their entries replaced with the written phones before they are unlocked.
+     */
+    private WrittenChunk writeChunkBehind(List<Row> chunk) {
+        List<Long> ids = chunk.stream().map(row -> row.phone.getId()).filter(Objects::nonNull).collect(Collectors.toList());
+        return phoneWriteBehind.writeAtOnce(ids, () -> {
+            WrittenChunk written = writeChunk(chunk);
+            Set<Long> updatedIds = new HashSet<>(written.updatedIds);
+            phoneWriteBehind.replaceWritten(written.phones.stream()
+                .filter(phone -> updatedIds.contains(phone.getId()))
+                .collect(Collectors.toList()));
+            return written;
+        });
+    }
+
+    private WrittenChunk writeChunk(List<Row> chunk) {
+        try {
+            return writeRows(chunk);
+        } catch (PersistenceException e) {
+            log.warn("Could not import a chunk of {} Phones, retrying them one by one: {}", chunk.size(), e.getMessage());
+        }
+        WrittenChunk written = new WrittenChunk();
+        for (Row row : chunk) {
+            try {
+                written.add(writeRows(Collections.singletonList(row)));
+            } catch (PersistenceException e) {
+                written.rejectedRows.add(BulkItemResultDTO.failed(row.index, row.phone.getId(), errorMessage(e)));
+            }
+        }
+        return written;
+    }
+
+    private WrittenChunk writeRows(List<Row> rows) {
+        StatelessSession session = sessionFactory.openStatelessSession();
+        Transaction transaction = session.beginTransaction();
+        try {
+            Map<Long, Phone> existingPhones = findExisting(session, rows);
+            WrittenChunk written = new WrittenChunk();
+            List<Long> createdIds = new ArrayList<>();
+            PhoneBrandStatistics.Changes changes = new PhoneBrandStatistics.Changes();
+            for (Row row : rows) {
+                Long id = row.phone.getId();
+                Phone existing = id == null ? null : existingPhones.get(id);
+                if (id != null && existing == null) {
+                    written.rejectedRows.add(BulkItemResultDTO.failed(row.index, id, "No phone with this id"));
+                    continue;
+                }
+                if (existing != null && row.phone.getVersion() != null && !row.phone.getVersion().equals(existing.getVersion())) {
+                    written.rejectedRows.add(BulkItemResultDTO.failed(row.index, id,
+                        "Version " + row.phone.getVersion() + " is not the current version " + existing.getVersion()));
+                    continue;
+                }
+                Phone phone = phoneMapper.toEntity(row.phone);
+                if (id == null) {
+                    phone.setVersion(null);
+                    session.insert(phone);
+                    createdIds.add(phone.getId());
+                    written.created++;
+                } else {
+                    // A second row of the same id fails the version check of the update, and its chunk is replayed
+                    phone.setVersion(existing.getVersion());
+                    session.update(phone);
+                    written.updatedIds.add(id);
+                    changes.removed(existing.getBrand(), existing.getPrice());
+                }
+                changes.added(phone.getBrand(), phone.getPrice());
+                PhoneSearchOutbox outboxEntry = new PhoneSearchOutbox(phone.getId());
+                session.insert(outboxEntry);
+                written.phones.add(phone);
+                written.outboxIds.add(outboxEntry.getId());
+            }
+            phoneBrandStatistics.apply(changes, session);
+            // The stateless session bypasses the event listeners, which tell the new ids before they are committed
+            phoneExistence.inserted(createdIds);
+            transaction.commit();
+            return written;
+        } catch (RuntimeException e) {
+            if (transaction.getStatus().canRollback()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    private Map<Long, Phone> findExisting(StatelessSession session, List<Row> rows) {
+        Map<Long, Phone> existing = new HashMap<>();
+        List<Long> ids = rows.stream().map(row -> row.phone.getId()).filter(Objects::nonNull).collect(Collectors.toList());
+        for (List<Long> chunk : PhoneRepositoryCustom.inListChunks(ids)) {
+            session.createQuery("select phone from Phone phone where phone.id in :ids", Phone.class)
+                .setParameterList("ids", chunk)
+                .list()
+                .forEach(phone -> existing.put(phone.getId(), phone));
+        }
+        return existing;
+    }
+
+    private String errorMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private void index(Job job, BlockingQueue<WrittenChunk> writtenChunks) throws InterruptedException {
+        WrittenChunk chunk;
+        while ((chunk = take(job, writtenChunks)) != null && chunk != END_OF_WRITES) {
+            Set<Long> failedIds;
+            try {
+                failedIds = phoneSearchIndexer.index(chunk.phones, Collections.emptyList());
+            } catch (RuntimeException e) {
+                log.warn("Could not index {} imported Phones in Elasticsearch: {}", chunk.phones.size(), e.getMessage());
+                failedIds = chunk.phones.stream().map(Phone::getId).collect(Collectors.toSet());
+            }
+            List<Long> indexedOutboxIds = new ArrayList<>(chunk.phones.size());
+            for (int i = 0; i < chunk.phones.size(); i++) {
+                if (!failedIds.contains(chunk.phones.get(i).getId())) {
+                    indexedOutboxIds.add(chunk.outboxIds.get(i));
+                }
+            }
+            if (!indexedOutboxIds.isEmpty()) {
+                try {
+                    transactionTemplate.execute(status -> phoneSearchOutboxRepository.deleteByIdIn(indexedOutboxIds));
+                } catch (DataAccessException | TransactionException e) {
+                    // The outbox entries are replayed later, which only indexes the phones again
+                    log.warn("Could not remove the outbox entries of {} imported Phones: {}", indexedOutboxIds.size(), e.getMessage());
+                }
+            }
+            job.indexed.addAndGet(indexedOutboxIds.size());
+            job.indexPending.addAndGet(chunk.phones.size() - indexedOutboxIds.size());
+            publish(job);
+        }
+    }
+
+    /**
+     * Wait for room in a queue, unless the import fails meanwhile.
+     *
+     * @return false if the import has failed
+     */
+    private <T> boolean offer(Job job, BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!job.aborted) {
+            if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for an item of a queue, unless the import fails meanwhile.
+     *
+     * @return null if the import has failed
+     */
+    private <T> T take(Job job, BlockingQueue<T> queue) throws InterruptedException {
+        while (!job.aborted) {
+            T item = queue.poll(1, TimeUnit.SECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private void publish(Job job) {
+        synchronized (job) {
+            jobs.set(job.id, job.toStatus(), properties.getJobTimeToLive(), TimeUnit.SECONDS);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+
+        /**
+         * @return the next row, or null at the end of the input
+         */
+        Row next(int index) throws IOException;
+    }
+
+    private static class Row {
+
+        private final int index;
+
+        private final PhoneDTO phone;
+
+        private final String error;
+
+        Row(int index, PhoneDTO phone, String error) {
+            this.index = index;
+            this.phone = phone;
+            this.error = error;
+        }
+    }
+
+    private static class WrittenChunk {
+
+        private final List<Phone> phones = new ArrayList<>();
+
+        private final List<Long> outboxIds = new ArrayList<>();
+
+        private final List<Long> updatedIds = new ArrayList<>();
+
+        private final List<BulkItemResultDTO> rejectedRows = new ArrayList<>();
+
+        private int created;
+
+        void add(WrittenChunk other) {
+            phones.addAll(other.phones);
+            outboxIds.addAll(other.outboxIds);
+            updatedIds.addAll(other.updatedIds);
+            rejectedRows.addAll(other.rejectedRows);
+            created += other.created;
+        }
+    }
+
+    private class Job {
+
+        private final String id;
+
+        private final ImportJobDTO.Format format;
+
+        private final Instant startedDate = Instant.now();
+
+        private final AtomicLong read = new AtomicLong();
+
+        private final AtomicLong created = new AtomicLong();
+
+        private final AtomicLong updated = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        private final AtomicLong indexed = new AtomicLong();
+
+        private final AtomicLong indexPending = new AtomicLong();
+
+        private final List<BulkItemResultDTO> rejectedRows = new ArrayList<>();
+
+        private volatile boolean aborted;
+
+        private volatile String error;
+
+        private volatile Instant finishedDate;
+
+        Job(String id, ImportJobDTO.Format format) {
+            this.id = id;
+            this.format = format;
+        }
+
+        void reject(BulkItemResultDTO rejectedRow) {
+            rejected.incrementAndGet();
+            synchronized (rejectedRows) {
+                if (rejectedRows.size() < properties.getMaxRejectedRows()) {
+                    rejectedRows.add(rejectedRow);
+                }
+            }
+        }
+
+        synchronized void abort(String error) {
+            if (!aborted) {
+                this.error = error;
+                aborted = true;
+            }
+        }
+
+        void finish() {
+            finishedDate = Instant.now();
+        }
+
+        ImportJobDTO toStatus() {
+            ImportJobDTO status = new ImportJobDTO();
+            status.setId(id);
+            status.setFormat(format);
+            status.setStartedDate(startedDate);
+            status.setFinishedDate(finishedDate);
+            if (finishedDate == null) {
+                status.setState(ImportJobDTO.State.RUNNING);
+            } else {
+                status.setState(aborted ? ImportJobDTO.State.FAILED : ImportJobDTO.State.SUCCEEDED);
+            }
+            status.setRead(read.get());
+            status.setCreated(created.get());
+            status.setUpdated(updated.get());
+            status.setRejected(rejected.get());
+            status.setIndexed(indexed.get());
+            status.setIndexPending(indexPending.get());
+            status.setError(error);
+            synchronized (rejectedRows) {
+                List<BulkItemResultDTO> sortedRows = new ArrayList<>(rejectedRows);
+                sortedRows.sort(Comparator.comparingInt(BulkItemResultDTO::getIndex));
+                status.setRejectedRows(sortedRows);
+            }
+            long elapsedMillis = Duration.between(startedDate, finishedDate != null ? finishedDate : Instant.now()).toMillis();
+            if (elapsedMillis > 0) {
+                status.setThroughput(status.getRead() * 1000.0 / elapsedMillis);
+            }
+            return status;
+        }
+    }
+}
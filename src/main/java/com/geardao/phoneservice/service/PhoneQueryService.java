@@ -1,19 +1,41 @@
 package com.geardao.phoneservice.service;
 
 
+import java.io.Serializable;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.criteria.Path;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.domain.Specifications;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import io.github.jhipster.service.QueryService;
 
+import com.geardao.phoneservice.config.ApplicationProperties;
 import com.geardao.phoneservice.domain.Phone;
 import com.geardao.phoneservice.domain.*; // for static metamodels
 import com.geardao.phoneservice.repository.PhoneRepository;
@@ -22,17 +44,54 @@ import com.geardao.phoneservice.service.dto.PhoneCriteria;
 
 import com.geardao.phoneservice.service.dto.PhoneDTO;
 import com.geardao.phoneservice.service.mapper.PhoneMapper;
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.PhoneColumnStore;
+import com.geardao.phoneservice.service.util.TotalCount;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
 
 /**
  * Service for executing complex queries for Phone entities in the database.
  * The main input is a {@link PhoneCriteria} which get's converted to {@link Specifications},
  * in a way that all the filters must apply.
  * It returns a {@link List} of {@link PhoneDTO} or a {@link Page} of {@link PhoneDTO} which fulfills the criteria.
+ * <p>
+ * In read-only transactions, the phones are selected directly into DTOs, without loading managed entities
+ * and mapping them; in read-write transactions, they are loaded as entities, so that the writes of the
+ * transaction find them in the persistence context.
+ * <p>
+ * The ids and total count of the pages of phones are cached by criteria and page, under the current
+ * {@link PhoneCatalogVersion}: a cached page is read from the entity cache, and any write to phones makes
+ * it stale. The hits, misses and stale pages are published under phone.query-cache. Identical concurrent
+ * reads of a page share one, see {@link ReadCoalescer}.
+ * <p>
+ * When the {@link PhoneCatalogIndex} is enabled, the lists, pages and counts it supports are read from memory
+ * instead, without the database nor the caches.
  */
 @Service
 @Transactional(readOnly = true)
 public class PhoneQueryService extends QueryService<Phone> {
 
+    /**
+     * Name of the Hazelcast map caching the exact counts of phones, by catalog version and criteria.
+     */
+    public static final String COUNTS_MAP_NAME = "phoneCounts";
+
+    /**
+     * Name of the Hazelcast map caching the ids and count of the pages of phones, by criteria and page.
+     */
+    public static final String RESULTS_MAP_NAME = "phoneQueryResults";
+
+    private static final String METRIC_PREFIX = "phone.query-cache";
+
+    private static final String EMPTY_CRITERIA_KEY = new PhoneCriteria().toCacheKey();
+
+    /**
+     * Properties on which phones can be keyset paginated, the id being the tiebreaker of the others.
+     */
+    private static final Set<String> KEYSET_PROPERTIES = new HashSet<>(Arrays.asList("id", "name", "brand", "price"));
+
     private final Logger log = LoggerFactory.getLogger(PhoneQueryService.class);
 
 
@@ -42,10 +101,72 @@ public class PhoneQueryService extends QueryService<Phone> {
 
     private final PhoneSearchRepository phoneSearchRepository;
 
-    public PhoneQueryService(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository) {
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final IMap<String, Long> counts;
+
+    private final ApplicationProperties.Count countProperties;
+
+    private final ApplicationProperties.Export exportProperties;
+
+    private final IMap<String, CachedResult> results;
+
+    private final ApplicationProperties.QueryCache queryCacheProperties;
+
+    private final ReadCoalescer readCoalescer;
+
+    private final PhoneCatalogIndex phoneCatalogIndex;
+
+    private final MetricRegistry metricRegistry;
+
+    private Meter resultHits;
+
+    private Meter resultMisses;
+
+    private Meter staleResults;
+
+    private Histogram resultAges;
+
+    public PhoneQueryService(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository,
+                             PhoneCatalogVersion phoneCatalogVersion, HazelcastInstance hazelcastInstance,
+                             ReadCoalescer readCoalescer, PhoneCatalogIndex phoneCatalogIndex, MetricRegistry metricRegistry,
+                             ApplicationProperties applicationProperties) {
         this.phoneRepository = phoneRepository;
         this.phoneMapper = phoneMapper;
         this.phoneSearchRepository = phoneSearchRepository;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.counts = hazelcastInstance.getMap(COUNTS_MAP_NAME);
+        this.countProperties = applicationProperties.getCount();
+        this.exportProperties = applicationProperties.getExport();
+        this.results = hazelcastInstance.getMap(RESULTS_MAP_NAME);
+        this.queryCacheProperties = applicationProperties.getQueryCache();
+        this.readCoalescer = readCoalescer;
+        this.phoneCatalogIndex = phoneCatalogIndex;
+        this.metricRegistry = metricRegistry;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        resultHits = metricRegistry.meter(METRIC_PREFIX + ".hits");
+        resultMisses = metricRegistry.meter(METRIC_PREFIX + ".misses");
+        // Also counted as misses
+        staleResults = metricRegistry.meter(METRIC_PREFIX + ".stale");
+        resultAges = metricRegistry.histogram(METRIC_PREFIX + ".age");
+        metricRegistry.register(METRIC_PREFIX + ".hit-ratio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(resultHits.getOneMinuteRate(), resultHits.getOneMinuteRate() + resultMisses.getOneMinuteRate());
+            }
+        });
+    }
+
+    /**
+     * Return the version of the phone catalog, which changes whenever phones are written.
+     * Read it before the phones, so that it is never more recent than them.
+     * @return the current version of the catalog.
+     */
+    public long getCatalogVersion() {
+        return phoneCatalogVersion.get();
     }
 
     /**
@@ -56,12 +177,24 @@ public class PhoneQueryService extends QueryService<Phone> {
     @Transactional(readOnly = true)
     public List<PhoneDTO> findByCriteria(PhoneCriteria criteria) {
         log.debug("find by criteria : {}", criteria);
+        PhoneColumnStore.Result indexed = phoneCatalogIndex.find(criteria, null, 0, Integer.MAX_VALUE);
+        if (indexed != null) {
+            return indexed.getPhones();
+        }
         final Specifications<Phone> specification = createSpecification(criteria);
+        if (isProjected()) {
+            return phoneRepository.findAllProjected(specification, null);
+        }
         return phoneMapper.toDto(phoneRepository.findAll(specification));
     }
 
     /**
-     * Return a {@link Page} of {@link PhoneDTO} which matches the criteria from the database
+     * Return a {@link Page} of {@link PhoneDTO} which matches the criteria from the database.
+     * <p>
+     * Pages of up to application.query-cache.max-page-size phones are cached as their ids and total count,
+     * under the current {@link PhoneCatalogVersion}: the phones of a cached page are read by id, from the
+     * entity cache.
+     *
      * @param criteria The object which holds all the filters, which the entities should match.
      * @param page The page, which should be returned.
      * @return the matching entities.
@@ -69,9 +202,323 @@ public class PhoneQueryService extends QueryService<Phone> {
     @Transactional(readOnly = true)
     public Page<PhoneDTO> findByCriteria(PhoneCriteria criteria, Pageable page) {
         log.debug("find by criteria : {}, page: {}", criteria, page);
+        PhoneColumnStore.Result indexed = findIndexed(criteria, page);
+        if (indexed != null) {
+            return new PageImpl<>(indexed.getPhones(), page, indexed.getCount());
+        }
+        String key = resultKey(criteria, page);
+        return readCoalescer.read("phones:" + key, () -> isResultCacheable(page) && !isCurrent(results.get(key)),
+            () -> findPage(criteria, page, key));
+    }
+
+    private PhoneColumnStore.Result findIndexed(PhoneCriteria criteria, Pageable page) {
+        return page == null
+            ? phoneCatalogIndex.find(criteria, null, 0, Integer.MAX_VALUE)
+            : phoneCatalogIndex.find(criteria, page.getSort(), page.getOffset(), page.getPageSize());
+    }
+
+    private Page<PhoneDTO> findPage(PhoneCriteria criteria, Pageable page, String key) {
+        final Specifications<Phone> specification = createSpecification(criteria);
+        if (!isResultCacheable(page)) {
+            final Slice<PhoneDTO> result = findSlice(specification, page);
+            return new PageImpl<>(result.getContent(), page, countExactly(criteria, specification));
+        }
+        // Read before the phones, so that a page is never cached under a more recent version than its phones
+        long version = phoneCatalogVersion.get();
+        CachedResult cached = results.get(key);
+        if (cached != null && cached.getVersion() == version) {
+            List<PhoneDTO> phones = resolve(cached.getIds());
+            if (phones != null) {
+                resultHits.mark();
+                resultAges.update(System.currentTimeMillis() - cached.getCreated());
+                return new PageImpl<>(phones, page, cached.getCount());
+            }
+        } else if (cached != null) {
+            staleResults.mark();
+        }
+        resultMisses.mark();
+        final Slice<PhoneDTO> result = findSlice(specification, page);
+        long count = countExactly(criteria, specification);
+        long[] ids = result.getContent().stream().mapToLong(PhoneDTO::getId).toArray();
+        results.set(key, new CachedResult(version, ids, count, System.currentTimeMillis()));
+        return new PageImpl<>(result.getContent(), page, count);
+    }
+
+    private boolean isResultCacheable(Pageable page) {
+        return queryCacheProperties.isEnabled() && page != null && page.getPageSize() <= queryCacheProperties.getMaxPageSize()
+            // Other transactions cannot see the phones this one has written
+            && !phoneCatalogVersion.isChangedInTransaction();
+    }
+
+    private boolean isCurrent(CachedResult cached) {
+        return cached != null && cached.getVersion() == phoneCatalogVersion.get();
+    }
+
+    private String resultKey(PhoneCriteria criteria, Pageable page) {
+        StringBuilder key = new StringBuilder(criteria == null ? EMPTY_CRITERIA_KEY : criteria.toCacheKey());
+        if (page == null) {
+            return key.append("unpaged").toString();
+        }
+        key.append("page").append(page.getPageNumber()).append(':').append(page.getPageSize());
+        if (page.getSort() != null) {
+            for (Sort.Order order : page.getSort()) {
+                // Properties are prefixed with their length, as the values of the criteria key
+                key.append("sort").append(order.getProperty().length()).append(':').append(order.getProperty())
+                    .append(order.getDirection().isAscending() ? "asc" : "desc")
+                    .append(order.isIgnoreCase() ? "ic" : "")
+                    .append(order.getNullHandling().ordinal());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the phones of the ids, in order, or null if one of them is not found
+     */
+    private List<PhoneDTO> resolve(long[] ids) {
+        List<Long> idList = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            idList.add(id);
+        }
+        Map<Long, Phone> phones = phoneRepository.findAllCached(idList);
+        List<PhoneDTO> result = new ArrayList<>(ids.length);
+        for (Long id : idList) {
+            Phone phone = phones.get(id);
+            if (phone == null) {
+                return null;
+            }
+            result.add(phoneMapper.toDto(phone));
+        }
+        return result;
+    }
+
+    /**
+     * Return a {@link Slice} of {@link PhoneDTO} which matches the criteria from the database, without counting
+     * all the matching entities.
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param page The page, which should be returned.
+     * @return the matching entities, telling whether there is a next page.
+     */
+    @Transactional(readOnly = true)
+    public Slice<PhoneDTO> findSliceByCriteria(PhoneCriteria criteria, Pageable page) {
+        log.debug("find slice by criteria : {}, page: {}", criteria, page);
+        PhoneColumnStore.Result indexed = findIndexed(criteria, page);
+        if (indexed != null) {
+            long end = (page == null ? 0 : page.getOffset()) + indexed.getPhones().size();
+            return new SliceImpl<>(indexed.getPhones(), page, indexed.getCount() > end);
+        }
         final Specifications<Phone> specification = createSpecification(criteria);
-        final Page<Phone> result = phoneRepository.findAll(specification, page);
-        return result.map(phoneMapper::toDto);
+        return findSlice(specification, page);
+    }
+
+    private Slice<PhoneDTO> findSlice(Specifications<Phone> specification, Pageable page) {
+        if (isProjected()) {
+            return phoneRepository.findSliceProjected(specification, page);
+        }
+        return phoneRepository.findSlice(specification, page).map(phoneMapper::toDto);
+    }
+
+    private boolean isProjected() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    /**
+     * Read all the {@link PhoneDTO} which match the criteria from the database, in id order, one at a time:
+     * the phones are read through a forward-only cursor, fetching application.export.fetch-size rows at once,
+     * and selected directly into DTOs, so that memory use does not depend on the number of phones.
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param consumer The consumer of each matching entity.
+     * @return the number of matching entities.
+     */
+    @Transactional(readOnly = true)
+    public long exportByCriteria(PhoneCriteria criteria, Consumer<PhoneDTO> consumer) {
+        log.debug("export by criteria : {}", criteria);
+        final Specifications<Phone> specification = createSpecification(criteria);
+        return phoneRepository.scrollProjected(specification, new Sort(Sort.Direction.ASC, "id"),
+            exportProperties.getFetchSize(), consumer);
+    }
+
+    /**
+     * Count the entities which match the criteria in the database.
+     * <p>
+     * Exact counts are cached under the current {@link PhoneCatalogVersion}, so that any write to phones invalidates
+     * them. Estimates reuse a cached exact count, or else come from the statistics of the database when there
+     * are no criteria, or else from a count which stops at application.count.estimate-threshold.
+     *
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param mode How the entities should be counted.
+     * @return the count, or null if the mode is {@link TotalCount.Mode#NONE}.
+     */
+    @Transactional(readOnly = true)
+    public TotalCount countByCriteria(PhoneCriteria criteria, TotalCount.Mode mode) {
+        log.debug("count by criteria : {}, mode: {}", criteria, mode);
+        Long indexedCount = mode == TotalCount.Mode.NONE ? null : phoneCatalogIndex.count(criteria);
+        if (indexedCount != null) {
+            return TotalCount.exact(indexedCount);
+        }
+        final Specifications<Phone> specification = createSpecification(criteria);
+        switch (mode) {
+            case EXACT:
+                return TotalCount.exact(countExactly(criteria, specification));
+            case ESTIMATE:
+                return estimate(criteria, specification);
+            default:
+                return null;
+        }
+    }
+
+    private long countExactly(PhoneCriteria criteria, Specifications<Phone> specification) {
+        if (phoneCatalogVersion.isChangedInTransaction()) {
+            // Other transactions cannot see the phones this one has written
+            return phoneRepository.count(specification);
+        }
+        String key = countKey(criteria);
+        Long count = counts.get(key);
+        if (count == null) {
+            count = phoneRepository.count(specification);
+            counts.set(key, count);
+        }
+        return count;
+    }
+
+    private TotalCount estimate(PhoneCriteria criteria, Specifications<Phone> specification) {
+        if (!phoneCatalogVersion.isChangedInTransaction()) {
+            Long count = counts.get(countKey(criteria));
+            if (count != null) {
+                return TotalCount.exact(count);
+            }
+            if (criteria == null || EMPTY_CRITERIA_KEY.equals(criteria.toCacheKey())) {
+                Long estimate = phoneRepository.estimateCount();
+                if (estimate != null) {
+                    return new TotalCount(estimate, TotalCount.Relation.APPROXIMATE);
+                }
+            }
+        }
+        int threshold = countProperties.getEstimateThreshold();
+        long count = phoneRepository.countUpTo(specification, threshold);
+        return new TotalCount(count, count < threshold ? TotalCount.Relation.EQUAL : TotalCount.Relation.GREATER_OR_EQUAL);
+    }
+
+    private String countKey(PhoneCriteria criteria) {
+        return phoneCatalogVersion.get() + ":" + (criteria == null ? EMPTY_CRITERIA_KEY : criteria.toCacheKey());
+    }
+
+    /**
+     * Return a page of {@link PhoneDTO} which matches the criteria from the database, using keyset pagination:
+     * the page is read by seeking on the sort value and id of the cursor, so that its cost does not depend
+     * on its depth, and the count of all matching entities is not computed.
+     * <p>
+     * Phones without a value are sorted after the others in ascending order, as Oracle does.
+     *
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param cursor The position of the page.
+     * @param size The number of entities per page.
+     * @return the matching entities, with the cursors of the next and previous pages.
+     * @throws IllegalArgumentException if the cursor cannot be used to paginate phones
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<PhoneDTO> findByCriteria(PhoneCriteria criteria, KeysetCursor cursor, int size) {
+        log.debug("find by criteria : {}, cursor: {}", criteria, cursor);
+        if (!KEYSET_PROPERTIES.contains(cursor.getProperty())) {
+            throw new IllegalArgumentException("Phones cannot be keyset paginated on " + cursor.getProperty());
+        }
+        final Specifications<Phone> specification = createSpecification(criteria);
+        // Going backward on an ascending sort, or forward on a descending one, reads the rows in descending order
+        boolean ascending = (cursor.getDirection() == Sort.Direction.ASC) != cursor.isBackward();
+        List<PhoneDTO> phones = isProjected()
+            ? seek(specification, cursor, ascending, size + 1, phoneRepository::findFirstProjected)
+            : phoneMapper.toDto(seek(specification, cursor, ascending, size + 1, phoneRepository::findFirst));
+        return CursorPage.of(phones, cursor, size, PhoneDTO::getId, phone -> keysetValue(phone, cursor.getProperty()), Function.identity());
+    }
+
+    /**
+     * A query reading the first phones matching a specification.
+     */
+    @FunctionalInterface
+    private interface FirstQuery<T> {
+
+        List<T> findFirst(Specification<Phone> specification, Sort sort, int limit);
+    }
+
+    private <T> List<T> seek(Specifications<Phone> specification, KeysetCursor cursor, boolean ascending, int limit,
+                             FirstQuery<T> firstQuery) {
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        if ("id".equals(cursor.getProperty())) {
+            return firstQuery.findFirst(specification.and(cursor.hasPosition() ? idSeek(cursor, ascending) : null),
+                new Sort(direction, "id"), limit);
+        }
+        // The phones with and without a value are read by separate queries, so that each of them
+        // is a range scan of the (property, id) index
+        boolean inNulls = cursor.hasPosition() && cursor.getValue() == null;
+        boolean inValues = cursor.hasPosition() && cursor.getValue() != null;
+        Specifications<Phone> values = specification.and(isNotNull(cursor.getProperty()))
+            .and(inValues ? valueSeek(cursor, ascending) : null);
+        Specifications<Phone> nulls = specification.and(isNull(cursor.getProperty()))
+            .and(inNulls ? idSeek(cursor, ascending) : null);
+        Sort valuesSort = new Sort(direction, cursor.getProperty(), "id");
+        Sort nullsSort = new Sort(direction, "id");
+        List<T> phones = new ArrayList<>();
+        if (ascending) {
+            if (!inNulls) {
+                phones.addAll(firstQuery.findFirst(values, valuesSort, limit));
+            }
+            if (phones.size() < limit) {
+                phones.addAll(firstQuery.findFirst(nulls, nullsSort, limit - phones.size()));
+            }
+        } else {
+            if (!inValues) {
+                phones.addAll(firstQuery.findFirst(nulls, nullsSort, limit));
+            }
+            if (phones.size() < limit) {
+                phones.addAll(firstQuery.findFirst(values, valuesSort, limit - phones.size()));
+            }
+        }
+        return phones;
+    }
+
+    private Specification<Phone> idSeek(KeysetCursor cursor, boolean ascending) {
+        return (root, query, builder) -> ascending
+            ? builder.greaterThan(root.get(Phone_.id), cursor.getId())
+            : builder.lessThan(root.get(Phone_.id), cursor.getId());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Specification<Phone> valueSeek(KeysetCursor cursor, boolean ascending) {
+        Comparable value = keysetValue(cursor.getProperty(), cursor.getValue());
+        return (root, query, builder) -> {
+            Path<Comparable> path = root.get(cursor.getProperty());
+            return builder.or(
+                ascending ? builder.greaterThan(path, value) : builder.lessThan(path, value),
+                builder.and(builder.equal(path, value), ascending
+                    ? builder.greaterThan(root.get(Phone_.id), cursor.getId())
+                    : builder.lessThan(root.get(Phone_.id), cursor.getId())));
+        };
+    }
+
+    private Specification<Phone> isNull(String property) {
+        return (root, query, builder) -> builder.isNull(root.get(property));
+    }
+
+    private Specification<Phone> isNotNull(String property) {
+        return (root, query, builder) -> builder.isNotNull(root.get(property));
+    }
+
+    private String keysetValue(PhoneDTO phone, String property) {
+        switch (property) {
+            case "name":
+                return phone.getName();
+            case "brand":
+                return phone.getBrand();
+            case "price":
+                return phone.getPrice() == null ? null : phone.getPrice().toPlainString();
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Comparable keysetValue(String property, String value) {
+        return "price".equals(property) ? new BigDecimal(value) : value;
     }
 
     /**
@@ -96,4 +543,42 @@ public class PhoneQueryService extends QueryService<Phone> {
         return specification;
     }
 
+    /**
+     * The ids and total count of a page of phones, as cached under a version of the catalog.
+     */
+    public static class CachedResult implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long version;
+
+        private final long[] ids;
+
+        private final long count;
+
+        private final long created;
+
+        public CachedResult(long version, long[] ids, long count, long created) {
+            this.version = version;
+            this.ids = ids;
+            this.count = count;
+            this.created = created;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long[] getIds() {
+            return ids;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+    }
 }
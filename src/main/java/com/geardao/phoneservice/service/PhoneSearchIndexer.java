@@ -0,0 +1,264 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.domain.PhoneSearchOutbox;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
+import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+/**
+ * Service applying the pending changes of the phone_search_outbox table to the Elasticsearch index.
+ * <p>
+ * Outbox entries only tell which phones have changed: the current state of each phone is read from
+ * the database when its entry is processed, so entries can be replayed safely and several changes of the
+ * same phone are indexed once. A cluster-wide lock makes sure only one node drains the outbox at a time.
+ * <p>
+ * While {@link PhoneSearchReindexer} builds a new index, the changes are applied to that index as well,
+ * so that it does not miss the changes made during the reindex, and the deleted phones are recorded for the
+ * reindex to delete them again once its ranges are loaded.
+ */
+@Service
+public class PhoneSearchIndexer {
+
+    /**
+     * Name of the cluster-wide lock held while the outbox is drained.
+     */
+    static final String LOCK_NAME = "phoneSearchOutbox";
+
+    /**
+     * Name of the cluster-wide version of the index, incremented whenever changes are applied to it.
+     */
+    static final String VERSION_NAME = "phoneSearchVersion";
+
+    private static final String METRIC_PREFIX = "phone.search.outbox";
+
+    private final Logger log = LoggerFactory.getLogger(PhoneSearchIndexer.class);
+
+    private final PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    private final PhoneRepository phoneRepository;
+
+    private final PhoneSearchRepository phoneSearchRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final IAtomicLong version;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.SearchIndexer properties;
+
+    private Meter indexedMeter;
+
+    private Meter failedMeter;
+
+    private Timer bulkTimer;
+
+    private volatile int consecutiveFailures;
+
+    private volatile long nextAttemptTime;
+
+    public PhoneSearchIndexer(PhoneSearchOutboxRepository phoneSearchOutboxRepository, PhoneRepository phoneRepository,
+                              PhoneSearchRepository phoneSearchRepository, PlatformTransactionManager transactionManager,
+                              HazelcastInstance hazelcastInstance, MetricRegistry metricRegistry,
+                              ApplicationProperties applicationProperties) {
+        this.phoneSearchOutboxRepository = phoneSearchOutboxRepository;
+        this.phoneRepository = phoneRepository;
+        this.phoneSearchRepository = phoneSearchRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hazelcastInstance = hazelcastInstance;
+        this.version = hazelcastInstance.getAtomicLong(VERSION_NAME);
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getSearchIndexer();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        indexedMeter = metricRegistry.meter(METRIC_PREFIX + ".indexed");
+        failedMeter = metricRegistry.meter(METRIC_PREFIX + ".failed");
+        bulkTimer = metricRegistry.timer(METRIC_PREFIX + ".bulk");
+        metricRegistry.register(METRIC_PREFIX + ".depth", new CachedGauge<Long>(10, TimeUnit.SECONDS) {
+            @Override
+            protected Long loadValue() {
+                return phoneSearchOutboxRepository.countByAttemptsLessThan(properties.getMaxAttempts());
+            }
+        });
+        metricRegistry.register(METRIC_PREFIX + ".lag", new CachedGauge<Long>(10, TimeUnit.SECONDS) {
+            @Override
+            protected Long loadValue() {
+                Instant oldest = phoneSearchOutboxRepository.findOldestCreatedDate(properties.getMaxAttempts());
+                return oldest == null ? 0L : Math.max(0L, System.currentTimeMillis() - oldest.toEpochMilli());
+            }
+        });
+        metricRegistry.register(METRIC_PREFIX + ".abandoned", new CachedGauge<Long>(1, TimeUnit.MINUTES) {
+            @Override
+            protected Long loadValue() {
+                return phoneSearchOutboxRepository.count() -
+                    phoneSearchOutboxRepository.countByAttemptsLessThan(properties.getMaxAttempts());
+            }
+        });
+    }
+
+    /**
+     * Drain the outbox on a schedule, unless a previous failure asked to back off.
+     */
+    @Scheduled(fixedDelayString = "${application.search-indexer.poll-delay:1000}")
+    public void poll() {
+        if (!properties.isEnabled() || System.currentTimeMillis() < nextAttemptTime) {
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Index the pending changes, batch after batch, until the outbox is empty or a bulk request fails.
+     *
+     * @return the number of outbox entries which were indexed
+     */
+    public int drain() {
+        Lock lock = hazelcastInstance.getLock(LOCK_NAME);
+        if (!lock.tryLock()) {
+            log.debug("The Phone search outbox is already being drained");
+            return 0;
+        }
+        try {
+            int indexed = 0;
+            BatchResult result;
+            do {
+                result = processBatch();
+                indexed += result.indexed;
+            } while (result.hasMore);
+            return indexed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BatchResult processBatch() {
+        List<Phone> phones = new ArrayList<>();
+        List<PhoneSearchOutbox> entries = transactionTemplate.execute(status -> {
+            List<PhoneSearchOutbox> batch = phoneSearchOutboxRepository.findByAttemptsLessThanOrderByIdAsc(
+                properties.getMaxAttempts(), new PageRequest(0, properties.getBatchSize()));
+            if (!batch.isEmpty()) {
+                phones.addAll(phoneRepository.findAll(batch.stream().map(PhoneSearchOutbox::getPhoneId).collect(Collectors.toSet())));
+            }
+            return batch;
+        });
+        if (entries.isEmpty()) {
+            return new BatchResult(0, false);
+        }
+
+        // The phones which are no longer in the database have been deleted
+        Set<Long> deletedIds = entries.stream().map(PhoneSearchOutbox::getPhoneId).collect(Collectors.toSet());
+        phones.forEach(phone -> deletedIds.remove(phone.getId()));
+        Set<Long> failedPhoneIds;
+        Timer.Context bulkTime = bulkTimer.time();
+        try {
+            failedPhoneIds = index(phones, deletedIds);
+        } catch (RuntimeException e) {
+            log.warn("Could not index {} Phones in Elasticsearch: {}", entries.size(), e.getMessage());
+            failedPhoneIds = entries.stream().map(PhoneSearchOutbox::getPhoneId).collect(Collectors.toSet());
+        } finally {
+            bulkTime.stop();
+        }
+
+        List<Long> doneIds = new ArrayList<>();
+        List<Long> failedIds = new ArrayList<>();
+        for (PhoneSearchOutbox entry : entries) {
+            (failedPhoneIds.contains(entry.getPhoneId()) ? failedIds : doneIds).add(entry.getId());
+        }
+        transactionTemplate.execute(status -> {
+            if (!doneIds.isEmpty()) {
+                phoneSearchOutboxRepository.deleteByIdIn(doneIds);
+            }
+            if (!failedIds.isEmpty()) {
+                phoneSearchOutboxRepository.incrementAttempts(failedIds);
+            }
+            return null;
+        });
+        indexedMeter.mark(doneIds.size());
+        failedMeter.mark(failedIds.size());
+
+        if (!failedIds.isEmpty()) {
+            backOff();
+            return new BatchResult(doneIds.size(), false);
+        }
+        consecutiveFailures = 0;
+        nextAttemptTime = 0;
+        return new BatchResult(doneIds.size(), entries.size() == properties.getBatchSize());
+    }
+
+    /**
+     * Return the version of the index, which changes whenever changes are applied to it, so that results
+     * computed from the index can be cached under it.
+     * @return the current version of the index
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Apply changes of phones to the index with bulk requests, and to the index being built by a reindex, if any.
+     *
+     * @param phones the phones to index
+     * @param deletedIds the ids of the phones to remove from the index
+     * @return the ids of the phones which could not be indexed or removed
+     */
+    public Set<Long> index(Collection<Phone> phones, Collection<Long> deletedIds) {
+        Set<Long> failedPhoneIds = new HashSet<>(phoneSearchRepository.bulk(phones, deletedIds));
+        String buildingIndex = hazelcastInstance.<String>getAtomicReference(PhoneSearchReindexer.BUILDING_INDEX_REFERENCE).get();
+        if (buildingIndex != null) {
+            // Recorded before they are applied, for the reindex to delete them again from the phones it loads meanwhile
+            if (!deletedIds.isEmpty()) {
+                hazelcastInstance.<Long>getSet(PhoneSearchReindexer.DELETED_IDS_SET_NAME).addAll(deletedIds);
+            }
+            failedPhoneIds.addAll(phoneSearchRepository.bulk(buildingIndex, phones, deletedIds));
+        }
+        if (!phones.isEmpty() || !deletedIds.isEmpty()) {
+            version.incrementAndGet();
+        }
+        return failedPhoneIds;
+    }
+
+    private void backOff() {
+        consecutiveFailures++;
+        long backoff = Math.min(properties.getInitialBackoff() << Math.min(consecutiveFailures - 1, 20), properties.getMaxBackoff());
+        log.warn("Indexing of the Phone search outbox failed {} time(s) in a row, next attempt in {} ms", consecutiveFailures, backoff);
+        nextAttemptTime = System.currentTimeMillis() + backoff;
+    }
+
+    private static class BatchResult {
+
+        private final int indexed;
+
+        private final boolean hasMore;
+
+        BatchResult(int indexed, boolean hasMore) {
+            this.indexed = indexed;
+            this.hasMore = hasMore;
+        }
+    }
+}
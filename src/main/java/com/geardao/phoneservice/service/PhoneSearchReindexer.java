@@ -0,0 +1,385 @@
+package com.geardao.phoneservice.service;
+
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.geardao.phoneservice.service.dto.ReindexStatusDTO;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicReference;
+import com.hazelcast.core.ISet;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Service rebuilding the Elasticsearch index of the phones without downtime.
+ * <p>
+ * The Phone document name is used as an alias, pointing to versioned indices. A reindex creates a new
+ * versioned index with refresh and replicas turned off, splits the phone table into id ranges which are
+ * read in parallel with forward-only cursors and bulk-loaded, then atomically moves the alias to the new
+ * index. While it runs, {@link PhoneSearchIndexer} also applies the live changes to the new index, and records the
+ * deleted phones, which are deleted again once the ranges are loaded.
+ */
+@Service
+public class PhoneSearchReindexer {
+
+    /**
+     * Name of the cluster-wide reference to the index being built, if any.
+     */
+    static final String BUILDING_INDEX_REFERENCE = "phoneSearchBuildingIndex";
+
+    /**
+     * Name of the cluster-wide set of the ids of the phones deleted from the index being built, if any.
+     */
+    static final String DELETED_IDS_SET_NAME = "phoneSearchReindexDeletedIds";
+
+    private static final String LOCK_NAME = "phoneSearchReindex";
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final Logger log = LoggerFactory.getLogger(PhoneSearchReindexer.class);
+
+    private final PhoneRepository phoneRepository;
+
+    private final PhoneSearchRepository phoneSearchRepository;
+
+    private final ElasticsearchTemplate elasticsearchTemplate;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.SearchReindex properties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Job job;
+
+    public PhoneSearchReindexer(PhoneRepository phoneRepository, PhoneSearchRepository phoneSearchRepository,
+                                ElasticsearchTemplate elasticsearchTemplate, EntityManagerFactory entityManagerFactory,
+                                HazelcastInstance hazelcastInstance, @Qualifier("taskExecutor") Executor taskExecutor,
+                                ApplicationProperties applicationProperties) {
+        this.phoneRepository = phoneRepository;
+        this.phoneSearchRepository = phoneSearchRepository;
+        this.elasticsearchTemplate = elasticsearchTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.hazelcastInstance = hazelcastInstance;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getSearchReindex();
+    }
+
+    /**
+     * Start a reindex in the background.
+     *
+     * @return false if a reindex is already running on this node
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        job = new Job();
+        taskExecutor.execute(this::run);
+        return true;
+    }
+
+    /**
+     * Reindex all the phones, in the calling thread.
+     *
+     * @return the final status of the reindex
+     * @throws IllegalStateException if a reindex is already running on this node
+     */
+    public ReindexStatusDTO reindex() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A reindex is already running");
+        }
+        job = new Job();
+        run();
+        return getStatus();
+    }
+
+    /**
+     * @return the progress of the running reindex, or the outcome of the last one
+     */
+    public ReindexStatusDTO getStatus() {
+        ReindexStatusDTO status = new ReindexStatusDTO();
+        Job current = job;
+        if (current == null) {
+            return status;
+        }
+        status.setState(current.state);
+        status.setIndexName(current.indexName);
+        status.setStartedDate(current.startedDate);
+        status.setFinishedDate(current.finishedDate);
+        status.setTotal(current.total);
+        status.setProcessed(current.processed.get());
+        status.setFailed(current.failed.get());
+        status.setError(current.error);
+        Instant end = current.finishedDate != null ? current.finishedDate : Instant.now();
+        long elapsedMillis = Duration.between(current.startedDate, end).toMillis();
+        if (elapsedMillis > 0) {
+            status.setThroughput(status.getProcessed() * 1000.0 / elapsedMillis);
+        }
+        if (current.state == ReindexStatusDTO.State.RUNNING && status.getThroughput() > 0) {
+            long remaining = Math.max(0, status.getTotal() - status.getProcessed());
+            status.setEtaSeconds((long) Math.ceil(remaining / status.getThroughput()));
+        }
+        return status;
+    }
+
+    private void run() {
+        Job current = job;
+        Lock lock = hazelcastInstance.getLock(LOCK_NAME);
+        if (!lock.tryLock()) {
+            finish(current, ReindexStatusDTO.State.FAILED, "A reindex is already running on another node");
+            running.set(false);
+            return;
+        }
+        IAtomicReference<String> buildingIndex = hazelcastInstance.getAtomicReference(BUILDING_INDEX_REFERENCE);
+        ISet<Long> deletedIds = hazelcastInstance.getSet(DELETED_IDS_SET_NAME);
+        ElasticsearchPersistentEntity<?> persistentEntity = elasticsearchTemplate.getPersistentEntityFor(Phone.class);
+        String alias = persistentEntity.getIndexName();
+        String type = persistentEntity.getIndexType();
+        current.indexName = alias + "_v" + LocalDateTime.now().format(VERSION_FORMAT);
+        try {
+            log.info("Reindexing the Phones into {}", current.indexName);
+            current.total = phoneRepository.count();
+            createIndex(current.indexName, alias, type);
+            deletedIds.clear();
+            buildingIndex.set(current.indexName);
+            load(current);
+            deleteAgain(current, deletedIds);
+            if (current.failed.get() > 0) {
+                throw new IllegalStateException(current.failed.get() + " Phones could not be indexed");
+            }
+            openIndex(current.indexName);
+            swapAlias(alias, current.indexName);
+            finish(current, ReindexStatusDTO.State.SUCCEEDED, null);
+            log.info("Reindexed {} Phones into {}", current.processed.get(), current.indexName);
+        } catch (Exception e) {
+            log.error("Could not reindex the Phones into {}", current.indexName, e);
+            finish(current, ReindexStatusDTO.State.FAILED, e.getMessage());
+            deleteIndexQuietly(current.indexName);
+        } finally {
+            buildingIndex.clear();
+            deletedIds.clear();
+            lock.unlock();
+            running.set(false);
+        }
+    }
+
+    private void finish(Job current, ReindexStatusDTO.State state, String error) {
+        current.error = error;
+        current.finishedDate = Instant.now();
+        current.state = state;
+    }
+
+    private void createIndex(String indexName, String alias, String type) throws IOException {
+        IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+        CreateIndexRequestBuilder createIndex = indices.prepareCreate(indexName)
+            .setSettings(Settings.settingsBuilder()
+                .put("index.refresh_interval", "-1")
+                .put("index.number_of_replicas", 0));
+        if (indices.prepareExists(alias).get().isExists()) {
+            ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings =
+                indices.prepareGetMappings(alias).setTypes(type).get().getMappings();
+            for (ObjectObjectCursor<String, ImmutableOpenMap<String, MappingMetaData>> index : mappings) {
+                MappingMetaData mapping = index.value.get(type);
+                if (mapping != null) {
+                    createIndex.addMapping(type, mapping.sourceAsMap());
+                    break;
+                }
+            }
+        }
+        createIndex.get();
+    }
+
+    private void load(Job current) throws InterruptedException, ExecutionException {
+        Long minId = phoneRepository.findMinId();
+        Long maxId = phoneRepository.findMaxId();
+        if (minId == null || maxId == null) {
+            return;
+        }
+        int parallelism = Math.max(1, properties.getParallelism());
+        // More ranges than threads, so that a dense range does not leave the other threads idle
+        int rangeCount = parallelism * 4;
+        long rangeWidth = Math.max(1, (maxId - minId) / rangeCount + 1);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+            runnable -> new Thread(runnable, "phoneservice-reindex-" + threadNumber.incrementAndGet()));
+        try {
+            List<Future<?>> ranges = new ArrayList<>();
+            for (long from = minId; from <= maxId; from += rangeWidth) {
+                long rangeFrom = from;
+                long rangeTo = Math.min(from + rangeWidth, maxId + 1);
+                ranges.add(executor.submit(() -> loadRange(current, rangeFrom, rangeTo)));
+            }
+            for (Future<?> range : ranges) {
+                range.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void loadRange(Job current, long from, long to) {
+        log.debug("Loading the Phones with ids in [{}, {}) into {}", from, to, current.indexName);
+        StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
+        try {
+            ScrollableResults results = session.createQuery("select phone from Phone phone where phone.id >= :from and phone.id < :to")
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .setFetchSize(properties.getFetchSize())
+                .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                List<Phone> batch = new ArrayList<>(properties.getBatchSize());
+                while (results.next()) {
+                    batch.add((Phone) results.get(0));
+                    if (batch.size() >= properties.getBatchSize()) {
+                        loadBatch(current, batch);
+                        batch.clear();
+                    }
+                }
+                loadBatch(current, batch);
+            } finally {
+                results.close();
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    private void loadBatch(Job current, List<Phone> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Long> failedIds = phoneSearchRepository.bulkLoad(current.indexName, batch);
+        current.processed.addAndGet(batch.size() - failedIds.size());
+        current.failed.addAndGet(failedIds.size());
+    }
+
+    /**
+     * Delete again the phones deleted while the index was loaded: a range read before a phone was deleted
+     * would otherwise load it after its deletion was applied to the index. Ids are never reused, so that
+     * these phones cannot exist anymore.
+     */
+    private void deleteAgain(Job current, ISet<Long> deletedIds) {
+        List<Long> ids = new ArrayList<>(deletedIds);
+        for (int i = 0; i < ids.size(); i += properties.getBatchSize()) {
+            List<Long> batch = ids.subList(i, Math.min(i + properties.getBatchSize(), ids.size()));
+            current.failed.addAndGet(phoneSearchRepository.bulk(current.indexName, Collections.emptyList(), batch).size());
+        }
+        log.debug("Deleted again {} Phones deleted while loading {}", ids.size(), current.indexName);
+    }
+
+    private void openIndex(String indexName) {
+        IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+        indices.prepareUpdateSettings(indexName)
+            .setSettings(Settings.settingsBuilder()
+                .put("index.refresh_interval", properties.getRefreshInterval())
+                .put("index.number_of_replicas", properties.getReplicas()))
+            .get();
+        indices.prepareRefresh(indexName).get();
+    }
+
+    private void swapAlias(String alias, String indexName) throws InterruptedException {
+        IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+        List<String> oldIndices = new ArrayList<>();
+        for (ObjectObjectCursor<String, List<AliasMetaData>> index : indices.prepareGetAliases(alias).get().getAliases()) {
+            if (!index.value.isEmpty()) {
+                oldIndices.add(index.key);
+            }
+        }
+        if (!oldIndices.isEmpty()) {
+            IndicesAliasesRequestBuilder aliases = indices.prepareAliases();
+            oldIndices.forEach(oldIndex -> aliases.removeAlias(oldIndex, alias));
+            aliases.addAlias(indexName, alias).get();
+        } else if (!indices.prepareExists(alias).get().isExists()) {
+            indices.prepareAliases().addAlias(indexName, alias).get();
+        } else {
+            // The alias name is still used by the index created before reindexing was introduced: it has to be
+            // deleted before the alias can be created, which Elasticsearch cannot do atomically. The outbox lock
+            // keeps the indexer from re-creating it in between.
+            log.warn("Replacing the {} index with an alias to {}", alias, indexName);
+            Lock outboxLock = hazelcastInstance.getLock(PhoneSearchIndexer.LOCK_NAME);
+            if (!outboxLock.tryLock(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Could not pause the Phone search outbox to replace the " + alias + " index");
+            }
+            try {
+                indices.prepareDelete(alias).get();
+                indices.prepareAliases().addAlias(indexName, alias).get();
+            } finally {
+                outboxLock.unlock();
+            }
+        }
+        // The results cached under the version of the old index are stale
+        hazelcastInstance.getAtomicLong(PhoneSearchIndexer.VERSION_NAME).incrementAndGet();
+        if (!oldIndices.isEmpty() && !properties.isKeepOldIndices()) {
+            indices.prepareDelete(oldIndices.toArray(new String[0])).get();
+        }
+    }
+
+    private void deleteIndexQuietly(String indexName) {
+        try {
+            IndicesAdminClient indices = elasticsearchTemplate.getClient().admin().indices();
+            if (indices.prepareExists(indexName).get().isExists()) {
+                indices.prepareDelete(indexName).get();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not delete the index {}: {}", indexName, e.getMessage());
+        }
+    }
+
+    private static class Job {
+
+        private final Instant startedDate = Instant.now();
+
+        private final AtomicLong processed = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private volatile ReindexStatusDTO.State state = ReindexStatusDTO.State.RUNNING;
+
+        private volatile String indexName;
+
+        private volatile long total;
+
+        private volatile Instant finishedDate;
+
+        private volatile String error;
+    }
+}
@@ -1,9 +1,17 @@
 package com.geardao.phoneservice.service;
 
+import com.geardao.phoneservice.repository.search.ScrollPage;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.MultiGetItemDTO;
 import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.PhoneSearchQuery;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
+
 /**
  * Service Interface for managing Phone.
  */
@@ -11,12 +19,25 @@ public interface PhoneService {
 
     /**
      * Save a phone.
+     * <p>
+     * An update with a version only succeeds if the phone still has this version; without version,
+     * the update overwrites the phone whatever its version.
      *
      * @param phoneDTO the entity to save
      * @return the persisted entity
+     * @throws org.springframework.orm.ObjectOptimisticLockingFailureException if the phone has another version
      */
     PhoneDTO save(PhoneDTO phoneDTO);
 
+    /**
+     * Save a stream of phones, committing them in chunks.
+     * A phone which cannot be saved is reported in its own result and does not fail the others.
+     *
+     * @param phoneDTOs the entities to save, which may be read lazily; a null element is reported as invalid
+     * @return the result of each entity, in the order of phoneDTOs
+     */
+    List<BulkItemResultDTO> saveAll(Iterable<PhoneDTO> phoneDTOs);
+
     /**
      * Get all the phones.
      *
@@ -33,6 +54,22 @@ public interface PhoneService {
      */
     PhoneDTO findOne(Long id);
 
+    /**
+     * Get the version of the "id" phone, without mapping it.
+     *
+     * @param id the id of the entity
+     * @return the version of the entity, or null if there is no such entity
+     */
+    Long findVersion(Long id);
+
+    /**
+     * Get the phones of several ids at once.
+     *
+     * @param ids the ids of the entities, which may contain duplicates
+     * @return one result per id, in the order of ids, telling whether the entity was found
+     */
+    List<MultiGetItemDTO> findAll(List<Long> ids);
+
     /**
      * Delete the "id" phone.
      *
@@ -47,6 +84,39 @@ public interface PhoneService {
      * 
      * @param pageable the pagination information
      * @return the list of entities
+     * @throws PhoneSearchQuery.InvalidQueryException if the query is not valid
      */
     Page<PhoneDTO> search(String query, Pageable pageable);
+
+    /**
+     * Search for the phones corresponding to the query, using keyset pagination: the page is read by
+     * filtering on the sort value and id of the cursor, so that deep pages are not limited by the result window.
+     *
+     * @param query the query of the search
+     * @param cursor the position of the page
+     * @param size the number of entities per page
+     * @return the entities, with the cursors of the next and previous pages
+     * @throws PhoneSearchQuery.InvalidQueryException if the query is not valid
+     * @throws IllegalArgumentException if the cursor cannot be used to paginate the search
+     */
+    CursorPage<PhoneDTO> search(String query, KeysetCursor cursor, int size);
+
+    /**
+     * Start a scroll over all the phones corresponding to the query.
+     *
+     * @param query the query of the search
+     * @param size the number of entities per batch
+     * @return the first batch of entities
+     * @throws PhoneSearchQuery.InvalidQueryException if the query is not valid
+     */
+    ScrollPage<PhoneDTO> startScroll(String query, int size);
+
+    /**
+     * Read the next batch of a scroll.
+     *
+     * @param scrollId the id of the scroll
+     * @return the next batch of entities
+     * @throws IllegalArgumentException if the scroll has expired, or if its id is not valid
+     */
+    ScrollPage<PhoneDTO> continueScroll(String scrollId);
 }
@@ -0,0 +1,570 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.dto.PhoneSuggestionDTO;
+import com.geardao.phoneservice.service.util.SuggestionTrie;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory completions of the names and brands of the phones, enabled by application.suggestions.enabled: each
+ * node keeps the names and brands in a {@link SuggestionTrie}, which completes the prefixes typed without the
+ * database or Elasticsearch. Completions are ranked by popularity: the number of phones with the text, plus the
+ * accesses to these phones counted by {@link PhoneAccessFrequencies}.
+ * <p>
+ * The trie is kept current by the writes of phones, which {@link PhoneCatalogIndex} collects on every node.
+ * Every application.suggestions.check-delay milliseconds, the count, sum of ids and sum of versions of the
+ * phones in memory are checked against the database, the trie is rebuilt if they still differ a moment later,
+ * and the popularity of the phones is updated.
+ * <p>
+ * With application.suggestions.snapshot-file, the ids, versions, names and brands are saved to that file after
+ * the checks which follow writes, and when the node stops. A starting node loads the file, then only reads the
+ * ids and versions of the phones from the database, and the names and brands of the phones whose version has
+ * changed.
+ * <p>
+ * The completions, with their 99th percentile latency, rebuilds and drifts, and the number of completions and
+ * memory used, are published under phone.suggestions.
+ */
+@Service
+public class PhoneSuggestionIndex {
+
+    private static final String METRIC_PREFIX = "phone.suggestions";
+
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * How long a drift is given to resolve itself, as the writes of other nodes may still be on their way.
+     */
+    private static final long RECHECK_DELAY_MS = 1000;
+
+    private static final int SNAPSHOT_MAGIC = 0x50535547;
+
+    private static final int SNAPSHOT_FORMAT = 1;
+
+    private final Logger log = LoggerFactory.getLogger(PhoneSuggestionIndex.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final PhoneAccessFrequencies phoneAccessFrequencies;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.Suggestions properties;
+
+    /**
+     * Guards the phones and the changes received while they are rebuilt.
+     */
+    private final Object changesLock = new Object();
+
+    private volatile Phones phones;
+
+    /**
+     * Changes received while the phones are rebuilt, applied again to the rebuilt phones.
+     */
+    private List<Consumer<Phones>> rebuildChanges;
+
+    /**
+     * Whether the phones have changed since they were last saved to the snapshot file.
+     */
+    private volatile boolean changedSinceSnapshot;
+
+    private Timer completions;
+
+    private Timer rebuilds;
+
+    private Meter drifts;
+
+    public PhoneSuggestionIndex(EntityManagerFactory entityManagerFactory, PhoneAccessFrequencies phoneAccessFrequencies,
+                                MetricRegistry metricRegistry, ApplicationProperties applicationProperties) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.phoneAccessFrequencies = phoneAccessFrequencies;
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getSuggestions();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        completions = metricRegistry.timer(METRIC_PREFIX + ".completions");
+        rebuilds = metricRegistry.timer(METRIC_PREFIX + ".rebuilds");
+        drifts = metricRegistry.meter(METRIC_PREFIX + ".drifts");
+        metricRegistry.register(METRIC_PREFIX + ".size", (Gauge<Integer>) () -> {
+            Phones current = phones;
+            return current == null ? 0 : current.trie.size();
+        });
+        metricRegistry.register(METRIC_PREFIX + ".memory", (Gauge<Long>) () -> {
+            Phones current = phones;
+            return current == null ? 0 : current.getMemoryUsage();
+        });
+    }
+
+    /**
+     * Save the phones to the snapshot file, so that the next start of the node loads them faster.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (changedSinceSnapshot) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * @return true if the completions are maintained
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Find the most popular names and brands of phones which start with a prefix, or which have a word after
+     * the first which starts with it, ignoring case.
+     *
+     * @param prefix the prefix typed
+     * @param limit the maximum number of completions, or null for the default one
+     * @return the completions, most popular first, or null if they are not in memory
+     * @throws IllegalArgumentException if the limit is not positive or too high
+     */
+    public List<PhoneSuggestionDTO> complete(String prefix, Integer limit) {
+        int size = limit == null ? properties.getLimit() : limit;
+        if (size < 1 || size > properties.getMaxLimit()) {
+            throw new IllegalArgumentException("the limit must be between 1 and " + properties.getMaxLimit());
+        }
+        Phones current = phones;
+        if (!properties.isEnabled() || current == null) {
+            return null;
+        }
+        try (Timer.Context ignored = completions.time()) {
+            return current.trie.complete(prefix, size).stream()
+                .map(completion -> new PhoneSuggestionDTO(completion.getText(), completion.getKind(),
+                    completion.getCount(), completion.getWeight()))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Apply the phones written and deleted by a transaction, once it has committed.
+     *
+     * @param writtenPhones the phones written, with their new versions
+     * @param deletedIds the ids of the phones deleted
+     */
+    void apply(List<PhoneDTO> writtenPhones, List<Long> deletedIds) {
+        if (!properties.isEnabled() || writtenPhones.isEmpty() && deletedIds.isEmpty()) {
+            return;
+        }
+        Consumer<Phones> change = current -> {
+            writtenPhones.forEach(phone -> current.put(phone.getId(), phone.getVersion(), phone.getName(), phone.getBrand()));
+            deletedIds.forEach(current::remove);
+        };
+        synchronized (changesLock) {
+            if (phones != null) {
+                change.accept(phones);
+                changedSinceSnapshot = true;
+            }
+            if (rebuildChanges != null) {
+                rebuildChanges.add(change);
+            }
+        }
+    }
+
+    /**
+     * Check the phones in memory against the database, and rebuild them if they differ, or load them if there
+     * are none yet; then update the popularity of the phones, and save them to the snapshot file if they have
+     * changed. This also runs at startup, so that a node loads its phones.
+     */
+    @Scheduled(fixedDelayString = "${application.suggestions.check-delay:300000}")
+    public void check() {
+        if (!properties.isEnabled()) {
+            // The phones are dropped, as they would be outdated when the completions are enabled again
+            phones = null;
+            return;
+        }
+        if (phones == null) {
+            rebuild(true);
+        } else if (!isConsistentAfterRecheck()) {
+            drifts.mark();
+            log.warn("The in-memory phone names and brands differ from the database, rebuilding them");
+            rebuild(false);
+        }
+        updatePopularity();
+        if (changedSinceSnapshot) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Load the phones from the database, unless they are being loaded already.
+     */
+    public void rebuild() {
+        rebuild(false);
+    }
+
+    /**
+     * Load the phones, unless they are being loaded already. The writes which complete meanwhile are applied
+     * again to the loaded phones, as the database scan may not have seen them.
+     *
+     * @param fromSnapshot whether to start from the snapshot file, if any
+     */
+    private void rebuild(boolean fromSnapshot) {
+        synchronized (changesLock) {
+            if (rebuildChanges != null) {
+                log.debug("The in-memory phone names and brands are already being rebuilt");
+                return;
+            }
+            rebuildChanges = new ArrayList<>();
+        }
+        try (Timer.Context ignored = rebuilds.time()) {
+            Map<Long, Snapshot> snapshot = fromSnapshot ? readSnapshot() : null;
+            Phones rebuilt = snapshot == null ? load() : load(snapshot);
+            synchronized (changesLock) {
+                rebuildChanges.forEach(change -> change.accept(rebuilt));
+                phones = rebuilt;
+                changedSinceSnapshot = true;
+            }
+            log.info("Loaded {} phone names and brands in memory, using about {} KB", rebuilt.trie.size(),
+                rebuilt.getMemoryUsage() / 1024);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the phone names and brands in memory: {}", e.toString());
+        } finally {
+            synchronized (changesLock) {
+                rebuildChanges = null;
+            }
+        }
+    }
+
+    private Phones load() {
+        Phones loaded = new Phones(phoneAccessFrequencies.findCounts());
+        try (StatelessSession session = openSession()) {
+            scroll(session.createQuery("select phone.id, phone.version, phone.name, phone.brand from Phone phone"),
+                results -> loaded.put(results.getLong(0), results.getLong(1), results.getString(2), results.getString(3)));
+        }
+        return loaded;
+    }
+
+    /**
+     * Load the phones from a snapshot: only the phones whose version has changed since are read from the database.
+     */
+    private Phones load(Map<Long, Snapshot> snapshot) {
+        Phones loaded = new Phones(phoneAccessFrequencies.findCounts());
+        List<Long> changedIds = new ArrayList<>();
+        try (StatelessSession session = openSession()) {
+            scroll(session.createQuery("select phone.id, phone.version from Phone phone"), results -> {
+                Long id = results.getLong(0);
+                Long version = results.getLong(1);
+                Snapshot saved = snapshot.get(id);
+                if (saved != null && saved.version == version) {
+                    loaded.put(id, version, saved.name, saved.brand);
+                } else {
+                    changedIds.add(id);
+                }
+            });
+            for (int from = 0; from < changedIds.size(); from += FETCH_SIZE) {
+                List<Long> ids = changedIds.subList(from, Math.min(from + FETCH_SIZE, changedIds.size()));
+                scroll(session.createQuery("select phone.id, phone.version, phone.name, phone.brand from Phone phone "
+                        + "where phone.id in :ids").setParameterList("ids", ids),
+                    results -> loaded.put(results.getLong(0), results.getLong(1), results.getString(2), results.getString(3)));
+            }
+        }
+        log.debug("Loaded {} phones from the snapshot, and {} changed phones from the database",
+            loaded.count - changedIds.size(), changedIds.size());
+        return loaded;
+    }
+
+    private void scroll(Query<?> query, RowConsumer consumer) {
+        ScrollableResults results = query.setFetchSize(FETCH_SIZE).setReadOnly(true).scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                consumer.accept(results);
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private StatelessSession openSession() {
+        return entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
+    }
+
+    private boolean isConsistentAfterRecheck() {
+        try {
+            if (isConsistent()) {
+                return true;
+            }
+            Thread.sleep(RECHECK_DELAY_MS);
+            return isConsistent();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Could not check the in-memory phone names and brands against the database: {}", e.toString());
+            return true;
+        }
+    }
+
+    private boolean isConsistent() {
+        Object[] row;
+        try (StatelessSession session = openSession()) {
+            row = (Object[]) session.createQuery("select count(phone.id), coalesce(sum(phone.id), 0), "
+                + "coalesce(sum(phone.version), 0) from Phone phone").uniqueResult();
+        }
+        synchronized (changesLock) {
+            Phones current = phones;
+            return current == null || current.count == ((Number) row[0]).longValue()
+                && current.idSum == ((Number) row[1]).longValue() && current.versionSum == ((Number) row[2]).longValue();
+        }
+    }
+
+    private void updatePopularity() {
+        Map<Long, Long> counts;
+        try {
+            counts = phoneAccessFrequencies.findCounts();
+        } catch (RuntimeException e) {
+            log.warn("Could not read the access counts of the phones: {}", e.toString());
+            return;
+        }
+        synchronized (changesLock) {
+            Phones current = phones;
+            if (current != null) {
+                current.updatePopularity(counts);
+            }
+        }
+    }
+
+    private Map<Long, Snapshot> readSnapshot() {
+        Path file = snapshotFile();
+        if (file == null || !Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_FORMAT) {
+                log.warn("Ignoring the phone names and brands of {}, which are not in the expected format", file);
+                return null;
+            }
+            int size = in.readInt();
+            Map<Long, Snapshot> snapshot = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                long id = in.readLong();
+                snapshot.put(id, new Snapshot(in.readLong(), readNullableUTF(in), readNullableUTF(in)));
+            }
+            return snapshot;
+        } catch (IOException e) {
+            log.warn("Could not read the phone names and brands of {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    private void saveSnapshot() {
+        Path file = snapshotFile();
+        if (file == null) {
+            return;
+        }
+        Map<Long, Snapshot> snapshot;
+        synchronized (changesLock) {
+            Phones current = phones;
+            if (current == null) {
+                return;
+            }
+            snapshot = current.snapshot();
+            changedSinceSnapshot = false;
+        }
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            // Written aside then moved, so that a node stopped meanwhile does not leave half a file
+            Path written = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(written))))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_FORMAT);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Long, Snapshot> entry : snapshot.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeLong(entry.getValue().version);
+                    writeNullableUTF(out, entry.getValue().name);
+                    writeNullableUTF(out, entry.getValue().brand);
+                }
+            }
+            Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} phone names and brands to {}", snapshot.size(), file);
+        } catch (IOException | RuntimeException e) {
+            changedSinceSnapshot = true;
+            log.warn("Could not save the phone names and brands to {}: {}", file, e.toString());
+        }
+    }
+
+    private Path snapshotFile() {
+        String file = properties.getSnapshotFile();
+        return file == null || file.isEmpty() ? null : Paths.get(file);
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+
+        void accept(ScrollableResults results);
+    }
+
+    /**
+     * The names and brands of the phones, with the popularity of each phone, and their trie. Changes are made
+     * while holding the changes lock.
+     */
+    private static class Phones {
+
+        private final SuggestionTrie trie = new SuggestionTrie();
+
+        private final Map<Long, IndexedPhone> phonesById = new HashMap<>();
+
+        /**
+         * Access counts of the phones, when they were last read.
+         */
+        private Map<Long, Long> accesses;
+
+        private long count;
+
+        private long idSum;
+
+        private long versionSum;
+
+        Phones(Map<Long, Long> accesses) {
+            this.accesses = accesses;
+        }
+
+        void put(long id, long version, String name, String brand) {
+            IndexedPhone previous = phonesById.get(id);
+            if (previous != null) {
+                // A deleted phone is never written again, and a write may be received after a later one
+                if (previous.deleted || previous.version >= version) {
+                    return;
+                }
+                unindex(id, previous);
+            }
+            IndexedPhone phone = new IndexedPhone(version, name, brand, 1 + accesses.getOrDefault(id, 0L));
+            phonesById.put(id, phone);
+            index(id, phone);
+        }
+
+        void remove(long id) {
+            IndexedPhone previous = phonesById.get(id);
+            if (previous != null && !previous.deleted) {
+                unindex(id, previous);
+            }
+            // Kept, so that an older write received later does not bring the phone back
+            phonesById.put(id, IndexedPhone.DELETED);
+        }
+
+        void updatePopularity(Map<Long, Long> newAccesses) {
+            accesses = newAccesses;
+            phonesById.entrySet().forEach(entry -> {
+                IndexedPhone phone = entry.getValue();
+                long popularity = 1 + newAccesses.getOrDefault(entry.getKey(), 0L);
+                if (!phone.deleted && phone.popularity != popularity) {
+                    unindex(entry.getKey(), phone);
+                    IndexedPhone updated = new IndexedPhone(phone.version, phone.name, phone.brand, popularity);
+                    entry.setValue(updated);
+                    index(entry.getKey(), updated);
+                }
+            });
+        }
+
+        Map<Long, Snapshot> snapshot() {
+            Map<Long, Snapshot> snapshot = new HashMap<>(phonesById.size() * 4 / 3 + 1);
+            phonesById.forEach((id, phone) -> {
+                if (!phone.deleted) {
+                    snapshot.put(id, new Snapshot(phone.version, phone.name, phone.brand));
+                }
+            });
+            return snapshot;
+        }
+
+        long getMemoryUsage() {
+            return trie.getMemoryUsage() + phonesById.size() * 96L;
+        }
+
+        private void index(long id, IndexedPhone phone) {
+            trie.add(PhoneSuggestionDTO.NAME, phone.name, phone.popularity);
+            trie.add(PhoneSuggestionDTO.BRAND, phone.brand, phone.popularity);
+            count++;
+            idSum += id;
+            versionSum += phone.version;
+        }
+
+        private void unindex(long id, IndexedPhone phone) {
+            trie.remove(PhoneSuggestionDTO.NAME, phone.name, phone.popularity);
+            trie.remove(PhoneSuggestionDTO.BRAND, phone.brand, phone.popularity);
+            count--;
+            idSum -= id;
+            versionSum -= phone.version;
+        }
+    }
+
+    private static class IndexedPhone {
+
+        static final IndexedPhone DELETED = new IndexedPhone(Long.MAX_VALUE, null, null, 0);
+
+        private final long version;
+
+        private final String name;
+
+        private final String brand;
+
+        private final long popularity;
+
+        private final boolean deleted;
+
+        IndexedPhone(long version, String name, String brand, long popularity) {
+            this.version = version;
+            this.name = name;
+            this.brand = brand;
+            this.popularity = popularity;
+            this.deleted = version == Long.MAX_VALUE;
+        }
+    }
+
+    private static class Snapshot {
+
+        private final long version;
+
+        private final String name;
+
+        private final String brand;
+
+        Snapshot(long version, String name, String brand) {
+            this.version = version;
+            this.name = name;
+            this.brand = brand;
+        }
+    }
+}
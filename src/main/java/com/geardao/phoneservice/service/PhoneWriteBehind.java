@@ -0,0 +1,544 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.domain.PhoneSearchOutbox;
+import com.geardao.phoneservice.repository.PhoneRepositoryCustom;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.mapper.PhoneMapper;
+import com.hazelcast.core.EntryView;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ICompletableFuture;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.MapLoaderLifecycleSupport;
+import com.hazelcast.core.MapStore;
+import org.hibernate.LockMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind mode of the phones, enabled by application.write-behind.enabled: updates of phones are written
+ * to the {@link #MAP_NAME} map, and stored in the database later, in batches.
+ * <p>
+ * An update is acknowledged once it is in the map, on its owner and its backup, and is checked against the
+ * version of the phone in the map. The map stores the pending updates every application.write-behind.write-delay
+ * seconds, the latest update of each phone only, in batches of application.write-behind.write-batch-size:
+ * each batch is written to the database with one JDBC batch and one transaction, with the versions of the map,
+ * and then indexed in Elasticsearch, through the outbox if indexing fails. Failed batches are retried by the map.
+ * Pending updates are lost only if the owner and the backup of a phone fail before they are stored; a node
+ * stores its pending updates when it shuts down.
+ * <p>
+ * In this mode, phones by id are read from the map, which loads them from the database, while listings and
+ * searches see the updates once they are stored. Creations and deletions are written to the database at once,
+ * and deletions discard the updates of the map. Imports write the phones they update to the database at once
+ * too, see {@link #writeAtOnce(Collection, Supplier)}: these phones are locked in the map, so that their updates
+ * wait, and their pending updates are stored first; once written, their entries are replaced with the imported
+ * phones, unless they are newer.
+ * <p>
+ * The pending updates of this node, and the updates and stores, are published under phone.write-behind.
+ */
+@Service
+public class PhoneWriteBehind {
+
+    /**
+     * Name of the Hazelcast map of the phones in write-behind mode.
+     */
+    public static final String MAP_NAME = "phoneWriteBehind";
+
+    private static final String USER_CONTEXT_KEY = PhoneWriteBehind.class.getName();
+
+    private static final String METRIC_PREFIX = "phone.write-behind";
+
+    private static final String UPDATE_SQL = "update phone set name = ?, brand = ?, price = ?, version = ? where id = ? and version < ?";
+
+    private final Logger log = LoggerFactory.getLogger(PhoneWriteBehind.class);
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private final IMap<Long, PhoneDTO> phones;
+
+    private final SessionFactory sessionFactory;
+
+    private final PhoneMapper phoneMapper;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final PhoneCatalogIndex phoneCatalogIndex;
+
+    private final PhoneBrandStatistics phoneBrandStatistics;
+
+    private final PhoneSearchIndexer phoneSearchIndexer;
+
+    private final PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.WriteBehind properties;
+
+    private volatile long lastStoreTime = System.currentTimeMillis();
+
+    private Meter updates;
+
+    private Meter storedPhones;
+
+    private Meter skippedPhones;
+
+    private Meter failedBatches;
+
+    private Timer batches;
+
+    public PhoneWriteBehind(HazelcastInstance hazelcastInstance, EntityManagerFactory entityManagerFactory, PhoneMapper phoneMapper,
+                            PhoneCatalogVersion phoneCatalogVersion, PhoneCatalogIndex phoneCatalogIndex,
+                            PhoneBrandStatistics phoneBrandStatistics, PhoneSearchIndexer phoneSearchIndexer, PhoneSearchOutboxRepository phoneSearchOutboxRepository,
+                            PlatformTransactionManager transactionManager,
+                            MetricRegistry metricRegistry, ApplicationProperties applicationProperties) {
+        this.hazelcastInstance = hazelcastInstance;
+        this.phones = hazelcastInstance.getMap(MAP_NAME);
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.phoneMapper = phoneMapper;
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.phoneCatalogIndex = phoneCatalogIndex;
+        this.phoneBrandStatistics = phoneBrandStatistics;
+        this.phoneSearchIndexer = phoneSearchIndexer;
+        this.phoneSearchOutboxRepository = phoneSearchOutboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getWriteBehind();
+    }
+
+    @PostConstruct
+    public void init() {
+        // Found by the map store of this member, see Store
+        hazelcastInstance.getUserContext().put(USER_CONTEXT_KEY, this);
+        updates = metricRegistry.meter(METRIC_PREFIX + ".updates");
+        storedPhones = metricRegistry.meter(METRIC_PREFIX + ".stored");
+        skippedPhones = metricRegistry.meter(METRIC_PREFIX + ".skipped");
+        failedBatches = metricRegistry.meter(METRIC_PREFIX + ".failed-batches");
+        batches = metricRegistry.timer(METRIC_PREFIX + ".batches");
+        metricRegistry.register(METRIC_PREFIX + ".pending", new CachedGauge<Long>(1, TimeUnit.SECONDS) {
+            @Override
+            protected Long loadValue() {
+                return getPendingCount();
+            }
+        });
+        metricRegistry.register(METRIC_PREFIX + ".last-store-age", (Gauge<Long>) () -> System.currentTimeMillis() - lastStoreTime);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @return the number of updates owned by this node which are not stored yet
+     */
+    public long getPendingCount() {
+        return phones.getLocalMapStats().getDirtyEntryCount();
+    }
+
+    /**
+     * Get one phone by id from the map, which loads it from the database if needed.
+     *
+     * @param id the id of the phone
+     * @return the phone, or null if there is no such phone
+     */
+    public PhoneDTO findOne(Long id) {
+        return phones.get(id);
+    }
+
+    /**
+     * Get phones by id from the map, which loads the others from the database.
+     *
+     * @param ids the ids of the phones
+     * @return the phones found, by id
+     */
+    public Map<Long, PhoneDTO> findAll(Collection<Long> ids) {
+        return phones.getAll(new HashSet<>(ids));
+    }
+
+    /**
+     * Update a phone in the map, to be stored later.
+     *
+     * @param phoneDTO the phone, whose version, if any, must be the version of the phone in the map
+     * @return the updated phone, with its new version, or null if there is no such phone
+     * @throws ObjectOptimisticLockingFailureException if the version is not the current one
+     */
+    public PhoneDTO update(PhoneDTO phoneDTO) {
+        return update(phoneDTO, phones.get(phoneDTO.getId()));
+    }
+
+    private PhoneDTO update(PhoneDTO phoneDTO, PhoneDTO current) {
+        while (current != null) {
+            if (phoneDTO.getVersion() != null && !phoneDTO.getVersion().equals(current.getVersion())) {
+                throw new ObjectOptimisticLockingFailureException(Phone.class, phoneDTO.getId());
+            }
+            PhoneDTO updated = updated(phoneDTO, current);
+            // Compares the serialized phones, so that a concurrent update of the same version is detected
+            if (phones.replace(phoneDTO.getId(), current, updated)) {
+                updates.mark();
+                return updated;
+            }
+            current = phones.get(phoneDTO.getId());
+        }
+        return null;
+    }
+
+    /**
+     * Update phones in the map, to be stored later. The current phones are read concurrently.
+     *
+     * @param phoneDTOs the phones, by index in the bulk request
+     * @return the result of each phone
+     */
+    public List<BulkItemResultDTO> updateAll(Map<Integer, PhoneDTO> phoneDTOs) {
+        Map<Long, ICompletableFuture<PhoneDTO>> reads = new HashMap<>();
+        phoneDTOs.values().forEach(phone -> reads.computeIfAbsent(phone.getId(), phones::getAsync));
+        List<BulkItemResultDTO> results = new ArrayList<>(phoneDTOs.size());
+        for (Map.Entry<Integer, PhoneDTO> item : phoneDTOs.entrySet()) {
+            PhoneDTO phoneDTO = item.getValue();
+            // A phone updated twice in the request is read again the second time
+            ICompletableFuture<PhoneDTO> read = reads.remove(phoneDTO.getId());
+            try {
+                PhoneDTO updated = update(phoneDTO, read != null ? read.get() : phones.get(phoneDTO.getId()));
+                results.add(updated == null
+                    ? BulkItemResultDTO.failed(item.getKey(), phoneDTO.getId(), "No phone with this id")
+                    : new BulkItemResultDTO(item.getKey(), phoneDTO.getId(), BulkItemResultDTO.Status.UPDATED, null));
+            } catch (ObjectOptimisticLockingFailureException e) {
+                results.add(BulkItemResultDTO.failed(item.getKey(), phoneDTO.getId(),
+                    "Version " + phoneDTO.getVersion() + " is not the current version"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while updating phones", e);
+            } catch (ExecutionException e) {
+                results.add(BulkItemResultDTO.failed(item.getKey(), phoneDTO.getId(), String.valueOf(e.getCause().getMessage())));
+            }
+        }
+        return results;
+    }
+
+    private PhoneDTO updated(PhoneDTO phoneDTO, PhoneDTO current) {
+        return new PhoneDTO(current.getId(), phoneDTO.getName(), phoneDTO.getBrand(), phoneDTO.getPrice(), current.getVersion() + 1);
+    }
+
+    /**
+     * Discard the updates of phones deleted from the database, so that the map loads them again: after the
+     * current transaction commits, if any.
+     *
+     * @param ids the ids of the phones
+     */
+    public void discard(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            ids.forEach(phones::delete);
+            return;
+        }
+        List<Long> discardedIds = new ArrayList<>(ids);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                discardedIds.forEach(phones::delete);
+            }
+        });
+    }
+
+    /**
+     * Write phones to the database at once, bypassing the map, without losing their updates: the phones are
+     * locked in the map, which makes their updates wait until the write returns, and the pending updates of
+     * the map are stored before the write, so that it sees their versions. The write must commit, then call
+     * {@link #replaceWritten(Collection)} with the phones it has written.
+     *
+     * @param ids the ids of the phones which may be written
+     * @param write the write, in its own transaction
+     * @return the result of the write
+     */
+    public <T> T writeAtOnce(Collection<Long> ids, Supplier<T> write) {
+        List<Long> lockedIds = new ArrayList<>(ids.size());
+        try {
+            // Locked in the same order by every writer, so that they do not deadlock
+            for (Long id : new TreeSet<>(ids)) {
+                phones.lock(id);
+                lockedIds.add(id);
+            }
+            if (!lockedIds.isEmpty()) {
+                phones.flush();
+            }
+            return write.get();
+        } finally {
+            lockedIds.forEach(phones::unlock);
+        }
+    }
+
+    /**
+     * Replace the entries of phones written to the database at once with the written phones, unless they are
+     * newer. The phones which are not in the map are loaded when they are read.
+     *
+     * @param writtenPhones the written phones, with their new versions
+     */
+    public void replaceWritten(Collection<Phone> writtenPhones) {
+        for (Phone phone : writtenPhones) {
+            // Without loading the phones which are not in the map
+            EntryView<Long, PhoneDTO> entry = phones.getEntryView(phone.getId());
+            if (entry != null && entry.getValue().getVersion() <= phone.getVersion()) {
+                // Not stored again, as it is the phone of the database; a removed entry would read as
+                // missing until its removal is stored
+                phones.putTransient(phone.getId(), phoneMapper.toDto(phone), 0, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Store the pending updates of the phones of this node, before it shuts down: when the context closes,
+     * before Hazelcast and the database are shut down.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void drain() {
+        long pending = getPendingCount();
+        if (pending > 0) {
+            log.info("Storing the {} pending updates of phones", pending);
+            phones.flush();
+            log.info("Stored the pending updates of phones, {} left", getPendingCount());
+        }
+    }
+
+    private Map<Long, PhoneDTO> load(Collection<Long> ids) {
+        Map<Long, PhoneDTO> loaded = new HashMap<>();
+        StatelessSession session = sessionFactory.openStatelessSession();
+        try {
+            for (List<Long> chunk : PhoneRepositoryCustom.inListChunks(ids)) {
+                session.createQuery("select phone from Phone phone where phone.id in :ids", Phone.class)
+                    .setParameterList("ids", chunk)
+                    .list()
+                    .forEach(phone -> loaded.put(phone.getId(), phoneMapper.toDto(phone)));
+            }
+        } finally {
+            session.close();
+        }
+        return loaded;
+    }
+
+    private void store(Map<Long, PhoneDTO> pendingPhones) {
+        List<PhoneDTO> pending = new ArrayList<>(pendingPhones.values());
+        List<Phone> stored = new ArrayList<>(pending.size());
+        List<Long> outboxIds = new ArrayList<>(pending.size());
+        try (Timer.Context ignored = batches.time()) {
+            StatelessSession session = sessionFactory.openStatelessSession();
+            Transaction transaction = session.beginTransaction();
+            try {
+                Map<Long, Phone> previousPhones = lockPrevious(session, pendingPhones.keySet());
+                // The versions of the map are written as they are, as they have been returned to the clients;
+                // the phones deleted meanwhile, or written at once with a newer version, are skipped
+                int[] updateCounts = update((SharedSessionContractImplementor) session, pending);
+                PhoneBrandStatistics.Changes changes = new PhoneBrandStatistics.Changes();
+                for (int i = 0; i < pending.size(); i++) {
+                    if (updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                        PhoneSearchOutbox outboxEntry = new PhoneSearchOutbox(pending.get(i).getId());
+                        session.insert(outboxEntry);
+                        stored.add(phoneMapper.toEntity(pending.get(i)));
+                        outboxIds.add(outboxEntry.getId());
+                    }
+                    // Locked, the previous phone tells whether it was updated, even when the driver does not
+                    Phone previous = previousPhones.get(pending.get(i).getId());
+                    if (previous != null && previous.getVersion() < pending.get(i).getVersion()) {
+                        changes.removed(previous.getBrand(), previous.getPrice())
+                            .added(pending.get(i).getBrand(), pending.get(i).getPrice());
+                    }
+                }
+                phoneBrandStatistics.apply(changes, session);
+                transaction.commit();
+            } catch (RuntimeException e) {
+                if (transaction.getStatus().canRollback()) {
+                    transaction.rollback();
+                }
+                failedBatches.mark();
+                log.warn("Could not store {} updated Phones, the map retries them: {}", pending.size(), e.getMessage());
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+        lastStoreTime = System.currentTimeMillis();
+        storedPhones.mark(stored.size());
+        skippedPhones.mark(pending.size() - stored.size());
+        if (stored.isEmpty()) {
+            return;
+        }
+        // The stateless session bypasses the event listeners and the second-level cache
+        phoneCatalogVersion.changed();
+        stored.forEach(phone -> sessionFactory.getCache().evictEntity(Phone.class, phone.getId()));
+        phoneCatalogIndex.written(stored);
+        index(stored, outboxIds);
+    }
+
+    /**
+     * Read the phones before they are updated, for the statistics of their brands, locking them so that
+     * they do not change until they are updated.
+     */
+    private Map<Long, Phone> lockPrevious(StatelessSession session, Collection<Long> ids) {
+        Map<Long, Phone> previous = new HashMap<>();
+        for (List<Long> chunk : PhoneRepositoryCustom.inListChunks(ids)) {
+            session.createQuery("select phone from Phone phone where phone.id in :ids", Phone.class)
+                .setParameterList("ids", chunk)
+                .setLockMode("phone", LockMode.PESSIMISTIC_WRITE)
+                .list()
+                .forEach(phone -> previous.put(phone.getId(), phone));
+        }
+        return previous;
+    }
+
+    private int[] update(SharedSessionContractImplementor session, List<PhoneDTO> pending) {
+        try (PreparedStatement statement = session.connection().prepareStatement(UPDATE_SQL)) {
+            for (PhoneDTO phone : pending) {
+                statement.setString(1, phone.getName());
+                statement.setString(2, phone.getBrand());
+                if (phone.getPrice() == null) {
+                    statement.setNull(3, Types.DECIMAL);
+                } else {
+                    statement.setBigDecimal(3, phone.getPrice());
+                }
+                statement.setLong(4, phone.getVersion());
+                statement.setLong(5, phone.getId());
+                statement.setLong(6, phone.getVersion());
+                statement.addBatch();
+            }
+            return statement.executeBatch();
+        } catch (SQLException e) {
+            throw session.getJdbcServices().getSqlExceptionHelper().convert(e, "Could not store updated phones", UPDATE_SQL);
+        }
+    }
+
+    private void index(List<Phone> stored, List<Long> outboxIds) {
+        Set<Long> failedIds;
+        try {
+            failedIds = phoneSearchIndexer.index(stored, Collections.emptyList());
+        } catch (RuntimeException e) {
+            log.warn("Could not index {} stored Phones in Elasticsearch: {}", stored.size(), e.getMessage());
+            return;
+        }
+        List<Long> indexedOutboxIds = new ArrayList<>(stored.size());
+        for (int i = 0; i < stored.size(); i++) {
+            if (!failedIds.contains(stored.get(i).getId())) {
+                indexedOutboxIds.add(outboxIds.get(i));
+            }
+        }
+        if (!indexedOutboxIds.isEmpty()) {
+            try {
+                transactionTemplate.execute(status -> phoneSearchOutboxRepository.deleteByIdIn(indexedOutboxIds));
+            } catch (DataAccessException | TransactionException e) {
+                // The outbox entries are replayed later, which only indexes the phones again
+                log.warn("Could not remove the outbox entries of {} stored Phones: {}", indexedOutboxIds.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The map store of the {@link #MAP_NAME} map, configured with the map: it calls the PhoneWriteBehind of its member.
+     * <p>
+     * Deletions are not stored, as phones are deleted from the database at once.
+     */
+    public static class Store implements MapStore<Long, PhoneDTO>, MapLoaderLifecycleSupport, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient HazelcastInstance hazelcastInstance;
+
+        @Override
+        public void init(HazelcastInstance hazelcastInstance, Properties properties, String mapName) {
+            this.hazelcastInstance = hazelcastInstance;
+        }
+
+        @Override
+        public void destroy() {
+            // Nothing to release
+        }
+
+        private PhoneWriteBehind writeBehind() {
+            PhoneWriteBehind writeBehind = hazelcastInstance == null ? null
+                : (PhoneWriteBehind) hazelcastInstance.getUserContext().get(USER_CONTEXT_KEY);
+            if (writeBehind == null) {
+                throw new IllegalStateException("The write-behind of phones is not started on this member");
+            }
+            return writeBehind;
+        }
+
+        @Override
+        public void store(Long id, PhoneDTO phone) {
+            writeBehind().store(Collections.singletonMap(id, phone));
+        }
+
+        @Override
+        public void storeAll(Map<Long, PhoneDTO> phones) {
+            writeBehind().store(phones);
+        }
+
+        @Override
+        public void delete(Long id) {
+            // Deleted from the database at once
+        }
+
+        @Override
+        public void deleteAll(Collection<Long> ids) {
+            // Deleted from the database at once
+        }
+
+        @Override
+        public PhoneDTO load(Long id) {
+            return writeBehind().load(Collections.singleton(id)).get(id);
+        }
+
+        @Override
+        public Map<Long, PhoneDTO> loadAll(Collection<Long> ids) {
+            return writeBehind().load(ids);
+        }
+
+        @Override
+        public Iterable<Long> loadAllKeys() {
+            // Phones are loaded as they are read
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Store;
+        }
+
+        @Override
+        public int hashCode() {
+            return Store.class.hashCode();
+        }
+    }
+}
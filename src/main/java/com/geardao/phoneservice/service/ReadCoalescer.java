@@ -0,0 +1,154 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Coalescing of identical concurrent reads of phones: while a read is in progress on a node, the identical
+ * reads which start wait for its result, instead of reading the database again.
+ * <p>
+ * Reads are identical if they have the same key under the same {@link PhoneCatalogVersion}, so that a read
+ * which starts after a write completes never gets a result read before it. Transactions which have written
+ * phones read on their own, as they see phones others do not. The result is shared as is: callers must not
+ * change it.
+ * <p>
+ * In cluster mode, a read which repopulates a shared cache entry also holds a lock on its key in the
+ * {@link #LOCKS_MAP_NAME} map, so that the identical reads of the other nodes wait for it, and then find
+ * the entry it cached.
+ * <p>
+ * The reads, the coalesced reads and the waits which timed out are published under phone.coalescing.
+ */
+@Service
+public class ReadCoalescer {
+
+    /**
+     * Name of the Hazelcast map whose key locks serialize the identical reads of the cluster.
+     */
+    public static final String LOCKS_MAP_NAME = "phoneReadLocks";
+
+    private static final String METRIC_PREFIX = "phone.coalescing";
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    private final IMap<String, Boolean> locks;
+
+    private final PhoneCatalogVersion phoneCatalogVersion;
+
+    private final MetricRegistry metricRegistry;
+
+    private final ApplicationProperties.Coalescing properties;
+
+    private Meter reads;
+
+    private Meter coalescedReads;
+
+    private Meter timeouts;
+
+    private Timer clusterLockWaits;
+
+    public ReadCoalescer(HazelcastInstance hazelcastInstance, PhoneCatalogVersion phoneCatalogVersion,
+                         MetricRegistry metricRegistry, ApplicationProperties applicationProperties) {
+        this.locks = hazelcastInstance.getMap(LOCKS_MAP_NAME);
+        this.phoneCatalogVersion = phoneCatalogVersion;
+        this.metricRegistry = metricRegistry;
+        this.properties = applicationProperties.getCoalescing();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        reads = metricRegistry.meter(METRIC_PREFIX + ".reads");
+        coalescedReads = metricRegistry.meter(METRIC_PREFIX + ".coalesced");
+        timeouts = metricRegistry.meter(METRIC_PREFIX + ".timeouts");
+        clusterLockWaits = metricRegistry.timer(METRIC_PREFIX + ".cluster-lock");
+        metricRegistry.register(METRIC_PREFIX + ".in-flight", (Gauge<Integer>) flights::size);
+    }
+
+    /**
+     * Read once for all the identical reads in progress on this node.
+     *
+     * @param key the key of the read, the same for identical reads
+     * @param repopulates whether the read misses a shared cache entry, which it repopulates; only called in cluster mode
+     * @param read the read
+     * @param <T> the type of the result
+     * @return the result of the read, or of the identical read in progress
+     */
+    public <T> T read(String key, BooleanSupplier repopulates, Supplier<T> read) {
+        if (!properties.isEnabled() || phoneCatalogVersion.isChangedInTransaction()) {
+            return read.get();
+        }
+        String flightKey = phoneCatalogVersion.get() + ":" + key;
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> current = flights.putIfAbsent(flightKey, flight);
+        if (current != null) {
+            return join(current, read);
+        }
+        reads.mark();
+        try {
+            T result = readInCluster(flightKey, repopulates, read);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(flightKey, flight);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T join(CompletableFuture<Object> flight, Supplier<T> read) {
+        coalescedReads.mark();
+        try {
+            return (T) flight.get(properties.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.mark();
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical read", e);
+        } catch (ExecutionException e) {
+            // The identical read failed, and this one would most likely fail the same way
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> T readInCluster(String flightKey, BooleanSupplier repopulates, Supplier<T> read) {
+        if (!properties.isCluster() || !repopulates.getAsBoolean()) {
+            return read.get();
+        }
+        boolean locked;
+        try (Timer.Context ignored = clusterLockWaits.time()) {
+            locked = locks.tryLock(flightKey, properties.getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical read of another node", e);
+        }
+        if (!locked) {
+            timeouts.mark();
+        }
+        try {
+            return read.get();
+        } finally {
+            if (locked) {
+                locks.unlock(flightKey);
+            }
+        }
+    }
+}
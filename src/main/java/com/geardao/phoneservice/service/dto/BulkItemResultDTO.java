@@ -0,0 +1,79 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+
+/**
+ * A DTO describing the outcome of one item of a bulk write.
+ */
+public class BulkItemResultDTO implements Serializable {
+
+    public enum Status {
+        CREATED, UPDATED, FAILED
+    }
+
+    private int index;
+
+    private Long id;
+
+    private Status status;
+
+    private String error;
+
+    public BulkItemResultDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public BulkItemResultDTO(int index, Long id, Status status, String error) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static BulkItemResultDTO failed(int index, Long id, String error) {
+        return new BulkItemResultDTO(index, id, Status.FAILED, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkItemResultDTO{" +
+            "index=" + getIndex() +
+            ", id=" + getId() +
+            ", status=" + getStatus() +
+            ", error='" + getError() + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,192 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A DTO for the progress of an import of a phone catalog.
+ */
+public class ImportJobDTO implements Serializable {
+
+    public enum State {
+        RUNNING, SUCCEEDED, FAILED
+    }
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private String id;
+
+    private Format format;
+
+    private State state = State.RUNNING;
+
+    private Instant startedDate;
+
+    private Instant finishedDate;
+
+    private long read;
+
+    private long created;
+
+    private long updated;
+
+    private long rejected;
+
+    private long indexed;
+
+    private long indexPending;
+
+    private double throughput;
+
+    private String error;
+
+    private List<BulkItemResultDTO> rejectedRows = new ArrayList<>();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public Instant getStartedDate() {
+        return startedDate;
+    }
+
+    public void setStartedDate(Instant startedDate) {
+        this.startedDate = startedDate;
+    }
+
+    public Instant getFinishedDate() {
+        return finishedDate;
+    }
+
+    public void setFinishedDate(Instant finishedDate) {
+        this.finishedDate = finishedDate;
+    }
+
+    /**
+     * @return the number of rows parsed so far
+     */
+    public long getRead() {
+        return read;
+    }
+
+    public void setRead(long read) {
+        this.read = read;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(long updated) {
+        this.updated = updated;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    public long getIndexed() {
+        return indexed;
+    }
+
+    public void setIndexed(long indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * @return the number of written phones which could not be indexed, and are left to the search outbox
+     */
+    public long getIndexPending() {
+        return indexPending;
+    }
+
+    public void setIndexPending(long indexPending) {
+        this.indexPending = indexPending;
+    }
+
+    /**
+     * @return the number of rows parsed per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return the first rejected rows, indexed from 0 after the CSV header
+     */
+    public List<BulkItemResultDTO> getRejectedRows() {
+        return rejectedRows;
+    }
+
+    public void setRejectedRows(List<BulkItemResultDTO> rejectedRows) {
+        this.rejectedRows = rejectedRows;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportJobDTO{" +
+            "id='" + getId() + "'" +
+            ", format=" + getFormat() +
+            ", state=" + getState() +
+            ", startedDate=" + getStartedDate() +
+            ", finishedDate=" + getFinishedDate() +
+            ", read=" + getRead() +
+            ", created=" + getCreated() +
+            ", updated=" + getUpdated() +
+            ", rejected=" + getRejected() +
+            ", indexed=" + getIndexed() +
+            ", indexPending=" + getIndexPending() +
+            ", throughput=" + getThroughput() +
+            ", error='" + getError() + "'" +
+            "}";
+    }
+}
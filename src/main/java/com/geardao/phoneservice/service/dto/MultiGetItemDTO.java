@@ -0,0 +1,59 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+
+/**
+ * A DTO describing the outcome of one id of a multi-get.
+ */
+public class MultiGetItemDTO implements Serializable {
+
+    private Long id;
+
+    private boolean found;
+
+    private PhoneDTO phone;
+
+    public MultiGetItemDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public MultiGetItemDTO(Long id, PhoneDTO phone) {
+        this.id = id;
+        this.found = phone != null;
+        this.phone = phone;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public PhoneDTO getPhone() {
+        return phone;
+    }
+
+    public void setPhone(PhoneDTO phone) {
+        this.phone = phone;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiGetItemDTO{" +
+            "id=" + getId() +
+            ", found='" + isFound() + "'" +
+            ", phone=" + getPhone() +
+            "}";
+    }
+}
@@ -0,0 +1,88 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * A DTO for the statistics of the phones of a brand: the prices are those of the phones which have one,
+ * and are null if none has.
+ */
+public class PhoneBrandStatsDTO implements Serializable {
+
+    private String brand;
+
+    private long count;
+
+    private long pricedCount;
+
+    private BigDecimal minPrice;
+
+    private BigDecimal maxPrice;
+
+    private BigDecimal avgPrice;
+
+    public PhoneBrandStatsDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public void setBrand(String brand) {
+        this.brand = brand;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getPricedCount() {
+        return pricedCount;
+    }
+
+    public void setPricedCount(long pricedCount) {
+        this.pricedCount = pricedCount;
+    }
+
+    public BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(BigDecimal minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(BigDecimal maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public BigDecimal getAvgPrice() {
+        return avgPrice;
+    }
+
+    public void setAvgPrice(BigDecimal avgPrice) {
+        this.avgPrice = avgPrice;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneBrandStatsDTO{" +
+            "brand='" + getBrand() + "'" +
+            ", count=" + getCount() +
+            ", pricedCount=" + getPricedCount() +
+            ", minPrice=" + getMinPrice() +
+            ", maxPrice=" + getMaxPrice() +
+            ", avgPrice=" + getAvgPrice() +
+            "}";
+    }
+}
@@ -1,12 +1,16 @@
 package com.geardao.phoneservice.service.dto;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.List;
+
 import io.github.jhipster.service.filter.BooleanFilter;
 import io.github.jhipster.service.filter.DoubleFilter;
 import io.github.jhipster.service.filter.Filter;
 import io.github.jhipster.service.filter.FloatFilter;
 import io.github.jhipster.service.filter.IntegerFilter;
 import io.github.jhipster.service.filter.LongFilter;
+import io.github.jhipster.service.filter.RangeFilter;
 import io.github.jhipster.service.filter.StringFilter;
 import io.github.jhipster.service.filter.BigDecimalFilter;
 
@@ -69,6 +73,53 @@ public class PhoneCriteria implements Serializable {
         this.price = price;
     }
 
+    /**
+     * Return a key which is the same for all the criteria matching the same phones, as far as their
+     * syntax tells: the order of the values of an "in" filter and the scale of decimals do not matter.
+     *
+     * @return the key of these criteria, to cache results computed from them
+     */
+    public String toCacheKey() {
+        return "id" + cacheKey(id) + "name" + cacheKey(name) + "brand" + cacheKey(brand) + "price" + cacheKey(price);
+    }
+
+    private static String cacheKey(Filter<?> filter) {
+        if (filter == null) {
+            return "[]";
+        }
+        StringBuilder key = new StringBuilder("[");
+        appendCacheKey(key, "eq", filter.getEquals());
+        appendCacheKey(key, "sp", filter.getSpecified());
+        List<?> in = filter.getIn();
+        if (in != null) {
+            key.append("in").append(in.size());
+            in.stream().map(PhoneCriteria::normalize).sorted().forEach(value -> appendCacheKey(key, "", value));
+        }
+        if (filter instanceof StringFilter) {
+            appendCacheKey(key, "ct", ((StringFilter) filter).getContains());
+        }
+        if (filter instanceof RangeFilter) {
+            RangeFilter<?> range = (RangeFilter<?>) filter;
+            appendCacheKey(key, "gt", range.getGreaterThan());
+            appendCacheKey(key, "ge", range.getGreaterOrEqualThan());
+            appendCacheKey(key, "lt", range.getLessThan());
+            appendCacheKey(key, "le", range.getLessOrEqualThan());
+        }
+        return key.append("]").toString();
+    }
+
+    private static void appendCacheKey(StringBuilder key, String name, Object value) {
+        if (value != null) {
+            // Values are prefixed with their length, so that no value can be mistaken for a separator
+            String normalized = normalize(value);
+            key.append(name).append(normalized.length()).append(':').append(normalized);
+        }
+    }
+
+    private static String normalize(Object value) {
+        return value instanceof BigDecimal ? ((BigDecimal) value).stripTrailingZeros().toPlainString() : String.valueOf(value);
+    }
+
     @Override
     public String toString() {
         return "PhoneCriteria{" +
@@ -1,6 +1,8 @@
 package com.geardao.phoneservice.service.dto;
 
 
+import javax.validation.constraints.Digits;
+import javax.validation.constraints.Size;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.Objects;
@@ -12,12 +14,32 @@ public class PhoneDTO implements Serializable {
 
     private Long id;
 
+    @Size(max = 255)
     private String name;
 
+    @Size(max = 255)
     private String brand;
 
+    @Digits(integer = 8, fraction = 2)
     private BigDecimal price;
 
+    private Long version;
+
+    public PhoneDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    /**
+     * Constructor of the projection queries, which select the columns of the phones directly into DTOs.
+     */
+    public PhoneDTO(Long id, String name, String brand, BigDecimal price, Long version) {
+        this.id = id;
+        this.name = name;
+        this.brand = brand;
+        this.price = price;
+        this.version = version;
+    }
+
     public Long getId() {
         return id;
     }
@@ -50,6 +72,14 @@ public class PhoneDTO implements Serializable {
         this.price = price;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -78,6 +108,7 @@ public class PhoneDTO implements Serializable {
             ", name='" + getName() + "'" +
             ", brand='" + getBrand() + "'" +
             ", price=" + getPrice() +
+            ", version=" + getVersion() +
             "}";
     }
 }
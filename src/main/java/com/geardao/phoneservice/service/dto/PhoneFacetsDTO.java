@@ -0,0 +1,215 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A DTO for the facets of the phones matching a query: the count of phones per brand, and the price
+ * histogram and statistics.
+ */
+public class PhoneFacetsDTO implements Serializable {
+
+    private long total;
+
+    private List<BrandCount> brands = new ArrayList<>();
+
+    private long otherBrands;
+
+    private long priceInterval;
+
+    private List<PriceBucket> prices = new ArrayList<>();
+
+    private PriceStats priceStats;
+
+    public PhoneFacetsDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public List<BrandCount> getBrands() {
+        return brands;
+    }
+
+    public void setBrands(List<BrandCount> brands) {
+        this.brands = brands;
+    }
+
+    public long getOtherBrands() {
+        return otherBrands;
+    }
+
+    public void setOtherBrands(long otherBrands) {
+        this.otherBrands = otherBrands;
+    }
+
+    public long getPriceInterval() {
+        return priceInterval;
+    }
+
+    public void setPriceInterval(long priceInterval) {
+        this.priceInterval = priceInterval;
+    }
+
+    public List<PriceBucket> getPrices() {
+        return prices;
+    }
+
+    public void setPrices(List<PriceBucket> prices) {
+        this.prices = prices;
+    }
+
+    public PriceStats getPriceStats() {
+        return priceStats;
+    }
+
+    public void setPriceStats(PriceStats priceStats) {
+        this.priceStats = priceStats;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneFacetsDTO{" +
+            "total=" + getTotal() +
+            ", brands=" + getBrands().size() +
+            ", otherBrands=" + getOtherBrands() +
+            ", priceInterval=" + getPriceInterval() +
+            ", prices=" + getPrices().size() +
+            "}";
+    }
+
+    /**
+     * The number of phones of a brand.
+     */
+    public static class BrandCount implements Serializable {
+
+        private String brand;
+
+        private long count;
+
+        public BrandCount() {
+            // Empty constructor needed for Jackson.
+        }
+
+        public BrandCount(String brand, long count) {
+            this.brand = brand;
+            this.count = count;
+        }
+
+        public String getBrand() {
+            return brand;
+        }
+
+        public void setBrand(String brand) {
+            this.brand = brand;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+    }
+
+    /**
+     * The number of phones priced from a value, included, up to the next bucket.
+     */
+    public static class PriceBucket implements Serializable {
+
+        private BigDecimal from;
+
+        private long count;
+
+        public PriceBucket() {
+            // Empty constructor needed for Jackson.
+        }
+
+        public PriceBucket(BigDecimal from, long count) {
+            this.from = from;
+            this.count = count;
+        }
+
+        public BigDecimal getFrom() {
+            return from;
+        }
+
+        public void setFrom(BigDecimal from) {
+            this.from = from;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+    }
+
+    /**
+     * Statistics of the prices of the phones which have one; the values are null without such phones.
+     */
+    public static class PriceStats implements Serializable {
+
+        private long count;
+
+        private BigDecimal min;
+
+        private BigDecimal max;
+
+        private BigDecimal avg;
+
+        private BigDecimal sum;
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public BigDecimal getMin() {
+            return min;
+        }
+
+        public void setMin(BigDecimal min) {
+            this.min = min;
+        }
+
+        public BigDecimal getMax() {
+            return max;
+        }
+
+        public void setMax(BigDecimal max) {
+            this.max = max;
+        }
+
+        public BigDecimal getAvg() {
+            return avg;
+        }
+
+        public void setAvg(BigDecimal avg) {
+            this.avg = avg;
+        }
+
+        public BigDecimal getSum() {
+            return sum;
+        }
+
+        public void setSum(BigDecimal sum) {
+            this.sum = sum;
+        }
+    }
+}
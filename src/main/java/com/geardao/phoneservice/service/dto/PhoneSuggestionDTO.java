@@ -0,0 +1,90 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+
+/**
+ * A DTO for a completion of the prefix typed in a search: a name or a brand of phones.
+ */
+public class PhoneSuggestionDTO implements Serializable {
+
+    /**
+     * Type of the completions which are names of phones.
+     */
+    public static final String NAME = "name";
+
+    /**
+     * Type of the completions which are brands of phones.
+     */
+    public static final String BRAND = "brand";
+
+    private String text;
+
+    private String type;
+
+    private long count;
+
+    private long score;
+
+    public PhoneSuggestionDTO() {
+        // Empty constructor needed for Jackson.
+    }
+
+    public PhoneSuggestionDTO(String text, String type, long count, long score) {
+        this.text = text;
+        this.type = type;
+        this.count = count;
+        this.score = score;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return {@link #NAME} or {@link #BRAND}
+     */
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the number of phones with the text
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * @return the popularity of the completion: the number of phones with the text, plus their accesses
+     */
+    public long getScore() {
+        return score;
+    }
+
+    public void setScore(long score) {
+        this.score = score;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneSuggestionDTO{" +
+            "text='" + getText() + "'" +
+            ", type='" + getType() + "'" +
+            ", count=" + getCount() +
+            ", score=" + getScore() +
+            "}";
+    }
+}
@@ -0,0 +1,134 @@
+package com.geardao.phoneservice.service.dto;
+
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A DTO for the progress of a full reindex of the phones.
+ */
+public class ReindexStatusDTO implements Serializable {
+
+    public enum State {
+        IDLE, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private State state = State.IDLE;
+
+    private String indexName;
+
+    private Instant startedDate;
+
+    private Instant finishedDate;
+
+    private long total;
+
+    private long processed;
+
+    private long failed;
+
+    private double throughput;
+
+    private Long etaSeconds;
+
+    private String error;
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
+    }
+
+    public Instant getStartedDate() {
+        return startedDate;
+    }
+
+    public void setStartedDate(Instant startedDate) {
+        this.startedDate = startedDate;
+    }
+
+    public Instant getFinishedDate() {
+        return finishedDate;
+    }
+
+    public void setFinishedDate(Instant finishedDate) {
+        this.finishedDate = finishedDate;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return the number of phones loaded per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(Long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "ReindexStatusDTO{" +
+            "state=" + getState() +
+            ", indexName='" + getIndexName() + "'" +
+            ", startedDate=" + getStartedDate() +
+            ", finishedDate=" + getFinishedDate() +
+            ", total=" + getTotal() +
+            ", processed=" + getProcessed() +
+            ", failed=" + getFailed() +
+            ", throughput=" + getThroughput() +
+            ", etaSeconds=" + getEtaSeconds() +
+            ", error='" + getError() + "'" +
+            "}";
+    }
+}
@@ -1,28 +1,73 @@
 package com.geardao.phoneservice.service.impl;
 
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.service.PhoneAccessFrequencies;
+import com.geardao.phoneservice.service.PhoneBrandStatistics;
+import com.geardao.phoneservice.service.PhoneExistence;
 import com.geardao.phoneservice.service.PhoneService;
+import com.geardao.phoneservice.service.PhoneWriteBehind;
+import com.geardao.phoneservice.service.ReadCoalescer;
 import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.domain.PhoneSearchOutbox;
 import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.PhoneRepositoryCustom;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
 import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.geardao.phoneservice.repository.search.ScrollPage;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.MultiGetItemDTO;
 import com.geardao.phoneservice.service.dto.PhoneDTO;
 import com.geardao.phoneservice.service.mapper.PhoneMapper;
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.PhoneSearchQuery;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.NestedRuntimeException;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
 
 /**
  * Service Implementation for managing Phone.
+ * <p>
+ * Writes do not call Elasticsearch: they record the changed phones in the phone_search_outbox table,
+ * in the same transaction, and {@link com.geardao.phoneservice.service.PhoneSearchIndexer} indexes them.
+ * They also update the statistics of the brands they change, see {@link PhoneBrandStatistics}.
+ * <p>
+ * In write-behind mode, updates are written to a Hazelcast map, and phones by id are read from it,
+ * see {@link PhoneWriteBehind}.
  */
 @Service
 @Transactional
 public class PhoneServiceImpl implements PhoneService {
 
+    /**
+     * Properties on which searches can be keyset paginated: the string properties are analyzed,
+     * so their sort values cannot be compared with range queries.
+     */
+    private static final Set<String> SEARCH_KEYSET_PROPERTIES = new HashSet<>(Arrays.asList("id", "price"));
+
     private final Logger log = LoggerFactory.getLogger(PhoneServiceImpl.class);
 
     private final PhoneRepository phoneRepository;
@@ -31,10 +76,41 @@ public class PhoneServiceImpl implements PhoneService {
 
     private final PhoneSearchRepository phoneSearchRepository;
 
-    public PhoneServiceImpl(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository) {
+    private final PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Validator validator;
+
+    private final PhoneAccessFrequencies phoneAccessFrequencies;
+
+    private final PhoneExistence phoneExistence;
+
+    private final ReadCoalescer readCoalescer;
+
+    private final PhoneWriteBehind phoneWriteBehind;
+
+    private final PhoneBrandStatistics phoneBrandStatistics;
+
+    private final ApplicationProperties applicationProperties;
+
+    public PhoneServiceImpl(PhoneRepository phoneRepository, PhoneMapper phoneMapper, PhoneSearchRepository phoneSearchRepository,
+                            PhoneSearchOutboxRepository phoneSearchOutboxRepository, PlatformTransactionManager transactionManager,
+                            Validator validator, PhoneAccessFrequencies phoneAccessFrequencies,
+                            PhoneExistence phoneExistence, ReadCoalescer readCoalescer, PhoneWriteBehind phoneWriteBehind,
+                            PhoneBrandStatistics phoneBrandStatistics, ApplicationProperties applicationProperties) {
         this.phoneRepository = phoneRepository;
         this.phoneMapper = phoneMapper;
         this.phoneSearchRepository = phoneSearchRepository;
+        this.phoneSearchOutboxRepository = phoneSearchOutboxRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        this.phoneAccessFrequencies = phoneAccessFrequencies;
+        this.phoneExistence = phoneExistence;
+        this.readCoalescer = readCoalescer;
+        this.phoneWriteBehind = phoneWriteBehind;
+        this.phoneBrandStatistics = phoneBrandStatistics;
+        this.applicationProperties = applicationProperties;
     }
 
     /**
@@ -46,13 +122,156 @@ public class PhoneServiceImpl implements PhoneService {
     @Override
     public PhoneDTO save(PhoneDTO phoneDTO) {
         log.debug("Request to save Phone : {}", phoneDTO);
+        if (phoneDTO.getId() != null && phoneWriteBehind.isEnabled()) {
+            PhoneDTO updated = phoneWriteBehind.update(phoneDTO);
+            if (updated != null) {
+                return updated;
+            }
+        }
         Phone phone = phoneMapper.toEntity(phoneDTO);
-        phone = phoneRepository.save(phone);
+        PhoneBrandStatistics.Changes changes = new PhoneBrandStatistics.Changes();
+        if (phone.getId() != null) {
+            // Loaded before the merge, which checks that it is the version being updated, and then overwrites it
+            Phone existing = phoneRepository.findOne(phone.getId());
+            if (existing != null) {
+                changes.removed(existing.getBrand(), existing.getPrice());
+                if (phone.getVersion() == null) {
+                    phone.setVersion(existing.getVersion());
+                }
+            } else if (phone.getVersion() == null) {
+                // As before versioning, a phone with an unknown id is created with a new id
+                phone.setId(null);
+            }
+        }
+        // Flushing increments the version of an updated phone before it is returned
+        phone = phoneRepository.saveAndFlush(phone);
         PhoneDTO result = phoneMapper.toDto(phone);
-        phoneSearchRepository.save(phone);
+        phoneSearchOutboxRepository.save(new PhoneSearchOutbox(phone.getId()));
+        phoneBrandStatistics.apply(changes.added(phone.getBrand(), phone.getPrice()));
         return result;
     }
 
+    /**
+     * Save a stream of phones.
+     * <p>
+     * Phones are written in chunks of application.bulk.chunk-size, each in its own transaction,
+     * so that Hibernate can send them, and their outbox entries, as JDBC batches. If a chunk fails,
+     * it is replayed one phone at a time to find the phones at fault. In write-behind mode, updates
+     * are written to the map instead.
+     *
+     * @param phoneDTOs the entities to save
+     * @return the result of each entity, in the order of phoneDTOs
+     */
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<BulkItemResultDTO> saveAll(Iterable<PhoneDTO> phoneDTOs) {
+        log.debug("Request to save a bulk of Phones");
+        int chunkSize = Math.max(1, applicationProperties.getBulk().getChunkSize());
+        List<BulkItemResultDTO> results = new ArrayList<>();
+        Map<Integer, PhoneDTO> chunk = new LinkedHashMap<>();
+        Map<Integer, PhoneDTO> writeBehindUpdates = new LinkedHashMap<>();
+        int index = 0;
+        for (PhoneDTO phoneDTO : phoneDTOs) {
+            String error = validate(phoneDTO);
+            if (error != null) {
+                results.add(BulkItemResultDTO.failed(index, phoneDTO == null ? null : phoneDTO.getId(), error));
+            } else if (phoneDTO.getId() != null && phoneWriteBehind.isEnabled()) {
+                writeBehindUpdates.put(index, phoneDTO);
+            } else {
+                chunk.put(index, phoneDTO);
+            }
+            index++;
+            if (chunk.size() == chunkSize) {
+                results.addAll(saveChunk(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(saveChunk(chunk));
+        }
+        if (!writeBehindUpdates.isEmpty()) {
+            results.addAll(phoneWriteBehind.updateAll(writeBehindUpdates));
+        }
+        results.sort(Comparator.comparingInt(BulkItemResultDTO::getIndex));
+        return results;
+    }
+
+    private String validate(PhoneDTO phoneDTO) {
+        if (phoneDTO == null) {
+            return "Invalid phone";
+        }
+        Set<ConstraintViolation<PhoneDTO>> violations = validator.validate(phoneDTO);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+            .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+            .sorted()
+            .collect(Collectors.joining(", "));
+    }
+
+    private List<BulkItemResultDTO> saveChunk(Map<Integer, PhoneDTO> chunk) {
+        try {
+            return transactionTemplate.execute(status -> writeChunk(chunk));
+        } catch (DataAccessException | TransactionException e) {
+            log.warn("Could not save a chunk of {} Phones, retrying them one by one: {}", chunk.size(), e.getMessage());
+        }
+        List<BulkItemResultDTO> results = new ArrayList<>();
+        for (Map.Entry<Integer, PhoneDTO> item : chunk.entrySet()) {
+            try {
+                results.addAll(transactionTemplate.execute(status ->
+                    writeChunk(Collections.singletonMap(item.getKey(), item.getValue()))));
+            } catch (DataAccessException | TransactionException e) {
+                results.add(BulkItemResultDTO.failed(item.getKey(), item.getValue().getId(), errorMessage(e)));
+            }
+        }
+        return results;
+    }
+
+    private List<BulkItemResultDTO> writeChunk(Map<Integer, PhoneDTO> chunk) {
+        // Loading the existing phones with one query also puts them in the persistence context,
+        // so that the merges below do not select them again
+        Map<Long, Phone> existingPhones = new HashMap<>();
+        List<Long> ids = chunk.values().stream().map(PhoneDTO::getId).filter(Objects::nonNull).collect(Collectors.toList());
+        for (List<Long> idChunk : PhoneRepositoryCustom.inListChunks(ids)) {
+            phoneRepository.findAll(idChunk)
+                .forEach(phone -> existingPhones.put(phone.getId(), phone));
+        }
+        List<BulkItemResultDTO> results = new ArrayList<>(chunk.size());
+        List<PhoneSearchOutbox> outboxEntries = new ArrayList<>(chunk.size());
+        PhoneBrandStatistics.Changes changes = new PhoneBrandStatistics.Changes();
+        for (Map.Entry<Integer, PhoneDTO> item : chunk.entrySet()) {
+            PhoneDTO phoneDTO = item.getValue();
+            Phone existing = phoneDTO.getId() == null ? null : existingPhones.get(phoneDTO.getId());
+            if (phoneDTO.getId() != null && existing == null) {
+                results.add(BulkItemResultDTO.failed(item.getKey(), phoneDTO.getId(), "No phone with this id"));
+                continue;
+            }
+            Phone phone = phoneMapper.toEntity(phoneDTO);
+            if (existing != null) {
+                // The managed phone has the state of the previous items of the chunk with the same id, if any
+                changes.removed(existing.getBrand(), existing.getPrice());
+                if (phone.getVersion() == null) {
+                    phone.setVersion(existing.getVersion());
+                }
+            }
+            phone = phoneRepository.save(phone);
+            changes.added(phone.getBrand(), phone.getPrice());
+            outboxEntries.add(new PhoneSearchOutbox(phone.getId()));
+            BulkItemResultDTO.Status status = phoneDTO.getId() == null ? BulkItemResultDTO.Status.CREATED : BulkItemResultDTO.Status.UPDATED;
+            results.add(new BulkItemResultDTO(item.getKey(), phone.getId(), status, null));
+        }
+        phoneSearchOutboxRepository.save(outboxEntries);
+        phoneRepository.flush();
+        phoneBrandStatistics.apply(changes);
+        return results;
+    }
+
+    private String errorMessage(NestedRuntimeException e) {
+        Throwable cause = e.getMostSpecificCause();
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
     /**
      * Get all the phones.
      *
@@ -68,7 +287,8 @@ public class PhoneServiceImpl implements PhoneService {
     }
 
     /**
-     * Get one phone by id.
+     * Get one phone by id: an id known to be missing is answered without reading the database,
+     * see {@link PhoneExistence}, and identical concurrent reads share one, see {@link ReadCoalescer}.
      *
      * @param id the id of the entity
      * @return the entity
@@ -77,8 +297,66 @@ public class PhoneServiceImpl implements PhoneService {
     @Transactional(readOnly = true)
     public PhoneDTO findOne(Long id) {
         log.debug("Request to get Phone : {}", id);
+        if (phoneExistence.isKnownMissing(id)) {
+            return null;
+        }
+        PhoneDTO phone = phoneWriteBehind.isEnabled() ? phoneWriteBehind.findOne(id) : readCoalescer.read("phone:" + id, () -> !phoneRepository.isCached(id),
+            () -> phoneMapper.toDto(phoneRepository.findOne(id)));
+        if (phone == null) {
+            phoneExistence.notFound(Collections.singleton(id));
+        } else {
+            phoneAccessFrequencies.record(id);
+        }
+        return phone;
+    }
+
+    /**
+     * Get the version of one phone by id.
+     *
+     * @param id the id of the entity
+     * @return the version of the entity, or null if there is no such entity
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Long findVersion(Long id) {
+        log.debug("Request to get the version of Phone : {}", id);
+        if (phoneExistence.isKnownMissing(id)) {
+            return null;
+        }
+        if (phoneWriteBehind.isEnabled()) {
+            PhoneDTO phone = phoneWriteBehind.findOne(id);
+            return phone == null ? null : phone.getVersion();
+        }
+        // Through the second-level cache, which usually holds the phone
         Phone phone = phoneRepository.findOne(id);
-        return phoneMapper.toDto(phone);
+        return phone == null ? null : phone.getVersion();
+    }
+
+    /**
+     * Get the phones of several ids at once: the phones are read from the second-level cache in one request,
+     * and the others from the database, in chunks that fit in an IN list, except those known to be missing.
+     *
+     * @param ids the ids of the entities, which may contain duplicates
+     * @return one result per id, in the order of ids
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<MultiGetItemDTO> findAll(List<Long> ids) {
+        log.debug("Request to get Phones : {}", ids);
+        Set<Long> lookedUpIds = new HashSet<>(ids);
+        lookedUpIds.removeAll(phoneExistence.findKnownMissing(lookedUpIds));
+        Map<Long, PhoneDTO> phones = new HashMap<>();
+        if (phoneWriteBehind.isEnabled()) {
+            phones.putAll(phoneWriteBehind.findAll(lookedUpIds));
+        } else {
+            phoneRepository.findAllCached(lookedUpIds).forEach((id, phone) -> phones.put(id, phoneMapper.toDto(phone)));
+        }
+        lookedUpIds.removeAll(phones.keySet());
+        phoneExistence.notFound(lookedUpIds);
+        phones.keySet().forEach(phoneAccessFrequencies::record);
+        return ids.stream()
+            .map(id -> new MultiGetItemDTO(id, phones.get(id)))
+            .collect(Collectors.toList());
     }
 
     /**
@@ -89,8 +367,13 @@ public class PhoneServiceImpl implements PhoneService {
     @Override
     public void delete(Long id) {
         log.debug("Request to delete Phone : {}", id);
+        Phone existing = phoneRepository.findOne(id);
         phoneRepository.delete(id);
-        phoneSearchRepository.delete(id);
+        phoneSearchOutboxRepository.save(new PhoneSearchOutbox(id));
+        phoneBrandStatistics.apply(new PhoneBrandStatistics.Changes().removed(existing.getBrand(), existing.getPrice()));
+        if (phoneWriteBehind.isEnabled()) {
+            phoneWriteBehind.discard(Collections.singleton(id));
+        }
     }
 
     /**
@@ -104,7 +387,104 @@ public class PhoneServiceImpl implements PhoneService {
     @Transactional(readOnly = true)
     public Page<PhoneDTO> search(String query, Pageable pageable) {
         log.debug("Request to search for a page of Phones for query {}", query);
-        Page<Phone> result = phoneSearchRepository.search(queryStringQuery(query), pageable);
+        Page<Phone> result = phoneSearchRepository.search(searchQuery(query), pageable);
         return result.map(phoneMapper::toDto);
     }
+
+    /**
+     * Search for the phones corresponding to the query, using keyset pagination.
+     * <p>
+     * Elasticsearch 2.4 has no search_after, so its behaviour is reproduced with a filter on the sort value
+     * and id of the cursor: each page is the first page of a narrower search.
+     *
+     * @param query the query of the search
+     * @param cursor the position of the page
+     * @param size the number of entities per page
+     * @return the entities, with the cursors of the next and previous pages
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<PhoneDTO> search(String query, KeysetCursor cursor, int size) {
+        log.debug("Request to search for Phones for query {}, cursor {}", query, cursor);
+        if (!SEARCH_KEYSET_PROPERTIES.contains(cursor.getProperty())) {
+            throw new IllegalArgumentException("Searches cannot be keyset paginated on " + cursor.getProperty());
+        }
+        // Going backward on an ascending sort, or forward on a descending one, reads the hits in descending order
+        boolean ascending = (cursor.getDirection() == Sort.Direction.ASC) != cursor.isBackward();
+        SortOrder order = ascending ? SortOrder.ASC : SortOrder.DESC;
+        BoolQueryBuilder searchQuery = boolQuery().must(searchQuery(query));
+        if (cursor.hasPosition()) {
+            searchQuery.filter(seekFilter(cursor, ascending));
+        }
+        NativeSearchQueryBuilder builder = new NativeSearchQueryBuilder()
+            .withQuery(searchQuery)
+            .withPageable(new PageRequest(0, size + 1));
+        if (!"id".equals(cursor.getProperty())) {
+            // Phones without a value are sorted after the others in ascending order, as in the database
+            builder.withSort(SortBuilders.fieldSort(cursor.getProperty()).order(order).missing(ascending ? "_last" : "_first"));
+        }
+        builder.withSort(SortBuilders.fieldSort("id").order(order));
+        List<Phone> phones = phoneSearchRepository.search(builder.build()).getContent();
+        return CursorPage.of(phones, cursor, size, Phone::getId,
+            phone -> phone.getPrice() == null ? null : phone.getPrice().toPlainString(), phoneMapper::toDto);
+    }
+
+    /**
+     * Compile a query of the phone search, as a query string only if application.search.query-string is set.
+     */
+    private QueryBuilder searchQuery(String query) {
+        return applicationProperties.getSearch().isQueryString() ? queryStringQuery(query)
+            : PhoneSearchQuery.parse(query).toQueryBuilder();
+    }
+
+    private QueryBuilder seekFilter(KeysetCursor cursor, boolean ascending) {
+        String id = cursor.getId().toString();
+        QueryBuilder idSeek = ascending ? rangeQuery("id").gt(id) : rangeQuery("id").lt(id);
+        if ("id".equals(cursor.getProperty())) {
+            return idSeek;
+        }
+        String property = cursor.getProperty();
+        if (cursor.getValue() == null) {
+            // The position is among the phones without a value, which come last in ascending order
+            return ascending
+                ? boolQuery().mustNot(existsQuery(property)).filter(idSeek)
+                : boolQuery().should(boolQuery().mustNot(existsQuery(property)).filter(idSeek)).should(existsQuery(property));
+        }
+        BoolQueryBuilder seek = boolQuery()
+            .should(ascending ? rangeQuery(property).gt(cursor.getValue()) : rangeQuery(property).lt(cursor.getValue()))
+            .should(boolQuery().filter(termQuery(property, cursor.getValue())).filter(idSeek));
+        if (ascending) {
+            seek.should(boolQuery().mustNot(existsQuery(property)));
+        }
+        return seek;
+    }
+
+    /**
+     * Start a scroll over all the phones corresponding to the query, in index order.
+     *
+     * @param query the query of the search
+     * @param size the number of entities per batch
+     * @return the first batch of entities
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public ScrollPage<PhoneDTO> startScroll(String query, int size) {
+        log.debug("Request to scroll the Phones for query {}", query);
+        return phoneSearchRepository.startScroll(searchQuery(query), size, applicationProperties.getSearch().getScrollKeepAlive())
+            .map(phoneMapper::toDto);
+    }
+
+    /**
+     * Read the next batch of a scroll.
+     *
+     * @param scrollId the id of the scroll
+     * @return the next batch of entities
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public ScrollPage<PhoneDTO> continueScroll(String scrollId) {
+        log.debug("Request to continue the scroll of Phones {}", scrollId);
+        return phoneSearchRepository.continueScroll(scrollId, applicationProperties.getSearch().getScrollKeepAlive())
+            .map(phoneMapper::toDto);
+    }
 }
@@ -0,0 +1,74 @@
+package com.geardao.phoneservice.service.util;
+
+import java.util.*;
+
+/**
+ * Counts of the accesses to the most accessed ids, in a bounded memory, with the Space-Saving algorithm:
+ * when all the counters are taken, the id with the lowest count is replaced by the new id, which inherits
+ * its count. Counts are therefore overestimated, by at most the lowest count, but any id accessed more
+ * often than the lowest count is kept.
+ * <p>
+ * This class is thread-safe.
+ */
+public class AccessFrequencySketch {
+
+    private final int capacity;
+
+    private final Map<Long, Long> counts = new HashMap<>();
+
+    /**
+     * Ids by count, to find the id with the lowest count.
+     */
+    private final TreeMap<Long, Set<Long>> idsByCount = new TreeMap<>();
+
+    /**
+     * @param capacity the maximum number of ids counted
+     */
+    public AccessFrequencySketch(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Count an access to an id.
+     *
+     * @param id the id accessed
+     */
+    public synchronized void record(long id) {
+        Long count = counts.get(id);
+        if (count == null) {
+            if (counts.size() < capacity) {
+                count = 0L;
+            } else {
+                Map.Entry<Long, Set<Long>> lowest = idsByCount.firstEntry();
+                Long replaced = lowest.getValue().iterator().next();
+                unindex(replaced, lowest.getKey());
+                counts.remove(replaced);
+                count = lowest.getKey();
+            }
+        } else {
+            unindex(id, count);
+        }
+        counts.put(id, count + 1);
+        idsByCount.computeIfAbsent(count + 1, c -> new HashSet<>()).add(id);
+    }
+
+    /**
+     * Get the counts, and reset them.
+     *
+     * @return the count of each id accessed since the last drain
+     */
+    public synchronized Map<Long, Long> drain() {
+        Map<Long, Long> drained = new HashMap<>(counts);
+        counts.clear();
+        idsByCount.clear();
+        return drained;
+    }
+
+    private void unindex(Long id, Long count) {
+        Set<Long> ids = idsByCount.get(count);
+        ids.remove(id);
+        if (ids.isEmpty()) {
+            idsByCount.remove(count);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.geardao.phoneservice.service.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page of a keyset paginated list, with the cursors of the neighbouring pages.
+ */
+public class CursorPage<T> {
+
+    private final List<T> content;
+
+    private final int size;
+
+    private final KeysetCursor cursor;
+
+    private final KeysetCursor nextCursor;
+
+    private final KeysetCursor previousCursor;
+
+    public CursorPage(List<T> content, int size, KeysetCursor cursor, KeysetCursor nextCursor, KeysetCursor previousCursor) {
+        this.content = content;
+        this.size = size;
+        this.cursor = cursor;
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+
+    /**
+     * Build a page from the rows read from the position of the cursor, in reading order: rows after a forward
+     * cursor, rows before a backward cursor. One row more than the page size tells that there are more rows.
+     *
+     * @param rows the rows read, at most size + 1
+     * @param cursor the cursor of the page
+     * @param size the number of elements per page
+     * @param idOf the function giving the id of a row
+     * @param valueOf the function giving the sort value of a row
+     * @param mapper the function converting the rows of the page to its elements
+     * @return the page
+     */
+    public static <E, T> CursorPage<T> of(List<E> rows, KeysetCursor cursor, int size, Function<E, Long> idOf,
+                                         Function<E, String> valueOf, Function<List<E>, List<T>> mapper) {
+        boolean more = rows.size() > size;
+        List<E> page = new ArrayList<>(more ? rows.subList(0, size) : rows);
+        if (cursor.isBackward()) {
+            Collections.reverse(page);
+        }
+        KeysetCursor next = null;
+        KeysetCursor previous = null;
+        if (!page.isEmpty()) {
+            E first = page.get(0);
+            E last = page.get(page.size() - 1);
+            if (cursor.isBackward() ? cursor.hasPosition() : more) {
+                next = cursor.after(idOf.apply(last), valueOf.apply(last));
+            }
+            if (cursor.isBackward() ? more : cursor.hasPosition()) {
+                previous = cursor.before(idOf.apply(first), valueOf.apply(first));
+            }
+        }
+        return new CursorPage<>(mapper.apply(page), size, cursor, next, previous);
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the requested number of elements per page
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the cursor of this page
+     */
+    public KeysetCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the cursor of the next page, or null if this page is the last one
+     */
+    public KeysetCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return the cursor of the previous page, or null if this page is the first one
+     */
+    public KeysetCursor getPreviousCursor() {
+        return previousCursor;
+    }
+}
@@ -0,0 +1,121 @@
+package com.geardao.phoneservice.service.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of long ids: {@link #mightContain(long)} is true for every id added, and false for most
+ * of the others, depending on the number of bits and of ids.
+ * <p>
+ * The bit positions of an id are derived from two 32-bit halves of its 64-bit hash, by double hashing.
+ * Ids can be added concurrently with lookups and other additions.
+ */
+public class IdBloomFilter {
+
+    private final AtomicLongArray words;
+
+    private final long bits;
+
+    private final int hashes;
+
+    /**
+     * @param bits the number of bits, rounded up to a multiple of 64
+     * @param hashes the number of bits set by each id
+     */
+    public IdBloomFilter(long bits, int hashes) {
+        this(new AtomicLongArray((int) ((Math.max(64, bits) + 63) / 64)), hashes);
+    }
+
+    private IdBloomFilter(AtomicLongArray words, int hashes) {
+        this.words = words;
+        this.bits = words.length() * 64L;
+        this.hashes = Math.max(1, hashes);
+    }
+
+    public void add(long id) {
+        long hash = mix(id);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = position(hash1 + i * hash2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long value;
+            do {
+                value = words.get(word);
+            } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+        }
+    }
+
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long bit = position(hash1 + i * hash2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the ratio of the bits which are set, from which the false positive rate is this ratio
+     * to the power of the number of hashes
+     */
+    public double getFillRatio() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return (double) set / bits;
+    }
+
+    /**
+     * @return the bits and number of hashes of this filter, to send it to another node
+     */
+    public Snapshot toSnapshot() {
+        long[] copy = new long[words.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = words.get(i);
+        }
+        return new Snapshot(copy, hashes);
+    }
+
+    public static IdBloomFilter fromSnapshot(Snapshot snapshot) {
+        return new IdBloomFilter(new AtomicLongArray(snapshot.words), snapshot.hashes);
+    }
+
+    private long position(int combinedHash) {
+        // Flips negative hashes, as in the Guava implementation
+        return (combinedHash < 0 ? ~combinedHash : combinedHash) % bits;
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator, which spreads consecutive ids over all the bits.
+     */
+    private static long mix(long id) {
+        long z = id + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The content of a filter, as sent to the other nodes.
+     */
+    public static class Snapshot implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] words;
+
+        private final int hashes;
+
+        Snapshot(long[] words, int hashes) {
+            this.words = words;
+            this.hashes = hashes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.geardao.phoneservice.service.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily reads the elements of a top-level JSON array, one at a time, so that
+ * arbitrarily large payloads can be processed without being buffered in memory.
+ * <p>
+ * Each element is read as a tree and then converted, so an element which cannot be
+ * converted to the target type is returned as {@code null} instead of breaking the stream.
+ */
+public class JsonArrayIterator<T> implements Iterator<T> {
+
+    private final Logger log = LoggerFactory.getLogger(JsonArrayIterator.class);
+
+    private final ObjectMapper objectMapper;
+
+    private final JsonParser parser;
+
+    private final Class<T> type;
+
+    private JsonToken nextToken;
+
+    public JsonArrayIterator(ObjectMapper objectMapper, InputStream inputStream, Class<T> type) throws IOException {
+        this.objectMapper = objectMapper;
+        this.type = type;
+        this.parser = objectMapper.getFactory().createParser(inputStream);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            JsonParseException e = new JsonParseException(parser, "Expected a JSON array");
+            parser.close();
+            throw e;
+        }
+        this.nextToken = parser.nextToken();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextToken != null && nextToken != JsonToken.END_ARRAY;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            JsonNode node = parser.readValueAsTree();
+            nextToken = parser.nextToken();
+            if (nextToken == null || nextToken == JsonToken.END_ARRAY) {
+                parser.close();
+            }
+            return convert(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private T convert(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        try {
+            return objectMapper.treeToValue(node, type);
+        } catch (JsonProcessingException e) {
+            log.debug("Could not convert {} to {}: {}", node, type.getSimpleName(), e.getMessage());
+            return null;
+        }
+    }
+}
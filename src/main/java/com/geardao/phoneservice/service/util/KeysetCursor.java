@@ -0,0 +1,140 @@
+package com.geardao.phoneservice.service.util;
+
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position in a list sorted on one property, then on id, used for keyset pagination.
+ * <p>
+ * A cursor designates the rows after, or before, a row: it holds the sort, and the sort value and id
+ * of that row. A cursor without position designates the first rows, or the last rows when it goes backward.
+ * It is sent to clients as an opaque URL-safe string.
+ */
+public final class KeysetCursor {
+
+    private static final String SEPARATOR = ":";
+
+    private final String property;
+
+    private final Sort.Direction direction;
+
+    private final boolean backward;
+
+    private final Long id;
+
+    private final String value;
+
+    private KeysetCursor(String property, Sort.Direction direction, boolean backward, Long id, String value) {
+        this.property = Objects.requireNonNull(property);
+        this.direction = Objects.requireNonNull(direction);
+        this.backward = backward;
+        this.id = id;
+        this.value = value;
+    }
+
+    /**
+     * @return a cursor designating the first rows of the given sort
+     */
+    public static KeysetCursor first(String property, Sort.Direction direction) {
+        return new KeysetCursor(property, direction, false, null, null);
+    }
+
+    /**
+     * @return a cursor designating the last rows of the given sort
+     */
+    public static KeysetCursor last(String property, Sort.Direction direction) {
+        return new KeysetCursor(property, direction, true, null, null);
+    }
+
+    /**
+     * @return a cursor designating the rows after the given row
+     */
+    public KeysetCursor after(Long id, String value) {
+        return new KeysetCursor(property, direction, false, Objects.requireNonNull(id), value);
+    }
+
+    /**
+     * @return a cursor designating the rows before the given row
+     */
+    public KeysetCursor before(Long id, String value) {
+        return new KeysetCursor(property, direction, true, Objects.requireNonNull(id), value);
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Sort.Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return true if the cursor designates the rows before its position, false for the rows after it
+     */
+    public boolean isBackward() {
+        return backward;
+    }
+
+    /**
+     * @return false if the cursor designates the first, or the last, rows
+     */
+    public boolean hasPosition() {
+        return id != null;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @return the sort value of the row, null if the row has no value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the cursor as an opaque URL-safe string
+     */
+    public String encode() {
+        String raw = property + SEPARATOR + direction + SEPARATOR + (backward ? "b" : "f") + SEPARATOR +
+            (id == null ? "" : id) + SEPARATOR + (value == null ? "" : "=" + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a cursor written by {@link #encode()}.
+     *
+     * @param encoded the opaque string
+     * @return the cursor
+     * @throws IllegalArgumentException if the string is not a cursor
+     */
+    public static KeysetCursor decode(String encoded) {
+        String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+        String[] parts = raw.split(SEPARATOR, 5);
+        if (parts.length != 5 || parts[0].isEmpty() || !("b".equals(parts[2]) || "f".equals(parts[2]))
+            || !(parts[4].isEmpty() || parts[4].startsWith("="))) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        Long id = parts[3].isEmpty() ? null : Long.valueOf(parts[3]);
+        String value = parts[4].isEmpty() ? null : parts[4].substring(1);
+        if (id == null && value != null) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new KeysetCursor(parts[0], Sort.Direction.fromString(parts[1]), "b".equals(parts[2]), id, value);
+    }
+
+    @Override
+    public String toString() {
+        return "KeysetCursor{" +
+            "property='" + property + "'" +
+            ", direction=" + direction +
+            ", backward=" + backward +
+            ", id=" + id +
+            ", value='" + value + "'" +
+            "}";
+    }
+}
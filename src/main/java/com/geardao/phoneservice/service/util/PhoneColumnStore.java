@@ -0,0 +1,935 @@
+package com.geardao.phoneservice.service.util;
+
+import com.geardao.phoneservice.service.dto.PhoneCriteria;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import io.github.jhipster.service.filter.BigDecimalFilter;
+import io.github.jhipster.service.filter.Filter;
+import io.github.jhipster.service.filter.LongFilter;
+import io.github.jhipster.service.filter.StringFilter;
+import org.springframework.data.domain.Sort;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The phones, stored column by column in primitive arrays, so that the filters of a {@link PhoneCriteria}
+ * are evaluated by tight loops over one column each: ids and versions are long arrays, brands are
+ * dictionary-encoded into int codes, prices are longs of minor units, and names are slices of one char pool.
+ * <p>
+ * The filters have the semantics of the criteria queries of the database: only the first of equals, in,
+ * contains and specified is applied to strings, contains ignoring case; only equals, or in, or else all
+ * of specified and the bounds, are applied to ranges. Phones are sorted by the orders given, then by id;
+ * phones without a value are sorted after the others in ascending order, as Oracle does. Queries which
+ * cannot be answered the same way, see {@link #supports(PhoneCriteria, Sort)}, must be sent to the database.
+ * <p>
+ * A deleted phone keeps its row, so that an older write received later cannot bring it back; rows are
+ * reclaimed when the store is rebuilt. Queries can run concurrently with writes.
+ */
+public class PhoneColumnStore {
+
+    /**
+     * Number of decimals of the prices, as in the database.
+     */
+    public static final int PRICE_SCALE = 2;
+
+    private static final Set<String> SORT_PROPERTIES = new HashSet<>(Arrays.asList("id", "name", "brand", "price"));
+
+    /**
+     * Prices are compared as longs of minor units, well below their overflow.
+     */
+    private static final BigDecimal MAX_PRICE = BigDecimal.TEN.pow(15);
+
+    private static final long NULL_PRICE = Long.MIN_VALUE;
+
+    private static final int NULL_CODE = -1;
+
+    private static final int NULL_NAME = -1;
+
+    private static final long DELETED_VERSION = Long.MAX_VALUE;
+
+    /**
+     * Below this number of rows, a range is sorted by insertion.
+     */
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final IdTable rowsById;
+
+    private final List<String> brands = new ArrayList<>();
+
+    private final Map<String, Integer> brandCodes = new HashMap<>();
+
+    private long[] ids;
+
+    private long[] versions;
+
+    private int[] brandColumn;
+
+    private long[] prices;
+
+    private int[] nameOffsets;
+
+    private int[] nameLengths;
+
+    private char[] namePool;
+
+    private int namePoolSize;
+
+    /**
+     * Chars of the pool no longer used by any name.
+     */
+    private int unusedNameChars;
+
+    private final BitSet deletedRows = new BitSet();
+
+    private int size;
+
+    private int liveCount;
+
+    private long idSum;
+
+    private long versionSum;
+
+    /**
+     * @param capacity the expected number of phones
+     */
+    public PhoneColumnStore(int capacity) {
+        int rows = Math.max(16, capacity);
+        ids = new long[rows];
+        versions = new long[rows];
+        brandColumn = new int[rows];
+        prices = new long[rows];
+        nameOffsets = new int[rows];
+        nameLengths = new int[rows];
+        namePool = new char[rows * 16];
+        rowsById = new IdTable(rows);
+    }
+
+    /**
+     * Write a phone, unless the store already has a more recent version of it, or knows it is deleted.
+     */
+    public void put(long id, String name, String brand, BigDecimal price, long version) {
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row < 0) {
+                row = addRow(id);
+                versions[row] = version;
+                liveCount++;
+                idSum += id;
+                versionSum += version;
+            } else if (version <= versions[row]) {
+                return;
+            } else {
+                versionSum += version - versions[row];
+                versions[row] = version;
+            }
+            brandColumn[row] = brand == null ? NULL_CODE : brandCode(brand);
+            prices[row] = price == null ? NULL_PRICE
+                : price.setScale(PRICE_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            setName(row, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a phone, for good: its later writes are ignored.
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row < 0) {
+                row = addRow(id);
+            } else if (!deletedRows.get(row)) {
+                liveCount--;
+                idSum -= id;
+                versionSum -= versions[row];
+                setName(row, null);
+            }
+            versions[row] = DELETED_VERSION;
+            brandColumn[row] = NULL_CODE;
+            prices[row] = NULL_PRICE;
+            nameLengths[row] = NULL_NAME;
+            deletedRows.set(row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of phones
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the count, sum of ids and sum of versions of the phones, which the database can compute too
+     */
+    public Checksum getChecksum() {
+        lock.readLock().lock();
+        try {
+            return new Checksum(liveCount, idSum, versionSum);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return an estimate of the memory used by the store, in bytes
+     */
+    public long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            return ids.length * 36L + namePool.length * 2L + rowsById.getMemoryUsage() + deletedRows.size() / 8
+                + brands.stream().mapToLong(brand -> 80 + brand.length() * 2L).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param criteria the filters, or null
+     * @param sort the orders, or null
+     * @return true if the store answers the query as the database does
+     */
+    public static boolean supports(PhoneCriteria criteria, Sort sort) {
+        if (sort != null) {
+            for (Sort.Order order : sort) {
+                if (!SORT_PROPERTIES.contains(order.getProperty()) || order.isIgnoreCase()) {
+                    return false;
+                }
+            }
+        }
+        if (criteria == null) {
+            return true;
+        }
+        return supports(criteria.getId()) && supports(criteria.getName()) && supports(criteria.getBrand())
+            && supportsPrice(criteria.getPrice());
+    }
+
+    private static boolean supports(Filter<?> filter) {
+        if (filter == null || filter.getEquals() != null) {
+            return true;
+        }
+        if (filter.getIn() != null) {
+            // An empty in list is not valid SQL
+            return !filter.getIn().isEmpty();
+        }
+        return !(filter instanceof StringFilter) || isLiteral(((StringFilter) filter).getContains());
+    }
+
+    private static boolean isLiteral(String contains) {
+        // Wildcards of the like pattern of the database
+        return contains == null || (contains.indexOf('%') < 0 && contains.indexOf('_') < 0);
+    }
+
+    private static boolean supportsPrice(BigDecimalFilter filter) {
+        if (!supports(filter)) {
+            return false;
+        }
+        if (filter == null) {
+            return true;
+        }
+        List<BigDecimal> values = new ArrayList<>(Arrays.asList(filter.getEquals(), filter.getGreaterThan(),
+            filter.getGreaterOrEqualThan(), filter.getLessThan(), filter.getLessOrEqualThan()));
+        if (filter.getIn() != null) {
+            values.addAll(filter.getIn());
+        }
+        return values.stream().allMatch(value -> value == null || value.abs().compareTo(MAX_PRICE) < 0);
+    }
+
+    /**
+     * Find the phones matching criteria, which must be {@link #supports(PhoneCriteria, Sort) supported}.
+     *
+     * @param criteria the filters, or null
+     * @param sort the orders, or null for the id order
+     * @param offset the number of matching phones to skip
+     * @param limit the maximum number of phones to return
+     * @return the phones, with the count of all the matching phones
+     */
+    public Result find(PhoneCriteria criteria, Sort sort, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            int[] rows = select(criteria);
+            int count = rows.length;
+            if (offset >= count || limit <= 0) {
+                return new Result(Collections.emptyList(), count);
+            }
+            int end = (int) Math.min(count, offset + limit);
+            RowComparator comparator = comparator(sort);
+            if (end < count / 4) {
+                // Only the first rows are sorted, by selecting them in a heap
+                rows = selectFirst(rows, end, comparator);
+            }
+            sort(rows, new int[rows.length], 0, rows.length, comparator);
+            List<PhoneDTO> phones = new ArrayList<>(end - (int) offset);
+            for (int i = (int) offset; i < end; i++) {
+                phones.add(toDto(rows[i]));
+            }
+            return new Result(phones, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the phones matching criteria, which must be {@link #supports(PhoneCriteria, Sort) supported}.
+     */
+    public long count(PhoneCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            return select(criteria).length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int addRow(long id) {
+        if (size == ids.length) {
+            int capacity = size + (size >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            brandColumn = Arrays.copyOf(brandColumn, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+        }
+        int row = size++;
+        ids[row] = id;
+        nameLengths[row] = NULL_NAME;
+        rowsById.put(id, row);
+        return row;
+    }
+
+    private int brandCode(String brand) {
+        Integer code = brandCodes.get(brand);
+        if (code == null) {
+            code = brands.size();
+            brands.add(brand);
+            brandCodes.put(brand, code);
+        }
+        return code;
+    }
+
+    private void setName(int row, String name) {
+        int length = nameLengths[row];
+        if (length != NULL_NAME && name != null && regionEquals(nameOffsets[row], length, name)) {
+            return;
+        }
+        if (length != NULL_NAME) {
+            unusedNameChars += length;
+        }
+        if (name == null) {
+            nameLengths[row] = NULL_NAME;
+            return;
+        }
+        if (namePoolSize + name.length() > namePool.length) {
+            if (unusedNameChars > namePoolSize / 2) {
+                compactNames();
+            }
+            if (namePoolSize + name.length() > namePool.length) {
+                namePool = Arrays.copyOf(namePool, Math.max(namePoolSize + name.length(), namePool.length + (namePool.length >> 1)));
+            }
+        }
+        name.getChars(0, name.length(), namePool, namePoolSize);
+        nameOffsets[row] = namePoolSize;
+        nameLengths[row] = name.length();
+        namePoolSize += name.length();
+    }
+
+    private void compactNames() {
+        char[] compacted = new char[namePool.length];
+        int compactedSize = 0;
+        for (int row = 0; row < size; row++) {
+            int length = nameLengths[row];
+            if (length != NULL_NAME) {
+                System.arraycopy(namePool, nameOffsets[row], compacted, compactedSize, length);
+                nameOffsets[row] = compactedSize;
+                compactedSize += length;
+            }
+        }
+        namePool = compacted;
+        namePoolSize = compactedSize;
+        unusedNameChars = 0;
+    }
+
+    private int[] select(PhoneCriteria criteria) {
+        LongFilter idFilter = criteria == null ? null : criteria.getId();
+        int[] rows;
+        int count = 0;
+        if (idFilter != null && (idFilter.getEquals() != null || idFilter.getIn() != null)) {
+            List<Long> selectedIds = idFilter.getEquals() != null ? Collections.singletonList(idFilter.getEquals()) : idFilter.getIn();
+            rows = new int[selectedIds.size()];
+            for (Long id : selectedIds) {
+                int row = id == null ? -1 : rowsById.get(id);
+                if (row >= 0 && !deletedRows.get(row)) {
+                    rows[count++] = row;
+                }
+            }
+            // An id may be given twice
+            Arrays.sort(rows, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || rows[i] != rows[i - 1]) {
+                    rows[distinct++] = rows[i];
+                }
+            }
+            count = distinct;
+        } else {
+            long[] bounds = idFilter == null ? new long[] {Long.MIN_VALUE, Long.MAX_VALUE} : idBounds(idFilter);
+            long low = bounds[0];
+            long high = bounds[1];
+            rows = new int[liveCount];
+            for (int row = deletedRows.nextClearBit(0); row < size; row = deletedRows.nextClearBit(row + 1)) {
+                long id = ids[row];
+                if (id >= low && id <= high) {
+                    rows[count++] = row;
+                }
+            }
+        }
+        if (criteria != null) {
+            count = filterBrand(rows, count, criteria.getBrand());
+            count = filterPrice(rows, count, criteria.getPrice());
+            count = filterName(rows, count, criteria.getName());
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    private static long[] idBounds(LongFilter filter) {
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        // Ids are never null, and no id is beyond the extreme values
+        boolean empty = Boolean.FALSE.equals(filter.getSpecified())
+            || Long.valueOf(Long.MAX_VALUE).equals(filter.getGreaterThan())
+            || Long.valueOf(Long.MIN_VALUE).equals(filter.getLessThan());
+        if (empty) {
+            return new long[] {1, 0};
+        }
+        if (filter.getGreaterThan() != null) {
+            low = Math.max(low, filter.getGreaterThan() + 1);
+        }
+        if (filter.getGreaterOrEqualThan() != null) {
+            low = Math.max(low, filter.getGreaterOrEqualThan());
+        }
+        if (filter.getLessThan() != null) {
+            high = Math.min(high, filter.getLessThan() - 1);
+        }
+        if (filter.getLessOrEqualThan() != null) {
+            high = Math.min(high, filter.getLessOrEqualThan());
+        }
+        return new long[] {low, high};
+    }
+
+    private int filterBrand(int[] rows, int count, StringFilter filter) {
+        if (filter == null) {
+            return count;
+        }
+        boolean[] matchingCodes = new boolean[brands.size()];
+        boolean matchesNull = false;
+        if (filter.getEquals() != null || filter.getIn() != null) {
+            List<String> values = filter.getEquals() != null ? Collections.singletonList(filter.getEquals()) : filter.getIn();
+            for (String value : values) {
+                Integer code = value == null ? null : brandCodes.get(value);
+                if (code != null) {
+                    matchingCodes[code] = true;
+                }
+            }
+        } else if (filter.getContains() != null) {
+            char[] pattern = toUpperCase(filter.getContains());
+            for (int code = 0; code < matchingCodes.length; code++) {
+                String brand = brands.get(code);
+                matchingCodes[code] = containsIgnoreCase(brand.toCharArray(), 0, brand.length(), pattern);
+            }
+        } else if (filter.getSpecified() != null) {
+            Arrays.fill(matchingCodes, filter.getSpecified());
+            matchesNull = !filter.getSpecified();
+        } else {
+            return count;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int code = brandColumn[rows[i]];
+            if (code == NULL_CODE ? matchesNull : matchingCodes[code]) {
+                rows[kept++] = rows[i];
+            }
+        }
+        return kept;
+    }
+
+    private int filterPrice(int[] rows, int count, BigDecimalFilter filter) {
+        if (filter == null) {
+            return count;
+        }
+        if (filter.getEquals() != null || filter.getIn() != null) {
+            List<BigDecimal> values = filter.getEquals() != null ? Collections.singletonList(filter.getEquals()) : filter.getIn();
+            // Values with more decimals than the prices match none of them
+            long[] matchingPrices = values.stream()
+                .filter(value -> value != null && floorMinorUnits(value) == ceilMinorUnits(value))
+                .mapToLong(PhoneColumnStore::floorMinorUnits)
+                .sorted()
+                .toArray();
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                long price = prices[rows[i]];
+                if (price != NULL_PRICE && Arrays.binarySearch(matchingPrices, price) >= 0) {
+                    rows[kept++] = rows[i];
+                }
+            }
+            return kept;
+        }
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        boolean bounded = false;
+        if (filter.getGreaterThan() != null) {
+            low = Math.max(low, floorMinorUnits(filter.getGreaterThan()) + 1);
+            bounded = true;
+        }
+        if (filter.getGreaterOrEqualThan() != null) {
+            low = Math.max(low, ceilMinorUnits(filter.getGreaterOrEqualThan()));
+            bounded = true;
+        }
+        if (filter.getLessThan() != null) {
+            high = Math.min(high, ceilMinorUnits(filter.getLessThan()) - 1);
+            bounded = true;
+        }
+        if (filter.getLessOrEqualThan() != null) {
+            high = Math.min(high, floorMinorUnits(filter.getLessOrEqualThan()));
+            bounded = true;
+        }
+        // Bounds never match null prices, which specified may require
+        boolean keepsNull = !bounded && !Boolean.TRUE.equals(filter.getSpecified());
+        boolean keepsValues = !Boolean.FALSE.equals(filter.getSpecified());
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long price = prices[rows[i]];
+            if (price == NULL_PRICE ? keepsNull : keepsValues && price >= low && price <= high) {
+                rows[kept++] = rows[i];
+            }
+        }
+        return kept;
+    }
+
+    private static long floorMinorUnits(BigDecimal value) {
+        return value.movePointRight(PRICE_SCALE).setScale(0, RoundingMode.FLOOR).longValueExact();
+    }
+
+    private static long ceilMinorUnits(BigDecimal value) {
+        return value.movePointRight(PRICE_SCALE).setScale(0, RoundingMode.CEILING).longValueExact();
+    }
+
+    private int filterName(int[] rows, int count, StringFilter filter) {
+        if (filter == null) {
+            return count;
+        }
+        int kept = 0;
+        if (filter.getEquals() != null || filter.getIn() != null) {
+            List<String> values = filter.getEquals() != null ? Collections.singletonList(filter.getEquals()) : filter.getIn();
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                int length = nameLengths[row];
+                if (length == NULL_NAME) {
+                    continue;
+                }
+                for (String value : values) {
+                    if (value != null && regionEquals(nameOffsets[row], length, value)) {
+                        rows[kept++] = row;
+                        break;
+                    }
+                }
+            }
+        } else if (filter.getContains() != null) {
+            char[] pattern = toUpperCase(filter.getContains());
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                int length = nameLengths[row];
+                if (length != NULL_NAME && containsIgnoreCase(namePool, nameOffsets[row], length, pattern)) {
+                    rows[kept++] = row;
+                }
+            }
+        } else if (filter.getSpecified() != null) {
+            boolean specified = filter.getSpecified();
+            for (int i = 0; i < count; i++) {
+                if ((nameLengths[rows[i]] != NULL_NAME) == specified) {
+                    rows[kept++] = rows[i];
+                }
+            }
+        } else {
+            return count;
+        }
+        return kept;
+    }
+
+    private boolean regionEquals(int offset, int length, String value) {
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (namePool[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Upper-cased char by char, so that the pattern keeps its length, as the chars it is compared to.
+     */
+    private static char[] toUpperCase(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toUpperCase(chars[i]);
+        }
+        return chars;
+    }
+
+    private static boolean containsIgnoreCase(char[] chars, int offset, int length, char[] pattern) {
+        int last = offset + length - pattern.length;
+        for (int start = offset; start <= last; start++) {
+            int i = 0;
+            while (i < pattern.length && Character.toUpperCase(chars[start + i]) == pattern[i]) {
+                i++;
+            }
+            if (i == pattern.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares two rows.
+     */
+    @FunctionalInterface
+    private interface RowComparator {
+
+        int compare(int row1, int row2);
+    }
+
+    private RowComparator comparator(Sort sort) {
+        RowComparator comparator = (row1, row2) -> 0;
+        if (sort != null) {
+            for (Sort.Order order : sort) {
+                comparator = thenComparing(comparator, comparator(order));
+            }
+        }
+        return thenComparing(comparator, (row1, row2) -> Long.compare(ids[row1], ids[row2]));
+    }
+
+    private static RowComparator thenComparing(RowComparator first, RowComparator second) {
+        return (row1, row2) -> {
+            int result = first.compare(row1, row2);
+            return result != 0 ? result : second.compare(row1, row2);
+        };
+    }
+
+    private RowComparator comparator(Sort.Order order) {
+        int direction = order.isAscending() ? 1 : -1;
+        boolean nullsLast = order.getNullHandling() == Sort.NullHandling.NATIVE
+            ? order.isAscending() : order.getNullHandling() == Sort.NullHandling.NULLS_LAST;
+        int nullOrder = nullsLast ? 1 : -1;
+        switch (order.getProperty()) {
+            case "id":
+                return (row1, row2) -> direction * Long.compare(ids[row1], ids[row2]);
+            case "price":
+                return (row1, row2) -> {
+                    long price1 = prices[row1];
+                    long price2 = prices[row2];
+                    if (price1 == NULL_PRICE || price2 == NULL_PRICE) {
+                        return price1 == price2 ? 0 : price1 == NULL_PRICE ? nullOrder : -nullOrder;
+                    }
+                    return direction * Long.compare(price1, price2);
+                };
+            case "brand":
+                // The codes are given in order of first use, so they are compared by the rank of their brand
+                int[] ranks = brandRanks();
+                return (row1, row2) -> {
+                    int code1 = brandColumn[row1];
+                    int code2 = brandColumn[row2];
+                    if (code1 == NULL_CODE || code2 == NULL_CODE) {
+                        return code1 == code2 ? 0 : code1 == NULL_CODE ? nullOrder : -nullOrder;
+                    }
+                    return direction * Integer.compare(ranks[code1], ranks[code2]);
+                };
+            default:
+                return (row1, row2) -> {
+                    int length1 = nameLengths[row1];
+                    int length2 = nameLengths[row2];
+                    if (length1 == NULL_NAME || length2 == NULL_NAME) {
+                        return length1 == length2 ? 0 : length1 == NULL_NAME ? nullOrder : -nullOrder;
+                    }
+                    return direction * compareNames(row1, row2);
+                };
+        }
+    }
+
+    private int[] brandRanks() {
+        Integer[] codes = new Integer[brands.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = code;
+        }
+        Arrays.sort(codes, Comparator.comparing(brands::get));
+        int[] ranks = new int[codes.length];
+        for (int rank = 0; rank < codes.length; rank++) {
+            ranks[codes[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    private int compareNames(int row1, int row2) {
+        int offset1 = nameOffsets[row1];
+        int offset2 = nameOffsets[row2];
+        int length = Math.min(nameLengths[row1], nameLengths[row2]);
+        for (int i = 0; i < length; i++) {
+            char char1 = namePool[offset1 + i];
+            char char2 = namePool[offset2 + i];
+            if (char1 != char2) {
+                return char1 - char2;
+            }
+        }
+        return nameLengths[row1] - nameLengths[row2];
+    }
+
+    /**
+     * @return the first rows in the order of the comparator, unordered, selected in a max-heap of their number
+     */
+    private static int[] selectFirst(int[] rows, int count, RowComparator comparator) {
+        int[] heap = new int[count];
+        int heapSize = 0;
+        for (int row : rows) {
+            if (heapSize < count) {
+                heap[heapSize] = row;
+                siftUp(heap, heapSize++, comparator);
+            } else if (comparator.compare(row, heap[0]) < 0) {
+                heap[0] = row;
+                siftDown(heap, heapSize, comparator);
+            }
+        }
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, int index, RowComparator comparator) {
+        int row = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (comparator.compare(row, heap[parent]) <= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = row;
+    }
+
+    private static void siftDown(int[] heap, int heapSize, RowComparator comparator) {
+        int row = heap[0];
+        int index = 0;
+        int child;
+        while ((child = 2 * index + 1) < heapSize) {
+            if (child + 1 < heapSize && comparator.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (comparator.compare(row, heap[child]) >= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = row;
+    }
+
+    /**
+     * Merge sort of rows[from, to), using the same range of buffer.
+     */
+    private static void sort(int[] rows, int[] buffer, int from, int to, RowComparator comparator) {
+        if (to - from <= INSERTION_SORT_SIZE) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(rows, buffer, from, middle, comparator);
+        sort(rows, buffer, middle, to, comparator);
+        if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    private PhoneDTO toDto(int row) {
+        int length = nameLengths[row];
+        int code = brandColumn[row];
+        long price = prices[row];
+        return new PhoneDTO(ids[row],
+            length == NULL_NAME ? null : new String(namePool, nameOffsets[row], length),
+            code == NULL_CODE ? null : brands.get(code),
+            price == NULL_PRICE ? null : BigDecimal.valueOf(price, PRICE_SCALE),
+            versions[row]);
+    }
+
+    /**
+     * The phones of a page, with the count of all the matching phones.
+     */
+    public static class Result {
+
+        private final List<PhoneDTO> phones;
+
+        private final long count;
+
+        Result(List<PhoneDTO> phones, long count) {
+            this.phones = phones;
+            this.count = count;
+        }
+
+        public List<PhoneDTO> getPhones() {
+            return phones;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The count, sum of ids and sum of versions of phones.
+     */
+    public static class Checksum {
+
+        private final long count;
+
+        private final long idSum;
+
+        private final long versionSum;
+
+        public Checksum(long count, long idSum, long versionSum) {
+            this.count = count;
+            this.idSum = idSum;
+            this.versionSum = versionSum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Checksum checksum = (Checksum) o;
+            return count == checksum.count && idSum == checksum.idSum && versionSum == checksum.versionSum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, idSum, versionSum);
+        }
+
+        @Override
+        public String toString() {
+            return "Checksum{count=" + count + ", idSum=" + idSum + ", versionSum=" + versionSum + "}";
+        }
+    }
+
+    /**
+     * Rows by id, in an open-addressing table of primitive longs and ints.
+     */
+    private static class IdTable {
+
+        private long[] keys;
+
+        private int[] values;
+
+        private boolean[] used;
+
+        private int size;
+
+        IdTable(int capacity) {
+            int slots = Integer.highestOneBit(Math.max(16, capacity * 2) - 1) << 1;
+            keys = new long[slots];
+            values = new int[slots];
+            used = new boolean[slots];
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (!used[slot]) {
+                used[slot] = true;
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        long getMemoryUsage() {
+            return keys.length * 13L;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldUsed[slot]) {
+                    put(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.geardao.phoneservice.service.util;
+
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads phones from CSV, one record at a time, following RFC 4180, as written by {@link PhoneCsvWriter}.
+ * <p>
+ * The first record is a header naming the columns, which may come in any order; the columns which are
+ * not among {@link PhoneCsvWriter#COLUMNS} are ignored, and empty fields are read as null. Records are
+ * bounded in length, so that an unterminated quoted field cannot exhaust the memory.
+ */
+public class PhoneCsvReader {
+
+    private static final int END = -1;
+
+    private final Reader reader;
+
+    private final int maxRecordLength;
+
+    private final Map<String, Integer> columns = new HashMap<>();
+
+    private int next = -2;
+
+    /**
+     * @param reader the reader of the CSV, which should be buffered
+     * @param maxRecordLength the maximum number of characters of a record
+     */
+    public PhoneCsvReader(Reader reader, int maxRecordLength) {
+        this.reader = reader;
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Read the header of the CSV.
+     *
+     * @throws IOException if the CSV cannot be read
+     * @throws IllegalArgumentException if there is no header, or if it names no known column
+     */
+    public void readHeader() throws IOException {
+        List<String> header = readRecord();
+        if (header == null) {
+            throw new IllegalArgumentException("The CSV has no header");
+        }
+        List<String> known = Arrays.asList(PhoneCsvWriter.COLUMNS);
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i) == null ? "" : header.get(i).trim();
+            if (known.contains(column)) {
+                columns.put(column, i);
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("The CSV header names none of the columns " + known);
+        }
+    }
+
+    /**
+     * Read the next record, skipping empty lines.
+     *
+     * @return the fields of the record, empty fields being null, or null at the end of the CSV
+     * @throws IOException if the CSV cannot be read
+     * @throws IllegalArgumentException if the record is longer than the maximum length, or has an unterminated quote
+     */
+    public List<String> readRecord() throws IOException {
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == END) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        int length = 0;
+        while (true) {
+            if (++length > maxRecordLength) {
+                throw new IllegalArgumentException("Record longer than " + maxRecordLength + " characters");
+            }
+            if (inQuotes) {
+                if (c == END) {
+                    throw new IllegalArgumentException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == ',') {
+                fields.add(toField(field, quoted));
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '\r' || c == '\n' || c == END) {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                fields.add(toField(field, quoted));
+                return fields;
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                quoted = true;
+                inQuotes = true;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Convert a record to a phone, using the columns of the header.
+     *
+     * @param record the fields of the record
+     * @return the phone
+     * @throws IllegalArgumentException if a field is not a valid value of its column
+     */
+    public PhoneDTO toPhone(List<String> record) {
+        PhoneDTO phone = new PhoneDTO();
+        phone.setId(parseLong("id", field(record, "id")));
+        phone.setName(field(record, "name"));
+        phone.setBrand(field(record, "brand"));
+        String price = field(record, "price");
+        try {
+            phone.setPrice(price == null ? null : new BigDecimal(price.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price is not a number: " + price);
+        }
+        phone.setVersion(parseLong("version", field(record, "version")));
+        return phone;
+    }
+
+    private String field(List<String> record, String column) {
+        Integer index = columns.get(column);
+        return index == null || index >= record.size() ? null : record.get(index);
+    }
+
+    private Long parseLong(String column, String value) {
+        try {
+            return value == null ? null : Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not an integer: " + value);
+        }
+    }
+
+    private String toField(StringBuilder field, boolean quoted) {
+        return field.length() == 0 && !quoted ? null : field.toString();
+    }
+
+    private int read() throws IOException {
+        if (next != -2) {
+            int c = next;
+            next = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (next == -2) {
+            next = reader.read();
+        }
+        return next;
+    }
+}
@@ -0,0 +1,67 @@
+package com.geardao.phoneservice.service.util;
+
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes phones as CSV, one record per line after a header line, following RFC 4180: fields containing
+ * a comma, a quote or a line break are quoted, and null fields are empty.
+ */
+public class PhoneCsvWriter {
+
+    /**
+     * The columns of the records, in order.
+     */
+    public static final String[] COLUMNS = {"id", "name", "brand", "price", "version"};
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final Writer writer;
+
+    public PhoneCsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public void writeHeader() throws IOException {
+        writer.write(String.join(",", COLUMNS));
+        writer.write(LINE_SEPARATOR);
+    }
+
+    public void write(PhoneDTO phone) throws IOException {
+        if (phone.getId() != null) {
+            writer.write(phone.getId().toString());
+        }
+        writer.write(',');
+        writeField(phone.getName());
+        writer.write(',');
+        writeField(phone.getBrand());
+        writer.write(',');
+        if (phone.getPrice() != null) {
+            writer.write(phone.getPrice().toPlainString());
+        }
+        writer.write(',');
+        if (phone.getVersion() != null) {
+            writer.write(phone.getVersion().toString());
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
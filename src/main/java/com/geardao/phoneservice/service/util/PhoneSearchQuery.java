@@ -0,0 +1,382 @@
+package com.geardao.phoneservice.service.util;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * A search of phones, in a small query language compiled to an Elasticsearch bool query, rather than a Lucene
+ * query string which lets users send leading wildcards, regular expressions and large boolean expansions.
+ * <p>
+ * A query is a list of clauses separated by white space, which must all match, and which are excluded when
+ * prefixed with "-":
+ * <ul>
+ * <li>words and "quoted phrases" are searched in the names; a word ending with "*" is a prefix, of at least
+ * {@link #MIN_PREFIX_LENGTH} characters;</li>
+ * <li>name:word or name:"phrase" does the same;</li>
+ * <li>brand:word, brand:prefix* or brand:"phrase" filters on the words of the brands;</li>
+ * <li>price:10, price:10..100, price:10.., price:..100, price:&gt;10, price:&gt;=10, price:&lt;100 or
+ * price:&lt;=100 filters on the prices;</li>
+ * <li>id:42 filters on the id.</li>
+ * </ul>
+ * Only the name clauses are scored: the others are in filter context, which Elasticsearch can cache.
+ * Other wildcards, regular expressions, boolean operators, and queries longer than {@link #MAX_LENGTH}
+ * characters or with more than {@link #MAX_CLAUSES} clauses, are rejected.
+ */
+public final class PhoneSearchQuery {
+
+    /**
+     * Maximum number of characters of a query.
+     */
+    public static final int MAX_LENGTH = 256;
+
+    /**
+     * Maximum number of clauses of a query.
+     */
+    public static final int MAX_CLAUSES = 16;
+
+    /**
+     * Minimum number of characters of a prefix, as shorter ones match too many words.
+     */
+    public static final int MIN_PREFIX_LENGTH = 3;
+
+    private static final Set<String> OPERATORS = new HashSet<>(Arrays.asList("AND", "OR", "NOT", "&&", "||"));
+
+    private final List<Clause> clauses;
+
+    private PhoneSearchQuery(List<Clause> clauses) {
+        this.clauses = clauses;
+    }
+
+    /**
+     * Parse a query.
+     *
+     * @param query the query typed, which may be empty to find all the phones
+     * @return the parsed query
+     * @throws InvalidQueryException if the query is not valid
+     */
+    public static PhoneSearchQuery parse(String query) {
+        if (query == null) {
+            return new PhoneSearchQuery(Collections.emptyList());
+        }
+        if (query.length() > MAX_LENGTH) {
+            throw new InvalidQueryException("the query must not be longer than " + MAX_LENGTH + " characters");
+        }
+        return new PhoneSearchQuery(new Parser(query).parse());
+    }
+
+    /**
+     * @return the query for Elasticsearch: a bool query whose name clauses are scored, and whose other clauses
+     * are filters
+     */
+    public QueryBuilder toQueryBuilder() {
+        BoolQueryBuilder bool = boolQuery();
+        List<String> words = new ArrayList<>();
+        for (Clause clause : clauses) {
+            if (clause.negated) {
+                bool.mustNot(clause.toQueryBuilder());
+            } else if (clause.field.equals("name") && clause.kind == Kind.WORD) {
+                // The words are matched together, so that they are scored as one text
+                words.add(clause.value);
+            } else if (clause.field.equals("name")) {
+                bool.must(clause.toQueryBuilder());
+            } else {
+                bool.filter(clause.toQueryBuilder());
+            }
+        }
+        if (!words.isEmpty()) {
+            bool.must(matchQuery("name", String.join(" ", words)).operator(MatchQueryBuilder.Operator.AND));
+        }
+        if (clauses.stream().allMatch(clause -> clause.negated)) {
+            bool.must(matchAllQuery());
+        }
+        return bool;
+    }
+
+    /**
+     * @return the query, with each clause written in one way, for example to use it as a cache key
+     */
+    @Override
+    public String toString() {
+        StringBuilder query = new StringBuilder();
+        for (Clause clause : clauses) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(clause);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Thrown when a query is not valid, with a message which tells the user why.
+     */
+    public static class InvalidQueryException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        public InvalidQueryException(String message) {
+            super(message);
+        }
+    }
+
+    private enum Kind {
+        WORD, PREFIX, PHRASE, RANGE, TERM
+    }
+
+    private static final class Clause {
+
+        private final boolean negated;
+
+        private final String field;
+
+        private final Kind kind;
+
+        private final String value;
+
+        private final BigDecimal from;
+
+        private final boolean includeFrom;
+
+        private final BigDecimal to;
+
+        private final boolean includeTo;
+
+        Clause(boolean negated, String field, Kind kind, String value) {
+            this(negated, field, kind, value, null, false, null, false);
+        }
+
+        Clause(boolean negated, String field, Kind kind, String value, BigDecimal from, boolean includeFrom,
+               BigDecimal to, boolean includeTo) {
+            this.negated = negated;
+            this.field = field;
+            this.kind = kind;
+            this.value = value;
+            this.from = from;
+            this.includeFrom = includeFrom;
+            this.to = to;
+            this.includeTo = includeTo;
+        }
+
+        QueryBuilder toQueryBuilder() {
+            switch (kind) {
+                case WORD:
+                    return matchQuery(field, value).operator(MatchQueryBuilder.Operator.AND);
+                case PREFIX:
+                    return prefixQuery(field, value);
+                case PHRASE:
+                    return matchPhraseQuery(field, value);
+                case RANGE:
+                    RangeQueryBuilder range = rangeQuery(field);
+                    if (from != null) {
+                        range.from(from.doubleValue()).includeLower(includeFrom);
+                    }
+                    if (to != null) {
+                        range.to(to.doubleValue()).includeUpper(includeTo);
+                    }
+                    return range;
+                default:
+                    return termQuery(field, Long.parseLong(value));
+            }
+        }
+
+        @Override
+        public String toString() {
+            String prefix = (negated ? "-" : "") + field + ":";
+            switch (kind) {
+                case PREFIX:
+                    return prefix + value + "*";
+                case PHRASE:
+                    return prefix + "\"" + value + "\"";
+                case RANGE:
+                    return prefix + (includeFrom ? "[" : "(") + (from == null ? "" : from.toPlainString()) + ".."
+                        + (to == null ? "" : to.toPlainString()) + (includeTo ? "]" : ")");
+                default:
+                    return prefix + value;
+            }
+        }
+    }
+
+    private static final class Parser {
+
+        private final String query;
+
+        private int position;
+
+        Parser(String query) {
+            this.query = query;
+        }
+
+        List<Clause> parse() {
+            List<Clause> clauses = new ArrayList<>();
+            while (skipWhitespace()) {
+                if (clauses.size() == MAX_CLAUSES) {
+                    throw new InvalidQueryException("the query must not have more than " + MAX_CLAUSES + " clauses");
+                }
+                clauses.add(clause());
+            }
+            return clauses;
+        }
+
+        private Clause clause() {
+            boolean negated = false;
+            if (query.charAt(position) == '-' && position + 1 < query.length()
+                && !Character.isWhitespace(query.charAt(position + 1))) {
+                negated = true;
+                position++;
+            }
+            if (query.charAt(position) == '"') {
+                return new Clause(negated, "name", Kind.PHRASE, phrase());
+            }
+            String word = word();
+            int colon = word.indexOf(':');
+            String field = colon > 0 ? word.substring(0, colon).toLowerCase(Locale.ROOT) : null;
+            if (field == null || !field.chars().allMatch(Character::isLetter)) {
+                return text(negated, "name", word);
+            }
+            String value = word.substring(colon + 1);
+            if (value.isEmpty()) {
+                if (position < query.length() && query.charAt(position) == '"') {
+                    if (field.equals("name") || field.equals("brand")) {
+                        return new Clause(negated, field, Kind.PHRASE, phrase());
+                    }
+                    throw new InvalidQueryException("phrases are only searched in the name and the brand");
+                }
+                throw new InvalidQueryException("the " + field + " field has no value");
+            }
+            switch (field) {
+                case "name":
+                case "brand":
+                    return text(negated, field, value);
+                case "price":
+                    return price(negated, value);
+                case "id":
+                    if (!value.matches("[0-9]{1,18}")) {
+                        throw new InvalidQueryException("the id must be a number");
+                    }
+                    return new Clause(negated, "id", Kind.TERM, value);
+                default:
+                    throw new InvalidQueryException("unknown field " + field + ", the fields are name, brand, price and id");
+            }
+        }
+
+        private Clause text(boolean negated, String field, String word) {
+            if (OPERATORS.contains(word)) {
+                throw new InvalidQueryException("boolean operators are not supported: all the words must match, and "
+                    + "a word prefixed with - must not");
+            }
+            if (word.length() > 1 && word.startsWith("/") && word.endsWith("/")) {
+                throw new InvalidQueryException("regular expressions are not supported");
+            }
+            if (word.chars().noneMatch(Character::isLetterOrDigit)) {
+                throw new InvalidQueryException("a word must have a letter or a digit");
+            }
+            int wildcard = indexOfWildcard(word);
+            if (wildcard < 0) {
+                return new Clause(negated, field, Kind.WORD, word);
+            }
+            if (wildcard != word.length() - 1 || word.charAt(wildcard) != '*') {
+                throw new InvalidQueryException("wildcards are only supported as a * at the end of a word");
+            }
+            String prefix = word.substring(0, wildcard).toLowerCase(Locale.ROOT);
+            if (prefix.length() < MIN_PREFIX_LENGTH || !prefix.chars().allMatch(Character::isLetterOrDigit)) {
+                throw new InvalidQueryException("a prefix must have at least " + MIN_PREFIX_LENGTH
+                    + " letters or digits before the *");
+            }
+            return new Clause(negated, field, Kind.PREFIX, prefix);
+        }
+
+        private Clause price(boolean negated, String value) {
+            if (value.startsWith(">=")) {
+                return new Clause(negated, "price", Kind.RANGE, null, number(value.substring(2)), true, null, false);
+            } else if (value.startsWith(">")) {
+                return new Clause(negated, "price", Kind.RANGE, null, number(value.substring(1)), false, null, false);
+            } else if (value.startsWith("<=")) {
+                return new Clause(negated, "price", Kind.RANGE, null, null, false, number(value.substring(2)), true);
+            } else if (value.startsWith("<")) {
+                return new Clause(negated, "price", Kind.RANGE, null, null, false, number(value.substring(1)), false);
+            }
+            int dots = value.indexOf("..");
+            if (dots < 0) {
+                BigDecimal price = number(value);
+                return new Clause(negated, "price", Kind.RANGE, null, price, true, price, true);
+            }
+            BigDecimal from = dots == 0 ? null : number(value.substring(0, dots));
+            BigDecimal to = dots + 2 == value.length() ? null : number(value.substring(dots + 2));
+            if (from == null && to == null) {
+                throw new InvalidQueryException("a price range needs a lower or an upper bound");
+            }
+            if (from != null && to != null && from.compareTo(to) > 0) {
+                throw new InvalidQueryException("the lower bound of a price range must not be above its upper bound");
+            }
+            return new Clause(negated, "price", Kind.RANGE, null, from, from != null, to, to != null);
+        }
+
+        private BigDecimal number(String value) {
+            if (!value.matches("[0-9]{1,12}(\\.[0-9]{1,2})?")) {
+                throw new InvalidQueryException("invalid price " + value + ", a price is a number with up to 2 decimals");
+            }
+            return new BigDecimal(value);
+        }
+
+        /**
+         * Read a quoted phrase, from its opening quote.
+         */
+        private String phrase() {
+            int end = query.indexOf('"', position + 1);
+            if (end < 0) {
+                throw new InvalidQueryException("a phrase has no closing quote");
+            }
+            String phrase = query.substring(position + 1, end).trim().replaceAll("\\s+", " ");
+            position = end + 1;
+            if (phrase.isEmpty()) {
+                throw new InvalidQueryException("a phrase is empty");
+            }
+            if (indexOfWildcard(phrase) >= 0) {
+                throw new InvalidQueryException("wildcards are not supported in phrases");
+            }
+            return phrase;
+        }
+
+        /**
+         * Read a word, up to white space or an opening quote.
+         */
+        private String word() {
+            int start = position;
+            while (position < query.length() && !Character.isWhitespace(query.charAt(position))
+                && (query.charAt(position) != '"' || position == start)) {
+                position++;
+            }
+            String word = query.substring(start, position);
+            if (word.indexOf('"') >= 0) {
+                throw new InvalidQueryException("a quote must start a phrase");
+            }
+            return word;
+        }
+
+        /**
+         * @return true if there are characters left
+         */
+        private boolean skipWhitespace() {
+            while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+                position++;
+            }
+            return position < query.length();
+        }
+
+        private static int indexOfWildcard(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '*' || text.charAt(i) == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.geardao.phoneservice.service.util;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Completions of prefixes, ranked by weight, in a radix tree: the edges are labelled with strings, so that
+ * a chain of nodes without branches is a single node, and each node keeps the best weight of its subtree,
+ * so that the best completions of a prefix are found by a best-first walk which only visits the branches
+ * they are in, whatever the number of completions of the prefix.
+ * <p>
+ * A completion is a text of a kind, with the number of times it was added and the sum of their weights.
+ * It is found by the prefixes of its text, and, when it has several words, by the prefixes of its words
+ * after the first; prefixes are compared in lower case, with runs of white space as one space.
+ * <p>
+ * Completions can be looked up concurrently with updates.
+ */
+public class SuggestionTrie {
+
+    /**
+     * Maximum number of words by which a completion is found, to bound the keys of long texts.
+     */
+    static final int MAX_WORDS = 8;
+
+    private static final char[] NO_LABELS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Node root = new Node("");
+
+    private final Map<EntryKey, Entry> entries = new HashMap<>();
+
+    private int nodes = 1;
+
+    private long labelChars;
+
+    private long textChars;
+
+    /**
+     * Add a text of a kind once more.
+     *
+     * @param kind the kind of the text
+     * @param text the text, ignored if blank
+     * @param weight the weight added to the completion
+     */
+    public void add(String kind, String text, long weight) {
+        String key = normalize(text);
+        if (key.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            EntryKey entryKey = new EntryKey(kind, key);
+            Entry entry = entries.get(entryKey);
+            if (entry == null) {
+                entry = new Entry(kind, text.trim(), key);
+                entries.put(entryKey, entry);
+                textChars += entry.text.length() + key.length();
+            } else {
+                unlink(entry);
+            }
+            entry.count++;
+            entry.weight += weight;
+            link(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a text of a kind once, as it was added.
+     *
+     * @param kind the kind of the text
+     * @param text the text
+     * @param weight the weight it was added with
+     */
+    public void remove(String kind, String text, long weight) {
+        String key = normalize(text);
+        lock.writeLock().lock();
+        try {
+            EntryKey entryKey = new EntryKey(kind, key);
+            Entry entry = entries.get(entryKey);
+            if (entry == null) {
+                return;
+            }
+            unlink(entry);
+            entry.count--;
+            entry.weight -= weight;
+            if (entry.count > 0) {
+                link(entry);
+            } else {
+                entries.remove(entryKey);
+                textChars -= entry.text.length() + key.length();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the best completions of a prefix.
+     *
+     * @param prefix the prefix typed
+     * @param limit the maximum number of completions
+     * @return the completions, with the highest weight first
+     */
+    public List<Completion> complete(String prefix, int limit) {
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node start = find(key);
+            if (start == null || limit <= 0) {
+                return Collections.emptyList();
+            }
+            // Nodes are ranked by the best weight below them, entries by their own: an entry polled is
+            // better than anything left
+            PriorityQueue<Object> queue = new PriorityQueue<>(BEST_FIRST);
+            queue.add(start);
+            Set<Entry> found = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Completion> completions = new ArrayList<>(limit);
+            while (!queue.isEmpty() && completions.size() < limit) {
+                Object next = queue.poll();
+                if (next instanceof Entry) {
+                    Entry entry = (Entry) next;
+                    // An entry is found by each of its words which start with the prefix
+                    if (found.add(entry)) {
+                        completions.add(new Completion(entry.kind, entry.text, entry.count, entry.weight));
+                    }
+                } else {
+                    Node node = (Node) next;
+                    Collections.addAll(queue, node.entries);
+                    Collections.addAll(queue, node.children);
+                }
+            }
+            return completions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of completions
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return an estimate of the memory used by the trie, in bytes
+     */
+    public long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            return nodes * 48L + labelChars * 2 + entries.size() * 120L + textChars * 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param text a text or a prefix
+     * @return the text in lower case, without leading and trailing white space, and with runs of white space
+     * as one space
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @param key a normalized text
+     * @return the keys by which the text is found: the text, and its suffixes from its next words
+     */
+    private static List<String> keys(String key) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key);
+        for (int i = key.indexOf(' '); i >= 0 && keys.size() < MAX_WORDS; i = key.indexOf(' ', i + 1)) {
+            keys.add(key.substring(i + 1));
+        }
+        return keys;
+    }
+
+    private void link(Entry entry) {
+        for (String key : keys(entry.key)) {
+            insert(key, entry);
+        }
+    }
+
+    private void unlink(Entry entry) {
+        for (String key : keys(entry.key)) {
+            delete(root, key, 0, entry);
+        }
+    }
+
+    /**
+     * @param key a normalized prefix
+     * @return the node of the completions starting with the prefix, or null if there are none
+     */
+    private Node find(String key) {
+        Node node = root;
+        int depth = 0;
+        while (depth < key.length()) {
+            Node child = node.child(key.charAt(depth));
+            if (child == null) {
+                return null;
+            }
+            int common = commonLength(child.label, key, depth);
+            if (depth + common < key.length() && common < child.label.length()) {
+                // The prefix leaves the edge
+                return null;
+            }
+            depth += common;
+            node = child;
+        }
+        return node;
+    }
+
+    private void insert(String key, Entry entry) {
+        Node node = root;
+        int depth = 0;
+        raise(node, entry.weight);
+        while (depth < key.length()) {
+            Node child = node.child(key.charAt(depth));
+            if (child == null) {
+                child = new Node(key.substring(depth));
+                nodes++;
+                labelChars += child.label.length();
+                node.addChild(child);
+            } else {
+                int common = commonLength(child.label, key, depth);
+                if (common < child.label.length()) {
+                    child = split(node, child, common);
+                }
+            }
+            depth += child.label.length();
+            node = child;
+            raise(node, entry.weight);
+        }
+        node.addEntry(entry);
+    }
+
+    /**
+     * Split the edge to a child, so that its first characters lead to a new node, parent of the child.
+     */
+    private Node split(Node parent, Node child, int length) {
+        Node middle = new Node(child.label.substring(0, length));
+        nodes++;
+        middle.best = child.best;
+        child.label = child.label.substring(length);
+        middle.addChild(child);
+        parent.replaceChild(middle);
+        return middle;
+    }
+
+    /**
+     * Remove an entry from the node of a key, below a node, and update the nodes on the way back up.
+     *
+     * @return true if the entry was found
+     */
+    private boolean delete(Node node, String key, int depth, Entry entry) {
+        boolean deleted;
+        if (depth == key.length()) {
+            deleted = node.removeEntry(entry);
+        } else {
+            Node child = node.child(key.charAt(depth));
+            if (child == null || !key.startsWith(child.label, depth)) {
+                return false;
+            }
+            deleted = delete(child, key, depth + child.label.length(), entry);
+            if (deleted) {
+                compact(node, child);
+            }
+        }
+        if (deleted) {
+            node.updateBest();
+        }
+        return deleted;
+    }
+
+    /**
+     * Remove a child left without entries, or merge it with its only child.
+     */
+    private void compact(Node parent, Node child) {
+        if (child.entries.length > 0) {
+            return;
+        }
+        if (child.children.length == 0) {
+            parent.removeChild(child);
+            nodes--;
+            labelChars -= child.label.length();
+        } else if (child.children.length == 1) {
+            Node grandChild = child.children[0];
+            grandChild.label = child.label + grandChild.label;
+            parent.replaceChild(grandChild);
+            nodes--;
+        }
+    }
+
+    private static void raise(Node node, long weight) {
+        if (weight > node.best) {
+            node.best = weight;
+        }
+    }
+
+    private static int commonLength(String label, String key, int offset) {
+        int length = Math.min(label.length(), key.length() - offset);
+        int common = 0;
+        while (common < length && label.charAt(common) == key.charAt(offset + common)) {
+            common++;
+        }
+        return common;
+    }
+
+    private static final Comparator<Object> BEST_FIRST = (a, b) -> {
+        int byWeight = Long.compare(weight(b), weight(a));
+        if (byWeight != 0) {
+            return byWeight;
+        }
+        // Entries before the nodes which are as good, then in text order, for stable results
+        if (a instanceof Entry && b instanceof Entry) {
+            Entry entryA = (Entry) a;
+            Entry entryB = (Entry) b;
+            int byKey = entryA.key.compareTo(entryB.key);
+            return byKey != 0 ? byKey : entryA.kind.compareTo(entryB.kind);
+        }
+        return Boolean.compare(b instanceof Entry, a instanceof Entry);
+    };
+
+    private static long weight(Object entryOrNode) {
+        return entryOrNode instanceof Entry ? ((Entry) entryOrNode).weight : ((Node) entryOrNode).best;
+    }
+
+    /**
+     * A completion found for a prefix.
+     */
+    public static final class Completion {
+
+        private final String kind;
+
+        private final String text;
+
+        private final long count;
+
+        private final long weight;
+
+        public Completion(String kind, String text, long count, long weight) {
+            this.kind = kind;
+            this.text = text;
+            this.count = count;
+            this.weight = weight;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the number of times the text was added
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return "Completion{kind=" + kind + ", text=" + text + ", count=" + count + ", weight=" + weight + "}";
+        }
+    }
+
+    private static final class Node {
+
+        private String label;
+
+        /**
+         * First characters of the labels of the children, in order.
+         */
+        private char[] firsts = NO_LABELS;
+
+        private Node[] children = NO_CHILDREN;
+
+        private Entry[] entries = NO_ENTRIES;
+
+        /**
+         * Highest weight of the entries of the node and of its descendants.
+         */
+        private long best = Long.MIN_VALUE;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        Node child(char first) {
+            int index = Arrays.binarySearch(firsts, first);
+            return index < 0 ? null : children[index];
+        }
+
+        void addChild(Node child) {
+            int index = -Arrays.binarySearch(firsts, child.label.charAt(0)) - 1;
+            char[] newFirsts = new char[firsts.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(firsts, 0, newFirsts, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newFirsts[index] = child.label.charAt(0);
+            newChildren[index] = child;
+            System.arraycopy(firsts, index, newFirsts, index + 1, firsts.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            firsts = newFirsts;
+            children = newChildren;
+        }
+
+        void replaceChild(Node child) {
+            children[Arrays.binarySearch(firsts, child.label.charAt(0))] = child;
+        }
+
+        void removeChild(Node child) {
+            int index = Arrays.binarySearch(firsts, child.label.charAt(0));
+            char[] newFirsts = new char[firsts.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(firsts, 0, newFirsts, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(firsts, index + 1, newFirsts, index, firsts.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            firsts = newFirsts.length == 0 ? NO_LABELS : newFirsts;
+            children = newChildren.length == 0 ? NO_CHILDREN : newChildren;
+        }
+
+        void addEntry(Entry entry) {
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = entry;
+        }
+
+        boolean removeEntry(Entry entry) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] == entry) {
+                    Entry[] newEntries = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, newEntries, 0, i);
+                    System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+                    entries = newEntries.length == 0 ? NO_ENTRIES : newEntries;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void updateBest() {
+            long newBest = Long.MIN_VALUE;
+            for (Entry entry : entries) {
+                newBest = Math.max(newBest, entry.weight);
+            }
+            for (Node child : children) {
+                newBest = Math.max(newBest, child.best);
+            }
+            best = newBest;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String kind;
+
+        private final String text;
+
+        private final String key;
+
+        private long count;
+
+        private long weight;
+
+        Entry(String kind, String text, String key) {
+            this.kind = kind;
+            this.text = text;
+            this.key = key;
+        }
+    }
+
+    private static final class EntryKey {
+
+        private final String kind;
+
+        private final String key;
+
+        EntryKey(String kind, String key) {
+            this.kind = kind;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            EntryKey other = (EntryKey) o;
+            return kind.equals(other.kind) && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.geardao.phoneservice.service.util;
+
+/**
+ * The total number of elements of a paginated list, which may be exact, a lower bound, or an estimate.
+ */
+public class TotalCount {
+
+    /**
+     * How the total count of a list is computed, as requested with the count parameter of paginated listings.
+     */
+    public enum Mode {
+        /**
+         * The list is not counted.
+         */
+        NONE,
+        /**
+         * The list is counted exactly.
+         */
+        EXACT,
+        /**
+         * The count of the list is estimated.
+         */
+        ESTIMATE
+    }
+
+    public enum Relation {
+        /**
+         * The count is exact.
+         */
+        EQUAL("eq"),
+        /**
+         * The list has at least count elements.
+         */
+        GREATER_OR_EQUAL("gte"),
+        /**
+         * The count is an estimate, for instance from the statistics of the database.
+         */
+        APPROXIMATE("approx");
+
+        private final String value;
+
+        Relation(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the value of this relation in HTTP headers
+         */
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private final long value;
+
+    private final Relation relation;
+
+    public TotalCount(long value, Relation relation) {
+        this.value = value;
+        this.relation = relation;
+    }
+
+    public static TotalCount exact(long value) {
+        return new TotalCount(value, Relation.EQUAL);
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public Relation getRelation() {
+        return relation;
+    }
+
+    public boolean isExact() {
+        return relation == Relation.EQUAL;
+    }
+
+    @Override
+    public String toString() {
+        return "TotalCount{" +
+            "value=" + value +
+            ", relation=" + relation +
+            "}";
+    }
+}
@@ -0,0 +1,87 @@
+package com.geardao.phoneservice.web.rest;
+
+import com.codahale.metrics.annotation.Timed;
+import com.geardao.phoneservice.service.PhoneImporter;
+import com.geardao.phoneservice.service.dto.ImportJobDTO;
+import io.github.jhipster.web.util.ResponseUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Optional;
+
+/**
+ * Controller for importing phone catalogs.
+ */
+@RestController
+@RequestMapping("/api")
+public class PhoneImportResource {
+
+    private final Logger log = LoggerFactory.getLogger(PhoneImportResource.class);
+
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv");
+
+    /**
+     * How long a client is asked to wait before starting an import again, when too many imports are running.
+     */
+    private static final int IMPORTS_RUNNING_RETRY_AFTER_SECONDS = 60;
+
+    private final PhoneImporter phoneImporter;
+
+    public PhoneImportResource(PhoneImporter phoneImporter) {
+        this.phoneImporter = phoneImporter;
+    }
+
+    /**
+     * POST  /phones/_import : Start importing a catalog of phones, as CSV with a header line, or as NDJSON, in UTF-8.
+     * <p>
+     * Phones with an id update the existing phones, the others are created. Invalid rows are rejected
+     * without stopping the import, and reported by its status.
+     *
+     * @param request the request, whose body is the catalog
+     * @return the ResponseEntity with status 202 (Accepted), the Location of the status of the import,
+     * and with body the status of the import, or with status 503 (Service Unavailable) and a Retry-After header
+     * if too many imports are running on this node
+     * @throws IOException if the catalog cannot be read
+     * @throws URISyntaxException if the Location URI syntax is incorrect
+     */
+    @PostMapping(value = "/phones/_import", consumes = {"text/csv", "application/x-ndjson"})
+    @Timed
+    public ResponseEntity<ImportJobDTO> importPhones(HttpServletRequest request) throws IOException, URISyntaxException {
+        log.debug("REST request to import Phones as {}", request.getContentType());
+        ImportJobDTO.Format format = CSV.includes(MediaType.parseMediaType(request.getContentType()))
+            ? ImportJobDTO.Format.CSV : ImportJobDTO.Format.NDJSON;
+        Optional<ImportJobDTO> started = phoneImporter.start(request.getInputStream(), format);
+        if (!started.isPresent()) {
+            log.debug("Too many imports are running, rejecting the Phone import");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(IMPORTS_RUNNING_RETRY_AFTER_SECONDS))
+                .build();
+        }
+        ImportJobDTO job = started.get();
+        return ResponseEntity.accepted()
+            .location(new URI("/api/phones/_import/" + job.getId()))
+            .body(job);
+    }
+
+    /**
+     * GET  /phones/_import/:id : Get the progress of an import, or its outcome.
+     *
+     * @param id the id of the import
+     * @return the ResponseEntity with status 200 (OK) and with body the status of the import, or with status 404 (Not Found)
+     */
+    @GetMapping("/phones/_import/{id}")
+    @Timed
+    public ResponseEntity<ImportJobDTO> getImport(@PathVariable String id) {
+        log.debug("REST request to get the status of the Phone import : {}", id);
+        return ResponseUtil.wrapOrNotFound(Optional.ofNullable(phoneImporter.getStatus(id)));
+    }
+}
@@ -1,28 +1,64 @@
 package com.geardao.phoneservice.web.rest;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.geardao.phoneservice.repository.search.ScrollPage;
+import com.geardao.phoneservice.service.PhoneBrandStatistics;
+import com.geardao.phoneservice.service.PhoneFacetService;
 import com.geardao.phoneservice.service.PhoneService;
+import com.geardao.phoneservice.service.PhoneSuggestionIndex;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.PhoneBrandStatsDTO;
+import com.geardao.phoneservice.service.dto.PhoneFacetsDTO;
+import com.geardao.phoneservice.service.dto.PhoneSuggestionDTO;
+import com.geardao.phoneservice.service.dto.MultiGetItemDTO;
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.JsonArrayIterator;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.PhoneCsvWriter;
+import com.geardao.phoneservice.service.util.PhoneSearchQuery;
+import com.geardao.phoneservice.service.util.TotalCount;
 import com.geardao.phoneservice.web.rest.errors.BadRequestAlertException;
+import com.geardao.phoneservice.web.rest.util.ETagUtil;
 import com.geardao.phoneservice.web.rest.util.HeaderUtil;
 import com.geardao.phoneservice.web.rest.util.PaginationUtil;
 import com.geardao.phoneservice.service.dto.PhoneDTO;
 import com.geardao.phoneservice.service.dto.PhoneCriteria;
 import com.geardao.phoneservice.service.PhoneQueryService;
-import io.github.jhipster.web.util.ResponseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Locale;
 import java.util.stream.StreamSupport;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
@@ -38,13 +74,34 @@ public class PhoneResource {
 
     private static final String ENTITY_NAME = "phone";
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv");
+
     private final PhoneService phoneService;
 
     private final PhoneQueryService phoneQueryService;
 
-    public PhoneResource(PhoneService phoneService, PhoneQueryService phoneQueryService) {
+    private final PhoneFacetService phoneFacetService;
+
+    private final PhoneBrandStatistics phoneBrandStatistics;
+
+    private final PhoneSuggestionIndex phoneSuggestionIndex;
+
+    private final ObjectMapper objectMapper;
+
+    private final ApplicationProperties.MultiGet multiGetProperties;
+
+    public PhoneResource(PhoneService phoneService, PhoneQueryService phoneQueryService, PhoneFacetService phoneFacetService,
+                         PhoneBrandStatistics phoneBrandStatistics, PhoneSuggestionIndex phoneSuggestionIndex,
+                         ObjectMapper objectMapper, ApplicationProperties applicationProperties) {
         this.phoneService = phoneService;
         this.phoneQueryService = phoneQueryService;
+        this.phoneFacetService = phoneFacetService;
+        this.phoneBrandStatistics = phoneBrandStatistics;
+        this.phoneSuggestionIndex = phoneSuggestionIndex;
+        this.objectMapper = objectMapper;
+        this.multiGetProperties = applicationProperties.getMultiGet();
     }
 
     /**
@@ -63,60 +120,414 @@ public class PhoneResource {
         }
         PhoneDTO result = phoneService.save(phoneDTO);
         return ResponseEntity.created(new URI("/api/phones/" + result.getId()))
+            .eTag(ETagUtil.versionETag(result.getVersion()))
             .headers(HeaderUtil.createEntityCreationAlert(ENTITY_NAME, result.getId().toString()))
             .body(result);
     }
 
     /**
      * PUT  /phones : Updates an existing phone.
+     * <p>
+     * With an If-Match header, the phone is only updated if it still has one of the listed ETags;
+     * otherwise, the version of the phoneDTO, if any, is checked instead.
      *
      * @param phoneDTO the phoneDTO to update
+     * @param ifMatch the ETags which the phone should have, if any
      * @return the ResponseEntity with status 200 (OK) and with body the updated phoneDTO,
      * or with status 400 (Bad Request) if the phoneDTO is not valid,
+     * or with status 412 (Precondition Failed) if the phone does not match the If-Match header,
      * or with status 500 (Internal Server Error) if the phoneDTO couldn't be updated
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PutMapping("/phones")
     @Timed
-    public ResponseEntity<PhoneDTO> updatePhone(@RequestBody PhoneDTO phoneDTO) throws URISyntaxException {
+    public ResponseEntity<PhoneDTO> updatePhone(@RequestBody PhoneDTO phoneDTO,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+        throws URISyntaxException {
         log.debug("REST request to update Phone : {}", phoneDTO);
         if (phoneDTO.getId() == null) {
             return createPhone(phoneDTO);
         }
-        PhoneDTO result = phoneService.save(phoneDTO);
+        PhoneDTO result;
+        if (ifMatch == null) {
+            result = phoneService.save(phoneDTO);
+        } else {
+            Long version = phoneService.findVersion(phoneDTO.getId());
+            if (version == null || !ETagUtil.matchesIfMatch(ifMatch, ETagUtil.versionETag(version))) {
+                return preconditionFailed();
+            }
+            if (!ETagUtil.isWildcard(ifMatch)) {
+                // The update itself checks the version, in case the phone changes after the check above
+                phoneDTO.setVersion(version);
+            }
+            try {
+                result = phoneService.save(phoneDTO);
+            } catch (ObjectOptimisticLockingFailureException e) {
+                return preconditionFailed();
+            }
+        }
         return ResponseEntity.ok()
+            .eTag(ETagUtil.versionETag(result.getVersion()))
             .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, phoneDTO.getId().toString()))
             .body(result);
     }
 
+    private ResponseEntity<PhoneDTO> preconditionFailed() {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+            .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "preconditionfailed", "The phone does not match the If-Match header"))
+            .build();
+    }
+
+    /**
+     * POST  /phones/_bulk : Create or update many phones.
+     * <p>
+     * The body is a JSON array of phones, which is read one phone at a time: phones without an ID
+     * are created, phones with an ID are updated. A phone which cannot be saved is reported in its
+     * own result and does not fail the others.
+     *
+     * @param request the request, whose body is the JSON array of phoneDTOs to save
+     * @return the ResponseEntity with status 200 (OK) and with body the result of each phone, in request order,
+     * or with status 400 (Bad Request) if the body is not a JSON array
+     * @throws IOException if the body cannot be read
+     */
+    @PostMapping(value = "/phones/_bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Timed
+    public ResponseEntity<List<BulkItemResultDTO>> bulkSavePhones(HttpServletRequest request) throws IOException {
+        log.debug("REST request to bulk save Phones");
+        JsonArrayIterator<PhoneDTO> phoneDTOs;
+        try {
+            phoneDTOs = new JsonArrayIterator<>(objectMapper, request.getInputStream(), PhoneDTO.class);
+        } catch (JsonProcessingException e) {
+            throw new BadRequestAlertException("The body must be a JSON array of phones", ENTITY_NAME, "notarray");
+        }
+        List<BulkItemResultDTO> results;
+        try {
+            results = phoneService.saveAll(() -> phoneDTOs);
+        } catch (UncheckedIOException e) {
+            throw new BadRequestAlertException("Malformed JSON array of phones: " + e.getCause().getMessage(), ENTITY_NAME, "malformedbulk");
+        }
+        return ResponseEntity.ok()
+            .headers(HeaderUtil.createAlert("A bulk of " + results.size() + " phones is processed", String.valueOf(results.size())))
+            .body(results);
+    }
+
     /**
      * GET  /phones : get all the phones.
+     * <p>
+     * With a cursor parameter, the phones are keyset paginated: an empty cursor requests the first page,
+     * sorted on at most one property, and the Link header gives the cursors of the other pages.
+     * Without it, the phones are paginated by page number.
+     * <p>
+     * The count parameter tells how the phones are counted: exact, the default without cursor, gives the
+     * X-Total-Count header; estimate gives an X-Total-Count-Estimate header instead, unless the estimate is exact;
+     * none, the default with a cursor, skips the count.
+     * <p>
+     * The ETag of the response changes whenever phones are written, so that an If-None-Match header
+     * gets a 304 (Not Modified) without reading the phones again.
      *
      * @param pageable the pagination information
      * @param criteria the criterias which the requested entities should match
-     * @return the ResponseEntity with status 200 (OK) and the list of phones in body
+     * @param cursor the opaque cursor of the requested page, for keyset pagination
+     * @param count how the phones are counted: none, exact or estimate
+     * @param ifNoneMatch the ETags of the responses which the client already has, if any
+     * @param request the request, whose query string is kept in the links of keyset pagination
+     * @return the ResponseEntity with status 200 (OK) and the list of phones in body,
+     * or with status 304 (Not Modified) if the phones did not change,
+     * or with status 400 (Bad Request) if the cursor, the sort of the first page, or the count, is not valid
      */
     @GetMapping("/phones")
     @Timed
-    public ResponseEntity<List<PhoneDTO>> getAllPhones(PhoneCriteria criteria, Pageable pageable) {
+    public ResponseEntity<List<PhoneDTO>> getAllPhones(PhoneCriteria criteria, Pageable pageable,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) String count,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                       HttpServletRequest request) {
         log.debug("REST request to get Phones by criteria: {}", criteria);
-        Page<PhoneDTO> page = phoneQueryService.findByCriteria(criteria, pageable);
-        HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/phones");
-        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+        String eTag = ETagUtil.catalogETag(phoneQueryService.getCatalogVersion(), request.getQueryString());
+        if (ifNoneMatch != null && ETagUtil.matchesIfNoneMatch(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        TotalCount.Mode countMode = countMode(count, cursor != null ? TotalCount.Mode.NONE : TotalCount.Mode.EXACT);
+        HttpHeaders headers;
+        List<PhoneDTO> phones;
+        if (cursor != null) {
+            CursorPage<PhoneDTO> page = getAllPhonesByCursor(criteria, pageable, cursor);
+            TotalCount totalCount = phoneQueryService.countByCriteria(criteria, countMode);
+            String baseUrl = "/api/phones" + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+            headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, totalCount, baseUrl);
+            phones = page.getContent();
+        } else if (countMode != TotalCount.Mode.EXACT) {
+            Slice<PhoneDTO> slice = phoneQueryService.findSliceByCriteria(criteria, pageable);
+            TotalCount totalCount = countSlice(criteria, slice, countMode);
+            headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice, totalCount, "/api/phones");
+            phones = slice.getContent();
+        } else {
+            Page<PhoneDTO> page = phoneQueryService.findByCriteria(criteria, pageable);
+            headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/phones");
+            phones = page.getContent();
+        }
+        headers.setETag(eTag);
+        return new ResponseEntity<>(phones, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Count the phones of a slice, without counting them in the database when the slice is the last one,
+     * as Spring Data does for pages.
+     */
+    private TotalCount countSlice(PhoneCriteria criteria, Slice<PhoneDTO> slice, TotalCount.Mode countMode) {
+        if (countMode != TotalCount.Mode.NONE && !slice.hasNext() && (slice.isFirst() || slice.hasContent())) {
+            return TotalCount.exact((long) slice.getNumber() * slice.getSize() + slice.getNumberOfElements());
+        }
+        return phoneQueryService.countByCriteria(criteria, countMode);
+    }
+
+    private CursorPage<PhoneDTO> getAllPhonesByCursor(PhoneCriteria criteria, Pageable pageable, String cursor) {
+        try {
+            KeysetCursor keysetCursor = cursor.isEmpty() ? firstCursor(pageable.getSort()) : KeysetCursor.decode(cursor);
+            return phoneQueryService.findByCriteria(criteria, keysetCursor, pageable.getPageSize());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid cursor: " + e.getMessage(), ENTITY_NAME, "invalidcursor");
+        }
+    }
+
+    private TotalCount.Mode countMode(String count, TotalCount.Mode defaultMode) {
+        if (count == null) {
+            return defaultMode;
+        }
+        try {
+            return TotalCount.Mode.valueOf(count.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("The count must be none, exact or estimate", ENTITY_NAME, "invalidcount");
+        }
+    }
+
+    private KeysetCursor firstCursor(Sort sort) {
+        if (sort == null) {
+            return KeysetCursor.first("id", Sort.Direction.ASC);
+        }
+        Iterator<Sort.Order> orders = sort.iterator();
+        Sort.Order order = orders.next();
+        if (orders.hasNext()) {
+            throw new IllegalArgumentException("keyset pagination sorts on a single property");
+        }
+        return KeysetCursor.first(order.getProperty(), order.getDirection());
+    }
+
+    /**
+     * GET  /phones/_facets : get the count of phones per brand, the price histogram and the price statistics
+     * of the phones matching the criteria and search query.
+     *
+     * @param criteria the criteria which the phones should match
+     * @param query the query of the phone search, if any
+     * @param interval the width of the buckets of the price histogram, if not the default one
+     * @param brands the number of brands to count, if not the default one
+     * @return the ResponseEntity with status 200 (OK) and the facets in body,
+     * or with status 400 (Bad Request) if the interval or the number of brands is not valid, or the criteria
+     * filter names or brands by "contains", which facets do not support
+     */
+    @GetMapping("/phones/_facets")
+    @Timed
+    public ResponseEntity<PhoneFacetsDTO> getPhoneFacets(PhoneCriteria criteria, @RequestParam(required = false) String query,
+                                                         @RequestParam(required = false) Long interval,
+                                                         @RequestParam(required = false) Integer brands) {
+        log.debug("REST request to get the facets of Phones by criteria: {} and query {}", criteria, query);
+        try {
+            return ResponseEntity.ok(phoneFacetService.getFacets(criteria, query, interval, brands));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid facets: " + e.getMessage(), ENTITY_NAME, "invalidfacets");
+        }
+    }
+
+    /**
+     * GET  /phones/_stats : get the count, and the minimum, maximum and average prices, of the phones of each brand.
+     *
+     * @return the ResponseEntity with status 200 (OK) and the statistics of each brand in body, in brand order
+     */
+    @GetMapping("/phones/_stats")
+    @Timed
+    public ResponseEntity<List<PhoneBrandStatsDTO>> getPhoneStats() {
+        log.debug("REST request to get the statistics of the Phones of each brand");
+        return ResponseEntity.ok(phoneBrandStatistics.findAll());
+    }
+
+    /**
+     * GET  /phones/_suggest : get the most popular names and brands of phones completing a prefix, as it is typed.
+     * <p>
+     * The completions are served from memory: names and brands start with the prefix, or have a word which
+     * starts with it, ignoring case.
+     *
+     * @param prefix the prefix typed
+     * @param limit the maximum number of completions, if not the default one
+     * @return the ResponseEntity with status 200 (OK) and the completions in body, most popular first,
+     * or with status 400 (Bad Request) if the limit is not valid,
+     * or with status 503 (Service Unavailable) if the completions are disabled or not loaded yet
+     */
+    @GetMapping("/phones/_suggest")
+    @Timed
+    public ResponseEntity<List<PhoneSuggestionDTO>> getPhoneSuggestions(@RequestParam String prefix,
+                                                                        @RequestParam(required = false) Integer limit) {
+        log.debug("REST request to get the completions of Phones for prefix : {}", prefix);
+        List<PhoneSuggestionDTO> suggestions;
+        try {
+            suggestions = phoneSuggestionIndex.complete(prefix, limit);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid suggestions: " + e.getMessage(), ENTITY_NAME, "invalidsuggest");
+        }
+        if (suggestions == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(suggestions);
     }
 
     /**
      * GET  /phones/:id : get the "id" phone.
+     * <p>
+     * The ETag of the response is the version of the phone: with an If-None-Match header, the version is read
+     * first, from the second-level cache if it holds the phone, and the phone is not sent again if it did not change.
      *
      * @param id the id of the phoneDTO to retrieve
-     * @return the ResponseEntity with status 200 (OK) and with body the phoneDTO, or with status 404 (Not Found)
+     * @param ifNoneMatch the ETags of the phone which the client already has, if any
+     * @return the ResponseEntity with status 200 (OK) and with body the phoneDTO,
+     * or with status 304 (Not Modified) if the phone did not change, or with status 404 (Not Found)
      */
     @GetMapping("/phones/{id}")
     @Timed
-    public ResponseEntity<PhoneDTO> getPhone(@PathVariable Long id) {
+    public ResponseEntity<PhoneDTO> getPhone(@PathVariable Long id,
+                                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         log.debug("REST request to get Phone : {}", id);
+        if (ifNoneMatch != null) {
+            Long version = phoneService.findVersion(id);
+            if (version != null && ETagUtil.matchesIfNoneMatch(ifNoneMatch, ETagUtil.versionETag(version))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETagUtil.versionETag(version)).build();
+            }
+        }
         PhoneDTO phoneDTO = phoneService.findOne(id);
-        return ResponseUtil.wrapOrNotFound(Optional.ofNullable(phoneDTO));
+        if (phoneDTO == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag(ETagUtil.versionETag(phoneDTO.getVersion())).body(phoneDTO);
+    }
+
+    /**
+     * GET  /phones/_export : export all the phones matching the criteria, in id order.
+     * <p>
+     * The phones are written to the response as they are read from the database, as NDJSON, one phone
+     * per line, or as CSV, with a header line, according to the Accept header; NDJSON is preferred for
+     * an Accept header which allows both.
+     *
+     * @param criteria the criterias which the requested entities should match
+     * @param accept the media types which the client accepts
+     * @return the ResponseEntity with status 200 (OK) and the phones in body
+     * @throws HttpMediaTypeNotAcceptableException if the client accepts neither NDJSON nor CSV
+     */
+    @GetMapping("/phones/_export")
+    @Timed
+    public ResponseEntity<StreamingResponseBody> exportPhones(PhoneCriteria criteria,
+                                                              @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+        throws HttpMediaTypeNotAcceptableException {
+        log.debug("REST request to export Phones by criteria: {}", criteria);
+        MediaType mediaType = exportMediaType(accept);
+        boolean csv = CSV.equals(mediaType);
+        StreamingResponseBody body = outputStream -> {
+            long count;
+            try {
+                count = csv ? exportCsv(criteria, outputStream) : exportNdjson(criteria, outputStream);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            log.debug("Exported {} Phones", count);
+        };
+        return ResponseEntity.ok()
+            .contentType(mediaType)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=phones." + (csv ? "csv" : "ndjson"))
+            .body(body);
+    }
+
+    private MediaType exportMediaType(String accept) throws HttpMediaTypeNotAcceptableException {
+        if (accept == null) {
+            return NDJSON;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.includes(NDJSON)) {
+                return NDJSON;
+            }
+            if (mediaType.includes(CSV)) {
+                return CSV;
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(Arrays.asList(NDJSON, CSV));
+    }
+
+    private long exportNdjson(PhoneCriteria criteria, OutputStream outputStream) throws IOException {
+        // Flushing is left to the buffers of the generator and of the response, rather than done for each phone
+        ObjectWriter writer = objectMapper.writerFor(PhoneDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.setRootValueSeparator(null);
+        long count = phoneQueryService.exportByCriteria(criteria, phone -> {
+            try {
+                writer.writeValue(generator, phone);
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        generator.flush();
+        return count;
+    }
+
+    private long exportCsv(PhoneCriteria criteria, OutputStream outputStream) throws IOException {
+        PhoneCsvWriter writer = new PhoneCsvWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+        writer.writeHeader();
+        long count = phoneQueryService.exportByCriteria(criteria, phone -> {
+            try {
+                writer.write(phone);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * GET  /phones/_mget : get the phones of several ids at once.
+     *
+     * @param ids the ids of the phones to retrieve, separated by commas
+     * @return the ResponseEntity with status 200 (OK) and with body one result per id, in request order,
+     * telling whether the phone was found, or with status 400 (Bad Request) if there are too many ids
+     */
+    @GetMapping("/phones/_mget")
+    @Timed
+    public ResponseEntity<List<MultiGetItemDTO>> getPhones(@RequestParam List<Long> ids) {
+        log.debug("REST request to get Phones : {}", ids);
+        return ResponseEntity.ok(multiGet(ids));
+    }
+
+    /**
+     * POST  /phones/_mget : get the phones of several ids at once, for id lists too long for a query string.
+     *
+     * @param ids the ids of the phones to retrieve
+     * @return the ResponseEntity with status 200 (OK) and with body one result per id, in request order,
+     * telling whether the phone was found, or with status 400 (Bad Request) if an id is null or there are too many ids
+     */
+    @PostMapping(value = "/phones/_mget", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Timed
+    public ResponseEntity<List<MultiGetItemDTO>> postPhones(@RequestBody List<Long> ids) {
+        log.debug("REST request to get Phones : {}", ids);
+        return ResponseEntity.ok(multiGet(ids));
+    }
+
+    private List<MultiGetItemDTO> multiGet(List<Long> ids) {
+        if (ids.contains(null)) {
+            throw new BadRequestAlertException("An id cannot be null", ENTITY_NAME, "idnull");
+        }
+        if (ids.size() > multiGetProperties.getMaxIds()) {
+            throw new BadRequestAlertException("At most " + multiGetProperties.getMaxIds() + " ids can be requested at once",
+                ENTITY_NAME, "toomanyids");
+        }
+        return phoneService.findAll(ids);
     }
 
     /**
@@ -136,18 +547,91 @@ public class PhoneResource {
     /**
      * SEARCH  /_search/phones?query=:query : search for the phone corresponding
      * to the query.
+     * <p>
+     * With a cursor parameter, the search is keyset paginated, which is not limited by the result window of
+     * Elasticsearch: an empty cursor requests the first page, sorted on id or price, and the Link header gives
+     * the cursors of the other pages.
      *
-     * @param query the query of the phone search
+     * @param query the query of the phone search, see {@link PhoneSearchQuery} for its syntax
      * @param pageable the pagination information
-     * @return the result of the search
+     * @param cursor the opaque cursor of the requested page, for keyset pagination
+     * @param count how the phones are counted: none, or exact and estimate, which are the same for a search
+     * @return the result of the search, or with status 400 (Bad Request) if the query, the cursor,
+     * the sort of the first page, or the count, is not valid
      */
     @GetMapping("/_search/phones")
     @Timed
-    public ResponseEntity<List<PhoneDTO>> searchPhones(@RequestParam String query, Pageable pageable) {
+    public ResponseEntity<List<PhoneDTO>> searchPhones(@RequestParam String query, Pageable pageable,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) String count) {
         log.debug("REST request to search for a page of Phones for query {}", query);
-        Page<PhoneDTO> page = phoneService.search(query, pageable);
-        HttpHeaders headers = PaginationUtil.generateSearchPaginationHttpHeaders(query, page, "/api/_search/phones");
+        if (cursor != null) {
+            CursorPage<PhoneDTO> page;
+            try {
+                KeysetCursor keysetCursor = cursor.isEmpty() ? firstCursor(pageable.getSort()) : KeysetCursor.decode(cursor);
+                page = phoneService.search(query, keysetCursor, pageable.getPageSize());
+            } catch (PhoneSearchQuery.InvalidQueryException e) {
+                throw invalidQuery(e);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestAlertException("Invalid cursor: " + e.getMessage(), ENTITY_NAME, "invalidcursor");
+            }
+            HttpHeaders headers = PaginationUtil.generateSearchPaginationHttpHeaders(query, page, "/api/_search/phones");
+            return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+        }
+        Page<PhoneDTO> page;
+        try {
+            page = phoneService.search(query, pageable);
+        } catch (PhoneSearchQuery.InvalidQueryException e) {
+            throw invalidQuery(e);
+        }
+        // Elasticsearch counts all the hits of every search, so an estimate is the exact count
+        HttpHeaders headers = countMode(count, TotalCount.Mode.EXACT) == TotalCount.Mode.NONE
+            ? PaginationUtil.generateSearchSlicePaginationHttpHeaders(query, page, "/api/_search/phones")
+            : PaginationUtil.generateSearchPaginationHttpHeaders(query, page, "/api/_search/phones");
         return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
     }
 
+    /**
+     * SEARCH  /_search/phones/_scroll?query=:query : read all the phones corresponding to the query,
+     * batch after batch, from a snapshot of the index.
+     * <p>
+     * The Link header gives the URL of the next batch, with the cursor of the scroll, until all the phones are read.
+     * A scroll expires when its next batch is not read within application.search.scroll-keep-alive.
+     *
+     * @param query the query of the phone search, to start a scroll
+     * @param cursor the cursor of the scroll, to read its next batch
+     * @param pageable the pagination information, whose size is the number of phones per batch
+     * @return the ResponseEntity with status 200 (OK) and the batch of phones in body,
+     * or with status 400 (Bad Request) if neither the query nor the cursor are given, if the query is not valid,
+     * or if the scroll has expired
+     */
+    @GetMapping("/_search/phones/_scroll")
+    @Timed
+    public ResponseEntity<List<PhoneDTO>> scrollPhones(@RequestParam(required = false) String query,
+                                                       @RequestParam(required = false) String cursor, Pageable pageable) {
+        log.debug("REST request to scroll the Phones for query {}", query);
+        ScrollPage<PhoneDTO> page;
+        if (cursor != null) {
+            try {
+                page = phoneService.continueScroll(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestAlertException("Invalid cursor: " + e.getMessage(), ENTITY_NAME, "invalidcursor");
+            }
+        } else if (query != null) {
+            try {
+                page = phoneService.startScroll(query, pageable.getPageSize());
+            } catch (PhoneSearchQuery.InvalidQueryException e) {
+                throw invalidQuery(e);
+            }
+        } else {
+            throw new BadRequestAlertException("A scroll needs a query or a cursor", ENTITY_NAME, "noquery");
+        }
+        HttpHeaders headers = PaginationUtil.generateScrollHttpHeaders(page.getScrollId(), "/api/_search/phones/_scroll");
+        return new ResponseEntity<>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    private static BadRequestAlertException invalidQuery(PhoneSearchQuery.InvalidQueryException e) {
+        return new BadRequestAlertException("Invalid query: " + e.getMessage(), ENTITY_NAME, "invalidquery");
+    }
+
 }
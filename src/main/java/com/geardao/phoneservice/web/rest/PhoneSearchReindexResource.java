@@ -0,0 +1,54 @@
+package com.geardao.phoneservice.web.rest;
+
+import com.codahale.metrics.annotation.Timed;
+import com.geardao.phoneservice.service.PhoneSearchReindexer;
+import com.geardao.phoneservice.service.dto.ReindexStatusDTO;
+import com.geardao.phoneservice.web.rest.errors.BadRequestAlertException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller for rebuilding the Elasticsearch index of the phones.
+ */
+@RestController
+@RequestMapping("/management")
+public class PhoneSearchReindexResource {
+
+    private final Logger log = LoggerFactory.getLogger(PhoneSearchReindexResource.class);
+
+    private final PhoneSearchReindexer phoneSearchReindexer;
+
+    public PhoneSearchReindexResource(PhoneSearchReindexer phoneSearchReindexer) {
+        this.phoneSearchReindexer = phoneSearchReindexer;
+    }
+
+    /**
+     * POST  /phones/reindex : Start rebuilding the phone index, behind its alias.
+     *
+     * @return the ResponseEntity with status 202 (Accepted) and with body the status of the reindex,
+     * or with status 400 (Bad Request) if a reindex is already running
+     */
+    @PostMapping("/phones/reindex")
+    @Timed
+    public ResponseEntity<ReindexStatusDTO> startReindex() {
+        log.debug("REST request to reindex the Phones");
+        if (!phoneSearchReindexer.start()) {
+            throw new BadRequestAlertException("A reindex is already running", "phone", "reindexrunning");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(phoneSearchReindexer.getStatus());
+    }
+
+    /**
+     * GET  /phones/reindex : Get the progress of the running reindex, or the outcome of the last one.
+     *
+     * @return the status of the reindex
+     */
+    @GetMapping("/phones/reindex")
+    @Timed
+    public ReindexStatusDTO getReindexStatus() {
+        return phoneSearchReindexer.getStatus();
+    }
+}
@@ -0,0 +1,100 @@
+package com.geardao.phoneservice.web.rest.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Utility class for entity tags and their conditional request headers.
+ */
+public final class ETagUtil {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private ETagUtil() {
+    }
+
+    /**
+     * Create the strong entity tag of an entity.
+     *
+     * @param version the version of the entity
+     * @return the quoted entity tag
+     */
+    public static String versionETag(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Create the entity tag of a listing, which changes with the version of the listed catalog.
+     * <p>
+     * The query string is identified by its SHA-256 digest, so that two listings of the same version cannot
+     * share an entity tag in practice, without making it as long as the query string.
+     *
+     * @param catalogVersion the version of the catalog, read before the listing
+     * @param queryString the query string of the listing, which may be null
+     * @return the quoted entity tag
+     */
+    public static String catalogETag(long catalogVersion, String queryString) {
+        byte[] digest = sha256().digest((queryString == null ? "" : queryString).getBytes(StandardCharsets.UTF_8));
+        return "\"" + catalogVersion + "-" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Tell whether an If-None-Match header matches an entity tag, using the weak comparison.
+     *
+     * @param ifNoneMatch the value of the header
+     * @param eTag the quoted entity tag of the current representation
+     * @return true if the header lists the entity tag, or is "*"
+     */
+    public static boolean matchesIfNoneMatch(String ifNoneMatch, String eTag) {
+        return matches(ifNoneMatch, eTag, true);
+    }
+
+    /**
+     * Tell whether an If-Match header matches an entity tag, using the strong comparison.
+     *
+     * @param ifMatch the value of the header
+     * @param eTag the quoted entity tag of the current representation
+     * @return true if the header lists the entity tag, or is "*"
+     */
+    public static boolean matchesIfMatch(String ifMatch, String eTag) {
+        return matches(ifMatch, eTag, false);
+    }
+
+    /**
+     * @param header the value of an If-Match or If-None-Match header
+     * @return true if the header is "*", which matches any current representation
+     */
+    public static boolean isWildcard(String header) {
+        return "*".equals(header.trim());
+    }
+
+    private static boolean matches(String header, String eTag, boolean weak) {
+        if (isWildcard(header)) {
+            return true;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith(WEAK_PREFIX)) {
+                if (!weak) {
+                    continue;
+                }
+                candidate = candidate.substring(WEAK_PREFIX.length());
+            }
+            if (candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
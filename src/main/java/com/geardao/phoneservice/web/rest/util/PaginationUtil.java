@@ -1,6 +1,10 @@
 package com.geardao.phoneservice.web.rest.util;
 
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.TotalCount;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -16,13 +20,19 @@ import java.net.URLEncoder;
  */
 public final class PaginationUtil {
 
+    private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private static final String TOTAL_COUNT_ESTIMATE_HEADER = "X-Total-Count-Estimate";
+
+    private static final String TOTAL_COUNT_RELATION_HEADER = "X-Total-Count-Relation";
+
     private PaginationUtil() {
     }
 
     public static HttpHeaders generatePaginationHttpHeaders(Page page, String baseUrl) {
 
         HttpHeaders headers = new HttpHeaders();
-        headers.add("X-Total-Count", Long.toString(page.getTotalElements()));
+        headers.add(TOTAL_COUNT_HEADER, Long.toString(page.getTotalElements()));
         String link = "";
         if ((page.getNumber() + 1) < page.getTotalPages()) {
             link = "<" + generateUri(baseUrl, page.getNumber() + 1, page.getSize()) + ">; rel=\"next\",";
@@ -42,19 +52,114 @@ public final class PaginationUtil {
         return headers;
     }
 
+    /**
+     * Generate the headers of a page of a list which is not counted exactly: the last link is only given
+     * when the count is exact, and a count which is not is sent in the X-Total-Count-Estimate header,
+     * along with its X-Total-Count-Relation to the real count.
+     *
+     * @param slice the page
+     * @param totalCount the count of the list, or null if it is not counted
+     * @param baseUrl the URL of the list, without query string
+     * @return the headers
+     */
+    public static HttpHeaders generateSlicePaginationHttpHeaders(Slice slice, TotalCount totalCount, String baseUrl) {
+        return generateSlicePaginationHttpHeaders(slice, totalCount, baseUrl, "");
+    }
+
+    /**
+     * Generate the headers of a page of a search which is not counted.
+     *
+     * @param query the query of the search
+     * @param slice the page
+     * @param baseUrl the URL of the search, without query string
+     * @return the headers
+     */
+    public static HttpHeaders generateSearchSlicePaginationHttpHeaders(String query, Slice slice, String baseUrl) {
+        return generateSlicePaginationHttpHeaders(slice, null, baseUrl, "&query=" + escape(query));
+    }
+
+    private static HttpHeaders generateSlicePaginationHttpHeaders(Slice slice, TotalCount totalCount, String baseUrl, String suffix) {
+        HttpHeaders headers = new HttpHeaders();
+        addTotalCountHeaders(headers, totalCount);
+        String link = "";
+        if (slice.hasNext()) {
+            link = "<" + generateUri(baseUrl, slice.getNumber() + 1, slice.getSize()) + suffix + ">; rel=\"next\",";
+        }
+        if (slice.getNumber() > 0) {
+            link += "<" + generateUri(baseUrl, slice.getNumber() - 1, slice.getSize()) + suffix + ">; rel=\"prev\",";
+        }
+        if (totalCount != null && totalCount.isExact()) {
+            long lastPage = slice.getSize() == 0 ? 0 : Math.max(0, (totalCount.getValue() - 1) / slice.getSize());
+            link += "<" + generateUri(baseUrl, (int) lastPage, slice.getSize()) + suffix + ">; rel=\"last\",";
+        }
+        link += "<" + generateUri(baseUrl, 0, slice.getSize()) + suffix + ">; rel=\"first\"";
+        headers.add(HttpHeaders.LINK, link);
+        return headers;
+    }
+
+    private static void addTotalCountHeaders(HttpHeaders headers, TotalCount totalCount) {
+        if (totalCount == null) {
+            return;
+        }
+        if (totalCount.isExact()) {
+            headers.add(TOTAL_COUNT_HEADER, Long.toString(totalCount.getValue()));
+        } else {
+            headers.add(TOTAL_COUNT_ESTIMATE_HEADER, Long.toString(totalCount.getValue()));
+            headers.add(TOTAL_COUNT_RELATION_HEADER, totalCount.getRelation().getValue());
+        }
+    }
+
+    /**
+     * Generate the Link header of a keyset paginated list: the links carry opaque cursors instead of page numbers,
+     * and no X-Total-Count header is sent, as the list is not counted.
+     *
+     * @param page the page
+     * @param baseUrl the URL of the page, with its query string, whose cursor and size parameters are replaced
+     * @return the headers
+     */
+    public static HttpHeaders generateCursorPaginationHttpHeaders(CursorPage page, String baseUrl) {
+        return generateCursorPaginationHttpHeaders(page, null, baseUrl);
+    }
+
+    /**
+     * Generate the headers of a keyset paginated list, whose links carry opaque cursors, with the count of the list.
+     *
+     * @param page the page
+     * @param totalCount the count of the list, or null if it is not counted
+     * @param baseUrl the URL of the page, with its query string, whose cursor and size parameters are replaced
+     * @return the headers
+     */
+    public static HttpHeaders generateCursorPaginationHttpHeaders(CursorPage page, TotalCount totalCount, String baseUrl) {
+        HttpHeaders headers = new HttpHeaders();
+        addTotalCountHeaders(headers, totalCount);
+        KeysetCursor cursor = page.getCursor();
+        String link = "";
+        if (page.getNextCursor() != null) {
+            link = "<" + generateCursorUri(baseUrl, page.getNextCursor(), page.getSize()) + ">; rel=\"next\",";
+        }
+        if (page.getPreviousCursor() != null) {
+            link += "<" + generateCursorUri(baseUrl, page.getPreviousCursor(), page.getSize()) + ">; rel=\"prev\",";
+        }
+        link += "<" + generateCursorUri(baseUrl, KeysetCursor.last(cursor.getProperty(), cursor.getDirection()), page.getSize()) + ">; rel=\"last\",";
+        link += "<" + generateCursorUri(baseUrl, KeysetCursor.first(cursor.getProperty(), cursor.getDirection()), page.getSize()) + ">; rel=\"first\"";
+        headers.add(HttpHeaders.LINK, link);
+        return headers;
+    }
+
+    private static String generateCursorUri(String baseUrl, KeysetCursor cursor, int size) {
+        // The query string of baseUrl is already encoded, and cursors are URL-safe
+        return UriComponentsBuilder.fromUriString(baseUrl).replaceQueryParam("page")
+            .replaceQueryParam("cursor", cursor.encode()).replaceQueryParam("size", size).build().toUriString();
+    }
+
     private static String generateUri(String baseUrl, int page, int size) {
         return UriComponentsBuilder.fromUriString(baseUrl).queryParam("page", page).queryParam("size", size).toUriString();
     }
 
     public static HttpHeaders generateSearchPaginationHttpHeaders(String query, Page page, String baseUrl) {
-        String escapedQuery;
-        try {
-            escapedQuery = URLEncoder.encode(query, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        String escapedQuery = escape(query);
         HttpHeaders headers = new HttpHeaders();
-        headers.add("X-Total-Count", Long.toString(page.getTotalElements()));
+        headers.add(TOTAL_COUNT_HEADER, Long.toString(page.getTotalElements()));
         String link = "";
         if ((page.getNumber() + 1) < page.getTotalPages()) {
             link = "<" + generateUri(baseUrl, page.getNumber() + 1, page.getSize()) + "&query=" + escapedQuery + ">; rel=\"next\",";
@@ -73,4 +178,39 @@ public final class PaginationUtil {
         headers.add(HttpHeaders.LINK, link);
         return headers;
     }
+
+    /**
+     * Generate the Link header of a keyset paginated search, whose links carry the query and opaque cursors.
+     *
+     * @param query the query of the search
+     * @param page the page
+     * @param baseUrl the URL of the search, without query string
+     * @return the headers
+     */
+    public static HttpHeaders generateSearchPaginationHttpHeaders(String query, CursorPage page, String baseUrl) {
+        return generateCursorPaginationHttpHeaders(page, baseUrl + "?query=" + escape(query));
+    }
+
+    /**
+     * Generate the Link header of a batch of a scroll, whose next link carries the id of the scroll.
+     *
+     * @param scrollId the id of the scroll, or null if all the hits have been read
+     * @param baseUrl the URL of the scroll, without query string
+     * @return the headers
+     */
+    public static HttpHeaders generateScrollHttpHeaders(String scrollId, String baseUrl) {
+        HttpHeaders headers = new HttpHeaders();
+        if (scrollId != null) {
+            headers.add(HttpHeaders.LINK, "<" + baseUrl + "?cursor=" + escape(scrollId) + ">; rel=\"next\"");
+        }
+        return headers;
+    }
+
+    private static String escape(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package com.geardao.phoneservice.config;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.domain.Phone;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.monitor.NearCacheStats;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the near caches of the second-level cache regions.
+ * <p>
+ * The second-level cache is disabled in tests, so the metrics and the preload are run on the region of the
+ * phones by hand.
+ *
+ * @see DomainNearCaches
+ * @see CacheConfiguration
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class DomainNearCachesIntTest {
+
+    private static final String REGION_NAME = Phone.class.getName();
+
+    private static final String METRIC_PREFIX = "hazelcast.near-cache." + REGION_NAME;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private final List<HazelcastInstance> members = new ArrayList<>();
+
+    @After
+    public void cleanUp() {
+        members.forEach(HazelcastInstance::shutdown);
+    }
+
+    @Test
+    public void domainRegionsHaveANearCache() {
+        ApplicationProperties.NearCache properties = applicationProperties.getNearCache();
+
+        NearCacheConfig nearCacheConfig = hazelcastInstance.getConfig().findMapConfig(REGION_NAME).getNearCacheConfig();
+
+        assertThat(nearCacheConfig).isNotNull();
+        assertThat(nearCacheConfig.isInvalidateOnChange()).isTrue();
+        assertThat(nearCacheConfig.getEvictionConfig().getEvictionPolicy()).isEqualTo(EvictionPolicy.LFU);
+        assertThat(nearCacheConfig.getEvictionConfig().getSize()).isEqualTo(properties.getMaxSize());
+        assertThat(nearCacheConfig.getTimeToLiveSeconds()).isEqualTo(properties.getTimeToLiveSeconds());
+        assertThat(nearCacheConfig.getMaxIdleSeconds()).isEqualTo(properties.getMaxIdleSeconds());
+        assertThat(nearCacheConfig.getInMemoryFormat()).isEqualTo(properties.getInMemoryFormat());
+        // Only the domain regions
+        assertThat(hazelcastInstance.getConfig().findMapConfig("test-near-cache").getNearCacheConfig()).isNull();
+    }
+
+    @Test
+    public void statisticsArePublished() {
+        HazelcastInstance owner = newMember();
+        HazelcastInstance member = newMember();
+        MetricRegistry registry = new MetricRegistry();
+        new DomainNearCaches(member, entityManagerFactory, registry, Runnable::run, applicationProperties)
+            .registerMetrics(REGION_NAME);
+
+        assertThat(registry.getGauges()).containsOnlyKeys(METRIC_PREFIX + ".hits", METRIC_PREFIX + ".misses",
+            METRIC_PREFIX + ".hit-ratio", METRIC_PREFIX + ".entries", METRIC_PREFIX + ".memory",
+            METRIC_PREFIX + ".evictions", METRIC_PREFIX + ".expirations");
+
+        Object key = remoteKeys(owner).iterator().next();
+        member.getMap(REGION_NAME).get(key);
+        member.getMap(REGION_NAME).get(key);
+
+        assertThat(gauge(registry, ".misses")).isEqualTo(1);
+        assertThat(gauge(registry, ".hits")).isEqualTo(1);
+        assertThat(gauge(registry, ".entries")).isEqualTo(1);
+    }
+
+    @Test
+    public void preloadFillsTheNearCache() {
+        HazelcastInstance owner = newMember();
+        HazelcastInstance preloaded = newMember();
+        Set<Object> remoteKeys = remoteKeys(owner);
+
+        new DomainNearCaches(preloaded, entityManagerFactory, new MetricRegistry(), Runnable::run, applicationProperties)
+            .preload(REGION_NAME);
+
+        NearCacheStats stats = preloaded.getMap(REGION_NAME).getLocalMapStats().getNearCacheStats();
+        // The entries owned by the preloaded member are not copied
+        assertThat(stats.getOwnedEntryCount()).isEqualTo(remoteKeys.size());
+        long hits = stats.getHits();
+        preloaded.getMap(REGION_NAME).getAll(remoteKeys);
+        assertThat(preloaded.getMap(REGION_NAME).getLocalMapStats().getNearCacheStats().getHits())
+            .isEqualTo(hits + remoteKeys.size());
+    }
+
+    /**
+     * A member does not keep the entries it owns in its near cache, so the near caches are tested in a cluster
+     * of their own, with two members.
+     *
+     * @return the keys of 100 entries put in the region, owned by the given member
+     */
+    private Set<Object> remoteKeys(HazelcastInstance owner) {
+        assertThat(owner.getCluster().getMembers()).hasSize(2);
+        IMap<Object, Object> region = owner.getMap(REGION_NAME);
+        for (long i = 0; i < 100; i++) {
+            region.put(i, "phone " + i);
+        }
+        Set<Object> keys = region.localKeySet();
+        assertThat(keys).isNotEmpty();
+        return keys;
+    }
+
+    private HazelcastInstance newMember() {
+        Config config = new Config();
+        config.getGroupConfig().setName("near-cache-test");
+        config.getNetworkConfig().setPort(5801);
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        config.getNetworkConfig().getJoin().getTcpIpConfig().setEnabled(true)
+            .addMember("127.0.0.1:5801").addMember("127.0.0.1:5802");
+        config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+        config.addMapConfig(new MapConfig(hazelcastInstance.getConfig().findMapConfig(REGION_NAME)).setName(REGION_NAME));
+        HazelcastInstance member = Hazelcast.newHazelcastInstance(config);
+        members.add(member);
+        return member;
+    }
+
+    private static long gauge(MetricRegistry registry, String name) {
+        return ((Number) registry.getGauges().get(METRIC_PREFIX + name).getValue()).longValue();
+    }
+}
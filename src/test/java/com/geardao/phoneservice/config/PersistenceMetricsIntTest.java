@@ -0,0 +1,78 @@
+package com.geardao.phoneservice.config;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PersistenceMetrics.
+ *
+ * @see PersistenceMetrics
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PersistenceMetricsIntTest {
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    private Phone phone;
+
+    @After
+    public void cleanUp() {
+        if (phone != null) {
+            phoneRepository.delete(phone);
+        }
+        hazelcastInstance.getMap("test-metrics").destroy();
+    }
+
+    @Test
+    public void hibernateStatisticsArePublished() {
+        long inserts = gauge("hibernate.entities.com.geardao.phoneservice.domain.Phone.inserts");
+        long queries = gauge("hibernate.queries.executions");
+
+        phone = phoneRepository.save(new Phone().name("Metered").brand("Metered").price(new BigDecimal("1.25")));
+        phoneRepository.findAll();
+
+        assertThat(gauge("hibernate.entities.com.geardao.phoneservice.domain.Phone.inserts")).isEqualTo(inserts + 1);
+        assertThat(gauge("hibernate.queries.executions")).isGreaterThan(queries);
+        assertThat(metricRegistry.getGauges()).containsKeys("hibernate.cache.hits", "hibernate.queries.max-time");
+    }
+
+    @Test
+    public void mapStatisticsArePublishedAsMapsAreCreated() {
+        IMap<String, String> map = hazelcastInstance.getMap("test-metrics");
+        map.put("a", "b");
+        map.get("a");
+
+        assertThat(gauge("hazelcast.map.test-metrics.owned-entries")).isEqualTo(1);
+        assertThat(gauge("hazelcast.map.test-metrics.puts")).isEqualTo(1);
+        assertThat(gauge("hazelcast.map.test-metrics.owned-memory")).isPositive();
+    }
+
+    private long gauge(String name) {
+        Gauge<?> gauge = metricRegistry.getGauges().get(name);
+        assertThat(gauge).as(name).isNotNull();
+        return ((Number) gauge.getValue()).longValue();
+    }
+}
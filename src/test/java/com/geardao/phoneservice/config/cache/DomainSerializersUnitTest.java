@@ -0,0 +1,180 @@
+package com.geardao.phoneservice.config.cache;
+
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.service.PhoneQueryService;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.serialization.Data;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the DomainSerializers.
+ * <p>
+ * The comparison with Java serialization only runs with -Dbenchmark=true.
+ *
+ * @see DomainSerializers
+ */
+public class DomainSerializersUnitTest {
+
+    private static final int BENCHMARK_ITERATIONS = 200_000;
+
+    private final Logger log = LoggerFactory.getLogger(DomainSerializersUnitTest.class);
+
+    private final InternalSerializationService serializationService = serializationService(true);
+
+    @Test
+    public void roundTripPhone() {
+        Phone phone = phone(1L, "Galaxy S9", "Samsung", new BigDecimal("799.99"), 3L);
+
+        Phone read = serializationService.toObject(serializationService.toData(phone));
+
+        assertThat(read.getId()).isEqualTo(1L);
+        assertThat(read.getName()).isEqualTo("Galaxy S9");
+        assertThat(read.getBrand()).isEqualTo("Samsung");
+        assertThat(read.getPrice()).isEqualTo(new BigDecimal("799.99"));
+        assertThat(read.getVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    public void roundTripPhoneWithNulls() {
+        Phone read = serializationService.toObject(serializationService.toData(new Phone()));
+
+        assertThat(read.getId()).isNull();
+        assertThat(read.getName()).isNull();
+        assertThat(read.getBrand()).isNull();
+        assertThat(read.getPrice()).isNull();
+        assertThat(read.getVersion()).isNull();
+    }
+
+    @Test
+    public void roundTripPhoneDTO() {
+        PhoneDTO phone = new PhoneDTO(Long.MIN_VALUE, "Pixel 2", "Google", new BigDecimal("-0.01"), Long.MAX_VALUE);
+
+        PhoneDTO read = serializationService.toObject(serializationService.toData(phone));
+
+        assertThat(read.getId()).isEqualTo(Long.MIN_VALUE);
+        assertThat(read.getName()).isEqualTo("Pixel 2");
+        assertThat(read.getBrand()).isEqualTo("Google");
+        assertThat(read.getPrice()).isEqualTo(new BigDecimal("-0.01"));
+        assertThat(read.getVersion()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void roundTripPricesBeyondTheCompactEncoding() {
+        BigDecimal[] prices = {
+            new BigDecimal("123456789012345678901234567890.12"),
+            new BigDecimal("-123456789012345678901234567890"),
+            new BigDecimal("1E+300"),
+            new BigDecimal("1E-200"),
+            BigDecimal.valueOf(Long.MIN_VALUE, 2),
+            BigDecimal.ZERO
+        };
+        for (BigDecimal price : prices) {
+            PhoneDTO read = serializationService.toObject(serializationService.toData(new PhoneDTO(1L, "", "", price, 0L)));
+
+            // Equal with the same scale, not only the same value
+            assertThat(read.getPrice()).isEqualTo(price);
+        }
+    }
+
+    @Test
+    public void phonesAreSmallerThanWithJavaSerialization() {
+        PhoneDTO phone = new PhoneDTO(123456L, "Galaxy S9", "Samsung", new BigDecimal("799.99"), 3L);
+
+        int nativeSize = serializationService.toData(phone).totalSize();
+        int javaSize = serializationService(false).toData(phone).totalSize();
+
+        assertThat(nativeSize).isLessThan(javaSize / 4);
+    }
+
+    @Test
+    public void roundTripCachedResult() {
+        long[] ids = {42L, 7L, 1_000_000L, Long.MAX_VALUE, Long.MIN_VALUE, 0L};
+        PhoneQueryService.CachedResult result = new PhoneQueryService.CachedResult(12L, ids, 1_234L, 1_500_000_000_000L);
+
+        Data data = serializationService.toData(result);
+        PhoneQueryService.CachedResult read = serializationService.toObject(data);
+
+        assertThat(data.getType()).isEqualTo(new DomainSerializers.CachedResultSerializer().getTypeId());
+        assertThat(read.getVersion()).isEqualTo(12L);
+        assertThat(read.getIds()).containsExactly(ids);
+        assertThat(read.getCount()).isEqualTo(1_234L);
+        assertThat(read.getCreated()).isEqualTo(1_500_000_000_000L);
+    }
+
+    @Test
+    public void cachedResultsAreSmallerThanWithJavaSerialization() {
+        PhoneQueryService.CachedResult result = cachedResult();
+
+        int nativeSize = serializationService.toData(result).totalSize();
+        int javaSize = serializationService(false).toData(result).totalSize();
+
+        assertThat(nativeSize).isLessThan(javaSize / 2);
+    }
+
+    @Test
+    public void benchmarkAgainstJavaSerialization() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        Phone phone = phone(123456L, "Galaxy S9", "Samsung", new BigDecimal("799.99"), 3L);
+        PhoneDTO phoneDTO = new PhoneDTO(123456L, "Galaxy S9", "Samsung", new BigDecimal("799.99"), 3L);
+
+        report("Phone", phone);
+        report("PhoneDTO", phoneDTO);
+        report("CachedResult", cachedResult());
+    }
+
+    private void report(String type, Object value) {
+        InternalSerializationService javaSerialization = serializationService(false);
+        log.info("{}: {} bytes, {} ns/op (Java serialization: {} bytes, {} ns/op)", type,
+            serializationService.toData(value).totalSize(), nanosPerRoundTrip(serializationService, value),
+            javaSerialization.toData(value).totalSize(), nanosPerRoundTrip(javaSerialization, value));
+    }
+
+    private static long nanosPerRoundTrip(InternalSerializationService service, Object value) {
+        // Warm up first, so that the measured iterations run compiled code
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            service.toObject(service.toData(value));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            Data data = service.toData(value);
+            service.toObject(data);
+        }
+        return (System.nanoTime() - start) / BENCHMARK_ITERATIONS;
+    }
+
+    private static InternalSerializationService serializationService(boolean withDomainSerializers) {
+        SerializationConfig serializationConfig = new SerializationConfig();
+        if (withDomainSerializers) {
+            DomainSerializers.register(serializationConfig);
+        }
+        return new DefaultSerializationServiceBuilder().setConfig(serializationConfig).build();
+    }
+
+    /**
+     * A page of 20 ids, as cached for a query.
+     */
+    private static PhoneQueryService.CachedResult cachedResult() {
+        long[] ids = new long[20];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 100_000L + i * 37;
+        }
+        return new PhoneQueryService.CachedResult(5L, ids, 12_345L, System.currentTimeMillis());
+    }
+
+    private static Phone phone(Long id, String name, String brand, BigDecimal price, Long version) {
+        Phone phone = new Phone().name(name).brand(brand).price(price);
+        phone.setId(id);
+        phone.setVersion(version);
+        return phone;
+    }
+}
@@ -0,0 +1,88 @@
+package com.geardao.phoneservice.config.cache;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.hazelcast.core.DistributedObject;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the TieredCacheManager, with the policies of the test application.yml.
+ *
+ * @see TieredCacheManager
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class TieredCacheManagerIntTest {
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @After
+    public void cleanUp() {
+        cacheManager.getCache("test-local").clear();
+        cacheManager.getCache("test-tiered").clear();
+    }
+
+    @Test
+    public void localCacheIsBoundedAndNotShared() {
+        Cache cache = cacheManager.getCache("test-local");
+        long evictions = metricRegistry.meter("cache.test-local.local.evictions").getCount();
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertThat(cache.get("a").get()).isEqualTo(1);
+        cache.put("c", 3);
+
+        // The least recently used entry is evicted beyond the size of 2
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a").get()).isEqualTo(1);
+        assertThat(cache.get("c").get()).isEqualTo(3);
+        assertThat(metricRegistry.meter("cache.test-local.local.evictions").getCount()).isEqualTo(evictions + 1);
+        assertThat(hazelcastInstance.getDistributedObjects()).extracting(DistributedObject::getName).doesNotContain("test-local");
+    }
+
+    @Test
+    public void tieredCacheReadsTheLocalTierFirst() {
+        Cache cache = cacheManager.getCache("test-tiered");
+        IMap<Object, Object> remote = hazelcastInstance.getMap("test-tiered");
+        long localHits = metricRegistry.meter("cache.test-tiered.local.hits").getCount();
+        long remoteHits = metricRegistry.meter("cache.test-tiered.remote.hits").getCount();
+
+        cache.put("a", "cached");
+        assertThat(remote.get("a")).isEqualTo("cached");
+        remote.put("a", "changed behind the cache");
+        assertThat(cache.get("a").get()).isEqualTo("cached");
+        assertThat(metricRegistry.meter("cache.test-tiered.local.hits").getCount()).isEqualTo(localHits + 1);
+
+        // Once dropped from the local tier, the entry is read from the remote tier, and kept locally again
+        ((TieredCache) cache).evictLocal("a");
+        assertThat(cache.get("a").get()).isEqualTo("changed behind the cache");
+        assertThat(cache.get("a").get()).isEqualTo("changed behind the cache");
+        assertThat(metricRegistry.meter("cache.test-tiered.remote.hits").getCount()).isEqualTo(remoteHits + 1);
+        assertThat(metricRegistry.meter("cache.test-tiered.local.hits").getCount()).isEqualTo(localHits + 2);
+
+        assertThat(cache.get("b", () -> "loaded")).isEqualTo("loaded");
+        assertThat(remote.get("b")).isEqualTo("loaded");
+        cache.evict("b");
+        assertThat(cache.get("b")).isNull();
+        assertThat(remote.containsKey("b")).isFalse();
+    }
+}
@@ -0,0 +1,118 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.util.AccessFrequencySketch;
+import com.hazelcast.core.HazelcastInstance;
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the CacheWarmUp and the PhoneAccessFrequencies it loads the hottest phones from.
+ *
+ * @see CacheWarmUp
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class CacheWarmUpIntTest {
+
+    @Autowired
+    private CacheWarmUp cacheWarmUp;
+
+    @Autowired
+    private PhoneAccessFrequencies phoneAccessFrequencies;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    @Autowired
+    private ApplicationInfoManager applicationInfoManager;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private final List<Phone> phones = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        // The accesses counted by the other tests, some to phones they have deleted
+        hazelcastInstance.getMap(PhoneAccessFrequencies.FREQUENCIES_MAP_NAME).clear();
+    }
+
+    @After
+    public void cleanUp() {
+        phoneRepository.delete(phones);
+        hazelcastInstance.getMap(PhoneAccessFrequencies.FREQUENCIES_MAP_NAME).clear();
+    }
+
+    @Test
+    public void warmUpLoadsTheMostAccessedPhones() {
+        for (int i = 0; i < 3; i++) {
+            phones.add(phoneRepository.save(new Phone().name("Warm " + i).brand("Warm").price(new BigDecimal(i + ".25"))));
+        }
+        phoneService.findOne(phones.get(1).getId());
+        phoneService.findOne(phones.get(1).getId());
+        phoneService.findOne(phones.get(2).getId());
+        phoneAccessFrequencies.flush();
+        phoneService.findOne(phones.get(2).getId());
+        phoneService.findOne(phones.get(2).getId());
+        phoneAccessFrequencies.flush();
+
+        // The counts of the successive flushes add up
+        assertThat(phoneAccessFrequencies.findHottest(2)).containsExactly(phones.get(2).getId(), phones.get(1).getId());
+
+        // The configured query of the test application.yml adds the phones which were not accessed, newest first,
+        // including the ones left by the other tests
+        long expectedEntries = Math.min(applicationProperties.getWarmUp().getMaxEntries(), phoneRepository.count());
+
+        cacheWarmUp.warmUp();
+
+        assertThat(cacheWarmUp.isWarm()).isTrue();
+        assertThat(metricRegistry.getGauges().get("cache.warm-up.entries").getValue()).isEqualTo(expectedEntries);
+        assertThat(metricRegistry.getGauges().get("cache.warm-up.timed-out").getValue()).isEqualTo(false);
+        assertThat(applicationInfoManager.getInfo().getStatus()).isEqualTo(InstanceInfo.InstanceStatus.UP);
+    }
+
+    @Test
+    public void sketchKeepsTheMostAccessedIds() {
+        AccessFrequencySketch sketch = new AccessFrequencySketch(2);
+        for (long id : Arrays.asList(1L, 1L, 1L, 2L, 3L, 3L)) {
+            sketch.record(id);
+        }
+
+        // 3 replaced 2, the least accessed id, and inherited its count
+        Map<Long, Long> counts = sketch.drain();
+        assertThat(counts).containsOnlyKeys(1L, 3L);
+        assertThat(counts.get(1L)).isEqualTo(3L);
+        assertThat(counts.get(3L)).isEqualTo(3L);
+        assertThat(sketch.drain()).isEmpty();
+    }
+}
@@ -0,0 +1,181 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.PhoneBrandStats;
+import com.geardao.phoneservice.repository.PhoneBrandStatsRepository;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.PhoneBrandStatsDTO;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PhoneBrandStatistics, checking the statistics maintained by the writes of phones.
+ *
+ * @see PhoneBrandStatistics
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneBrandStatisticsIntTest {
+
+    private static final String BRAND = "Statistics";
+
+    @Autowired
+    private PhoneBrandStatistics phoneBrandStatistics;
+
+    @Autowired
+    private PhoneBrandStatsRepository phoneBrandStatsRepository;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void cleanUp() {
+        ids.stream().filter(phoneRepository::exists).forEach(phoneService::delete);
+    }
+
+    @Test
+    public void writesMaintainTheStatistics() {
+        PhoneDTO a = save(new PhoneDTO(null, "Statistics A", BRAND + "1", new BigDecimal("10.00"), null));
+        PhoneDTO b = save(new PhoneDTO(null, "Statistics B", BRAND + "1", new BigDecimal("30.00"), null));
+        PhoneDTO c = save(new PhoneDTO(null, "Statistics C", BRAND + "1", null, null));
+        save(new PhoneDTO(null, "Statistics D", BRAND + "2", new BigDecimal("5.50"), null));
+        assertStats(BRAND + "1", 3, 2, "10.00", "30.00", "20.00");
+
+        // Moving the most expensive phone to another brand computes the maximum of its former brand again
+        save(new PhoneDTO(b.getId(), "Statistics B", BRAND + "2", new BigDecimal("30.00"), b.getVersion()));
+        assertStats(BRAND + "1", 2, 1, "10.00", "10.00", "10.00");
+        assertStats(BRAND + "2", 2, 2, "5.50", "30.00", "17.75");
+
+        List<BulkItemResultDTO> results = phoneService.saveAll(Arrays.asList(
+            new PhoneDTO(a.getId(), "Statistics A", BRAND + "1", new BigDecimal("12.00"), null),
+            new PhoneDTO(null, "Statistics E", BRAND + "3", new BigDecimal("1.00"), null)));
+        results.forEach(result -> ids.add(result.getId()));
+        assertStats(BRAND + "1", 2, 1, "12.00", "12.00", "12.00");
+        assertStats(BRAND + "3", 1, 1, "1.00", "1.00", "1.00");
+
+        // A brand without phones has no statistics
+        phoneService.delete(a.getId());
+        phoneService.delete(c.getId());
+        assertThat(find(BRAND + "1")).isEmpty();
+
+        // The maintained statistics are the computed ones
+        List<PhoneBrandStats> maintained = phoneBrandStatsRepository.findAll().stream()
+            .filter(stats -> stats.getBrand().startsWith(BRAND)).collect(Collectors.toList());
+        assertThat(phoneBrandStatsRepository.computeAll()).filteredOn(stats -> stats.getBrand().startsWith(BRAND))
+            .hasSize(maintained.size())
+            .usingFieldByFieldElementComparator()
+            .containsOnlyElementsOf(maintained);
+    }
+
+    @Test
+    public void driftIsRepaired() {
+        PhoneDTO phone = save(new PhoneDTO(null, "Statistics drift", BRAND + "Drift", new BigDecimal("7.00"), null));
+        // Written behind the back of the statistics
+        jdbcTemplate.update("update phone set price = ? where id = ?", new BigDecimal("9.00"), phone.getId());
+        long drifts = metricRegistry.meter("phone.brand-stats.drifts").getCount();
+
+        phoneBrandStatistics.check();
+
+        assertThat(metricRegistry.meter("phone.brand-stats.drifts").getCount()).isEqualTo(drifts + 1);
+        assertStats(BRAND + "Drift", 1, 1, "9.00", "9.00", "9.00");
+    }
+
+    @Test
+    public void firstPhonesOfABrandAreSavedConcurrently() throws Exception {
+        String brand = BRAND + "Concurrent";
+        CountDownLatch firstSaved = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // The first transaction inserts the statistics of the brand, and commits while the second one inserts them too
+            Future<PhoneDTO> first = executor.submit(() -> transactionTemplate.execute(status -> {
+                PhoneDTO saved = phoneService.save(new PhoneDTO(null, "Statistics concurrent A", brand, new BigDecimal("4.00"), null));
+                firstSaved.countDown();
+                try {
+                    secondStarted.await(10, TimeUnit.SECONDS);
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return saved;
+            }));
+            Future<PhoneDTO> second = executor.submit(() -> {
+                firstSaved.await(10, TimeUnit.SECONDS);
+                secondStarted.countDown();
+                return phoneService.save(new PhoneDTO(null, "Statistics concurrent B", brand, new BigDecimal("6.00"), null));
+            });
+            ids.add(first.get(30, TimeUnit.SECONDS).getId());
+            ids.add(second.get(30, TimeUnit.SECONDS).getId());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertStats(brand, 2, 2, "4.00", "6.00", "5.00");
+    }
+
+    private PhoneDTO save(PhoneDTO phone) {
+        PhoneDTO saved = phoneService.save(phone);
+        ids.add(saved.getId());
+        return saved;
+    }
+
+    private Optional<PhoneBrandStatsDTO> find(String brand) {
+        return phoneBrandStatistics.findAll().stream().filter(stats -> stats.getBrand().equals(brand)).findFirst();
+    }
+
+    private void assertStats(String brand, long count, long pricedCount, String minPrice, String maxPrice, String avgPrice) {
+        PhoneBrandStatsDTO stats = find(brand).orElseThrow(() -> new AssertionError("No statistics of brand " + brand));
+        assertThat(stats.getCount()).isEqualTo(count);
+        assertThat(stats.getPricedCount()).isEqualTo(pricedCount);
+        assertThat(stats.getMinPrice()).isEqualByComparingTo(minPrice);
+        assertThat(stats.getMaxPrice()).isEqualByComparingTo(maxPrice);
+        assertThat(stats.getAvgPrice()).isEqualByComparingTo(avgPrice);
+    }
+}
@@ -0,0 +1,204 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.dto.PhoneCriteria;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.util.PhoneColumnStore;
+import com.geardao.phoneservice.service.util.TotalCount;
+import io.github.jhipster.service.filter.BigDecimalFilter;
+import io.github.jhipster.service.filter.LongFilter;
+import io.github.jhipster.service.filter.StringFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PhoneCatalogIndex, comparing the queries it serves with the queries of the database.
+ *
+ * @see PhoneCatalogIndex
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneCatalogIndexIntTest {
+
+    private static final String BRAND = "Columnar";
+
+    @Autowired
+    private PhoneCatalogIndex phoneCatalogIndex;
+
+    @Autowired
+    private PhoneQueryService phoneQueryService;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private final List<Phone> phones = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < 20; i++) {
+            phones.add(phoneRepository.save(new Phone().name("Column " + (char) ('A' + i % 7) + i)
+                .brand(BRAND + (i % 3)).price(new BigDecimal(i % 5 + ".25"))));
+        }
+        applicationProperties.getCatalogIndex().setEnabled(true);
+        phoneCatalogIndex.rebuild();
+    }
+
+    @After
+    public void cleanUp() {
+        applicationProperties.getCatalogIndex().setEnabled(false);
+        phoneCatalogIndex.check();
+        phones.stream().map(Phone::getId).filter(phoneRepository::exists).forEach(phoneRepository::delete);
+    }
+
+    @Test
+    public void queriesMatchTheDatabase() {
+        long queries = metricRegistry.timer("phone.catalog-index.queries").getCount();
+        PhoneCriteria byBrand = criteria();
+        byBrand.setBrand((StringFilter) new StringFilter().setIn(Arrays.asList(BRAND + "0", BRAND + "2")));
+        PhoneCriteria byName = criteria();
+        byName.setName(new StringFilter().setContains("column b"));
+        PhoneCriteria byPrice = criteria();
+        byPrice.setPrice((BigDecimalFilter) new BigDecimalFilter().setGreaterThan(new BigDecimal("1.25"))
+            .setLessOrEqualThan(new BigDecimal("3.251")));
+        PhoneCriteria byId = criteria();
+        byId.setId((LongFilter) new LongFilter().setIn(Arrays.asList(phones.get(3).getId(), phones.get(7).getId(), -1L)));
+
+        for (PhoneCriteria criteria : Arrays.asList(byBrand, byName, byPrice, byId)) {
+            // Total orders, as the database orders ties as it likes
+            for (Sort sort : Arrays.asList(new Sort(Sort.Direction.DESC, "price").and(new Sort("id")), new Sort("brand", "name"),
+                new Sort(Sort.Direction.DESC, "id"))) {
+                for (int page = 0; page < 3; page++) {
+                    PageRequest pageable = new PageRequest(page, 4, sort);
+                    Page<PhoneDTO> indexed = phoneQueryService.findByCriteria(criteria, pageable);
+                    Page<PhoneDTO> queried = withoutIndex(() -> phoneQueryService.findByCriteria(criteria, pageable));
+
+                    assertThat(indexed.getTotalElements()).isEqualTo(queried.getTotalElements());
+                    assertThat(indexed.getContent()).extracting("id")
+                        .containsExactlyElementsOf(queried.getContent().stream().map(PhoneDTO::getId).collect(Collectors.toList()));
+                    assertThat(indexed.getContent()).extracting("price")
+                        .usingElementComparator((a, b) -> ((BigDecimal) a).compareTo((BigDecimal) b))
+                        .containsExactlyElementsOf(queried.getContent().stream().map(PhoneDTO::getPrice).collect(Collectors.toList()));
+                }
+            }
+            assertThat(phoneQueryService.countByCriteria(criteria, TotalCount.Mode.EXACT).getValue())
+                .isEqualTo(withoutIndex(() -> phoneQueryService.countByCriteria(criteria, TotalCount.Mode.EXACT)).getValue());
+        }
+        assertThat(metricRegistry.timer("phone.catalog-index.queries").getCount()).isGreaterThan(queries);
+    }
+
+    @Test
+    public void writesAreApplied() {
+        PhoneDTO created = phoneService.save(new PhoneDTO(null, "Column new", BRAND + "New", new BigDecimal("9.99"), null));
+        phones.add(phoneRepository.findOne(created.getId()));
+        PhoneCriteria criteria = criteria();
+        criteria.setBrand(new StringFilter().setContains(BRAND + "new"));
+
+        assertThat(phoneQueryService.findByCriteria(criteria)).extracting("id").containsExactly(created.getId());
+
+        PhoneDTO updated = phoneService.save(new PhoneDTO(created.getId(), "Column new", BRAND + "New", new BigDecimal("8.99"),
+            created.getVersion()));
+        assertThat(phoneQueryService.findByCriteria(criteria)).extracting("version").containsExactly(updated.getVersion());
+        assertThat(phoneQueryService.findByCriteria(criteria).get(0).getPrice()).isEqualByComparingTo("8.99");
+
+        phoneService.delete(created.getId());
+        assertThat(phoneQueryService.findByCriteria(criteria)).isEmpty();
+    }
+
+    @Test
+    public void driftIsRepaired() {
+        Phone phone = phones.get(0);
+        // Written behind the back of the index
+        jdbcTemplate.update("update phone set price = ?, version = version + 1 where id = ?", new BigDecimal("99.25"), phone.getId());
+        PhoneCriteria criteria = criteria();
+        criteria.setPrice((BigDecimalFilter) new BigDecimalFilter().setEquals(new BigDecimal("99.25")));
+        long drifts = metricRegistry.meter("phone.catalog-index.drifts").getCount();
+        assertThat(phoneQueryService.findByCriteria(criteria)).isEmpty();
+
+        phoneCatalogIndex.check();
+
+        assertThat(metricRegistry.meter("phone.catalog-index.drifts").getCount()).isEqualTo(drifts + 1);
+        assertThat(phoneQueryService.findByCriteria(criteria)).extracting("id").containsExactly(phone.getId());
+    }
+
+    @Test
+    public void unsupportedQueriesFallBackToTheDatabase() {
+        long fallbacks = metricRegistry.meter("phone.catalog-index.fallbacks").getCount();
+        PhoneCriteria criteria = criteria();
+        criteria.setName(new StringFilter().setContains("column_"));
+
+        assertThat(phoneQueryService.findByCriteria(criteria, new PageRequest(0, 100, Sort.Direction.ASC, "version"))
+            .getTotalElements()).isEqualTo(phones.size());
+        assertThat(metricRegistry.meter("phone.catalog-index.fallbacks").getCount()).isEqualTo(fallbacks + 1);
+    }
+
+    @Test
+    public void storeKeepsTheLatestVersions() {
+        PhoneColumnStore store = new PhoneColumnStore(2);
+        for (long id = 1; id <= 100; id++) {
+            store.put(id, "Phone " + id, "Brand" + id % 4, BigDecimal.valueOf(id, 1), 1);
+        }
+        store.put(7, "Phone 7 older", "Brand", null, 1);
+        store.put(8, "Phone 8 newer", "Brand", null, 2);
+        store.remove(9);
+        store.put(9, "Phone 9 again", "Brand", null, 3);
+
+        PhoneColumnStore.Result result = store.find(null, new Sort(Sort.Direction.DESC, "name"), 0, 100);
+        assertThat(result.getCount()).isEqualTo(99);
+        assertThat(result.getPhones().get(0).getName()).isEqualTo("Phone 99");
+        assertThat(store.find(null, null, 6, 3).getPhones()).extracting("name").containsExactly("Phone 7", "Phone 8 newer", "Phone 10");
+        // The first rows, selected in a heap, are sorted as the full sort
+        assertThat(store.find(null, new Sort("brand", "price"), 3, 5).getPhones())
+            .isEqualTo(store.find(null, new Sort("brand", "price"), 0, 100).getPhones().subList(3, 8));
+        assertThat(store.getChecksum()).isEqualTo(new PhoneColumnStore.Checksum(99, 5050 - 9, 99 + 1));
+    }
+
+    private static PhoneCriteria criteria() {
+        PhoneCriteria criteria = new PhoneCriteria();
+        criteria.setBrand(new StringFilter().setContains(BRAND));
+        return criteria;
+    }
+
+    private <T> T withoutIndex(Supplier<T> query) {
+        applicationProperties.getCatalogIndex().setEnabled(false);
+        try {
+            return query.get();
+        } finally {
+            applicationProperties.getCatalogIndex().setEnabled(true);
+        }
+    }
+}
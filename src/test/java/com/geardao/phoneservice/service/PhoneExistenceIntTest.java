@@ -0,0 +1,148 @@
+package com.geardao.phoneservice.service;
+
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.util.IdBloomFilter;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PhoneExistence, with the Bloom filter enabled by the test application.yml.
+ *
+ * @see PhoneExistence
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneExistenceIntTest {
+
+    private static final Long UNKNOWN_ID = Long.MAX_VALUE - 1;
+
+    @Autowired
+    private PhoneExistence phoneExistence;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    private IMap<Long, Boolean> missingIds;
+
+    private PhoneDTO phone;
+
+    @Before
+    public void setup() {
+        missingIds = hazelcastInstance.getMap(PhoneExistence.MISSING_MAP_NAME);
+        missingIds.clear();
+    }
+
+    @After
+    public void cleanUp() {
+        if (phone != null && phoneRepository.exists(phone.getId())) {
+            phoneRepository.delete(phone.getId());
+        }
+        missingIds.clear();
+    }
+
+    @Test
+    public void missingIdIsRemembered() {
+        phoneExistence.rebuildFilter();
+
+        // Rejected by the Bloom filter, before the negative cache
+        assertThat(phoneService.findOne(UNKNOWN_ID)).isNull();
+        assertThat(phoneExistence.isKnownMissing(UNKNOWN_ID)).isTrue();
+        assertThat(phoneService.findAll(Collections.singletonList(UNKNOWN_ID))).extracting("found").containsExactly(false);
+        assertThat(missingIds.containsKey(UNKNOWN_ID)).isFalse();
+    }
+
+    @Test
+    public void deletedIdIsRemembered() {
+        phone = phoneService.save(new PhoneDTO(null, "Deleted", "Deleted", new BigDecimal("2.25"), null));
+
+        phoneService.delete(phone.getId());
+
+        // Still in the Bloom filter until it is rebuilt, so answered by the negative cache
+        assertThat(missingIds.get(phone.getId())).isTrue();
+        assertThat(phoneService.findOne(phone.getId())).isNull();
+    }
+
+    @Test
+    public void newPhoneIsNeverHidden() {
+        phoneExistence.rebuildFilter();
+        phone = phoneService.save(new PhoneDTO(null, "Existing", "Existing", new BigDecimal("3.25"), null));
+
+        // A lookup which did not see the phone, and completes after it is committed, does not hide it
+        phoneExistence.notFound(Collections.singleton(phone.getId()));
+
+        assertThat(phoneExistence.isKnownMissing(phone.getId())).isFalse();
+        assertThat(phoneService.findOne(phone.getId())).isNotNull();
+
+        phoneService.delete(phone.getId());
+
+        assertThat(phoneExistence.isKnownMissing(phone.getId())).isTrue();
+        assertThat(phoneService.findOne(phone.getId())).isNull();
+    }
+
+    @Test
+    public void newPhoneIsAddedToTheLocalFilterBeforeCommit() {
+        phoneExistence.rebuildFilter();
+        long tasks = hazelcastInstance.getExecutorService("phoneExistence").getLocalExecutorStats().getStartedTaskCount();
+
+        phone = phoneService.save(new PhoneDTO(null, "Added", "Added", new BigDecimal("3.75"), null));
+        // Only the Bloom filter knows the phone now
+        missingIds.clear();
+
+        assertThat(phoneExistence.isKnownMissing(phone.getId())).isFalse();
+        // Added in the thread of the transaction, not by a task which could fail or time out after it commits
+        assertThat(hazelcastInstance.getExecutorService("phoneExistence").getLocalExecutorStats().getStartedTaskCount())
+            .isEqualTo(tasks);
+    }
+
+    @Test
+    public void rebuiltFilterKeepsTheExistingPhones() {
+        phone = phoneService.save(new PhoneDTO(null, "Rebuilt", "Rebuilt", new BigDecimal("4.25"), null));
+        missingIds.clear();
+
+        phoneExistence.rebuildFilter();
+
+        assertThat(phoneExistence.isKnownMissing(phone.getId())).isFalse();
+        assertThat(phoneExistence.isKnownMissing(UNKNOWN_ID)).isTrue();
+        assertThat(missingIds.containsKey(UNKNOWN_ID)).isFalse();
+    }
+
+    @Test
+    public void bloomFilterContainsTheAddedIds() {
+        IdBloomFilter filter = new IdBloomFilter(1 << 16, 3);
+        for (long id = 1; id <= 1000; id++) {
+            filter.add(id);
+        }
+        IdBloomFilter copy = IdBloomFilter.fromSnapshot(filter.toSnapshot());
+
+        int falsePositives = 0;
+        for (long id = 1; id <= 1000; id++) {
+            assertThat(copy.mightContain(id)).isTrue();
+            if (copy.mightContain(id + 1_000_000)) {
+                falsePositives++;
+            }
+        }
+        // 65 bits per id with 3 hashes give about 0.01% of false positives
+        assertThat(falsePositives).isLessThan(10);
+    }
+}
@@ -0,0 +1,184 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.dto.PhoneCriteria;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import io.github.jhipster.service.filter.StringFilter;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PhoneQueryService, comparing the projection read path of read-only transactions
+ * with the entity read path of read-write transactions, and checking the cache of the pages of results.
+ * <p>
+ * The benchmark of the allocations of both paths only runs with -Dbenchmark=true.
+ *
+ * @see PhoneQueryService
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneQueryServiceIntTest {
+
+    private final Logger log = LoggerFactory.getLogger(PhoneQueryServiceIntTest.class);
+
+    @Autowired
+    private PhoneQueryService phoneQueryService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private TransactionTemplate readWriteTransaction;
+
+    private List<Phone> phones;
+
+    @Before
+    public void setup() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+        phones = new ArrayList<>();
+    }
+
+    @After
+    public void cleanUp() {
+        phoneRepository.delete(phones);
+    }
+
+    private void createPhones(int count) {
+        List<Phone> newPhones = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            newPhones.add(new Phone().name("Projected " + i).brand(i % 2 == 0 ? "Even" : null).price(new BigDecimal(i + ".50")));
+        }
+        phones.addAll(phoneRepository.save(newPhones));
+    }
+
+    @Test
+    public void readOnlyTransactionsSelectDTOs() {
+        createPhones(5);
+        PhoneCriteria criteria = new PhoneCriteria();
+        StringFilter name = new StringFilter();
+        name.setContains("Projected");
+        criteria.setName(name);
+        Pageable page = new PageRequest(0, 3, Sort.Direction.DESC, "brand", "id");
+
+        List<PhoneDTO> projected = readOnlyTransaction.execute(status -> {
+            List<PhoneDTO> result = phoneQueryService.findSliceByCriteria(criteria, page).getContent();
+            assertThat(em.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+            return result;
+        });
+        List<PhoneDTO> mapped = readWriteTransaction.execute(status -> {
+            List<PhoneDTO> result = phoneQueryService.findSliceByCriteria(criteria, page).getContent();
+            assertThat(em.unwrap(Session.class).getStatistics().getEntityCount()).isPositive();
+            return result;
+        });
+        assertThat(projected).hasSize(3).usingFieldByFieldElementComparator().containsExactlyElementsOf(mapped);
+
+        // The same holds for the other listings
+        List<PhoneDTO> projectedList = readOnlyTransaction.execute(status -> phoneQueryService.findByCriteria(criteria));
+        List<PhoneDTO> mappedList = readWriteTransaction.execute(status -> phoneQueryService.findByCriteria(criteria));
+        assertThat(projectedList).hasSize(5).usingFieldByFieldElementComparator().containsOnly(mappedList.toArray(new PhoneDTO[0]));
+        KeysetCursor cursor = KeysetCursor.first("price", Sort.Direction.DESC);
+        List<PhoneDTO> projectedKeyset = readOnlyTransaction.execute(status ->
+            phoneQueryService.findByCriteria(criteria, cursor, 2).getContent());
+        List<PhoneDTO> mappedKeyset = readWriteTransaction.execute(status ->
+            phoneQueryService.findByCriteria(criteria, cursor, 2).getContent());
+        assertThat(projectedKeyset).hasSize(2).usingFieldByFieldElementComparator().containsExactlyElementsOf(mappedKeyset);
+    }
+
+    @Test
+    public void pagesAreCachedUntilPhonesAreWritten() {
+        createPhones(3);
+        PhoneCriteria criteria = new PhoneCriteria();
+        StringFilter name = new StringFilter();
+        name.setContains("Projected");
+        criteria.setName(name);
+        Pageable page = new PageRequest(0, 2, Sort.Direction.ASC, "price");
+        long hits = metricRegistry.meter("phone.query-cache.hits").getCount();
+        long stale = metricRegistry.meter("phone.query-cache.stale").getCount();
+
+        Page<PhoneDTO> computed = readOnlyTransaction.execute(status -> phoneQueryService.findByCriteria(criteria, page));
+        Page<PhoneDTO> cached = readOnlyTransaction.execute(status -> phoneQueryService.findByCriteria(criteria, page));
+
+        assertThat(metricRegistry.meter("phone.query-cache.hits").getCount()).isEqualTo(hits + 1);
+        assertThat(cached.getTotalElements()).isEqualTo(3);
+        assertThat(cached.getContent()).hasSize(2).usingFieldByFieldElementComparator().containsExactlyElementsOf(computed.getContent());
+
+        phones.add(phoneRepository.save(new Phone().name("Projected cheap").price(new BigDecimal("0.25"))));
+        Page<PhoneDTO> recomputed = readOnlyTransaction.execute(status -> phoneQueryService.findByCriteria(criteria, page));
+
+        assertThat(metricRegistry.meter("phone.query-cache.stale").getCount()).isEqualTo(stale + 1);
+        assertThat(recomputed.getTotalElements()).isEqualTo(4);
+        assertThat(recomputed.getContent()).extracting("name").containsExactly("Projected cheap", "Projected 0");
+    }
+
+    @Test
+    public void benchmarkAllocationPerPage() {
+        Assume.assumeTrue("Run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+        createPhones(1000);
+        Pageable page = new PageRequest(0, 100, Sort.Direction.ASC, "name");
+        int warmUp = 200;
+        int iterations = 500;
+
+        long projectedBytes = allocatedBytesPerCall(
+            () -> readOnlyTransaction.execute(status -> phoneQueryService.findSliceByCriteria(null, page)), warmUp, iterations);
+        long mappedBytes = allocatedBytesPerCall(
+            () -> readWriteTransaction.execute(status -> phoneQueryService.findSliceByCriteria(null, page)), warmUp, iterations);
+
+        log.info("Allocation per page of {} phones: {} bytes with the projection, {} bytes with entities and mapping",
+            page.getPageSize(), projectedBytes, mappedBytes);
+        assertThat(projectedBytes).isLessThan(mappedBytes);
+    }
+
+    private long allocatedBytesPerCall(Supplier<?> call, int warmUp, int iterations) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < warmUp; i++) {
+            call.get();
+        }
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            call.get();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / iterations;
+    }
+}
@@ -0,0 +1,181 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.geardao.phoneservice.service.dto.PhoneSuggestionDTO;
+import com.geardao.phoneservice.service.util.SuggestionTrie;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the PhoneSuggestionIndex, checking the completions follow the writes of phones.
+ *
+ * @see PhoneSuggestionIndex
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneSuggestionIndexIntTest {
+
+    @Autowired
+    private PhoneSuggestionIndex phoneSuggestionIndex;
+
+    @Autowired
+    private PhoneAccessFrequencies phoneAccessFrequencies;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @After
+    public void cleanUp() {
+        ids.stream().filter(phoneRepository::exists).forEach(phoneService::delete);
+    }
+
+    @Test
+    public void writesAreApplied() {
+        PhoneDTO phone = save(new PhoneDTO(null, "Suggested Nova 3", "Suggested Brand", null, null));
+        save(new PhoneDTO(null, "Suggested Mate 20", "Suggested Brand", null, null));
+
+        assertThat(texts("suggested n")).containsExactly("Suggested Nova 3");
+        assertThat(texts("MATE")).containsExactly("Suggested Mate 20");
+        assertThat(phoneSuggestionIndex.complete("suggested b", null)).extracting("count").containsExactly(2L);
+
+        phoneService.save(new PhoneDTO(phone.getId(), "Suggested Nova 4", "Suggested Other", null, phone.getVersion()));
+        assertThat(texts("suggested n")).containsExactly("Suggested Nova 4");
+        assertThat(phoneSuggestionIndex.complete("suggested b", null)).extracting("count").containsExactly(1L);
+
+        phoneService.delete(phone.getId());
+        assertThat(texts("suggested n")).isEmpty();
+        assertThat(texts("suggested o")).isEmpty();
+        assertThat(metricRegistry.timer("phone.suggestions.completions").getSnapshot().get99thPercentile()).isPositive();
+    }
+
+    @Test
+    public void accessesRankTheCompletions() {
+        PhoneDTO alpha = save(new PhoneDTO(null, "Ranked Alpha", null, null, null));
+        PhoneDTO beta = save(new PhoneDTO(null, "Ranked Beta", null, null, null));
+        for (int i = 0; i < 5; i++) {
+            phoneAccessFrequencies.record(beta.getId());
+        }
+        phoneAccessFrequencies.record(alpha.getId());
+        phoneAccessFrequencies.flush();
+
+        phoneSuggestionIndex.check();
+
+        assertThat(phoneSuggestionIndex.complete("ranked", null)).extracting("text").containsExactly("Ranked Beta", "Ranked Alpha");
+        assertThat(phoneSuggestionIndex.complete("ranked", 1)).extracting("score").containsExactly(6L);
+    }
+
+    @Test
+    public void driftIsRepaired() {
+        PhoneDTO phone = save(new PhoneDTO(null, "Drifting Before", null, null, null));
+        // Written behind the back of the completions
+        jdbcTemplate.update("update phone set name = ?, version = version + 1 where id = ?", "Drifting After", phone.getId());
+        long drifts = metricRegistry.meter("phone.suggestions.drifts").getCount();
+
+        phoneSuggestionIndex.check();
+
+        assertThat(metricRegistry.meter("phone.suggestions.drifts").getCount()).isEqualTo(drifts + 1);
+        assertThat(texts("drifting")).containsExactly("Drifting After");
+    }
+
+    @Test
+    public void snapshotIsLoadedAtStartup() throws Exception {
+        Path directory = Files.createTempDirectory("suggestions");
+        ApplicationProperties.Suggestions properties = applicationProperties.getSuggestions();
+        properties.setSnapshotFile(directory.resolve("suggestions.bin").toString());
+        try {
+            PhoneDTO kept = save(new PhoneDTO(null, "Snapshot Kept", null, null, null));
+            PhoneDTO changed = save(new PhoneDTO(null, "Snapshot Changed", null, null, null));
+            phoneSuggestionIndex.check();
+            assertThat(directory.resolve("suggestions.bin")).exists();
+
+            // Written while the node is stopped: only the new version is read from the database, the unchanged
+            // version keeps the name of the snapshot
+            jdbcTemplate.update("update phone set name = ? where id = ?", "Snapshot Kept Silently", kept.getId());
+            jdbcTemplate.update("update phone set name = ?, version = version + 1 where id = ?", "Snapshot Renamed",
+                changed.getId());
+            properties.setEnabled(false);
+            phoneSuggestionIndex.check();
+            properties.setEnabled(true);
+            phoneSuggestionIndex.check();
+
+            assertThat(texts("snapshot")).containsOnly("Snapshot Kept", "Snapshot Renamed");
+        } finally {
+            properties.setSnapshotFile("");
+            phoneSuggestionIndex.rebuild();
+            Files.deleteIfExists(directory.resolve("suggestions.bin"));
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void trieCompletesByWeight() {
+        SuggestionTrie trie = new SuggestionTrie();
+        trie.add("name", "Galaxy S9", 3);
+        trie.add("name", "Galaxy S9 Plus", 5);
+        trie.add("name", "galaxy  s9", 1);
+        trie.add("name", "Galaxy Note 9", 2);
+        trie.add("brand", "Samsung", 6);
+
+        assertThat(trie.complete("gal", 10)).extracting("text").containsExactly("Galaxy S9 Plus", "Galaxy S9", "Galaxy Note 9");
+        assertThat(trie.complete("galaxy s9", 10)).extracting("count").containsExactly(1L, 2L);
+        // Found by the words after the first, once each
+        assertThat(trie.complete("s", 10)).extracting("text").containsExactly("Samsung", "Galaxy S9 Plus", "Galaxy S9");
+        assertThat(trie.complete("note", 10)).extracting("text").containsExactly("Galaxy Note 9");
+        assertThat(trie.complete("galaxy", 2)).extracting("text").containsExactly("Galaxy S9 Plus", "Galaxy S9");
+        assertThat(trie.complete("galaxy x", 10)).isEmpty();
+
+        long memory = trie.getMemoryUsage();
+        trie.remove("name", "Galaxy S9 Plus", 5);
+        trie.remove("name", "Galaxy S9", 3);
+        assertThat(trie.complete("galaxy s", 10)).extracting("weight").containsExactly(1L);
+        trie.remove("name", "Galaxy S9", 1);
+        assertThat(trie.complete("gal", 10)).extracting("text").containsExactly("Galaxy Note 9");
+        assertThat(trie.size()).isEqualTo(2);
+        assertThat(trie.getMemoryUsage()).isLessThan(memory);
+    }
+
+    private PhoneDTO save(PhoneDTO phone) {
+        PhoneDTO saved = phoneService.save(phone);
+        ids.add(saved.getId());
+        return saved;
+    }
+
+    private List<String> texts(String prefix) {
+        List<String> texts = new ArrayList<>();
+        for (PhoneSuggestionDTO suggestion : phoneSuggestionIndex.complete(prefix, null)) {
+            texts.add(suggestion.getText());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,174 @@
+package com.geardao.phoneservice.service;
+
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.ImportJobDTO;
+import com.geardao.phoneservice.service.dto.PhoneDTO;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the write-behind mode of PhoneService.
+ *
+ * @see PhoneWriteBehind
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneWriteBehindIntTest {
+
+    @Autowired
+    private PhoneWriteBehind phoneWriteBehind;
+
+    @Autowired
+    private PhoneService phoneService;
+
+    @Autowired
+    private PhoneImporter phoneImporter;
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private PhoneSearchRepository phoneSearchRepository;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private Phone phone;
+
+    @Before
+    public void setup() {
+        phone = phoneRepository.save(new Phone().name("Behind").brand("Behind").price(new BigDecimal("10.25")));
+        applicationProperties.getWriteBehind().setEnabled(true);
+    }
+
+    @After
+    public void cleanUp() {
+        phoneWriteBehind.drain();
+        applicationProperties.getWriteBehind().setEnabled(false);
+        hazelcastInstance.getMap(PhoneWriteBehind.MAP_NAME).evictAll();
+        if (phoneRepository.exists(phone.getId())) {
+            phoneRepository.delete(phone.getId());
+        }
+    }
+
+    @Test
+    public void updatesAreStoredInBatches() {
+        PhoneDTO first = phoneService.save(new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("9.25"), phone.getVersion()));
+        PhoneDTO second = phoneService.save(new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("8.25"), first.getVersion()));
+
+        assertThat(second.getVersion()).isEqualTo(phone.getVersion() + 2);
+        assertThat(phoneService.findOne(phone.getId()).getPrice()).isEqualByComparingTo("8.25");
+        assertThat(phoneService.findVersion(phone.getId())).isEqualTo(second.getVersion());
+
+        phoneWriteBehind.drain();
+
+        assertThat(phoneWriteBehind.getPendingCount()).isZero();
+        Phone stored = phoneRepository.findOne(phone.getId());
+        assertThat(stored.getPrice()).isEqualByComparingTo("8.25");
+        assertThat(stored.getVersion()).isEqualTo(second.getVersion());
+        assertThat(phoneSearchRepository.findOne(phone.getId()).getPrice()).isEqualByComparingTo("8.25");
+    }
+
+    @Test(expected = ObjectOptimisticLockingFailureException.class)
+    public void staleVersionIsRejected() {
+        phoneService.save(new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("9.25"), phone.getVersion()));
+
+        phoneService.save(new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("7.25"), phone.getVersion()));
+    }
+
+    @Test
+    public void bulkUpdatesAreWrittenToTheMap() {
+        List<BulkItemResultDTO> results = phoneService.saveAll(Arrays.asList(
+            new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("6.25"), phone.getVersion()),
+            new PhoneDTO(Long.MAX_VALUE - 2, "Missing", "Missing", new BigDecimal("6.25"), null)));
+
+        assertThat(results).extracting("status").containsExactly(BulkItemResultDTO.Status.UPDATED, BulkItemResultDTO.Status.FAILED);
+        assertThat(phoneService.findAll(Arrays.asList(phone.getId()))).extracting("phone.price")
+            .usingElementComparator((a, b) -> ((BigDecimal) a).compareTo((BigDecimal) b))
+            .containsExactly(new BigDecimal("6.25"));
+    }
+
+    @Test
+    public void deletionDiscardsThePendingUpdates() {
+        phoneService.save(new PhoneDTO(phone.getId(), "Behind", "Behind", new BigDecimal("5.25"), phone.getVersion()));
+
+        phoneService.delete(phone.getId());
+        phoneWriteBehind.drain();
+
+        assertThat(phoneRepository.exists(phone.getId())).isFalse();
+        assertThat(phoneService.findOne(phone.getId())).isNull();
+    }
+
+    @Test
+    public void importKeepsThePendingUpdates() throws Exception {
+        PhoneDTO pending = phoneService.save(new PhoneDTO(phone.getId(), "Pending", "Behind", new BigDecimal("4.25"), phone.getVersion()));
+
+        // Checked against the version of the pending update, which the client has seen
+        ImportJobDTO status = importPhone("{\"id\":" + phone.getId() + ",\"name\":\"Imported\",\"brand\":\"Behind\","
+            + "\"price\":3.25,\"version\":" + pending.getVersion() + "}\n");
+
+        assertThat(status.getUpdated()).isEqualTo(1);
+        assertThat(status.getRejected()).isZero();
+        PhoneDTO imported = phoneService.findOne(phone.getId());
+        assertThat(imported.getName()).isEqualTo("Imported");
+        assertThat(imported.getVersion()).isEqualTo(pending.getVersion() + 1);
+
+        // Not hidden by an older update of the map, and updated on top of the import
+        PhoneDTO updated = phoneService.save(new PhoneDTO(phone.getId(), "Updated", "Behind", new BigDecimal("2.25"), imported.getVersion()));
+        phoneWriteBehind.drain();
+
+        Phone stored = phoneRepository.findOne(phone.getId());
+        assertThat(stored.getName()).isEqualTo("Updated");
+        assertThat(stored.getVersion()).isEqualTo(updated.getVersion());
+    }
+
+    @Test
+    public void importWithoutVersionIsWrittenAfterThePendingUpdates() throws Exception {
+        PhoneDTO pending = phoneService.save(new PhoneDTO(phone.getId(), "Pending", "Behind", new BigDecimal("4.25"), phone.getVersion()));
+
+        importPhone("{\"id\":" + phone.getId() + ",\"name\":\"Imported\",\"brand\":\"Behind\",\"price\":3.25}\n");
+        phoneWriteBehind.drain();
+
+        // The pending update is stored before the import, which overwrites it with the next version
+        Phone stored = phoneRepository.findOne(phone.getId());
+        assertThat(stored.getName()).isEqualTo("Imported");
+        assertThat(stored.getVersion()).isEqualTo(pending.getVersion() + 1);
+        assertThat(phoneService.findOne(phone.getId()).getVersion()).isEqualTo(stored.getVersion());
+    }
+
+    private ImportJobDTO importPhone(String ndjson) throws Exception {
+        String id = phoneImporter.start(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), ImportJobDTO.Format.NDJSON)
+            .orElseThrow(IllegalStateException::new).getId();
+        ImportJobDTO status = phoneImporter.getStatus(id);
+        for (int i = 0; i < 300 && status.getState() == ImportJobDTO.State.RUNNING; i++) {
+            Thread.sleep(100);
+            status = phoneImporter.getStatus(id);
+        }
+        assertThat(status.getState()).isEqualTo(ImportJobDTO.State.SUCCEEDED);
+        return status;
+    }
+}
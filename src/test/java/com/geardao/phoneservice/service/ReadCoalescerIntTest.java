@@ -0,0 +1,147 @@
+package com.geardao.phoneservice.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.ApplicationProperties;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Test class for the ReadCoalescer.
+ *
+ * @see ReadCoalescer
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class ReadCoalescerIntTest {
+
+    private static final int READERS = 8;
+
+    @Autowired
+    private ReadCoalescer readCoalescer;
+
+    @Autowired
+    private PhoneCatalogVersion phoneCatalogVersion;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(READERS);
+
+    @After
+    public void cleanUp() {
+        executor.shutdownNow();
+        applicationProperties.getCoalescing().setCluster(false);
+    }
+
+    @Test
+    public void identicalReadsShareOneRead() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        long coalesced = metricRegistry.meter("phone.coalescing.coalesced").getCount();
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            results.add(executor.submit(() -> readCoalescer.read("test:shared", () -> true, () -> {
+                calls.incrementAndGet();
+                await(release);
+                return "result";
+            })));
+        }
+        // Released once all the other reads wait for the first one
+        waitFor(() -> metricRegistry.meter("phone.coalescing.coalesced").getCount() == coalesced + READERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("result");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void failureIsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        long coalesced = metricRegistry.meter("phone.coalescing.coalesced").getCount();
+
+        Future<String> first = executor.submit(() -> readCoalescer.<String>read("test:failure", () -> true, () -> {
+            await(release);
+            throw new IllegalArgumentException("failed");
+        }));
+        waitFor(() -> (Integer) metricRegistry.getGauges().get("phone.coalescing.in-flight").getValue() > 0);
+        Future<String> second = executor.submit(() -> readCoalescer.read("test:failure", () -> true, () -> "not shared"));
+        waitFor(() -> metricRegistry.meter("phone.coalescing.coalesced").getCount() == coalesced + 1);
+        release.countDown();
+
+        for (Future<String> result : Arrays.asList(first, second)) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("The read should have failed");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class).hasMessage("failed");
+            }
+        }
+    }
+
+    @Test
+    public void clusterModeLocksTheKeyWhileRepopulating() throws Exception {
+        applicationProperties.getCoalescing().setCluster(true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String lockKey = phoneCatalogVersion.get() + ":test:cluster";
+
+        Future<String> result = executor.submit(() -> readCoalescer.read("test:cluster", () -> true, () -> {
+            started.countDown();
+            await(release);
+            return "result";
+        }));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(hazelcastInstance.getMap(ReadCoalescer.LOCKS_MAP_NAME).isLocked(lockKey)).isTrue();
+        release.countDown();
+        assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(hazelcastInstance.getMap(ReadCoalescer.LOCKS_MAP_NAME).isLocked(lockKey)).isFalse();
+
+        // Reads which find the shared cache entry are not serialized
+        readCoalescer.read("test:cluster", () -> false, () -> {
+            assertThat(hazelcastInstance.getMap(ReadCoalescer.LOCKS_MAP_NAME).isLocked(lockKey)).isFalse();
+            return "cached";
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.call()) {
+            assertThat(System.currentTimeMillis()).as("timed out").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
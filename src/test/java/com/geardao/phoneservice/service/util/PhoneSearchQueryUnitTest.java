@@ -0,0 +1,50 @@
+package com.geardao.phoneservice.service.util;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the PhoneSearchQuery, checking the clauses parsed and the queries rejected.
+ *
+ * @see PhoneSearchQuery
+ */
+public class PhoneSearchQueryUnitTest {
+
+    @Test
+    public void clausesAreParsed() {
+        assertThat(PhoneSearchQuery.parse("  Galaxy   Note*  \"s9  plus\" -Brand:\"T Mobile\" BRAND:samsung").toString())
+            .isEqualTo("name:Galaxy name:note* name:\"s9 plus\" -brand:\"T Mobile\" brand:samsung");
+        assertThat(PhoneSearchQuery.parse("price:10..100 price:10.5.. price:..100 price:>10 price:<=99.99 price:42 id:7").toString())
+            .isEqualTo("price:[10..100] price:[10.5..) price:(..100] price:(10..) price:(..99.99] price:[42..42] id:7");
+        assertThat(PhoneSearchQuery.parse(null).toString()).isEmpty();
+        // The other meanings of a colon are words
+        assertThat(PhoneSearchQuery.parse("12:30").toString()).isEqualTo("name:12:30");
+    }
+
+    @Test
+    public void onlyNamesAreScored() {
+        String query = PhoneSearchQuery.parse("galaxy s9 brand:samsung price:..500 -id:3").toQueryBuilder().toString();
+
+        assertThat(query).contains("\"must\"", "\"filter\"", "\"must_not\"", "\"galaxy s9\"").doesNotContain("query_string");
+        assertThat(PhoneSearchQuery.parse("-brand:apple").toQueryBuilder()).isInstanceOf(BoolQueryBuilder.class);
+        assertThat(PhoneSearchQuery.parse("-brand:apple").toQueryBuilder().toString()).contains("match_all");
+    }
+
+    @Test
+    public void expensiveQueriesAreRejected() {
+        String tooLong = new String(new char[PhoneSearchQuery.MAX_LENGTH + 1]).replace('\0', 'a');
+        StringBuilder tooManyClauses = new StringBuilder();
+        for (int i = 0; i <= PhoneSearchQuery.MAX_CLAUSES; i++) {
+            tooManyClauses.append("word").append(i).append(' ');
+        }
+        for (String query : new String[] {"*laxy", "gal*xy", "ga?axy", "ga*", "name:/gal.*/", "galaxy OR pixel",
+            "brand:\"sam*\"", "\"galaxy", "price:abc", "price:300..100", "price:..", "color:red", "id:x", "-",
+            tooLong, tooManyClauses.toString()}) {
+            assertThatThrownBy(() -> PhoneSearchQuery.parse(query)).as(query)
+                .isInstanceOf(PhoneSearchQuery.InvalidQueryException.class);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.geardao.phoneservice.web.rest;
+
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
+import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.geardao.phoneservice.service.PhoneImporter;
+import com.geardao.phoneservice.service.dto.BulkItemResultDTO;
+import com.geardao.phoneservice.service.dto.ImportJobDTO;
+import com.geardao.phoneservice.web.rest.errors.ExceptionTranslator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the PhoneImportResource REST controller.
+ *
+ * @see PhoneImportResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneImportResourceIntTest {
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private PhoneSearchRepository phoneSearchRepository;
+
+    @Autowired
+    private PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    @Autowired
+    private PhoneImporter phoneImporter;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restImportMockMvc;
+
+    private Phone existingPhone;
+
+    @Before
+    public void setup() {
+        PhoneImportResource phoneImportResource = new PhoneImportResource(phoneImporter);
+        this.restImportMockMvc = MockMvcBuilders.standaloneSetup(phoneImportResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter).build();
+    }
+
+    @Before
+    public void initTest() {
+        // The import writes the phones from other threads, so they have to be committed
+        existingPhone = phoneRepository.saveAndFlush(new Phone().name("Before import").brand("Brand").price(BigDecimal.ONE));
+    }
+
+    @After
+    public void cleanUp() {
+        List<Phone> phones = phoneRepository.findAll().stream()
+            .filter(phone -> phone.getName() != null && phone.getName().startsWith("Imported") || phone.getId().equals(existingPhone.getId()))
+            .collect(Collectors.toList());
+        Set<Long> ids = phones.stream().map(Phone::getId).collect(Collectors.toSet());
+        phoneSearchOutboxRepository.delete(phoneSearchOutboxRepository.findAll().stream()
+            .filter(entry -> ids.contains(entry.getPhoneId()))
+            .collect(Collectors.toList()));
+        phoneRepository.delete(phones);
+    }
+
+    @Test
+    public void importCsv() throws Exception {
+        // Prices have decimals, so that Elasticsearch does not map them as integers if they create the index
+        String csv = "id,name,brand,price\r\n" +
+            ",Imported A,Brand,1.50\r\n" +
+            existingPhone.getId() + ",\"Imported, \"\"B\"\"\",Brand,2.25\r\n" +
+            ",Imported C,Brand,not a number\r\n" +
+            "999999999,Imported D,Brand,3.25\r\n" +
+            ",Imported E,,4.25\r\n";
+
+        ImportJobDTO status = importPhones("text/csv", csv);
+
+        assertThat(status.getState()).isEqualTo(ImportJobDTO.State.SUCCEEDED);
+        assertThat(status.getFormat()).isEqualTo(ImportJobDTO.Format.CSV);
+        assertThat(status.getRead()).isEqualTo(5);
+        assertThat(status.getCreated()).isEqualTo(2);
+        assertThat(status.getUpdated()).isEqualTo(1);
+        assertThat(status.getRejected()).isEqualTo(2);
+        assertThat(status.getIndexed()).isEqualTo(3);
+        assertThat(status.getIndexPending()).isZero();
+        assertThat(status.getRejectedRows()).extracting(BulkItemResultDTO::getIndex, BulkItemResultDTO::getId)
+            .containsExactly(tuple(2, null), tuple(3, 999999999L));
+
+        // Validate the phones in the database and in the search index
+        Phone updatedPhone = phoneRepository.findOne(existingPhone.getId());
+        assertThat(updatedPhone.getName()).isEqualTo("Imported, \"B\"");
+        assertThat(updatedPhone.getVersion()).isEqualTo(existingPhone.getVersion() + 1);
+        List<Phone> createdPhones = phoneRepository.findAll().stream()
+            .filter(phone -> "Imported A".equals(phone.getName()) || "Imported E".equals(phone.getName()))
+            .collect(Collectors.toList());
+        assertThat(createdPhones).hasSize(2);
+        for (Phone phone : createdPhones) {
+            assertThat(phoneSearchRepository.findOne(phone.getId()).getName()).isEqualTo(phone.getName());
+        }
+        assertThat(phoneSearchRepository.findOne(existingPhone.getId()).getName()).isEqualTo("Imported, \"B\"");
+        assertThat(phoneSearchOutboxRepository.findAll()).extracting("phoneId").doesNotContain(existingPhone.getId());
+    }
+
+    @Test
+    public void importNdjson() throws Exception {
+        String ndjson = "{\"name\":\"Imported F\",\"brand\":\"Brand\",\"price\":5.25}\n" +
+            "\n" +
+            "{\"name\":\n" +
+            "{\"id\":" + existingPhone.getId() + ",\"name\":\"Imported G\",\"version\":" + (existingPhone.getVersion() + 1) + "}\n";
+
+        ImportJobDTO status = importPhones("application/x-ndjson", ndjson);
+
+        assertThat(status.getState()).isEqualTo(ImportJobDTO.State.SUCCEEDED);
+        assertThat(status.getRead()).isEqualTo(3);
+        assertThat(status.getCreated()).isEqualTo(1);
+        assertThat(status.getUpdated()).isZero();
+        assertThat(status.getRejectedRows()).extracting(BulkItemResultDTO::getIndex).containsExactly(1, 2);
+        assertThat(phoneRepository.findOne(existingPhone.getId()).getName()).isEqualTo("Before import");
+    }
+
+    @Test
+    public void importIsRejectedWhenTooManyImportsAreRunning() throws Exception {
+        PhoneImporter busyImporter = mock(PhoneImporter.class);
+        when(busyImporter.start(any(), any())).thenReturn(Optional.empty());
+        MockMvc busyImportMockMvc = MockMvcBuilders.standaloneSetup(new PhoneImportResource(busyImporter))
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter).build();
+
+        busyImportMockMvc.perform(post("/api/phones/_import")
+            .contentType("text/csv")
+            .content("name,brand,price\nRejected,Brand,1.00\n"))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(header().string("Retry-After", "60"));
+    }
+
+    @Test
+    public void getUnknownImport() throws Exception {
+        restImportMockMvc.perform(get("/api/phones/_import/{id}", "unknown"))
+            .andExpect(status().isNotFound());
+    }
+
+    private ImportJobDTO importPhones(String contentType, String content) throws Exception {
+        MvcResult result = restImportMockMvc.perform(post("/api/phones/_import")
+            .contentType(contentType)
+            .content(content))
+            .andExpect(status().isAccepted())
+            .andExpect(header().string("Location", startsWith("/api/phones/_import/")))
+            .andReturn();
+        String location = result.getResponse().getHeader("Location");
+        String id = location.substring(location.lastIndexOf('/') + 1);
+
+        ImportJobDTO status = phoneImporter.getStatus(id);
+        for (int i = 0; i < 300 && status.getState() == ImportJobDTO.State.RUNNING; i++) {
+            Thread.sleep(100);
+            status = phoneImporter.getStatus(id);
+        }
+        restImportMockMvc.perform(get(location))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(id))
+            .andExpect(jsonPath("$.state").value(status.getState().toString()));
+        return status;
+    }
+}
@@ -1,11 +1,19 @@
 package com.geardao.phoneservice.web.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.geardao.phoneservice.PhoneserviceApp;
 
+import com.geardao.phoneservice.config.ApplicationProperties;
 import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
 
 import com.geardao.phoneservice.domain.Phone;
 import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.PhoneSearchOutboxRepository;
+import com.geardao.phoneservice.service.PhoneBrandStatistics;
+import com.geardao.phoneservice.service.PhoneSuggestionIndex;
+import com.geardao.phoneservice.service.PhoneCatalogVersion;
+import com.geardao.phoneservice.service.PhoneFacetService;
+import com.geardao.phoneservice.service.PhoneSearchIndexer;
 import com.geardao.phoneservice.service.PhoneService;
 import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
 import com.geardao.phoneservice.service.dto.PhoneDTO;
@@ -14,6 +22,10 @@ import com.geardao.phoneservice.web.rest.errors.ExceptionTranslator;
 import com.geardao.phoneservice.service.dto.PhoneCriteria;
 import com.geardao.phoneservice.service.PhoneQueryService;
 
+import com.hazelcast.core.HazelcastInstance;
+import com.jayway.jsonpath.JsonPath;
+import io.github.jhipster.service.filter.StringFilter;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,15 +37,28 @@ import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.geardao.phoneservice.web.rest.TestUtil.createFormattingConversionService;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.hasItem;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -71,9 +96,36 @@ public class PhoneResourceIntTest {
     @Autowired
     private PhoneQueryService phoneQueryService;
 
+    @Autowired
+    private PhoneFacetService phoneFacetService;
+
+    @Autowired
+    private PhoneBrandStatistics phoneBrandStatistics;
+
+    @Autowired
+    private PhoneSuggestionIndex phoneSuggestionIndex;
+
+    @Autowired
+    private PhoneSearchOutboxRepository phoneSearchOutboxRepository;
+
+    @Autowired
+    private PhoneSearchIndexer phoneSearchIndexer;
+
+    @Autowired
+    private PhoneCatalogVersion phoneCatalogVersion;
+
+    @Autowired
+    private HazelcastInstance hazelcastInstance;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
     @Autowired
     private PageableHandlerMethodArgumentResolver pageableArgumentResolver;
 
@@ -90,7 +142,8 @@ public class PhoneResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final PhoneResource phoneResource = new PhoneResource(phoneService, phoneQueryService);
+        final PhoneResource phoneResource = new PhoneResource(phoneService, phoneQueryService, phoneFacetService,
+            phoneBrandStatistics, phoneSuggestionIndex, objectMapper, applicationProperties);
         this.restPhoneMockMvc = MockMvcBuilders.standaloneSetup(phoneResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -138,7 +191,10 @@ public class PhoneResourceIntTest {
         assertThat(testPhone.getBrand()).isEqualTo(DEFAULT_BRAND);
         assertThat(testPhone.getPrice()).isEqualTo(DEFAULT_PRICE);
 
-        // Validate the Phone in Elasticsearch
+        // Validate the Phone in Elasticsearch, once the outbox is drained
+        assertThat(phoneSearchOutboxRepository.findAll()).extracting("phoneId").contains(testPhone.getId());
+        phoneSearchIndexer.drain();
+        assertThat(phoneSearchOutboxRepository.findAll()).extracting("phoneId").doesNotContain(testPhone.getId());
         Phone phoneEs = phoneSearchRepository.findOne(testPhone.getId());
         assertThat(phoneEs).isEqualToIgnoringGivenFields(testPhone);
     }
@@ -163,6 +219,54 @@ public class PhoneResourceIntTest {
         assertThat(phoneList).hasSize(databaseSizeBeforeCreate);
     }
 
+    @Test
+    public void bulkSavePhones() throws Exception {
+        // The bulk endpoint commits its own chunks, so this test cannot run in a rolled back transaction
+        phoneRepository.saveAndFlush(phone);
+        int databaseSizeBeforeBulk = phoneRepository.findAll().size();
+
+        String body = "[" +
+            "{\"name\":\"" + UPDATED_NAME + "\",\"brand\":\"" + UPDATED_BRAND + "\",\"price\":" + UPDATED_PRICE + "}," +
+            "{\"id\":" + phone.getId() + ",\"name\":\"" + UPDATED_NAME + "\",\"brand\":\"" + UPDATED_BRAND + "\",\"price\":" + UPDATED_PRICE + "}," +
+            "{\"name\":\"" + DEFAULT_NAME + "\",\"price\":123456789}," +
+            "{\"id\":" + Long.MAX_VALUE + ",\"name\":\"" + DEFAULT_NAME + "\"}," +
+            "{\"price\":\"not a number\"}" +
+            "]";
+
+        String response = restPhoneMockMvc.perform(post("/api/phones/_bulk")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(body))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].index").value(contains(0, 1, 2, 3, 4)))
+            .andExpect(jsonPath("$.[*].status").value(contains("CREATED", "UPDATED", "FAILED", "FAILED", "FAILED")))
+            .andExpect(jsonPath("$.[1].id").value(phone.getId().intValue()))
+            .andReturn().getResponse().getContentAsString();
+        Long createdId = objectMapper.readTree(response).get(0).get("id").asLong();
+
+        // Validate the Phones in the database
+        assertThat(phoneRepository.findAll()).hasSize(databaseSizeBeforeBulk + 1);
+        Phone updatedPhone = phoneRepository.findOne(phone.getId());
+        assertThat(updatedPhone.getName()).isEqualTo(UPDATED_NAME);
+        assertThat(updatedPhone.getBrand()).isEqualTo(UPDATED_BRAND);
+        assertThat(updatedPhone.getPrice()).isEqualByComparingTo(UPDATED_PRICE);
+
+        // Validate the Phones in Elasticsearch, once the outbox is drained
+        phoneSearchIndexer.drain();
+        assertThat(phoneSearchRepository.findOne(createdId).getName()).isEqualTo(UPDATED_NAME);
+        assertThat(phoneSearchRepository.findOne(phone.getId()).getName()).isEqualTo(UPDATED_NAME);
+
+        phoneRepository.delete(createdId);
+        phoneRepository.delete(phone.getId());
+    }
+
+    @Test
+    public void bulkSavePhonesWithoutArray() throws Exception {
+        restPhoneMockMvc.perform(post("/api/phones/_bulk")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(phoneMapper.toDto(phone))))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     @Transactional
     public void getAllPhones() throws Exception {
@@ -195,6 +299,72 @@ public class PhoneResourceIntTest {
             .andExpect(jsonPath("$.price").value(DEFAULT_PRICE.intValue()));
     }
 
+    @Test
+    @Transactional
+    public void getAllPhonesWithETag() throws Exception {
+        // Initialize the database
+        phoneRepository.saveAndFlush(phone);
+
+        String eTag = restPhoneMockMvc.perform(get("/api/phones?sort=id,desc"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", containsString(phoneCatalogVersion.get() + "-")))
+            .andReturn().getResponse().getHeader("ETag");
+
+        restPhoneMockMvc.perform(get("/api/phones?sort=id,desc").header("If-None-Match", eTag))
+            .andExpect(status().isNotModified())
+            .andExpect(header().doesNotExist("X-Total-Count"));
+
+        // The ETag depends on the query
+        restPhoneMockMvc.perform(get("/api/phones?sort=id,asc").header("If-None-Match", eTag))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", not(eTag)));
+    }
+
+    @Test
+    @Transactional
+    public void getPhonesByIds() throws Exception {
+        // Initialize the database
+        phoneRepository.saveAndFlush(phone);
+        Phone otherPhone = phoneRepository.saveAndFlush(new Phone().name(UPDATED_NAME).brand(UPDATED_BRAND).price(UPDATED_PRICE));
+        // Read the phones from the database rather than from the persistence context
+        em.clear();
+
+        // Get the phones, in request order, with the unknown id marked as not found
+        restPhoneMockMvc.perform(get("/api/phones/_mget?ids={ids}",
+            otherPhone.getId() + "," + Long.MAX_VALUE + "," + phone.getId()))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$", hasSize(3)))
+            .andExpect(jsonPath("$[0].id").value(otherPhone.getId().intValue()))
+            .andExpect(jsonPath("$[0].found").value(true))
+            .andExpect(jsonPath("$[0].phone.name").value(UPDATED_NAME))
+            .andExpect(jsonPath("$[1].id").value(Long.MAX_VALUE))
+            .andExpect(jsonPath("$[1].found").value(false))
+            .andExpect(jsonPath("$[1].phone").doesNotExist())
+            .andExpect(jsonPath("$[2].id").value(phone.getId().intValue()))
+            .andExpect(jsonPath("$[2].phone.name").value(DEFAULT_NAME));
+
+        // The POST form accepts the ids in its body, and duplicate ids
+        restPhoneMockMvc.perform(post("/api/phones/_mget")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content("[" + phone.getId() + "," + phone.getId() + "]"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$", hasSize(2)))
+            .andExpect(jsonPath("$[*].phone.brand").value(contains(DEFAULT_BRAND, DEFAULT_BRAND)));
+    }
+
+    @Test
+    @Transactional
+    public void getPhonesByTooManyIds() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones/_mget?ids=1,2,3,4"))
+            .andExpect(status().isBadRequest());
+
+        restPhoneMockMvc.perform(post("/api/phones/_mget")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content("[1,null]"))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     @Transactional
     public void getAllPhonesByNameIsEqualToSomething() throws Exception {
@@ -336,6 +506,240 @@ public class PhoneResourceIntTest {
     }
 
 
+    @Test
+    @Transactional
+    public void getAllPhonesWithCursor() throws Exception {
+        // Initialize the database, with equal and missing sort values
+        Phone a = phoneRepository.saveAndFlush(new Phone().name("A").brand("CURSOR"));
+        Phone b1 = phoneRepository.saveAndFlush(new Phone().name("B").brand("CURSOR"));
+        Phone b2 = phoneRepository.saveAndFlush(new Phone().name("B").brand("CURSOR"));
+        Phone noName = phoneRepository.saveAndFlush(new Phone().brand("CURSOR"));
+        Phone c = phoneRepository.saveAndFlush(new Phone().name("C").brand("CURSOR"));
+
+        // Walk forward through the pages, the links keeping the filter and the sort
+        MvcResult first = restPhoneMockMvc.perform(get("/api/phones?brand.equals=CURSOR&sort=name,asc&size=2&cursor="))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andExpect(jsonPath("$.[*].id").value(contains(a.getId().intValue(), b1.getId().intValue())))
+            .andReturn();
+        assertThat(link(first, "prev")).isNull();
+        assertThat(link(first, "next")).contains("brand.equals=CURSOR").contains("sort=name,asc");
+        MvcResult second = restPhoneMockMvc.perform(get(URI.create(link(first, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(b2.getId().intValue(), c.getId().intValue())))
+            .andReturn();
+        MvcResult third = restPhoneMockMvc.perform(get(URI.create(link(second, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(noName.getId().intValue())))
+            .andReturn();
+        assertThat(link(third, "next")).isNull();
+
+        // Walk backward from the last page
+        restPhoneMockMvc.perform(get(URI.create(link(third, "prev"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(b2.getId().intValue(), c.getId().intValue())));
+        MvcResult last = restPhoneMockMvc.perform(get(URI.create(link(first, "last"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(c.getId().intValue(), noName.getId().intValue())))
+            .andReturn();
+        restPhoneMockMvc.perform(get(URI.create(link(last, "prev"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(b1.getId().intValue(), b2.getId().intValue())));
+
+        // Descending sort puts the phones without a name first
+        MvcResult descending = restPhoneMockMvc.perform(get("/api/phones?brand.equals=CURSOR&sort=name,desc&size=2&cursor="))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(noName.getId().intValue(), c.getId().intValue())))
+            .andReturn();
+        restPhoneMockMvc.perform(get(URI.create(link(descending, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(b2.getId().intValue(), b1.getId().intValue())));
+    }
+
+    @Test
+    @Transactional
+    public void getAllPhonesWithInvalidCursor() throws Exception {
+        restPhoneMockMvc.perform(get("/api/phones?cursor=notacursor"))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones?sort=unknown,asc&cursor="))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones?sort=name,asc&sort=id,asc&cursor="))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void getAllPhonesWithCountModes() throws Exception {
+        // Initialize the database
+        for (int i = 0; i < 2; i++) {
+            phoneRepository.saveAndFlush(new Phone().name("Counted " + i).brand("COUNTED"));
+        }
+
+        // No count, but a next link
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&size=1&count=none"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$").value(hasSize(1)))
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andExpect(header().string("Link", containsString("rel=\"next\"")))
+            .andExpect(header().string("Link", not(containsString("rel=\"last\""))));
+
+        // An estimate below the threshold is exact
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&size=1&count=estimate"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "2"))
+            .andExpect(header().string("Link", containsString("page=1&size=1>; rel=\"last\"")));
+
+        // Above the threshold, it is a lower bound
+        for (int i = 2; i < 4; i++) {
+            phoneRepository.saveAndFlush(new Phone().name("Counted " + i).brand("COUNTED"));
+        }
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&size=1&count=estimate"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andExpect(header().string("X-Total-Count-Estimate", "3"))
+            .andExpect(header().string("X-Total-Count-Relation", "gte"));
+
+        // The last page tells the count, without counting
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&size=10&count=estimate"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "4"));
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&size=3&page=1&count=estimate"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "4"));
+
+        restPhoneMockMvc.perform(get("/api/phones?brand.equals=COUNTED&count=exact"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "4"));
+
+        restPhoneMockMvc.perform(get("/api/phones?count=sometimes"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAllPhonesWithCachedCount() throws Exception {
+        // The phones are committed, so that the count is cached
+        Phone first = phoneRepository.saveAndFlush(new Phone().brand("CACHEDCOUNT"));
+        Phone second = null;
+        try {
+            restPhoneMockMvc.perform(get("/api/phones?brand.equals=CACHEDCOUNT"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "1"));
+            PhoneCriteria criteria = new PhoneCriteria();
+            StringFilter brand = new StringFilter();
+            brand.setEquals("CACHEDCOUNT");
+            criteria.setBrand(brand);
+            assertThat(hazelcastInstance.getMap(PhoneQueryService.COUNTS_MAP_NAME)
+                .get(phoneCatalogVersion.get() + ":" + criteria.toCacheKey())).isEqualTo(1L);
+
+            // A write invalidates the cached count
+            second = phoneRepository.saveAndFlush(new Phone().brand("CACHEDCOUNT"));
+            restPhoneMockMvc.perform(get("/api/phones?brand.equals=CACHEDCOUNT"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "2"));
+        } finally {
+            phoneRepository.delete(first);
+            if (second != null) {
+                phoneRepository.delete(second);
+            }
+        }
+    }
+
+    @Test
+    public void exportPhones() throws Exception {
+        // The phones are committed, as they are exported by another thread
+        Phone first = phoneRepository.saveAndFlush(new Phone().name("Export, \"1\"").brand("EXPORT").price(new BigDecimal("1.50")));
+        Phone second = phoneRepository.saveAndFlush(new Phone().name("Export 2").brand("EXPORT"));
+        try {
+            MvcResult ndjson = restPhoneMockMvc.perform(get("/api/phones/_export?brand.equals=EXPORT")
+                .accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string("Content-Type", containsString("application/x-ndjson")))
+                .andReturn();
+            ndjson.getAsyncResult();
+            String[] lines = ndjson.getResponse().getContentAsString().split("\n");
+            assertThat(lines).hasSize(2);
+            assertThat(objectMapper.readValue(lines[0], PhoneDTO.class).getName()).isEqualTo(first.getName());
+            assertThat(objectMapper.readValue(lines[0], PhoneDTO.class).getPrice()).isEqualByComparingTo("1.50");
+            assertThat(objectMapper.readValue(lines[1], PhoneDTO.class).getId()).isEqualTo(second.getId());
+
+            MvcResult csv = restPhoneMockMvc.perform(get("/api/phones/_export?brand.equals=EXPORT")
+                .header("Accept", "application/json;q=0.9, text/csv"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string("Content-Type", containsString("text/csv")))
+                .andReturn();
+            csv.getAsyncResult();
+            assertThat(csv.getResponse().getContentAsString()).isEqualTo(
+                "id,name,brand,price,version\r\n" +
+                first.getId() + ",\"Export, \"\"1\"\"\",EXPORT,1.50," + first.getVersion() + "\r\n" +
+                second.getId() + ",Export 2,EXPORT,," + second.getVersion() + "\r\n");
+
+            restPhoneMockMvc.perform(get("/api/phones/_export").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotAcceptable());
+        } finally {
+            phoneRepository.delete(first);
+            phoneRepository.delete(second);
+        }
+    }
+
+    /**
+     * Returns the link of the given relation from the Link header of the response, or null.
+     */
+    private String link(MvcResult result, String rel) {
+        String header = result.getResponse().getHeader("Link");
+        Matcher matcher = Pattern.compile("<([^>]*)>; rel=\"" + rel + "\"").matcher(header);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    @Test
+    @Transactional
+    public void getPhoneStats() throws Exception {
+        // Initialize the database, through the service which maintains the statistics
+        phoneService.save(new PhoneDTO(null, "Stats A", "STATSBRAND", new BigDecimal("100.00"), null));
+        phoneService.save(new PhoneDTO(null, "Stats B", "STATSBRAND", new BigDecimal("250.00"), null));
+        phoneService.save(new PhoneDTO(null, "Stats C", "STATSBRAND", null, null));
+
+        restPhoneMockMvc.perform(get("/api/phones/_stats"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[?(@.brand == 'STATSBRAND')].count").value(contains(3)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATSBRAND')].pricedCount").value(contains(2)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATSBRAND')].minPrice").value(contains(100.0)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATSBRAND')].maxPrice").value(contains(250.0)))
+            .andExpect(jsonPath("$.[?(@.brand == 'STATSBRAND')].avgPrice").value(contains(175.0)));
+    }
+
+    @Test
+    public void getPhoneSuggestions() throws Exception {
+        // Initialize the database, through the service whose committed writes update the completions
+        PhoneDTO galaxy = phoneService.save(new PhoneDTO(null, "Typeahead Galaxy", "Typeahead Brand", null, null));
+        PhoneDTO pixel = phoneService.save(new PhoneDTO(null, "Typeahead Pixel", "Typeahead Brand", null, null));
+        try {
+            restPhoneMockMvc.perform(get("/api/phones/_suggest?prefix=TYPEAHEAD&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[*].text").value(contains("Typeahead Brand")))
+                .andExpect(jsonPath("$.[*].type").value(contains("brand")))
+                .andExpect(jsonPath("$.[*].count").value(contains(2)));
+
+            restPhoneMockMvc.perform(get("/api/phones/_suggest?prefix=typeahead"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$.[*].text").value(hasItem("Typeahead Galaxy")));
+
+            restPhoneMockMvc.perform(get("/api/phones/_suggest?prefix=pix"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[*].text").value(hasItem("Typeahead Pixel")));
+
+            restPhoneMockMvc.perform(get("/api/phones/_suggest?prefix=typeahead&limit=0"))
+                .andExpect(status().isBadRequest());
+        } finally {
+            phoneService.delete(galaxy.getId());
+            phoneService.delete(pixel.getId());
+        }
+
+        restPhoneMockMvc.perform(get("/api/phones/_suggest?prefix=typeahead"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$").isEmpty());
+    }
+
     @Test
     @Transactional
     public void getNonExistingPhone() throws Exception {
@@ -375,11 +779,75 @@ public class PhoneResourceIntTest {
         assertThat(testPhone.getBrand()).isEqualTo(UPDATED_BRAND);
         assertThat(testPhone.getPrice()).isEqualTo(UPDATED_PRICE);
 
-        // Validate the Phone in Elasticsearch
+        // Validate the Phone in Elasticsearch, once the outbox is drained
+        phoneSearchIndexer.drain();
         Phone phoneEs = phoneSearchRepository.findOne(testPhone.getId());
         assertThat(phoneEs).isEqualToIgnoringGivenFields(testPhone);
     }
 
+    @Test
+    @Transactional
+    public void getPhoneWithETag() throws Exception {
+        // Initialize the database
+        phoneRepository.saveAndFlush(phone);
+
+        String eTag = restPhoneMockMvc.perform(get("/api/phones/{id}", phone.getId()))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", "\"" + phone.getVersion() + "\""))
+            .andReturn().getResponse().getHeader("ETag");
+
+        // The phone did not change
+        restPhoneMockMvc.perform(get("/api/phones/{id}", phone.getId()).header("If-None-Match", "W/" + eTag))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string("ETag", eTag))
+            .andExpect(content().string(""));
+
+        // The phone changed
+        restPhoneMockMvc.perform(get("/api/phones/{id}", phone.getId()).header("If-None-Match", "\"-1\""))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.name").value(DEFAULT_NAME));
+        restPhoneMockMvc.perform(get("/api/phones/{id}", Long.MAX_VALUE).header("If-None-Match", "*"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Transactional
+    public void updatePhoneWithIfMatch() throws Exception {
+        // Initialize the database
+        phoneRepository.saveAndFlush(phone);
+        long version = phone.getVersion();
+        String eTag = "\"" + version + "\"";
+        PhoneDTO phoneDTO = phoneMapper.toDto(phone);
+        phoneDTO.setName(UPDATED_NAME);
+        phoneDTO.setVersion(null);
+
+        // The phone has the requested version
+        String newETag = restPhoneMockMvc.perform(put("/api/phones")
+            .header("If-Match", eTag)
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(phoneDTO)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.version").value((int) version + 1))
+            .andReturn().getResponse().getHeader("ETag");
+        assertThat(newETag).isNotEqualTo(eTag);
+
+        // The phone no longer has the requested version
+        phoneDTO.setName(DEFAULT_NAME);
+        restPhoneMockMvc.perform(put("/api/phones")
+            .header("If-Match", eTag)
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(phoneDTO)))
+            .andExpect(status().isPreconditionFailed());
+        assertThat(phoneRepository.findOne(phone.getId()).getName()).isEqualTo(UPDATED_NAME);
+
+        // A weak ETag never matches an If-Match header
+        restPhoneMockMvc.perform(put("/api/phones")
+            .header("If-Match", "W/" + newETag)
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(phoneDTO)))
+            .andExpect(status().isPreconditionFailed());
+    }
+
     @Test
     @Transactional
     public void updateNonExistingPhone() throws Exception {
@@ -412,7 +880,8 @@ public class PhoneResourceIntTest {
             .accept(TestUtil.APPLICATION_JSON_UTF8))
             .andExpect(status().isOk());
 
-        // Validate Elasticsearch is empty
+        // Validate Elasticsearch is empty, once the outbox is drained
+        phoneSearchIndexer.drain();
         boolean phoneExistsInEs = phoneSearchRepository.exists(phone.getId());
         assertThat(phoneExistsInEs).isFalse();
 
@@ -438,6 +907,160 @@ public class PhoneResourceIntTest {
             .andExpect(jsonPath("$.[*].price").value(hasItem(DEFAULT_PRICE.intValue())));
     }
 
+    @Test
+    @Transactional
+    public void searchPhonesWithQueryLanguage() throws Exception {
+        // Initialize the database and the index
+        for (Phone searched : Arrays.asList(
+            new Phone().name("Querylang Galaxy S9").brand("Querylang Samsung").price(new BigDecimal("199.99")),
+            new Phone().name("Querylang Galaxy Note").brand("Querylang Samsung").price(new BigDecimal("499.00")),
+            new Phone().name("Querylang Pixel").brand("Querylang Google").price(new BigDecimal("299.00")))) {
+            phoneSearchRepository.save(phoneRepository.saveAndFlush(searched));
+        }
+
+        // Words and prefixes of the names, with brand and price filters
+        restPhoneMockMvc.perform(get("/api/_search/phones").param("query", "querylang GAL* brand:samsung price:100..300"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].name").value(contains("Querylang Galaxy S9")));
+
+        // Phrases, and excluded clauses
+        restPhoneMockMvc.perform(get("/api/_search/phones").param("query", "\"querylang  galaxy\" -brand:google -price:>=400"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].name").value(contains("Querylang Galaxy S9")));
+
+        // Expensive patterns are rejected
+        for (String query : Arrays.asList("*laxy", "name:/gal.*/", "querylang OR pixel", "ga*", "price:300..100")) {
+            restPhoneMockMvc.perform(get("/api/_search/phones").param("query", query))
+                .andExpect(status().isBadRequest());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void searchPhonesWithCursor() throws Exception {
+        // Initialize the database and the index, with equal and missing sort values
+        Phone p1 = new Phone().brand("SEARCHCURSOR").price(new BigDecimal("1.50"));
+        Phone p2a = new Phone().brand("SEARCHCURSOR").price(new BigDecimal("2.00"));
+        Phone p2b = new Phone().brand("SEARCHCURSOR").price(new BigDecimal("2.00"));
+        Phone noPrice = new Phone().brand("SEARCHCURSOR");
+        Phone p3 = new Phone().brand("SEARCHCURSOR").price(new BigDecimal("3.00"));
+        for (Phone searched : new Phone[]{p1, p2a, p2b, noPrice, p3}) {
+            phoneSearchRepository.save(phoneRepository.saveAndFlush(searched));
+        }
+
+        MvcResult first = restPhoneMockMvc.perform(get("/api/_search/phones?query=brand:SEARCHCURSOR&sort=price,asc&size=2&cursor="))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(p1.getId().intValue(), p2a.getId().intValue())))
+            .andReturn();
+        assertThat(link(first, "next")).contains("query=brand%3ASEARCHCURSOR");
+        MvcResult second = restPhoneMockMvc.perform(get(URI.create(link(first, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(p2b.getId().intValue(), p3.getId().intValue())))
+            .andReturn();
+        MvcResult third = restPhoneMockMvc.perform(get(URI.create(link(second, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(noPrice.getId().intValue())))
+            .andReturn();
+        assertThat(link(third, "next")).isNull();
+        restPhoneMockMvc.perform(get(URI.create(link(third, "prev"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(p2b.getId().intValue(), p3.getId().intValue())));
+
+        // Descending sort puts the phones without a price first
+        MvcResult descending = restPhoneMockMvc.perform(get("/api/_search/phones?query=brand:SEARCHCURSOR&sort=price,desc&size=2&cursor="))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(noPrice.getId().intValue(), p3.getId().intValue())))
+            .andReturn();
+        restPhoneMockMvc.perform(get(URI.create(link(descending, "next"))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(contains(p2b.getId().intValue(), p2a.getId().intValue())));
+
+        // Analyzed string properties cannot be keyset paginated
+        restPhoneMockMvc.perform(get("/api/_search/phones?query=brand:SEARCHCURSOR&sort=name,asc&cursor="))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void scrollPhones() throws Exception {
+        // Initialize the database and the index
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            Phone scrolled = phoneRepository.saveAndFlush(new Phone().brand("SCROLLED"));
+            phoneSearchRepository.save(scrolled);
+            ids.add(scrolled.getId().intValue());
+        }
+
+        // Read all the batches
+        Set<Integer> scrolledIds = new HashSet<>();
+        String next = "/api/_search/phones/_scroll?query=brand:SCROLLED&size=2";
+        while (next != null) {
+            MvcResult result = restPhoneMockMvc.perform(get(URI.create(next)))
+                .andExpect(status().isOk())
+                .andReturn();
+            List<Integer> batch = JsonPath.read(result.getResponse().getContentAsString(), "$[*].id");
+            scrolledIds.addAll(batch);
+            assertThat(batch.size()).isLessThanOrEqualTo(2);
+            next = result.getResponse().getHeader("Link") == null ? null : link(result, "next");
+        }
+        assertThat(scrolledIds).isEqualTo(ids);
+
+        restPhoneMockMvc.perform(get("/api/_search/phones/_scroll"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    public void getPhoneFacets() throws Exception {
+        // Initialize the database and the index
+        List<Phone> phones = new ArrayList<>();
+        phones.add(phoneRepository.saveAndFlush(new Phone().brand("Facet Alpha").price(new BigDecimal("10.50"))));
+        phones.add(phoneRepository.saveAndFlush(new Phone().brand("Facet Alpha").price(new BigDecimal("120.00"))));
+        phones.add(phoneRepository.saveAndFlush(new Phone().brand("Facet Beta").price(new BigDecimal("250.00"))));
+        phones.add(phoneRepository.saveAndFlush(new Phone().brand("Facet Gamma")));
+        phoneSearchIndexer.index(phones, Collections.emptyList());
+
+        restPhoneMockMvc.perform(get("/api/phones/_facets?query=brand:facet*&interval=100&brands=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(4))
+            .andExpect(jsonPath("$.brands.[*].brand").value(contains("Facet Alpha")))
+            .andExpect(jsonPath("$.brands.[*].count").value(contains(2)))
+            .andExpect(jsonPath("$.otherBrands").value(2))
+            .andExpect(jsonPath("$.prices.[*].from").value(contains(0, 100, 200)))
+            .andExpect(jsonPath("$.prices.[*].count").value(contains(1, 1, 1)))
+            .andExpect(jsonPath("$.priceStats.count").value(3))
+            .andExpect(jsonPath("$.priceStats.min").value(10.5))
+            .andExpect(jsonPath("$.priceStats.max").value(250.0));
+
+        // Indexing a phone makes the cached facets stale
+        Phone added = phoneRepository.saveAndFlush(new Phone().brand("Facet Beta").price(new BigDecimal("150.00")));
+        phoneSearchIndexer.index(Collections.singletonList(added), Collections.emptyList());
+        restPhoneMockMvc.perform(get("/api/phones/_facets?query=brand:facet*&interval=100&brands=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(5))
+            .andExpect(jsonPath("$.prices.[*].count").value(contains(1, 2, 1)));
+
+        // The search query and the criteria are combined
+        restPhoneMockMvc.perform(get("/api/phones/_facets?query=brand:beta&price.greaterThan=200"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(1))
+            .andExpect(jsonPath("$.brands.[*].brand").value(contains("Facet Beta")));
+
+        restPhoneMockMvc.perform(get("/api/phones/_facets?brands=0"))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones/_facets?brand.contains=facet"))
+            .andExpect(status().isBadRequest());
+
+        // The interval is too small for the prices of the phones: from 10 to 5000, 1000 buckets at most
+        Phone expensive = phoneRepository.saveAndFlush(new Phone().brand("Facet Delta").price(new BigDecimal("5000.00")));
+        phoneSearchIndexer.index(Collections.singletonList(expensive), Collections.emptyList());
+        restPhoneMockMvc.perform(get("/api/phones/_facets?query=brand:facet*&interval=1"))
+            .andExpect(status().isBadRequest());
+        restPhoneMockMvc.perform(get("/api/phones/_facets?query=brand:facet*&interval=10"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.prices.length()").value(500));
+    }
+
     @Test
     @Transactional
     public void equalsVerifier() throws Exception {
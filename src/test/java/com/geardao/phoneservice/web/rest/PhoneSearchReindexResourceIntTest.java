@@ -0,0 +1,118 @@
+package com.geardao.phoneservice.web.rest;
+
+import com.geardao.phoneservice.PhoneserviceApp;
+import com.geardao.phoneservice.config.SecurityBeanOverrideConfiguration;
+import com.geardao.phoneservice.domain.Phone;
+import com.geardao.phoneservice.repository.PhoneRepository;
+import com.geardao.phoneservice.repository.search.PhoneSearchRepository;
+import com.geardao.phoneservice.service.PhoneSearchReindexer;
+import com.geardao.phoneservice.service.dto.ReindexStatusDTO;
+import com.geardao.phoneservice.web.rest.errors.ExceptionTranslator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Test class for the PhoneSearchReindexResource REST controller.
+ *
+ * @see PhoneSearchReindexResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {PhoneserviceApp.class, SecurityBeanOverrideConfiguration.class})
+public class PhoneSearchReindexResourceIntTest {
+
+    @Autowired
+    private PhoneRepository phoneRepository;
+
+    @Autowired
+    private PhoneSearchRepository phoneSearchRepository;
+
+    @Autowired
+    private PhoneSearchReindexer phoneSearchReindexer;
+
+    @Autowired
+    private ElasticsearchTemplate elasticsearchTemplate;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restReindexMockMvc;
+
+    private List<Phone> phones;
+
+    @Before
+    public void setup() {
+        PhoneSearchReindexResource phoneSearchReindexResource = new PhoneSearchReindexResource(phoneSearchReindexer);
+        this.restReindexMockMvc = MockMvcBuilders.standaloneSetup(phoneSearchReindexResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter).build();
+    }
+
+    @Before
+    public void initTest() {
+        // The reindex reads the phones from other threads, so they have to be committed
+        phoneSearchRepository.deleteAll();
+        phones = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            phones.add(phoneRepository.saveAndFlush(new Phone().name("Phone " + i).brand("Brand").price(BigDecimal.TEN)));
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        phoneRepository.delete(phones);
+    }
+
+    @Test
+    public void reindex() throws Exception {
+        restReindexMockMvc.perform(post("/management/phones/reindex"))
+            .andExpect(status().isAccepted())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$.state").value("RUNNING"));
+
+        ReindexStatusDTO status = phoneSearchReindexer.getStatus();
+        for (int i = 0; i < 300 && status.getState() == ReindexStatusDTO.State.RUNNING; i++) {
+            Thread.sleep(100);
+            status = phoneSearchReindexer.getStatus();
+        }
+        assertThat(status.getState()).isEqualTo(ReindexStatusDTO.State.SUCCEEDED);
+        assertThat(status.getProcessed()).isGreaterThanOrEqualTo(phones.size());
+        assertThat(status.getFailed()).isZero();
+
+        // Validate the alias now points to the new index, which holds the phones
+        String alias = elasticsearchTemplate.getPersistentEntityFor(Phone.class).getIndexName();
+        assertThat(elasticsearchTemplate.getClient().admin().indices().prepareGetAliases(alias).get().getAliases()
+            .containsKey(status.getIndexName())).isTrue();
+        for (Phone phone : phones) {
+            Phone indexed = phoneSearchRepository.findOne(phone.getId());
+            assertThat(indexed).isNotNull();
+            assertThat(indexed.getName()).isEqualTo(phone.getName());
+        }
+
+        restReindexMockMvc.perform(get("/management/phones/reindex"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.state").value("SUCCEEDED"))
+            .andExpect(jsonPath("$.indexName").value(status.getIndexName()));
+    }
+}
@@ -0,0 +1,33 @@
+package com.geardao.phoneservice.web.rest.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the ETagUtil utility class.
+ *
+ * @see ETagUtil
+ */
+public class ETagUtilUnitTest {
+
+    @Test
+    public void catalogETagDependsOnTheWholeQueryString() {
+        // Query strings with the same String.hashCode
+        assertThat("brand.equals=Aa".hashCode()).isEqualTo("brand.equals=BB".hashCode());
+        assertThat(ETagUtil.catalogETag(1, "brand.equals=Aa")).isNotEqualTo(ETagUtil.catalogETag(1, "brand.equals=BB"));
+
+        assertThat(ETagUtil.catalogETag(1, "page=1")).isEqualTo(ETagUtil.catalogETag(1, "page=1"));
+        assertThat(ETagUtil.catalogETag(1, "page=1")).isNotEqualTo(ETagUtil.catalogETag(2, "page=1"));
+        assertThat(ETagUtil.catalogETag(1, null)).startsWith("\"1-").endsWith("\"");
+    }
+
+    @Test
+    public void ifNoneMatchUsesTheWeakComparison() {
+        String eTag = ETagUtil.versionETag(3L);
+
+        assertThat(ETagUtil.matchesIfNoneMatch("\"2\", W/\"3\"", eTag)).isTrue();
+        assertThat(ETagUtil.matchesIfMatch("W/\"3\"", eTag)).isFalse();
+        assertThat(ETagUtil.matchesIfMatch("*", eTag)).isTrue();
+    }
+}
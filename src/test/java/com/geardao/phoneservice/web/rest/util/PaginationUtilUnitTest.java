@@ -7,10 +7,15 @@ import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.geardao.phoneservice.service.util.CursorPage;
+import com.geardao.phoneservice.service.util.KeysetCursor;
+import com.geardao.phoneservice.service.util.TotalCount;
 import org.junit.Test;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 
 /**
@@ -155,4 +160,56 @@ public class PaginationUtilUnitTest {
         assertTrue(xTotalCountHeaders.size() == 1);
         assertTrue(Long.valueOf(xTotalCountHeaders.get(0)).equals(0L));
     }
+
+    @Test
+    public void generateCursorPaginationHttpHeadersTest() {
+        String baseUrl = "/api/example?name.equals=a%2Cb&page=3&cursor=old&size=10";
+        KeysetCursor cursor = KeysetCursor.first("name", Sort.Direction.ASC).after(5L, "x");
+        CursorPage<String> page = new CursorPage<>(new ArrayList<>(), 10, cursor,
+            cursor.after(15L, "y:z"), cursor.before(6L, null));
+        HttpHeaders headers = PaginationUtil.generateCursorPaginationHttpHeaders(page, baseUrl);
+        List<String> strHeaders = headers.get(HttpHeaders.LINK);
+        assertNotNull(strHeaders);
+        assertTrue(strHeaders.size() == 1);
+        String expectedData = "</api/example?name.equals=a%2Cb&cursor=" + page.getNextCursor().encode() + "&size=10>; rel=\"next\","
+                + "</api/example?name.equals=a%2Cb&cursor=" + page.getPreviousCursor().encode() + "&size=10>; rel=\"prev\","
+                + "</api/example?name.equals=a%2Cb&cursor=" + KeysetCursor.last("name", Sort.Direction.ASC).encode() + "&size=10>; rel=\"last\","
+                + "</api/example?name.equals=a%2Cb&cursor=" + KeysetCursor.first("name", Sort.Direction.ASC).encode() + "&size=10>; rel=\"first\"";
+        assertEquals(expectedData, strHeaders.get(0));
+        assertTrue(headers.get("X-Total-Count") == null);
+
+        KeysetCursor next = KeysetCursor.decode(page.getNextCursor().encode());
+        assertEquals("name", next.getProperty());
+        assertEquals(Long.valueOf(15L), next.getId());
+        assertEquals("y:z", next.getValue());
+        assertTrue(KeysetCursor.decode(page.getPreviousCursor().encode()).isBackward());
+        assertTrue(KeysetCursor.decode(page.getPreviousCursor().encode()).getValue() == null);
+    }
+
+    @Test
+    public void generateSlicePaginationHttpHeadersTest() {
+        String baseUrl = "/api/example";
+        List<String> content = new ArrayList<>();
+        SliceImpl<String> slice = new SliceImpl<>(content, new PageRequest(6, 50), true);
+        HttpHeaders headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice,
+            new TotalCount(10000L, TotalCount.Relation.GREATER_OR_EQUAL), baseUrl);
+        String expectedData = "</api/example?page=7&size=50>; rel=\"next\","
+                + "</api/example?page=5&size=50>; rel=\"prev\","
+                + "</api/example?page=0&size=50>; rel=\"first\"";
+        assertEquals(expectedData, headers.getFirst(HttpHeaders.LINK));
+        assertTrue(headers.get("X-Total-Count") == null);
+        assertEquals("10000", headers.getFirst("X-Total-Count-Estimate"));
+        assertEquals("gte", headers.getFirst("X-Total-Count-Relation"));
+
+        headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice, null, baseUrl);
+        assertTrue(headers.get("X-Total-Count-Estimate") == null);
+
+        slice = new SliceImpl<>(content, new PageRequest(7, 50), false);
+        headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice, TotalCount.exact(400L), baseUrl);
+        expectedData = "</api/example?page=6&size=50>; rel=\"prev\","
+                + "</api/example?page=7&size=50>; rel=\"last\","
+                + "</api/example?page=0&size=50>; rel=\"first\"";
+        assertEquals(expectedData, headers.getFirst(HttpHeaders.LINK));
+        assertEquals("400", headers.getFirst("X-Total-Count"));
+    }
 }